@@ -3,14 +3,39 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates, each over a single column, can be computed
+ * in one pass over the child, grouped by any number of columns.
+ * <p>
+ * Groups are kept in memory up to a budget (see {@link #setAggregateMemory}).
+ * Once the budget is full, rows of groups already in memory are still
+ * aggregated, and the rows of new groups are split by a hash of their group
+ * fields into {@link #NUM_PARTITIONS} {@link SpillFile}s.  After the groups
+ * in memory are returned each partition is aggregated the same way,
+ * partitioning it again if it still has too many groups, so every group is
+ * computed whole with a bounded number of groups in memory.
+ * <p>
+ * To aggregate partitions of its input in parallel, an aggregate is split
+ * into {@link #partial} aggregates of each partition whose results are merged
+ * by a {@link #combine} aggregate.
+ *
+ * @see MultiAggregator
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchDbIterator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Default number of bytes of groups kept in memory. */
+    public static final int DEFAULT_AGGREGATE_MEMORY = 1024 * BufferPool.PAGE_SIZE;
+
+    /** Number of partitions the rows of new groups are split into once memory is full. */
+    public static final int NUM_PARTITIONS = 16;
+    private static final int PARTITION_BITS = 4;
+    /** Deepest level of repartitioning; partitions below it stay in memory. */
+    private static final int MAX_DEPTH = 4;
+
+    private static int aggregateMemory = DEFAULT_AGGREGATE_MEMORY;
+
     /**
      * Constructor.
      * 
@@ -31,129 +56,375 @@ public class Aggregate extends Operator {
      */
     private DbIterator child;
     private DbIterator childIterator;
-    private int gfield;
-    private int afield;
-    private Aggregator.Op aop;
-    private Aggregator aggregator;
+    private int[] gfields;
+    private int[] afields;
+    private Aggregator.Op[] aops;
+    private final int memory;
+    private final MultiAggregator.Phase phase;
+    private transient TupleBatch outBatch;
+
+    /* the partitions being written, and the ones still to be aggregated */
+    private transient SpillFile[] parts;
+    private transient LinkedList<Partition> pending;
+    /* true if any partition was spilled since the aggregate was opened */
+    private transient boolean spilled;
 
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
 	// some code goes here
+        this(child, new int[] { afield },
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield },
+                new Aggregator.Op[] { aop });
+    }
+
+    /**
+     * Constructor for several aggregates grouped by several columns.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result, empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator of each column in afields
+     * @throws IllegalArgumentException
+     *            if an operator does not apply to the type of its column
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, aggregateMemory);
+    }
+
+    /**
+     * Creates an aggregate that keeps at most about memoryBytes bytes of
+     * groups in memory, spilling partitions to disk beyond that.
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops, int memoryBytes) {
+        this(child, afields, gfields, aops, memoryBytes, MultiAggregator.Phase.COMPLETE);
+    }
+
+    /**
+     * Creates an aggregate computing one phase of a split aggregation; see
+     * {@link MultiAggregator.Phase} for what each phase reads and returns.
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops, int memoryBytes,
+            MultiAggregator.Phase phase) {
         this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
+        this.afields = afields;
+        this.gfields = gfields;
+        this.aops = aops;
+        this.memory = memoryBytes;
+        this.phase = phase;
+        // check that the operators apply to their fields
+        newAggregator();
+    }
+
+    /**
+     * Sets the number of bytes of groups kept in memory by aggregates
+     * created from now on.
+     */
+    public static void setAggregateMemory(int bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("aggregate memory must be positive");
+        aggregateMemory = bytes;
+    }
 
-        Type gType;
-        Type aType;
+    /** @return the number of bytes of groups kept in memory */
+    public static int getAggregateMemory() {
+        return aggregateMemory;
+    }
 
-        aType = child.getTupleDesc().getFieldType(afield);
+    private MultiAggregator newAggregator() {
+        TupleDesc td = child.getTupleDesc();
+        Type[] gTypes = new Type[gfields.length];
+        for (int c = 0; c < gfields.length; c++)
+            gTypes[c] = td.getFieldType(gfields[c]);
+        Type[] aTypes = new Type[afields.length];
+        for (int k = 0; k < afields.length; k++)
+            aTypes[k] = td.getFieldType(afields[k]);
+        return new MultiAggregator(gfields, gTypes, afields, aTypes, aops, phase);
+    }
 
-        if (gfield == Aggregator.NO_GROUPING) {
-            gType = null;
-        } else {
-            gType = child.getTupleDesc().getFieldType(gfield);
-        }
+    /**
+     * @return an aggregate computing the partial results of this aggregate
+     *   over input, a partition of the child of this aggregate
+     */
+    public Aggregate partial(DbIterator input) {
+        return new Aggregate(input, afields, gfields, aops, memory, MultiAggregator.Phase.PARTIAL);
+    }
 
-        if (aType == Type.INT_TYPE) {
-            aggregator = new IntegerAggregator(gfield, gType, afield, aop);
-        } else if (aType == Type.STRING_TYPE) {
-            aggregator = new StringAggregator(gfield, gType, afield, aop);
-        }
+    /**
+     * @return an aggregate merging partials, the results of {@link #partial}
+     *   aggregates, into the same tuples as this aggregate
+     */
+    public Aggregate combine(DbIterator partials) {
+        int[] partialGroups = new int[gfields.length];
+        for (int c = 0; c < gfields.length; c++)
+            partialGroups[c] = c;
+        int[] partialValues = new int[afields.length];
+        for (int k = 0; k < afields.length; k++)
+            partialValues[k] = gfields.length + k;
+        return new Aggregate(partials, partialValues, partialGroups, aops, memory, MultiAggregator.Phase.FINAL);
     }
 
     /**
-     * @return If this aggregate is accompanied by a groupby, return the groupby
-     *         field index in the <b>INPUT</b> tuples. If not, return
-     *         {@link simpledb.Aggregator#NO_GROUPING}
+     * @return If this aggregate is accompanied by a groupby, return the
+     *         (first) groupby field index in the <b>INPUT</b> tuples. If not,
+     *         return {@link simpledb.Aggregator#NO_GROUPING}
      * */
     public int groupField() {
 	// some code goes here
-	    return this.gfield;
+	    return gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+    }
+
+    /**
+     * @return the groupby field indexes in the <b>INPUT</b> tuples, empty if
+     *         there is no groupby
+     * */
+    public int[] groupFields() {
+        return gfields;
     }
 
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     *         of the groupby field in the <b>OUTPUT</b> tuples If not, return
-     *         null;
+     *         of the (first) groupby field in the <b>OUTPUT</b> tuples If not,
+     *         return null;
      * */
     public String groupFieldName() {
 	// some code goes here
-        if (gfield == Aggregator.NO_GROUPING) {
+        if (gfields.length == 0) {
             return null;
         } else {
-            return child.getTupleDesc().getFieldName(gfield);
+            return child.getTupleDesc().getFieldName(gfields[0]);
         }
     }
 
     /**
-     * @return the aggregate field
+     * @return the names of the groupby fields in the <b>OUTPUT</b> tuples
+     * */
+    public String[] groupFieldNames() {
+        String[] names = new String[gfields.length];
+        for (int c = 0; c < gfields.length; c++)
+            names[c] = child.getTupleDesc().getFieldName(gfields[c]);
+        return names;
+    }
+
+    /**
+     * @return the (first) aggregate field
      * */
     public int aggregateField() {
 	// some code goes here
-	    return afield;
+	    return afields[0];
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
-     *         tuples
+     * @return the aggregate fields
+     * */
+    public int[] aggregateFields() {
+        return afields;
+    }
+
+    /**
+     * @return return the name of the (first) aggregate field in the
+     *         <b>OUTPUT</b> tuples
      * */
     public String aggregateFieldName() {
 	// some code goes here
 
-	    return child.getTupleDesc().getFieldName(afield);
+	    return child.getTupleDesc().getFieldName(afields[0]);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the (first) aggregate operator
      * */
     public Aggregator.Op aggregateOp() {
 	// some code goes here
-	    return this.aop;
+	    return aops[0];
+    }
+
+    /**
+     * @return the aggregate operators, one per aggregate field
+     * */
+    public Aggregator.Op[] aggregateOps() {
+        return aops;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
 	    return aop.toString();
     }
 
+    /** Spilled rows of new groups that still have to be aggregated. */
+    private static class Partition {
+        final SpillFile file;
+        final int depth;
+
+        Partition(SpillFile file, int depth) {
+            this.file = file;
+            this.depth = depth;
+        }
+    }
+
+    /** @return true if the groups did not fit in memory */
+    public boolean spilled() {
+        return spilled;
+    }
+
+    /**
+     * @return the partition of the group of t at the given level of
+     *   partitioning.  It takes the high bits of the hash, as GroupTable
+     *   indexes its slots with the low bits of a similar hash.
+     */
+    private int partition(Tuple t, int depth) {
+        int h = 0;
+        for (int c : gfields)
+            h = h * 31 + HashIndexFile.hash(t.getField(c));
+        return (h >>> (32 - (depth + 1) * PARTITION_BITS)) & (NUM_PARTITIONS - 1);
+    }
+
+    private void spill(Tuple t, int depth) throws DbException {
+        if (parts == null)
+            parts = new SpillFile[NUM_PARTITIONS];
+        int part = partition(t, depth);
+        if (parts[part] == null)
+            parts[part] = new SpillFile(child.getTupleDesc());
+        parts[part].add(t);
+        spilled = true;
+    }
+
+    /** @return the largest number of groups kept in memory at the given level */
+    private int maxGroups(int depth) {
+        if (depth >= MAX_DEPTH)
+            return Integer.MAX_VALUE;
+        return Math.max(1, memory / getTupleDesc().getSize());
+    }
+
+    /**
+     * Aggregates the rows of child, spilling the rows of groups that do not
+     * fit, and starts returning the groups in memory.
+     */
+    private void aggregateChild() throws DbException, TransactionAbortedException {
+        MultiAggregator aggregator = newAggregator();
+        int maxGroups = maxGroups(0);
+        int[] rejected = null;
+        BatchDbIterator childBatches = BatchAdapter.of(child);
+        TupleBatch batch;
+        while ((batch = childBatches.nextBatch()) != null) {
+            if (rejected == null || rejected.length < batch.numRows())
+                rejected = new int[batch.numRows()];
+            int n = aggregator.mergeBatch(batch, maxGroups, rejected);
+            for (int i = 0; i < n; i++)
+                spill(batch.getTuple(rejected[i]), 0);
+        }
+        finishLevel(aggregator, 0);
+    }
+
+    /** Aggregates a spilled partition like aggregateChild(). */
+    private void aggregatePartition(Partition p) throws DbException, TransactionAbortedException {
+        MultiAggregator aggregator = newAggregator();
+        int maxGroups = maxGroups(p.depth);
+        p.file.rewind();
+        while (p.file.hasNext()) {
+            Tuple t = p.file.next();
+            if (!aggregator.mergeTupleIntoGroup(t, maxGroups))
+                spill(t, p.depth);
+        }
+        p.file.delete();
+        finishLevel(aggregator, p.depth);
+    }
+
+    /** Queues the partitions spilled at depth and returns the groups of aggregator. */
+    private void finishLevel(MultiAggregator aggregator, int depth) throws DbException, TransactionAbortedException {
+        if (parts != null) {
+            for (int i = 0; i < NUM_PARTITIONS; i++) {
+                if (parts[i] != null)
+                    pending.add(new Partition(parts[i], depth + 1));
+            }
+            parts = null;
+        }
+        if (childIterator != null)
+            childIterator.close();
+        childIterator = aggregator.iterator();
+        childIterator.open();
+    }
+
+    private void deletePartitions() {
+        if (parts != null) {
+            for (int i = 0; i < NUM_PARTITIONS; i++) {
+                if (parts[i] != null)
+                    parts[i].delete();
+            }
+        }
+        parts = null;
+        if (pending != null) {
+            for (Partition p : pending)
+                p.file.delete();
+            pending.clear();
+        }
+    }
+
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
 	// some code goes here
         child.open();
-        while(child.hasNext()) {
-            aggregator.mergeTupleIntoGroup(child.next());
-        }
-        childIterator = aggregator.iterator();
-        childIterator.open();
+        pending = new LinkedList<Partition>();
+        spilled = false;
+        childIterator = null;
+        aggregateChild();
+        outBatch = null;
         super.open();
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate, If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * @return the next group of the groups in memory, aggregating the next
+     *   spilled partition when they are done, or null if there are none left
+     */
+    private Tuple nextGroup() throws TransactionAbortedException, DbException {
+        while (!childIterator.hasNext()) {
+            if (pending.isEmpty())
+                return null;
+            aggregatePartition(pending.removeFirst());
+        }
+        return childIterator.next();
+    }
+
+    /**
+     * Returns the next tuple. The group by fields, if any, come first, followed
+     * by the result of each aggregate. Should return null if there are no more
+     * tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 	// some code goes here
-	    if (childIterator.hasNext()) {
-            return childIterator.next();
-        }
-        
-        return null;
+        return nextGroup();
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (childIterator == null)
+            throw new IllegalStateException("Operator not yet open");
+        if (outBatch == null)
+            outBatch = new TupleBatch(childIterator.getTupleDesc());
+        outBatch.clear();
+        Tuple t;
+        while (!outBatch.isFull() && (t = nextGroup()) != null)
+            outBatch.addTuple(t);
+        return outBatch.size() > 0 ? outBatch : null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
 	// some code goes here
+        if (!spilled) {
+            childIterator.rewind();
+            return;
+        }
+        // the groups of the spilled partitions are gone, so start over
+        deletePartitions();
         child.rewind();
-        childIterator.rewind();
+        aggregateChild();
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * Returns the TupleDesc of this Aggregate: the group by fields, if any,
+     * followed by one INT_TYPE column per aggregate, and for a partial
+     * aggregate the row count of the group.
      * 
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -162,15 +433,25 @@ public class Aggregate extends Operator {
      */
     public TupleDesc getTupleDesc() {
 	// some code goes here
-	    Type[] types;
-        String[] names;
+        TupleDesc td = child.getTupleDesc();
+        boolean partial = phase == MultiAggregator.Phase.PARTIAL;
+	    Type[] types = new Type[gfields.length + afields.length + (partial ? 1 : 0)];
+        String[] names = new String[types.length];
 
-        if (afield == Aggregator.NO_GROUPING) {
-            types = new Type[] { child.getTupleDesc().getFieldType(afield) };
-            names = new String[] { aop.toString() + "(" + child.getTupleDesc().getFieldName(afield) + ")" };
-        } else {
-            types = new Type[] { child.getTupleDesc().getFieldType(gfield), child.getTupleDesc().getFieldType(afield) };
-            names = new String[] { child.getTupleDesc().getFieldName(gfield), aop.toString() + "(" + child.getTupleDesc().getFieldName(afield) + ")" };
+        for (int c = 0; c < gfields.length; c++) {
+            types[c] = td.getFieldType(gfields[c]);
+            names[c] = td.getFieldName(gfields[c]);
+        }
+        for (int k = 0; k < afields.length; k++) {
+            types[gfields.length + k] = Type.INT_TYPE;
+            if (partial)
+                names[gfields.length + k] = td.getFieldName(afields[k]);
+            else
+                names[gfields.length + k] = aops[k].toString() + "(" + td.getFieldName(afields[k]) + ")";
+        }
+        if (partial) {
+            types[types.length - 1] = Type.INT_TYPE;
+            names[names.length - 1] = "count";
         }
 
         return new TupleDesc(types, names);
@@ -179,7 +460,10 @@ public class Aggregate extends Operator {
     public void close() {
 	// some code goes here
         child.close();
-        childIterator.close();
+        if (childIterator != null)
+            childIterator.close();
+        childIterator = null;
+        deletePartitions();
         super.close();
     }
 
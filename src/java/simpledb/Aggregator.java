@@ -57,6 +57,14 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge every live row of a batch into the aggregate, as if each had
+     * been passed to mergeTupleIntoGroup.
+     *
+     * @param batch the rows containing an aggregate field and a group-by field
+     */
+    public void mergeBatch(TupleBatch batch);
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -0,0 +1,63 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchAdapter gives any DbIterator a nextBatch() by collecting up to
+ * TupleBatch.DEFAULT_SIZE tuples from next().  All other calls are passed
+ * to the wrapped iterator.
+ */
+public class BatchAdapter implements BatchDbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final DbIterator child;
+    private transient TupleBatch batch;
+
+    public BatchAdapter(DbIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return it itself if it produces batches natively, otherwise an
+     *   adapter around it
+     */
+    public static BatchDbIterator of(DbIterator it) {
+        if (it instanceof BatchDbIterator)
+            return (BatchDbIterator) it;
+        return new BatchAdapter(it);
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            batch = new TupleBatch(child.getTupleDesc());
+        batch.clear();
+        while (!batch.isFull() && child.hasNext())
+            batch.addTuple(child.next());
+        return batch.size() > 0 ? batch : null;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        return child.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,20 @@
+package simpledb;
+
+/**
+ * BatchDbIterator is a DbIterator that can also hand out its tuples a
+ * {@link TupleBatch} at a time, which amortizes the per-tuple virtual calls
+ * of hasNext()/next() over a whole batch.  A consumer should use either
+ * nextBatch() or hasNext()/next() between open() (or rewind()) and close(),
+ * not both.  Use {@link BatchAdapter#of} to get batches from any DbIterator.
+ */
+public interface BatchDbIterator extends DbIterator {
+
+    /**
+     * Returns the next batch of tuples.  The returned batch holds at least
+     * one live row and stays valid until the next call to nextBatch().
+     *
+     * @return the next batch, or null if there are no more tuples
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
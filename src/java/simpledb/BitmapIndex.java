@@ -0,0 +1,176 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * A bitmap index over one field of a table, meant for columns with few
+ * distinct values.  For every distinct value it keeps a
+ * {@link CompressedBitmap} with one bit per tuple slot of the table; slot s
+ * of page p is bit p * slotsPerPage + s.  Bitmaps of several values and
+ * fields can be ORed and ANDed before any heap page is read.
+ * <p>
+ * Bitmap indexes live in memory: they are built from the table when
+ * registered with {@link Catalog#addBitmapIndex} and then maintained by
+ * BufferPool.insertTuple and deleteTuple.  Changes made by a transaction
+ * are undone if it aborts.  Readers should still recheck the fetched tuples,
+ * since a bit may describe a slot whose change has not committed yet.
+ *
+ * @see BitmapIndexScan
+ */
+public class BitmapIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int tableid;
+    private final int keyField;
+    private final int slotsPerPage;
+    private final HashMap<Field, CompressedBitmap> bitmaps = new HashMap<Field, CompressedBitmap>();
+
+    /** Per transaction, the bit changes to undo if it aborts. */
+    private final HashMap<TransactionId, ArrayList<Change>> undoLog = new HashMap<TransactionId, ArrayList<Change>>();
+
+    private static class Change implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final Field key;
+        final int pos;
+        final boolean oldValue;
+
+        Change(Field key, int pos, boolean oldValue) {
+            this.key = key;
+            this.pos = pos;
+            this.oldValue = oldValue;
+        }
+    }
+
+    /**
+     * Creates an empty bitmap index over field keyField of the table.
+     *
+     * @see #build
+     */
+    public BitmapIndex(int tableid, int keyField) {
+        this.tableid = tableid;
+        this.keyField = keyField;
+        this.slotsPerPage = ((HeapFile) Database.getCatalog().getDbFile(tableid)).getSlotsPerPage();
+    }
+
+    /** @return the id of the indexed table */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the index of the indexed field in the table's TupleDesc */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the bit position of the tuple slot rid */
+    public int position(RecordId rid) {
+        return rid.getPageId().pageNumber() * slotsPerPage + rid.tupleno();
+    }
+
+    /** @return the record id of the tuple slot at bit position pos */
+    public RecordId recordId(int pos) {
+        return new RecordId(new HeapPageId(tableid, pos / slotsPerPage), pos % slotsPerPage);
+    }
+
+    /** Rebuilds the index from the current contents of the table. */
+    public synchronized void build() throws DbException, TransactionAbortedException {
+        bitmaps.clear();
+        undoLog.clear();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = Database.getCatalog().getDbFile(tableid).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            setBit(t.getField(keyField), position(t.getRecordId()), true);
+        }
+        it.close();
+        try {
+            Database.getBufferPool().transactionComplete(tid);
+        } catch (java.io.IOException e) {
+            throw new DbException("could not release scan of table " + tableid);
+        }
+    }
+
+    /** @return the distinct values present in the index */
+    public synchronized Set<Field> keys() {
+        return new HashSet<Field>(bitmaps.keySet());
+    }
+
+    /**
+     * @return the bitmap of the tuples whose key field equals key; the
+     *   returned bitmap is a copy that is not affected by later updates
+     */
+    public synchronized CompressedBitmap lookup(Field key) {
+        CompressedBitmap bitmap = bitmaps.get(key);
+        if (bitmap == null)
+            return new CompressedBitmap();
+        return bitmap.or(new CompressedBitmap());
+    }
+
+    /**
+     * @return the bitmap of the tuples whose key field equals any of keys
+     */
+    public synchronized CompressedBitmap lookup(Field[] keys) {
+        CompressedBitmap result = new CompressedBitmap();
+        for (Field key : keys) {
+            CompressedBitmap bitmap = bitmaps.get(key);
+            if (bitmap != null)
+                result = result.or(bitmap);
+        }
+        return result;
+    }
+
+    /** Adds t, whose record id must be set, to the index. */
+    public synchronized void insertTuple(TransactionId tid, Tuple t) {
+        update(tid, t, true);
+    }
+
+    /** Removes t, whose record id must be set, from the index. */
+    public synchronized void deleteTuple(TransactionId tid, Tuple t) {
+        update(tid, t, false);
+    }
+
+    /**
+     * Forgets the changes of tid if it committed, or undoes them if it
+     * aborted.
+     */
+    public synchronized void transactionComplete(TransactionId tid, boolean commit) {
+        ArrayList<Change> changes = undoLog.remove(tid);
+        if (changes == null || commit)
+            return;
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            Change c = changes.get(i);
+            setBit(c.key, c.pos, c.oldValue);
+        }
+    }
+
+    private void update(TransactionId tid, Tuple t, boolean value) {
+        Field key = t.getField(keyField);
+        int pos = position(t.getRecordId());
+        boolean old = setBit(key, pos, value);
+        if (old != value) {
+            ArrayList<Change> changes = undoLog.get(tid);
+            if (changes == null) {
+                changes = new ArrayList<Change>();
+                undoLog.put(tid, changes);
+            }
+            changes.add(new Change(key, pos, old));
+        }
+    }
+
+    /** @return the previous value of the bit */
+    private boolean setBit(Field key, int pos, boolean value) {
+        CompressedBitmap bitmap = bitmaps.get(key);
+        if (bitmap == null) {
+            if (!value)
+                return false;
+            bitmap = new CompressedBitmap();
+            bitmaps.put(key, bitmap);
+        }
+        boolean old = bitmap.get(pos);
+        bitmap.set(pos, value);
+        return old;
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapIndexScan is an access method that returns the tuples of a table
+ * matching a conjunction of equality tests on bitmap-indexed fields.  For
+ * each field the bitmaps of its accepted values are ORed, the per-field
+ * results are ANDed, and only the slots left in the final bitmap are read
+ * from the heap.  Like SeqScan, the returned TupleDesc has field names
+ * prefixed with the table alias.
+ *
+ * @see BitmapIndex
+ */
+public class BitmapIndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final int[] keyFields;
+    private final Field[][] keys;
+
+    private int[] positions;
+    private int cursor;
+    private Tuple nextTuple;
+
+    /**
+     * Creates a bitmap index scan returning the tuples t of the table for
+     * which, for every i, t.getField(keyFields[i]) equals one of keys[i].
+     *
+     * @param tid The transaction this scan is running as a part of.
+     * @param tableid the table to scan.
+     * @param tableAlias the alias of this table, as for SeqScan.
+     * @param keyFields the fields to test; each must have a bitmap index
+     * @param keys the accepted values of each field
+     */
+    public BitmapIndexScan(TransactionId tid, int tableid, String tableAlias, int[] keyFields, Field[][] keys) {
+        if (keyFields.length == 0 || keyFields.length != keys.length)
+            throw new IllegalArgumentException("need one list of keys per field");
+        for (int field : keyFields) {
+            if (Database.getCatalog().getBitmapIndex(tableid, field) == null)
+                throw new IllegalArgumentException("field " + field + " of table " + tableid + " has no bitmap index");
+        }
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.keyFields = keyFields;
+        this.keys = keys;
+    }
+
+    /** @return the name of the table this operator scans */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the fields tested by this scan */
+    public int[] getKeyFields() {
+        return keyFields;
+    }
+
+    /** @return the accepted values of each tested field */
+    public Field[][] getKeys() {
+        return keys;
+    }
+
+    /** @return a readable form of the tested condition */
+    public String getConditionString() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < keyFields.length; i++) {
+            if (i > 0)
+                sb.append(" AND ");
+            sb.append(td.getFieldName(keyFields[i])).append(" IN ").append(Arrays.toString(keys[i]));
+        }
+        return sb.toString();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        CompressedBitmap result = null;
+        for (int i = 0; i < keyFields.length; i++) {
+            CompressedBitmap bitmap = Database.getCatalog().getBitmapIndex(tableid, keyFields[i]).lookup(keys[i]);
+            result = result == null ? bitmap : result.and(bitmap);
+        }
+        positions = result.toArray();
+        cursor = 0;
+        nextTuple = null;
+    }
+
+    /** @see SeqScan#getTupleDesc */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        Type[] types = new Type[td.numFields()];
+        String[] names = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = tableAlias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (positions == null)
+            return false;
+        BitmapIndex index = Database.getCatalog().getBitmapIndex(tableid, keyFields[0]);
+        while (nextTuple == null && cursor < positions.length) {
+            Tuple t = HashIndexScan.fetch(tid, index.recordId(positions[cursor++]));
+            if (t != null && matches(t))
+                nextTuple = t;
+        }
+        return nextTuple != null;
+    }
+
+    /** Recheck a fetched tuple, since bits of uncommitted changes may be stale. */
+    private boolean matches(Tuple t) {
+        for (int i = 0; i < keyFields.length; i++) {
+            boolean found = false;
+            for (Field key : keys[i]) {
+                if (key.equals(t.getField(keyFields[i]))) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found)
+                return false;
+        }
+        return true;
+    }
+
+    public Tuple next() throws NoSuchElementException, DbException, TransactionAbortedException {
+        if (!hasNext())
+            throw new NoSuchElementException("no more tuples");
+        Tuple t = nextTuple;
+        nextTuple = null;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        cursor = 0;
+        nextTuple = null;
+    }
+
+    public void close() {
+        positions = null;
+        nextTuple = null;
+    }
+}
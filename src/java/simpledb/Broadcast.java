@@ -0,0 +1,82 @@
+package simpledb;
+
+/**
+ * Broadcast sends every tuple of its inputs to each of n outputs, e.g. to
+ * give each partition of a parallel join the whole of its smaller input.
+ * Each input is read once, on its own worker thread.
+ * <p>
+ * As for {@link Repartition}, the outputs must be read concurrently and
+ * cannot be rewound.
+ */
+public class Broadcast extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Shuffle shuffle;
+    private final int output;
+
+    transient private Channel channel;
+
+    private Broadcast(Shuffle shuffle, int output) {
+        this.shuffle = shuffle;
+        this.output = output;
+    }
+
+    /**
+     * @param inputs
+     *            the inputs, which must all have the same TupleDesc
+     * @param n
+     *            the number of outputs
+     * @return the n outputs
+     */
+    public static Broadcast[] broadcast(DbIterator[] inputs, int n) {
+        Shuffle shuffle = new Shuffle(inputs, n) {
+            private static final long serialVersionUID = 1L;
+
+            int route(Tuple t) {
+                return -1;
+            }
+        };
+        Broadcast[] outputs = new Broadcast[n];
+        for (int i = 0; i < n; i++)
+            outputs[i] = new Broadcast(shuffle, i);
+        return outputs;
+    }
+
+    public String getName() {
+        return "broadcast " + output + "/" + shuffle.numOutputs;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return shuffle.inputs[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        channel = shuffle.open(output);
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        shuffle.close(output);
+        channel = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        throw new DbException("the output of a broadcast cannot be rewound");
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return channel.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return shuffle.inputs;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        shuffle.inputs = children;
+    }
+}
@@ -24,6 +24,8 @@ public class BufferPool {
     int UpperBoundNum;  /** The actual upperbound of page number  */
     Map<PageId, Page> pageMap;
     Map<PageId, Long> lastUsedTimeMap;
+    /* the tables each running transaction inserted into or deleted from */
+    Map<TransactionId, Set<Integer>> writtenTables = new ConcurrentHashMap<TransactionId, Set<Integer>>();
 
     LockManager lockManager;
     /**
@@ -76,21 +78,24 @@ public class BufferPool {
         }
 
 
-        Page page = pageMap.get(pid);
-        if (page == null) {
-            if (pageMap.size() >= UpperBoundNum) {
-                evictPage();
-//                throw new DbException("So many pages for buffer");
+        // the page table is shared by the worker threads of parallel queries
+        synchronized (this) {
+            Page page = pageMap.get(pid);
+            if (page == null) {
+                if (pageMap.size() >= UpperBoundNum) {
+                    evictPage();
+//                    throw new DbException("So many pages for buffer");
+                }
+                page = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
+                pageMap.put(pid, page);
             }
-            page = Database.getCatalog().getDbFile(pid.getTableId()).readPage(pid);
-            pageMap.put(pid, page);
-        }
-        else {
-            lastUsedTimeMap.remove(page.getId());
-        }
-        lastUsedTimeMap.put(pid, System.currentTimeMillis());
+            else {
+                lastUsedTimeMap.remove(page.getId());
+            }
+            lastUsedTimeMap.put(pid, System.currentTimeMillis());
 
-        return page;
+            return page;
+        }
     }
 
     /**
@@ -152,6 +157,21 @@ public class BufferPool {
                 }
             }
         }
+        for (BitmapIndex index : Database.getCatalog().getAllBitmapIndexes()) {
+            index.transactionComplete(tid, commit);
+        }
+        Set<Integer> written = writtenTables.remove(tid);
+        if (written != null) {
+            synchronized (written) {
+                for (int tableId : written) {
+                    DbFile file = Database.getCatalog().getDbFile(tableId);
+                    if (file instanceof HeapFile)
+                        ((HeapFile) file).transactionComplete(tid, commit);
+                }
+            }
+        }
+        if (commit && written != null)
+            Database.getQueryCache().invalidate(written);
 
         lockManager.releaseAllLocks(tid);
     }
@@ -175,13 +195,64 @@ public class BufferPool {
         // some code goes here
         // not necessary for proj1
         DbFile dbFile = Database.getCatalog().getDbFile(tableId);
+        noteWrite(tid, tableId);
         ArrayList<Page> newPages = dbFile.insertTuple(tid, t);
+        for (HashIndexFile index : Database.getCatalog().getHashIndexes(tableId)) {
+            newPages.addAll(index.insertTuple(tid, t));
+        }
+        for (BitmapIndex index : Database.getCatalog().getBitmapIndexes(tableId)) {
+            index.insertTuple(tid, t);
+        }
         for (Page page : newPages) {
             page.markDirty(true, tid);
             this.pageMap.put(page.getId(), page);
         }
     }
 
+    /**
+     * Adds tuples to the specified table on behalf of transaction tid, like
+     * calling {@link #insertTuple} on each, but filling the pages of a heap
+     * file one after the other and packing the rest into new pages (see
+     * {@link HeapFile#insertTuples}), which are written at commit.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     */
+    public void insertTuples(TransactionId tid, int tableId, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        DbFile dbFile = Database.getCatalog().getDbFile(tableId);
+        if (!(dbFile instanceof HeapFile)) {
+            for (Tuple t : tuples)
+                insertTuple(tid, tableId, t);
+            return;
+        }
+        noteWrite(tid, tableId);
+        ArrayList<Page> newPages = ((HeapFile) dbFile).insertTuples(tid, tuples);
+        for (HashIndexFile index : Database.getCatalog().getHashIndexes(tableId)) {
+            for (Tuple t : tuples)
+                newPages.addAll(index.insertTuple(tid, t));
+        }
+        for (BitmapIndex index : Database.getCatalog().getBitmapIndexes(tableId)) {
+            for (Tuple t : tuples)
+                index.insertTuple(tid, t);
+        }
+        for (Page page : newPages) {
+            page.markDirty(true, tid);
+            this.pageMap.put(page.getId(), page);
+        }
+    }
+
+    /**
+     * Locks page pid, which HeapFile.insertTuples is about to append to its
+     * file, for tid.
+     */
+    void lockAppendedPage(TransactionId tid, PageId pid) throws DbException {
+        // no other transaction knows of the page yet
+        if (!lockManager.LockOn(Permissions.READ_WRITE, tid, pid))
+            throw new DbException("appended page " + pid + " is already locked");
+    }
+
     /**
      * Remove the specified tuple from the buffer pool.
      * Will acquire a write lock on the page the tuple is removed from. May block if
@@ -201,11 +272,44 @@ public class BufferPool {
         // not necessary for proj1
         int tableId = t.getRecordId().getPageId().getTableId();
         DbFile dbFile = Database.getCatalog().getDbFile(tableId);
+        noteWrite(tid, tableId);
+        for (HashIndexFile index : Database.getCatalog().getHashIndexes(tableId)) {
+            Page indexPage = index.deleteTuple(tid, t);
+            indexPage.markDirty(true, tid);
+            pageMap.put(indexPage.getId(), indexPage);
+        }
+        for (BitmapIndex index : Database.getCatalog().getBitmapIndexes(tableId)) {
+            index.deleteTuple(tid, t);
+        }
         Page modifiedPage = dbFile.deleteTuple(tid, t);
         modifiedPage.markDirty(true, tid);
         pageMap.put(modifiedPage.getId(), modifiedPage);
     }
 
+    /** Records that tid wrote to table tableId. */
+    private void noteWrite(TransactionId tid, int tableId) {
+        Set<Integer> written = writtenTables.get(tid);
+        if (written == null) {
+            // only tid's own thread adds its tables
+            written = Collections.synchronizedSet(new HashSet<Integer>());
+            writtenTables.put(tid, written);
+        }
+        written.add(tableId);
+    }
+
+    /**
+     * @return true if tid inserted into or deleted from any of the tables
+     *   since it started
+     */
+    public boolean hasWritten(TransactionId tid, Collection<Integer> tables) {
+        Set<Integer> written = writtenTables.get(tid);
+        if (written == null)
+            return false;
+        synchronized (written) {
+            return !Collections.disjoint(written, tables);
+        }
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
@@ -228,7 +332,8 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for proj1
-
+        pageMap.remove(pid);
+        lastUsedTimeMap.remove(pid);
     }
 
     /**
@@ -248,15 +353,33 @@ public class BufferPool {
     }
 
     /** Write all pages of the specified transaction to disk.
+     *  The pages of a heap file are written a run of consecutive pages at a
+     *  time (see {@link HeapFile#writePages}).
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for proj1
+        Map<Integer, List<Page>> heapPages = new HashMap<Integer, List<Page>>();
         for (Page page : pageMap.values()) {
             if (page.isDirty() != null && tid.equals(page.isDirty())) {
-                flushPage(page.getId());
+                int tableId = page.getId().getTableId();
+                if (Database.getCatalog().getDbFile(tableId) instanceof HeapFile) {
+                    List<Page> pages = heapPages.get(tableId);
+                    if (pages == null) {
+                        pages = new ArrayList<Page>();
+                        heapPages.put(tableId, pages);
+                    }
+                    pages.add(page);
+                } else {
+                    flushPage(page.getId());
+                }
             }
         }
+        for (Map.Entry<Integer, List<Page>> e : heapPages.entrySet()) {
+            ((HeapFile) Database.getCatalog().getDbFile(e.getKey())).writePages(e.getValue());
+            for (Page page : e.getValue())
+                page.markDirty(false, tid);
+        }
     }
 
     /**
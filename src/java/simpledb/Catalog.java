@@ -21,6 +21,17 @@ public class Catalog {
      */
     Map<Integer, Table> tableMap;
 
+    /**
+     * Hash indexes, keyed by the id of the indexed table.  Index files are kept
+     * out of tableMap so that they are not mistaken for tables, but are still
+     * reachable through getDbFile so the BufferPool can read their pages.
+     */
+    Map<Integer, ArrayList<HashIndexFile>> hashIndexMap;
+    Map<Integer, DbFile> indexFileMap;
+
+    /** In-memory bitmap indexes, keyed by the id of the indexed table. */
+    Map<Integer, ArrayList<BitmapIndex>> bitmapIndexMap;
+
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -28,6 +39,9 @@ public class Catalog {
     public Catalog() {
         // some code goes here
         tableMap = new HashMap<Integer, Table>();
+        hashIndexMap = new HashMap<Integer, ArrayList<HashIndexFile>>();
+        indexFileMap = new HashMap<Integer, DbFile>();
+        bitmapIndexMap = new HashMap<Integer, ArrayList<BitmapIndex>>();
     }
 
     /**
@@ -47,6 +61,10 @@ public class Catalog {
         } else {
             Table table = new Table(file, name, pkeyField);
             tableMap.put(tableId, table);
+            // the file may hold other tuples than when it was last added
+            Database.getQueryCache().invalidate(Collections.singleton(tableId));
+            // plans may name another table or schema by name
+            Database.getStatementCache().clear();
         }
     }
 
@@ -105,12 +123,119 @@ public class Catalog {
         // some code goes here
         Table table = tableMap.get(tableid);
         if (table == null) {
+            DbFile index = indexFileMap.get(tableid);
+            if (index != null) {
+                return index;
+            }
             throw new NoSuchElementException("Cannot found such table with id:" + tableid);
         } else {
             return table.getDbFile();
         }
     }
 
+    /**
+     * Register a hash index on one field of a table.  If the index file is
+     * empty the index is built from the current contents of the table.
+     * Once registered, the index is maintained by BufferPool.insertTuple and
+     * BufferPool.deleteTuple.
+     * @param index the index to add; index.getTableId() must be in the catalog
+     */
+    public void addHashIndex(HashIndexFile index)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!tableMap.containsKey(index.getTableId())) {
+            throw new NoSuchElementException("Cannot found such table with id:" + index.getTableId());
+        }
+        ArrayList<HashIndexFile> indexes = hashIndexMap.get(index.getTableId());
+        if (indexes == null) {
+            indexes = new ArrayList<HashIndexFile>();
+            hashIndexMap.put(index.getTableId(), indexes);
+        }
+        indexes.add(index);
+        indexFileMap.put(index.getId(), index);
+        if (index.numPages() == 0) {
+            index.build();
+        }
+    }
+
+    /**
+     * @return the hash index on field keyField of the specified table, or
+     *   null if that field is not indexed
+     */
+    public HashIndexFile getHashIndex(int tableid, int keyField) {
+        ArrayList<HashIndexFile> indexes = hashIndexMap.get(tableid);
+        if (indexes != null) {
+            for (HashIndexFile index : indexes) {
+                if (index.getKeyField() == keyField) {
+                    return index;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Create and register a bitmap index on field keyField of the specified
+     * table, built from the table's current contents.  Once registered, the
+     * index is maintained by BufferPool.insertTuple and
+     * BufferPool.deleteTuple.
+     * @return the new index
+     */
+    public BitmapIndex addBitmapIndex(int tableid, int keyField)
+            throws DbException, TransactionAbortedException {
+        if (!tableMap.containsKey(tableid)) {
+            throw new NoSuchElementException("Cannot found such table with id:" + tableid);
+        }
+        BitmapIndex index = new BitmapIndex(tableid, keyField);
+        index.build();
+        ArrayList<BitmapIndex> indexes = bitmapIndexMap.get(tableid);
+        if (indexes == null) {
+            indexes = new ArrayList<BitmapIndex>();
+            bitmapIndexMap.put(tableid, indexes);
+        }
+        indexes.add(index);
+        return index;
+    }
+
+    /**
+     * @return the bitmap index on field keyField of the specified table, or
+     *   null if there is none
+     */
+    public BitmapIndex getBitmapIndex(int tableid, int keyField) {
+        for (BitmapIndex index : getBitmapIndexes(tableid)) {
+            if (index.getKeyField() == keyField) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /** @return all bitmap indexes on the specified table */
+    public List<BitmapIndex> getBitmapIndexes(int tableid) {
+        ArrayList<BitmapIndex> indexes = bitmapIndexMap.get(tableid);
+        if (indexes == null) {
+            return Collections.emptyList();
+        }
+        return indexes;
+    }
+
+    /** @return the bitmap indexes of all tables */
+    public List<BitmapIndex> getAllBitmapIndexes() {
+        ArrayList<BitmapIndex> all = new ArrayList<BitmapIndex>();
+        for (ArrayList<BitmapIndex> indexes : bitmapIndexMap.values()) {
+            all.addAll(indexes);
+        }
+        return all;
+    }
+
+    /** @return all hash indexes on the specified table */
+    public List<HashIndexFile> getHashIndexes(int tableid) {
+        ArrayList<HashIndexFile> indexes = hashIndexMap.get(tableid);
+        if (indexes == null) {
+            return Collections.emptyList();
+        }
+        return indexes;
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         Table table = tableMap.get(tableid);
@@ -140,10 +265,16 @@ public class Catalog {
     public void clear() {
         // some code goes here
         tableMap.clear();
+        hashIndexMap.clear();
+        indexFileMap.clear();
+        bitmapIndexMap.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * A field may be annotated with "pk" to make it the primary key and with
+     * "hash" to keep a hash index on it in the file name.field.hidx, and with
+     * "bitmap" to keep an in-memory bitmap index on it.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -161,6 +292,8 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<Integer> hashFields = new ArrayList<Integer>();
+                ArrayList<Integer> bitmapFields = new ArrayList<Integer>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -172,11 +305,15 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("hash"))
+                            hashFields.add(names.size() - 1);
+                        else if (els2[i].trim().equals("bitmap"))
+                            bitmapFields.add(names.size() - 1);
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -187,10 +324,25 @@ public class Catalog {
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (int field : hashFields) {
+                    File indexFile = new File(baseFolder + "/" + name + "." + namesAr[field] + ".hidx");
+                    addHashIndex(new HashIndexFile(indexFile, tabHf.getId(), field));
+                    System.out.println("Added hash index on " + name + "." + namesAr[field]);
+                }
+                for (int field : bitmapFields) {
+                    addBitmapIndex(tabHf.getId(), field);
+                    System.out.println("Added bitmap index on " + name + "." + namesAr[field]);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
+        } catch (DbException e) {
+            e.printStackTrace();
+            System.exit(0);
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
+            System.exit(0);
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
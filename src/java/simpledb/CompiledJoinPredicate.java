@@ -0,0 +1,141 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * A {@link JoinPredicate} specialized, once per query, for the schemas of
+ * the tuples it compares: integer join fields are compared directly by a
+ * class chosen for the operator, with no switch on the operator and no
+ * virtual call on {@link Field} per pair of tuples.
+ *
+ * @see CompiledPredicate
+ */
+public abstract class CompiledJoinPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** @return true if t1 and t2 satisfy the predicate */
+    public abstract boolean test(Tuple t1, Tuple t2);
+
+    /** @return p specialized for tuples with schemas td1 and td2 */
+    public static CompiledJoinPredicate compile(JoinPredicate p, TupleDesc td1, TupleDesc td2) {
+        int f1 = p.getField1();
+        int f2 = p.getField2();
+        if (td1.getFieldType(f1) == Type.INT_TYPE && td2.getFieldType(f2) == Type.INT_TYPE) {
+            switch (p.getOperator()) {
+            case EQUALS:
+            case LIKE:
+                return new IntEquals(f1, f2);
+            case NOT_EQUALS:
+                return new IntNotEquals(f1, f2);
+            case GREATER_THAN:
+                return new IntGreaterThan(f1, f2);
+            case GREATER_THAN_OR_EQ:
+                return new IntGreaterThanOrEq(f1, f2);
+            case LESS_THAN:
+                return new IntLessThan(f1, f2);
+            case LESS_THAN_OR_EQ:
+                return new IntLessThanOrEq(f1, f2);
+            }
+        }
+        return new Interpreted(p);
+    }
+
+    private static final class IntEquals extends CompiledJoinPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field1, field2;
+
+        IntEquals(int field1, int field2) {
+            this.field1 = field1;
+            this.field2 = field2;
+        }
+
+        public boolean test(Tuple t1, Tuple t2) {
+            return t1.getInt(field1) == t2.getInt(field2);
+        }
+    }
+
+    private static final class IntNotEquals extends CompiledJoinPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field1, field2;
+
+        IntNotEquals(int field1, int field2) {
+            this.field1 = field1;
+            this.field2 = field2;
+        }
+
+        public boolean test(Tuple t1, Tuple t2) {
+            return t1.getInt(field1) != t2.getInt(field2);
+        }
+    }
+
+    private static final class IntGreaterThan extends CompiledJoinPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field1, field2;
+
+        IntGreaterThan(int field1, int field2) {
+            this.field1 = field1;
+            this.field2 = field2;
+        }
+
+        public boolean test(Tuple t1, Tuple t2) {
+            return t1.getInt(field1) > t2.getInt(field2);
+        }
+    }
+
+    private static final class IntGreaterThanOrEq extends CompiledJoinPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field1, field2;
+
+        IntGreaterThanOrEq(int field1, int field2) {
+            this.field1 = field1;
+            this.field2 = field2;
+        }
+
+        public boolean test(Tuple t1, Tuple t2) {
+            return t1.getInt(field1) >= t2.getInt(field2);
+        }
+    }
+
+    private static final class IntLessThan extends CompiledJoinPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field1, field2;
+
+        IntLessThan(int field1, int field2) {
+            this.field1 = field1;
+            this.field2 = field2;
+        }
+
+        public boolean test(Tuple t1, Tuple t2) {
+            return t1.getInt(field1) < t2.getInt(field2);
+        }
+    }
+
+    private static final class IntLessThanOrEq extends CompiledJoinPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field1, field2;
+
+        IntLessThanOrEq(int field1, int field2) {
+            this.field1 = field1;
+            this.field2 = field2;
+        }
+
+        public boolean test(Tuple t1, Tuple t2) {
+            return t1.getInt(field1) <= t2.getInt(field2);
+        }
+    }
+
+    /** Any other predicate, tested through Field.compare. */
+    private static final class Interpreted extends CompiledJoinPredicate {
+        private static final long serialVersionUID = 1L;
+        private final JoinPredicate p;
+
+        Interpreted(JoinPredicate p) {
+            this.p = p;
+        }
+
+        public boolean test(Tuple t1, Tuple t2) {
+            return p.filter(t1, t2);
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * A conjunction of {@link Predicate}s specialized, once per query, for the
+ * schema of the tuples it tests.
+ * <p>
+ * {@link #compile} picks a class for the type of the field and the operator
+ * of each predicate, with the operand unwrapped into a final field.  Testing
+ * a tuple or selecting the rows of a batch then runs a tight loop with no
+ * switch on the operator and no virtual call on {@link Field}, which the JIT
+ * compiles to a monomorphic, inlined loop.
+ */
+public abstract class CompiledPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** @return true if t passes the predicate */
+    public abstract boolean test(Tuple t);
+
+    /**
+     * Selects the rows of batch that pass the predicate among the given
+     * physical rows.
+     *
+     * @param rows
+     *            the physical rows to test, in order
+     * @param n
+     *            the number of rows to test
+     * @param selected
+     *            receives the physical rows that pass, in order; it may be
+     *            rows itself
+     * @return the number of rows that pass
+     */
+    public abstract int select(TupleBatch batch, int[] rows, int n, int[] selected);
+
+    /**
+     * Selects the live rows of batch that pass the predicate.
+     *
+     * @param selected
+     *            receives the physical rows that pass, in order; must hold
+     *            at least batch.size() entries
+     * @return the number of rows that pass
+     */
+    public int filter(TupleBatch batch, int[] selected) {
+        int n = batch.size();
+        for (int i = 0; i < n; i++)
+            selected[i] = batch.row(i);
+        return select(batch, selected, n, selected);
+    }
+
+    /** @return p specialized for tuples with schema td */
+    public static CompiledPredicate compile(Predicate p, TupleDesc td) {
+        return compile(p, td, null);
+    }
+
+    /**
+     * @return p specialized for tuples with schema td whose STRING_TYPE
+     *   fields all hold the instances of dictionary, e.g. the tuples scanned
+     *   from a dictionary encoded table; string equality then compares
+     *   references, which stand for codes
+     */
+    public static CompiledPredicate compile(Predicate p, TupleDesc td, StringDictionary dictionary) {
+        int field = p.getField();
+        Field operand = p.getOperand();
+        if (td.getFieldType(field) == Type.INT_TYPE && operand instanceof IntField) {
+            int value = ((IntField) operand).getValue();
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                return new IntEquals(field, value);
+            case NOT_EQUALS:
+                return new IntNotEquals(field, value);
+            case GREATER_THAN:
+                return new IntGreaterThan(field, value);
+            case GREATER_THAN_OR_EQ:
+                return new IntGreaterThanOrEq(field, value);
+            case LESS_THAN:
+                return new IntLessThan(field, value);
+            case LESS_THAN_OR_EQ:
+                return new IntLessThanOrEq(field, value);
+            }
+        }
+        if (td.getFieldType(field) == Type.STRING_TYPE && operand instanceof StringField
+                && p.getOp() == Predicate.Op.EQUALS) {
+            String value = ((StringField) operand).getValue();
+            if (dictionary == null)
+                return new StringEquals(field, value);
+            // a string without a code yet may be inserted while the query
+            // runs, and then gets an instance the predicate does not know
+            int code = dictionary.find(value);
+            if (code < 0)
+                return new StringEquals(field, value);
+            return new StringCodeEquals(field, dictionary.decode(code));
+        }
+        return new Interpreted(p);
+    }
+
+    /** @return the conjunction of predicates specialized for tuples with schema td */
+    public static CompiledPredicate compile(Predicate[] predicates, TupleDesc td) {
+        return compile(predicates, td, null);
+    }
+
+    /**
+     * @return the conjunction of predicates specialized for tuples with
+     *   schema td holding the strings of dictionary, if not null
+     * @see #compile(Predicate, TupleDesc, StringDictionary)
+     */
+    public static CompiledPredicate compile(Predicate[] predicates, TupleDesc td, StringDictionary dictionary) {
+        if (predicates.length == 1)
+            return compile(predicates[0], td, dictionary);
+        CompiledPredicate[] terms = new CompiledPredicate[predicates.length];
+        for (int i = 0; i < predicates.length; i++)
+            terms[i] = compile(predicates[i], td, dictionary);
+        return new And(terms);
+    }
+
+    /*
+     * The int comparisons select rows without a branch: every row is written
+     * and the output position only moves past the ones that pass.
+     */
+
+    private static final class IntEquals extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field, value;
+
+        IntEquals(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) == value;
+        }
+
+        public int select(TupleBatch batch, int[] rows, int n, int[] selected) {
+            int[] col = batch.getIntColumn(field);
+            int out = 0;
+            for (int i = 0; i < n; i++) {
+                int row = rows[i];
+                selected[out] = row;
+                out += col[row] == value ? 1 : 0;
+            }
+            return out;
+        }
+    }
+
+    private static final class IntNotEquals extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field, value;
+
+        IntNotEquals(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) != value;
+        }
+
+        public int select(TupleBatch batch, int[] rows, int n, int[] selected) {
+            int[] col = batch.getIntColumn(field);
+            int out = 0;
+            for (int i = 0; i < n; i++) {
+                int row = rows[i];
+                selected[out] = row;
+                out += col[row] != value ? 1 : 0;
+            }
+            return out;
+        }
+    }
+
+    private static final class IntGreaterThan extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field, value;
+
+        IntGreaterThan(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) > value;
+        }
+
+        public int select(TupleBatch batch, int[] rows, int n, int[] selected) {
+            int[] col = batch.getIntColumn(field);
+            int out = 0;
+            for (int i = 0; i < n; i++) {
+                int row = rows[i];
+                selected[out] = row;
+                out += col[row] > value ? 1 : 0;
+            }
+            return out;
+        }
+    }
+
+    private static final class IntGreaterThanOrEq extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field, value;
+
+        IntGreaterThanOrEq(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) >= value;
+        }
+
+        public int select(TupleBatch batch, int[] rows, int n, int[] selected) {
+            int[] col = batch.getIntColumn(field);
+            int out = 0;
+            for (int i = 0; i < n; i++) {
+                int row = rows[i];
+                selected[out] = row;
+                out += col[row] >= value ? 1 : 0;
+            }
+            return out;
+        }
+    }
+
+    private static final class IntLessThan extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field, value;
+
+        IntLessThan(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) < value;
+        }
+
+        public int select(TupleBatch batch, int[] rows, int n, int[] selected) {
+            int[] col = batch.getIntColumn(field);
+            int out = 0;
+            for (int i = 0; i < n; i++) {
+                int row = rows[i];
+                selected[out] = row;
+                out += col[row] < value ? 1 : 0;
+            }
+            return out;
+        }
+    }
+
+    private static final class IntLessThanOrEq extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field, value;
+
+        IntLessThanOrEq(int field, int value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public boolean test(Tuple t) {
+            return t.getInt(field) <= value;
+        }
+
+        public int select(TupleBatch batch, int[] rows, int n, int[] selected) {
+            int[] col = batch.getIntColumn(field);
+            int out = 0;
+            for (int i = 0; i < n; i++) {
+                int row = rows[i];
+                selected[out] = row;
+                out += col[row] <= value ? 1 : 0;
+            }
+            return out;
+        }
+    }
+
+    private static final class StringEquals extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field;
+        private final String value;
+
+        StringEquals(int field, String value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public boolean test(Tuple t) {
+            return value.equals(t.getString(field));
+        }
+
+        public int select(TupleBatch batch, int[] rows, int n, int[] selected) {
+            String[] col = batch.getStringColumn(field);
+            int out = 0;
+            for (int i = 0; i < n; i++) {
+                int row = rows[i];
+                if (value.equals(col[row]))
+                    selected[out++] = row;
+            }
+            return out;
+        }
+    }
+
+    /** String equality on the instances of a dictionary, i.e. on codes. */
+    private static final class StringCodeEquals extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final int field;
+        private final String value;
+
+        StringCodeEquals(int field, String value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        public boolean test(Tuple t) {
+            return t.getString(field) == value;
+        }
+
+        public int select(TupleBatch batch, int[] rows, int n, int[] selected) {
+            String[] col = batch.getStringColumn(field);
+            int out = 0;
+            for (int i = 0; i < n; i++) {
+                int row = rows[i];
+                selected[out] = row;
+                out += col[row] == value ? 1 : 0;
+            }
+            return out;
+        }
+    }
+
+    /** Any other predicate, tested through Field.compare. */
+    private static final class Interpreted extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final Predicate p;
+
+        Interpreted(Predicate p) {
+            this.p = p;
+        }
+
+        public boolean test(Tuple t) {
+            return p.filter(t);
+        }
+
+        public int select(TupleBatch batch, int[] rows, int n, int[] selected) {
+            int field = p.getField();
+            Predicate.Op op = p.getOp();
+            Field operand = p.getOperand();
+            int out = 0;
+            for (int i = 0; i < n; i++) {
+                int row = rows[i];
+                if (batch.getField(field, row).compare(op, operand))
+                    selected[out++] = row;
+            }
+            return out;
+        }
+    }
+
+    /** Tuples that pass every term; a batch is narrowed by one term at a time. */
+    private static final class And extends CompiledPredicate {
+        private static final long serialVersionUID = 1L;
+        private final CompiledPredicate[] terms;
+
+        And(CompiledPredicate[] terms) {
+            this.terms = terms;
+        }
+
+        public boolean test(Tuple t) {
+            for (CompiledPredicate term : terms) {
+                if (!term.test(t))
+                    return false;
+            }
+            return true;
+        }
+
+        public int select(TupleBatch batch, int[] rows, int n, int[] selected) {
+            n = terms[0].select(batch, rows, n, selected);
+            for (int i = 1; i < terms.length && n > 0; i++)
+                n = terms[i].select(batch, selected, n, selected);
+            return n;
+        }
+    }
+}
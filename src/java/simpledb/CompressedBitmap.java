@@ -0,0 +1,258 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * A word-aligned hybrid (WAH) compressed bitmap.  Bits are grouped into
+ * 31-bit groups and stored as a sequence of 32-bit words, each of which is
+ * either
+ * <ul>
+ * <li>a literal word (top bit 0) holding one group verbatim, or</li>
+ * <li>a fill word (top bit 1) whose second bit is the fill value and whose
+ * low 30 bits count how many consecutive groups are all 0 or all 1.</li>
+ * </ul>
+ * AND and OR work directly on the compressed words, so long runs of equal
+ * bits are combined in one step.
+ *
+ * @see BitmapIndex
+ */
+public class CompressedBitmap implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int GROUP_BITS = 31;
+    private static final int LITERAL_ONES = 0x7FFFFFFF;
+    private static final int FILL_FLAG = 0x80000000;
+    private static final int FILL_ONE = 0x40000000;
+    private static final int MAX_RUN = 0x3FFFFFFF;
+
+    private int[] words;
+    private int numWords;
+    /** Number of groups covered by words; later bits are all 0. */
+    private int numGroups;
+
+    /** Creates an empty bitmap. */
+    public CompressedBitmap() {
+        words = new int[4];
+    }
+
+    private static boolean isFill(int word) {
+        return (word & FILL_FLAG) != 0;
+    }
+
+    private static int runLength(int word) {
+        return isFill(word) ? word & MAX_RUN : 1;
+    }
+
+    private static int fillWord(boolean one, int groups) {
+        return FILL_FLAG | (one ? FILL_ONE : 0) | groups;
+    }
+
+    /** @return the bits of group offset within word */
+    private static int groupValue(int word) {
+        if (!isFill(word))
+            return word;
+        return (word & FILL_ONE) != 0 ? LITERAL_ONES : 0;
+    }
+
+    private void ensureCapacity(int n) {
+        if (n > words.length) {
+            int[] bigger = new int[Math.max(n, words.length * 2)];
+            System.arraycopy(words, 0, bigger, 0, numWords);
+            words = bigger;
+        }
+    }
+
+    private void appendFill(boolean one, int groups) {
+        while (groups > 0) {
+            if (numWords > 0) {
+                int last = words[numWords - 1];
+                if (isFill(last) && ((last & FILL_ONE) != 0) == one && runLength(last) < MAX_RUN) {
+                    int add = Math.min(groups, MAX_RUN - runLength(last));
+                    words[numWords - 1] = last + add;
+                    groups -= add;
+                    numGroups += add;
+                    continue;
+                }
+            }
+            int n = Math.min(groups, MAX_RUN);
+            ensureCapacity(numWords + 1);
+            words[numWords++] = fillWord(one, n);
+            groups -= n;
+            numGroups += n;
+        }
+    }
+
+    private void appendGroup(int value) {
+        if (value == 0) {
+            appendFill(false, 1);
+        } else if (value == LITERAL_ONES) {
+            appendFill(true, 1);
+        } else {
+            ensureCapacity(numWords + 1);
+            words[numWords++] = value;
+            numGroups++;
+        }
+    }
+
+    /** @return true if bit pos is set */
+    public boolean get(int pos) {
+        int group = pos / GROUP_BITS;
+        if (group >= numGroups)
+            return false;
+        int start = 0;
+        for (int i = 0; i < numWords; i++) {
+            int len = runLength(words[i]);
+            if (group < start + len)
+                return ((groupValue(words[i]) >>> (pos % GROUP_BITS)) & 1) != 0;
+            start += len;
+        }
+        return false;
+    }
+
+    /** Sets bit pos to value. */
+    public void set(int pos, boolean value) {
+        if (pos < 0)
+            throw new IllegalArgumentException("negative bitmap position " + pos);
+        int group = pos / GROUP_BITS;
+        int mask = 1 << (pos % GROUP_BITS);
+        if (group >= numGroups) {
+            if (value) {
+                appendFill(false, group - numGroups);
+                appendGroup(mask);
+            }
+            return;
+        }
+
+        int start = 0;
+        int i = 0;
+        while (start + runLength(words[i]) <= group) {
+            start += runLength(words[i]);
+            i++;
+        }
+        int word = words[i];
+        if (!isFill(word)) {
+            words[i] = value ? word | mask : word & ~mask;
+            return;
+        }
+        boolean one = (word & FILL_ONE) != 0;
+        if (one == value)
+            return;
+
+        // split the fill into (before, literal, after)
+        int len = runLength(word);
+        int before = group - start;
+        int after = len - before - 1;
+        int literal = one ? LITERAL_ONES & ~mask : mask;
+        int[] replacement = new int[3];
+        int n = 0;
+        if (before > 0)
+            replacement[n++] = fillWord(one, before);
+        replacement[n++] = literal;
+        if (after > 0)
+            replacement[n++] = fillWord(one, after);
+        ensureCapacity(numWords + n - 1);
+        System.arraycopy(words, i + 1, words, i + n, numWords - i - 1);
+        System.arraycopy(replacement, 0, words, i, n);
+        numWords += n - 1;
+    }
+
+    /** @return the number of set bits */
+    public int cardinality() {
+        int count = 0;
+        for (int i = 0; i < numWords; i++) {
+            int word = words[i];
+            if (isFill(word)) {
+                if ((word & FILL_ONE) != 0)
+                    count += runLength(word) * GROUP_BITS;
+            } else {
+                count += Integer.bitCount(word);
+            }
+        }
+        return count;
+    }
+
+    /** @return the positions of the set bits, in increasing order */
+    public int[] toArray() {
+        int[] positions = new int[cardinality()];
+        int n = 0;
+        int base = 0;
+        for (int i = 0; i < numWords; i++) {
+            int word = words[i];
+            int len = runLength(word);
+            if (isFill(word)) {
+                if ((word & FILL_ONE) != 0)
+                    for (int p = 0; p < len * GROUP_BITS; p++)
+                        positions[n++] = base + p;
+            } else {
+                while (word != 0) {
+                    int bit = Integer.numberOfTrailingZeros(word);
+                    positions[n++] = base + bit;
+                    word &= word - 1;
+                }
+            }
+            base += len * GROUP_BITS;
+        }
+        return positions;
+    }
+
+    /** @return the number of words used by the compressed representation */
+    public int sizeInWords() {
+        return numWords;
+    }
+
+    /** @return a new bitmap holding the bits set in both this and other */
+    public CompressedBitmap and(CompressedBitmap other) {
+        return combine(this, other, true);
+    }
+
+    /** @return a new bitmap holding the bits set in this or other */
+    public CompressedBitmap or(CompressedBitmap other) {
+        return combine(this, other, false);
+    }
+
+    private static CompressedBitmap combine(CompressedBitmap a, CompressedBitmap b, boolean and) {
+        CompressedBitmap result = new CompressedBitmap();
+        int ia = 0, ib = 0;
+        int leftA = a.numWords > 0 ? runLength(a.words[0]) : 0;
+        int leftB = b.numWords > 0 ? runLength(b.words[0]) : 0;
+        while (ia < a.numWords && ib < b.numWords) {
+            int wa = a.words[ia];
+            int wb = b.words[ib];
+            int n;
+            if (isFill(wa) && isFill(wb)) {
+                n = Math.min(leftA, leftB);
+                boolean oneA = (wa & FILL_ONE) != 0;
+                boolean oneB = (wb & FILL_ONE) != 0;
+                result.appendFill(and ? oneA && oneB : oneA || oneB, n);
+            } else {
+                n = 1;
+                int va = groupValue(wa);
+                int vb = groupValue(wb);
+                result.appendGroup(and ? va & vb : va | vb);
+            }
+            leftA -= n;
+            leftB -= n;
+            if (leftA == 0 && ++ia < a.numWords)
+                leftA = runLength(a.words[ia]);
+            if (leftB == 0 && ++ib < b.numWords)
+                leftB = runLength(b.words[ib]);
+        }
+        if (!and) {
+            // the tail of the longer bitmap is ORed with zeros
+            CompressedBitmap rest = ia < a.numWords ? a : b;
+            int i = ia < a.numWords ? ia : ib;
+            int left = ia < a.numWords ? leftA : leftB;
+            for (; i < rest.numWords; i++) {
+                int w = rest.words[i];
+                if (isFill(w))
+                    result.appendFill((w & FILL_ONE) != 0, left);
+                else
+                    result.appendGroup(w);
+                if (i + 1 < rest.numWords)
+                    left = runLength(rest.words[i + 1]);
+            }
+        }
+        return result;
+    }
+}
@@ -1,14 +1,18 @@
 package simpledb;
-import java.util.Vector;
+import java.util.Set;
 
 /** Class returned by {@link JoinOptimizer#computeCostAndCardOfSubplan} specifying the
-    cost and cardinality of the optimal plan represented by plan.
+    cost and cardinality of the optimal plan that ends with join.
 */
 public class CostCard {
     /** The cost of the optimal subplan */
     public double cost;
     /** The cardinality of the optimal subplan */
     public int card;
-    /** The optimal subplan */
-    public Vector<LogicalJoinNode> plan;
+    /** The last join of the optimal subplan */
+    public LogicalJoinNode join;
+    /** True if one of the joins of the subplan is on a primary key */
+    public boolean pkey;
+    /** The quantified names of the fields the output of the subplan is sorted on */
+    public Set<String> sortedOn;
 }
@@ -17,10 +17,14 @@ public class Database {
 
     private final static String LOGFILENAME = "log";
     private LogFile _logfile;
+    private final QueryCache _querycache;
+    private final StatementCache _statementcache;
 
     private Database() {
     	_catalog = new Catalog();
     	_bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+    	_querycache = new QueryCache();
+    	_statementcache = new StatementCache();
     	try {
             _logfile = new LogFile(new File(LOGFILENAME));
         } catch(IOException e) {
@@ -46,6 +50,16 @@ public class Database {
         return _instance._catalog;
     }
 
+    /** Return the query result cache of the static Database instance*/
+    public static QueryCache getQueryCache() {
+        return _instance._querycache;
+    }
+
+    /** Return the prepared statement cache of the static Database instance*/
+    public static StatementCache getStatementCache() {
+        return _instance._statementcache;
+    }
+
     /** Method used for testing -- create a new instance of the
         buffer pool and return it
     */
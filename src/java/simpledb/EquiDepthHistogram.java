@@ -0,0 +1,296 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * An equi-depth histogram with a list of most common values, over the
+ * values of a single field.  {@link IntHistogram} and {@link StringHistogram}
+ * fill in how a value is placed between the bounds of a bucket.
+ * <p>
+ * Values are added one at a time and kept in a uniform random sample of at
+ * most {@link #SAMPLE_SIZE} of them, so the histogram takes constant space.
+ * Before the first estimate, the sample is sorted; the values much more
+ * common than the average become the most common values, with their exact
+ * share of the sample, and the rest are split into buckets holding the same
+ * number of values each, so a skewed field gets narrow buckets where its
+ * values are dense.  Both keep prefix sums of their shares, so an estimate
+ * is a binary search over each of them.
+ */
+public abstract class EquiDepthHistogram<T extends Comparable<? super T>> {
+
+    /** Most values kept in the sample the histogram is built from. */
+    public static final int SAMPLE_SIZE = 30000;
+
+    /** A value is a most common value if it is this much more common than the average. */
+    static final double MCV_RATIO = 1.25;
+
+    private final int buckets;
+    private final ArrayList<T> sample = new ArrayList<T>();
+    private final Random random = new Random(0);
+    private long count = 0;
+    private long distinctValues = 0;
+    private boolean built = true;
+
+    /* the most common values in order, and the share of the values below each */
+    private Object[] mcvs;
+    private double[] mcvShares;
+    private double[] mcvBelow;
+    /* the other values, by bucket: bounds, share, share below and distinct values */
+    private Object[] lows;
+    private Object[] highs;
+    private double[] shares;
+    private double[] below;
+    private double[] distinct;
+
+    /**
+     * Create a new, empty, histogram.
+     *
+     * @param buckets The number of buckets to split the values that are not
+     *   most common into; at most as many values are most common.
+     */
+    protected EquiDepthHistogram(int buckets) {
+        if (buckets <= 0)
+            throw new IllegalArgumentException("a histogram needs at least one bucket");
+        this.buckets = buckets;
+    }
+
+    /**
+     * @return the fraction of the values between lo and hi that are less
+     *   than v, which is between lo and hi, assuming the values are spread
+     *   evenly between them
+     */
+    protected abstract double position(T lo, T hi, T v);
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     * @param v Value to add to the histogram
+     */
+    protected synchronized void add(T v) {
+        count++;
+        built = false;
+        if (sample.size() < SAMPLE_SIZE) {
+            sample.add(v);
+        } else {
+            // each value added so far stays in the sample with the same probability
+            long i = (long) (random.nextDouble() * count);
+            if (i < SAMPLE_SIZE)
+                sample.set((int) i, v);
+        }
+    }
+
+    /**
+     * Sets the number of distinct values added, as estimated elsewhere (see
+     * {@link HyperLogLog}), which the sample undercounts once it no longer
+     * holds every value.
+     */
+    public synchronized void setDistinctValues(long distinctValues) {
+        this.distinctValues = distinctValues;
+        built = false;
+    }
+
+    /** @return the number of values added to the histogram */
+    public synchronized long count() {
+        return count;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T get(Object[] values, int i) {
+        return (T) values[i];
+    }
+
+    /** @return the index of the first of values[0..n) that is not less than v */
+    private int lowerBound(Object[] values, T v) {
+        int lo = 0, hi = values.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (get(values, mid).compareTo(v) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** Builds the most common values and the buckets from the sample, once it changed. */
+    private synchronized void build() {
+        if (built)
+            return;
+        built = true;
+        ArrayList<T> sorted = new ArrayList<T>(sample);
+        Collections.sort(sorted);
+        int n = sorted.size();
+
+        // the runs of equal values
+        ArrayList<Integer> starts = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || sorted.get(i).compareTo(sorted.get(i - 1)) != 0)
+                starts.add(i);
+        }
+        starts.add(n);
+        int runs = starts.size() - 1;
+
+        // the most common values are the longest runs well above the average
+        double threshold = Math.max(2, MCV_RATIO * n / Math.max(1, runs));
+        ArrayList<Integer> common = new ArrayList<Integer>();
+        for (int r = 0; r < runs; r++) {
+            if (starts.get(r + 1) - starts.get(r) >= threshold)
+                common.add(r);
+        }
+        if (common.size() > buckets) {
+            final ArrayList<Integer> s = starts;
+            Collections.sort(common, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return (s.get(b + 1) - s.get(b)) - (s.get(a + 1) - s.get(a));
+                }
+            });
+            common = new ArrayList<Integer>(common.subList(0, buckets));
+            Collections.sort(common);
+        }
+        mcvs = new Object[common.size()];
+        mcvShares = new double[common.size()];
+        mcvBelow = new double[common.size() + 1];
+        boolean[] isCommon = new boolean[runs];
+        int m = n;
+        for (int i = 0; i < common.size(); i++) {
+            int r = common.get(i);
+            isCommon[r] = true;
+            mcvs[i] = sorted.get(starts.get(r));
+            m -= starts.get(r + 1) - starts.get(r);
+            mcvShares[i] = (double) (starts.get(r + 1) - starts.get(r)) / n;
+            mcvBelow[i + 1] = mcvBelow[i] + mcvShares[i];
+        }
+
+        // the other values, split into buckets of about the same depth; a
+        // bucket ends with a run, so every value is in a single bucket
+        int restDistinct = runs - common.size();
+        int b = Math.min(buckets, restDistinct);
+        // the sample misses some of the distinct values once it is not everything
+        double scale = 1.0;
+        if (count > n && restDistinct > 0)
+            scale = Math.max(1.0, (double) (distinctValues - common.size()) / restDistinct);
+        ArrayList<T> lowList = new ArrayList<T>();
+        ArrayList<T> highList = new ArrayList<T>();
+        ArrayList<Integer> depths = new ArrayList<Integer>();
+        ArrayList<Integer> runCounts = new ArrayList<Integer>();
+        int depth = 0, runCount = 0, seen = 0;
+        for (int r = 0; r < runs; r++) {
+            if (isCommon[r])
+                continue;
+            if (runCount == 0)
+                lowList.add(sorted.get(starts.get(r)));
+            int length = starts.get(r + 1) - starts.get(r);
+            depth += length;
+            seen += length;
+            runCount++;
+            if ((long) seen * b >= (long) lowList.size() * m) {
+                highList.add(sorted.get(starts.get(r)));
+                depths.add(depth);
+                runCounts.add(runCount);
+                depth = 0;
+                runCount = 0;
+            }
+        }
+        b = lowList.size();
+        lows = lowList.toArray();
+        highs = highList.toArray();
+        shares = new double[b];
+        below = new double[b + 1];
+        distinct = new double[b];
+        for (int k = 0; k < b; k++) {
+            shares[k] = (double) depths.get(k) / n;
+            below[k + 1] = below[k] + shares[k];
+            distinct[k] = runCounts.get(k) * scale;
+        }
+    }
+
+    /** @return the estimated fraction of the values equal to v */
+    private double equal(T v) {
+        int i = lowerBound(mcvs, v);
+        if (i < mcvs.length && get(mcvs, i).compareTo(v) == 0)
+            return mcvShares[i];
+        int k = lowerBound(highs, v);
+        if (k == highs.length)
+            return 0.0;
+        // between two buckets, only a sample may have missed v
+        if (get(lows, k).compareTo(v) > 0 && (k == 0 || count == sample.size()))
+            return 0.0;
+        return shares[k] / distinct[k];
+    }
+
+    /** @return the estimated fraction of the values less than v */
+    private double less(T v) {
+        double result = mcvBelow[lowerBound(mcvs, v)];
+        int k = lowerBound(highs, v);
+        result += below[k];
+        if (k < highs.length && get(lows, k).compareTo(v) < 0)
+            result += shares[k] * position(get(lows, k), get(highs, k), v);
+        return result;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this table.
+     *
+     * For example, if "op" is "GREATER_THAN" and "v" is 5,
+     * return your estimate of the fraction of elements that are greater than 5.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    protected synchronized double estimate(Predicate.Op op, T v) {
+        build();
+        if (count == 0)
+            return 0.0;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            // a histogram cannot tell substrings apart; a LIKE matches at least its equal values
+            return equal(v);
+        case NOT_EQUALS:
+            return 1.0 - equal(v);
+        case LESS_THAN:
+            return less(v);
+        case LESS_THAN_OR_EQ:
+            return Math.min(1.0, less(v) + equal(v));
+        case GREATER_THAN:
+            return Math.max(0.0, 1.0 - less(v) - equal(v));
+        case GREATER_THAN_OR_EQ:
+            return 1.0 - less(v);
+        }
+        return -1.0;
+    }
+
+    /**
+     * @return the probability that two values of the histogram are equal,
+     *   the average selectivity of an equality predicate over them
+     */
+    public synchronized double avgSelectivity() {
+        build();
+        if (count == 0)
+            return 1.0;
+        double result = 0;
+        for (double s : mcvShares)
+            result += s * s;
+        for (int k = 0; k < shares.length; k++)
+            result += shares[k] * shares[k] / distinct[k];
+        return result;
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public synchronized String toString() {
+        build();
+        StringBuilder sb = new StringBuilder();
+        sb.append(count).append(" values, most common:");
+        for (int i = 0; i < mcvs.length; i++)
+            sb.append(' ').append(mcvs[i]).append('=').append(mcvShares[i]);
+        sb.append("\nbuckets:");
+        for (int k = 0; k < lows.length; k++)
+            sb.append(" [").append(lows[k]).append(", ").append(highs[k]).append("]=").append(shares[k]);
+        return sb.toString();
+    }
+}
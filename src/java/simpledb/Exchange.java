@@ -0,0 +1,237 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exchange is the base of the operators that move tuples between threads,
+ * so that partitions of a query run in parallel.
+ * <p>
+ * Each input of an exchange is run by a producer on a thread of a shared
+ * worker pool.  Producers send their tuples in chunks of {@link #CHUNK_SIZE}
+ * through bounded queues of {@link #QUEUE_CHUNKS} chunks, so a producer that
+ * gets ahead of its consumer blocks instead of buffering its whole input.
+ * Errors raised by a producer are rethrown by the consumer.
+ *
+ * @see Gather
+ * @see Repartition
+ * @see Broadcast
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of partitions a query is split into. */
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /** Number of tuples sent from a producer to a consumer at a time. */
+    public static final int CHUNK_SIZE = 256;
+
+    /** Number of chunks a queue holds before its producers block. */
+    public static final int QUEUE_CHUNKS = 8;
+
+    private static int parallelism = DEFAULT_PARALLELISM;
+
+    /*
+     * Producers of nested exchanges block on each other, so the pool grows
+     * with the number of producers instead of queueing them.
+     */
+    private static final ExecutorService workers = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "simpledb-exchange");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /** Sets the number of partitions queries planned from now on are split into. */
+    public static void setParallelism(int n) {
+        if (n <= 0)
+            throw new IllegalArgumentException("parallelism must be positive");
+        parallelism = n;
+    }
+
+    /** @return the number of partitions queries are split into */
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /** Runs task on a thread of the worker pool. */
+    static Future<?> submit(Runnable task) {
+        return workers.submit(task);
+    }
+
+    /** Waits for tasks to finish, ignoring their failures, which were sent to their consumers. */
+    static void await(Future<?>[] tasks) {
+        if (tasks == null)
+            return;
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (Exception e) {
+                // already reported through the channels
+            }
+        }
+    }
+
+    /** @return a short description of this exchange, shown in query plans */
+    public abstract String getName();
+
+    /**
+     * A bounded queue of tuple chunks from any number of producers to one
+     * consumer.
+     */
+    static final class Channel {
+        private static final Object END = new Object();
+
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_CHUNKS);
+        private final int producers;
+        private volatile boolean closed = false;
+
+        /* consumer state: producers that have ended, and the chunk being read */
+        private int ended = 0;
+        private ArrayList<Tuple> chunk = null;
+        private int pos = 0;
+
+        Channel(int producers) {
+            this.producers = producers;
+        }
+
+        /**
+         * Sends msg to the consumer, waiting while the queue is full.  Once
+         * the consumer is closed messages are dropped.
+         */
+        void send(Object msg) throws InterruptedException {
+            while (!closed) {
+                if (queue.offer(msg, 10, TimeUnit.MILLISECONDS))
+                    return;
+            }
+        }
+
+        /** Tells the consumer that a producer is done. */
+        void end() throws InterruptedException {
+            send(END);
+        }
+
+        /** Tells the consumer that a producer failed with e. */
+        void fail(Throwable e) {
+            try {
+                send(e);
+            } catch (InterruptedException ie) {
+                // the consumer is going away
+            }
+        }
+
+        /** Stops accepting messages and drops the queued ones. */
+        void close() {
+            closed = true;
+            queue.clear();
+        }
+
+        /**
+         * @return the next tuple sent by any producer, or null once every
+         *   producer has ended
+         */
+        @SuppressWarnings("unchecked")
+        Tuple next() throws DbException, TransactionAbortedException {
+            while (chunk == null || pos == chunk.size()) {
+                chunk = null;
+                if (ended == producers)
+                    return null;
+                Object msg;
+                try {
+                    msg = queue.take();
+                } catch (InterruptedException e) {
+                    throw new DbException("interrupted while waiting for tuples");
+                }
+                if (msg == END) {
+                    ended++;
+                } else if (msg instanceof TransactionAbortedException) {
+                    throw (TransactionAbortedException) msg;
+                } else if (msg instanceof DbException) {
+                    throw (DbException) msg;
+                } else if (msg instanceof Throwable) {
+                    DbException e = new DbException("exchange producer failed: " + msg);
+                    e.initCause((Throwable) msg);
+                    throw e;
+                } else {
+                    chunk = (ArrayList<Tuple>) msg;
+                    pos = 0;
+                }
+            }
+            return chunk.get(pos++);
+        }
+    }
+
+    /**
+     * Reads an input on a worker thread and sends each of its tuples to the
+     * channel chosen by {@link #route}.
+     */
+    static class Producer implements Runnable {
+        private final DbIterator input;
+        private final Channel[] outputs;
+        private final ArrayList<ArrayList<Tuple>> chunks;
+        private volatile boolean stopped = false;
+
+        Producer(DbIterator input, Channel[] outputs) {
+            this.input = input;
+            this.outputs = outputs;
+            chunks = new ArrayList<ArrayList<Tuple>>();
+            for (int i = 0; i < outputs.length; i++)
+                chunks.add(new ArrayList<Tuple>(CHUNK_SIZE));
+        }
+
+        /** @return the output t is sent to, or -1 to send it to every output */
+        int route(Tuple t) {
+            return 0;
+        }
+
+        /** Makes the producer stop reading its input as soon as possible. */
+        void stop() {
+            stopped = true;
+        }
+
+        private void add(int output, Tuple t) throws InterruptedException {
+            ArrayList<Tuple> chunk = chunks.get(output);
+            chunk.add(t);
+            if (chunk.size() == CHUNK_SIZE) {
+                outputs[output].send(chunk);
+                chunks.set(output, new ArrayList<Tuple>(CHUNK_SIZE));
+            }
+        }
+
+        public void run() {
+            try {
+                input.open();
+                while (!stopped && input.hasNext()) {
+                    Tuple t = input.next();
+                    int output = route(t);
+                    if (output >= 0) {
+                        add(output, t);
+                    } else {
+                        for (int i = 0; i < outputs.length; i++)
+                            add(i, t);
+                    }
+                }
+                for (int i = 0; i < outputs.length; i++) {
+                    if (!chunks.get(i).isEmpty())
+                        outputs[i].send(chunks.get(i));
+                    outputs[i].end();
+                }
+            } catch (InterruptedException e) {
+                // stopped by the consumer
+            } catch (Throwable e) {
+                for (Channel output : outputs)
+                    output.fail(e);
+            } finally {
+                input.close();
+            }
+        }
+    }
+}
@@ -3,9 +3,13 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select.  It returns
+ * the tuples that pass all of its predicates, which are compiled for the
+ * schema of the child when the filter is opened.
+ *
+ * @see CompiledPredicate
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchDbIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -18,19 +22,38 @@ public class Filter extends Operator {
      * @param child
      *            The child operator
      */
-    private Predicate p;
+    private Predicate[] predicates;
     private DbIterator child;
+    private transient CompiledPredicate compiled;
+    private transient BatchDbIterator childBatches;
+    private transient int[] selected;
 
 
     public Filter(Predicate p, DbIterator child) {
         // some code goes here
-        this.p = p;
+        this(new Predicate[] { p }, child);
+    }
+
+    /**
+     * Creates a filter returning the tuples of child that pass every one of
+     * predicates.
+     */
+    public Filter(Predicate[] predicates, DbIterator child) {
+        if (predicates.length == 0)
+            throw new IllegalArgumentException("a filter needs at least one predicate");
+        this.predicates = predicates;
         this.child = child;
     }
 
+    /** @return the (first) predicate */
     public Predicate getPredicate() {
         // some code goes here
-        return this.p;
+        return this.predicates[0];
+    }
+
+    /** @return the predicates a tuple must all pass */
+    public Predicate[] getPredicates() {
+        return predicates;
     }
 
     public TupleDesc getTupleDesc() {
@@ -44,11 +67,15 @@ public class Filter extends Operator {
         super.open();
         child.open();
         //super.open();
+        StringDictionary dictionary = child instanceof SeqScan ? ((SeqScan) child).getDictionary() : null;
+        compiled = CompiledPredicate.compile(predicates, child.getTupleDesc(), dictionary);
+        childBatches = BatchAdapter.of(child);
     }
 
     public void close() {
         // some code goes here
         child.close();
+        childBatches = null;
         super.close();
     }
 
@@ -72,13 +99,33 @@ public class Filter extends Operator {
         // some code goes here
         while (child.hasNext()) {
             Tuple curTuple = child.next();
-            if (p.filter(curTuple)) {
+            if (compiled.test(curTuple)) {
                 return curTuple;
             }
         }
         return null;
     }
 
+    /**
+     * Narrows the selection vector of each child batch to the rows that pass
+     * the predicates, skipping batches where no row passes.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (childBatches == null)
+            throw new IllegalStateException("Operator not yet open");
+        TupleBatch batch;
+        while ((batch = childBatches.nextBatch()) != null) {
+            if (selected == null || selected.length < batch.size())
+                selected = new int[Math.max(batch.size(), TupleBatch.DEFAULT_SIZE)];
+            int n = compiled.filter(batch, selected);
+            if (n > 0) {
+                batch.setSelection(selected, n);
+                return batch;
+            }
+        }
+        return null;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         // some code goes here
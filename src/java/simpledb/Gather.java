@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.util.concurrent.Future;
+
+/**
+ * Gather runs each of its children on its own worker thread and returns the
+ * union of their tuples, in no particular order.  The children are usually
+ * the partitions of one plan, e.g. scans of page ranges of a table.
+ */
+public class Gather extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator[] children;
+
+    transient private Channel channel;
+    transient private Producer[] producers;
+    transient private Future<?>[] tasks;
+
+    /**
+     * Constructor.
+     *
+     * @param children
+     *            the inputs, which must all have the same TupleDesc; they
+     *            are opened and closed by the worker threads
+     */
+    public Gather(DbIterator[] children) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("gather needs at least one input");
+        this.children = children;
+    }
+
+    public String getName() {
+        return "gather(" + children.length + ")";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    private void start() {
+        channel = new Channel(children.length);
+        Channel[] outputs = new Channel[] { channel };
+        producers = new Producer[children.length];
+        tasks = new Future<?>[children.length];
+        for (int i = 0; i < children.length; i++) {
+            producers[i] = new Producer(children[i], outputs);
+            tasks[i] = submit(producers[i]);
+        }
+    }
+
+    private void stop() {
+        if (producers != null) {
+            for (Producer p : producers)
+                p.stop();
+        }
+        if (channel != null)
+            channel.close();
+        await(tasks);
+        producers = null;
+        tasks = null;
+        channel = null;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        start();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        stop();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        start();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return channel.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return children;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.children = children;
+    }
+}
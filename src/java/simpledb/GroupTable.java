@@ -0,0 +1,252 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * GroupTable numbers the distinct values of the group-by fields 0, 1, 2, ...
+ * in the order they are first seen, so aggregators can keep their
+ * accumulators in plain arrays indexed by group number.
+ * <p>
+ * A key is one or more fields.  Each is turned into an int code: INT_TYPE
+ * fields are their own code, and STRING_TYPE fields are dictionary encoded.
+ * The codes of a key go in an open-addressing table of int arrays with
+ * linear probing, so looking up a key allocates nothing.  A single
+ * STRING_TYPE field needs no table: its dictionary code is its group number.
+ */
+public class GroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Type[] keyTypes;
+    private final int width;
+
+    /* slot -> group number + 1 (0 if empty) */
+    private int[] slots;
+    private int mask;
+    /* the codes of the key of group g are keys[g*width .. g*width+width-1] */
+    private int[] keys;
+    private final int[] scratch;
+
+    /* per STRING_TYPE field (null for INT_TYPE): the dictionary, and code -> string */
+    private final ArrayList<HashMap<String, Integer>> dictionaries;
+    private final ArrayList<ArrayList<String>> strings;
+
+    private int numGroups;
+
+    /** Creates an empty table for keys of a single field of the given type. */
+    public GroupTable(Type keyType) {
+        this(new Type[] { keyType });
+    }
+
+    /** Creates an empty table for keys made of fields of the given types. */
+    public GroupTable(Type[] keyTypes) {
+        this.keyTypes = keyTypes;
+        width = keyTypes.length;
+        scratch = new int[width];
+        slots = new int[INITIAL_CAPACITY];
+        mask = INITIAL_CAPACITY - 1;
+        keys = new int[INITIAL_CAPACITY / 2 * width];
+        dictionaries = new ArrayList<HashMap<String, Integer>>();
+        strings = new ArrayList<ArrayList<String>>();
+        for (int c = 0; c < width; c++) {
+            boolean isString = keyTypes[c] == Type.STRING_TYPE;
+            dictionaries.add(isString ? new HashMap<String, Integer>() : null);
+            strings.add(isString ? new ArrayList<String>() : null);
+        }
+    }
+
+    public Type getKeyType() {
+        return keyTypes[0];
+    }
+
+    public Type[] getKeyTypes() {
+        return keyTypes;
+    }
+
+    /** @return the number of distinct keys seen so far */
+    public int numGroups() {
+        return numGroups;
+    }
+
+    private boolean isDictionaryOnly() {
+        return width == 1 && keyTypes[0] == Type.STRING_TYPE;
+    }
+
+    private static int hash(int[] codes, int offset, int width) {
+        int h = codes[offset];
+        for (int c = 1; c < width; c++)
+            h = h * 31 + codes[offset + c];
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return the group number of a key of one INT_TYPE field, adding it if it is new */
+    public int groupOf(int key) {
+        scratch[0] = key;
+        return groupOf(scratch);
+    }
+
+    /** @return the group number of a key of one INT_TYPE field, or -1 if it is new */
+    public int find(int key) {
+        scratch[0] = key;
+        return find(scratch);
+    }
+
+    /**
+     * @return the slot holding the key with the given field codes, or the
+     *   empty slot where it belongs
+     */
+    private int slotOf(int[] codes) {
+        int slot = hash(codes, 0, width) & mask;
+        while (true) {
+            int g = slots[slot];
+            if (g == 0 || matches(g - 1, codes))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return the group number of the key with the given field codes (see
+     *   {@link #code}), adding it if it is new
+     */
+    public int groupOf(int[] codes) {
+        int slot = slotOf(codes);
+        if (slots[slot] != 0)
+            return slots[slot] - 1;
+        int group = numGroups++;
+        if ((group + 1) * width > keys.length) {
+            int[] bigger = new int[keys.length * 2];
+            System.arraycopy(keys, 0, bigger, 0, group * width);
+            keys = bigger;
+        }
+        System.arraycopy(codes, 0, keys, group * width, width);
+        slots[slot] = group + 1;
+        // keep the table at most half full
+        if (numGroups * 2 > slots.length)
+            rehash(slots.length * 2);
+        return group;
+    }
+
+    /** @return the group number of the key with the given field codes, or -1 if it is new */
+    public int find(int[] codes) {
+        return slots[slotOf(codes)] - 1;
+    }
+
+    private boolean matches(int group, int[] codes) {
+        int offset = group * width;
+        for (int c = 0; c < width; c++)
+            if (keys[offset + c] != codes[c])
+                return false;
+        return true;
+    }
+
+    private void rehash(int capacity) {
+        slots = new int[capacity];
+        mask = capacity - 1;
+        for (int g = 0; g < numGroups; g++) {
+            int slot = hash(keys, g * width, width) & mask;
+            while (slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = g + 1;
+        }
+    }
+
+    /**
+     * @return the dictionary code of value in STRING_TYPE key field col,
+     *   adding it if it is new
+     */
+    public int code(int col, String value) {
+        HashMap<String, Integer> dictionary = dictionaries.get(col);
+        Integer code = dictionary.get(value);
+        if (code != null)
+            return code;
+        int next = dictionary.size();
+        dictionary.put(value, next);
+        strings.get(col).add(value);
+        return next;
+    }
+
+    /** @return the dictionary code of value in STRING_TYPE key field col, or -1 if it is new */
+    public int findCode(int col, String value) {
+        Integer code = dictionaries.get(col).get(value);
+        return code == null ? -1 : code;
+    }
+
+    /** @return the group number (dictionary code) of a key of one STRING_TYPE field, adding it if it is new */
+    public int groupOf(String key) {
+        int code = code(0, key);
+        if (code == numGroups)
+            numGroups++;
+        return code;
+    }
+
+    /** @return the group number of a key of one STRING_TYPE field, or -1 if it is new */
+    public int find(String key) {
+        return findCode(0, key);
+    }
+
+    /** @return the group number of a key of one field, adding it if it is new */
+    public int groupOf(Field key) {
+        if (keyTypes[0] == Type.INT_TYPE)
+            return groupOf(((IntField) key).getValue());
+        return groupOf(((StringField) key).getValue());
+    }
+
+    /**
+     * @return the group number of the key made of the given fields of t,
+     *   adding it if it is new
+     */
+    public int groupOf(Tuple t, int[] fields) {
+        if (width == 1)
+            return groupOf(t.getField(fields[0]));
+        for (int c = 0; c < width; c++) {
+            Field f = t.getField(fields[c]);
+            if (keyTypes[c] == Type.INT_TYPE)
+                scratch[c] = ((IntField) f).getValue();
+            else
+                scratch[c] = code(c, ((StringField) f).getValue());
+        }
+        return groupOf(scratch);
+    }
+
+    /**
+     * @return the group number of the key made of the given fields of t, or
+     *   -1 if it is new
+     */
+    public int find(Tuple t, int[] fields) {
+        for (int c = 0; c < width; c++) {
+            Field f = t.getField(fields[c]);
+            if (keyTypes[c] == Type.INT_TYPE) {
+                scratch[c] = ((IntField) f).getValue();
+            } else {
+                scratch[c] = findCode(c, ((StringField) f).getValue());
+                if (scratch[c] < 0)
+                    return -1;
+            }
+        }
+        if (isDictionaryOnly())
+            return scratch[0];
+        return find(scratch);
+    }
+
+    /** @return the key of group number group, for keys of one field */
+    public Field key(int group) {
+        return key(group, 0);
+    }
+
+    /** @return field col of the key of group number group */
+    public Field key(int group, int col) {
+        int code = isDictionaryOnly() ? group : keys[group * width + col];
+        if (keyTypes[col] == Type.INT_TYPE)
+            return new IntField(code);
+        return new StringField(strings.get(col).get(code), Type.STRING_LEN);
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A bucket page of a HashIndexFile.  A bucket stores (key, record id)
+ * entries for every key whose hash agrees with the bucket on its low
+ * localDepth bits.  When every entry of a bucket has the same hash, splitting
+ * cannot help and further entries go to a chain of overflow bucket pages
+ * linked through next.  The layout is
+ * <p>
+ *     tag, keyType, localDepth, numEntries, next, entries
+ * <p>
+ * where each entry is the serialized key followed by the page number and
+ * slot of the indexed tuple.
+ */
+public class HashBucketPage extends HashIndexPage {
+
+    private static final int HEADER_SIZE = 20;
+
+    /** Page number used by next to mark the end of an overflow chain. */
+    public static final int NO_PAGE = -1;
+
+    Type keyType;
+    int localDepth;
+    int numEntries;
+    int next;
+    Field[] keys;
+    int[] hashes;
+    int[] pageNos;
+    int[] slots;
+
+    public HashBucketPage(HashIndexPageId pid, byte[] data) throws IOException {
+        super(pid);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        dis.readInt(); // tag
+        keyType = Type.values()[dis.readInt()];
+        localDepth = dis.readInt();
+        numEntries = dis.readInt();
+        next = dis.readInt();
+        int capacity = getCapacity(keyType);
+        keys = new Field[capacity];
+        hashes = new int[capacity];
+        pageNos = new int[capacity];
+        slots = new int[capacity];
+        try {
+            for (int i = 0; i < numEntries; i++) {
+                keys[i] = keyType.parse(dis);
+                hashes[i] = HashIndexFile.hash(keys[i]);
+                pageNos[i] = dis.readInt();
+                slots[i] = dis.readInt();
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("parsing error in " + pid);
+        }
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the number of entries that fit on one bucket page */
+    public static int getCapacity(Type keyType) {
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE) / (keyType.getLen() + 8);
+    }
+
+    /** @return the page data of an empty bucket page */
+    public static byte[] createEmptyPageData(Type keyType, int localDepth) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(BUCKET_PAGE);
+            dos.writeInt(keyType.ordinal());
+            dos.writeInt(localDepth);
+            dos.writeInt(0);
+            dos.writeInt(NO_PAGE);
+            dos.write(new byte[BufferPool.PAGE_SIZE - HEADER_SIZE]);
+            dos.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    int getTag() {
+        return BUCKET_PAGE;
+    }
+
+    void writeBody(DataOutputStream dos) throws IOException {
+        dos.writeInt(keyType.ordinal());
+        dos.writeInt(localDepth);
+        dos.writeInt(numEntries);
+        dos.writeInt(next);
+        for (int i = 0; i < numEntries; i++) {
+            keys[i].serialize(dos);
+            dos.writeInt(pageNos[i]);
+            dos.writeInt(slots[i]);
+        }
+    }
+
+    /** @return the number of entries on this page */
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    /** @return true if another entry fits on this page */
+    public boolean hasRoom() {
+        return numEntries < keys.length;
+    }
+
+    /** @return true if every entry on this page has the given hash */
+    boolean allHashesEqual(int hash) {
+        for (int i = 0; i < numEntries; i++)
+            if (hashes[i] != hash)
+                return false;
+        return true;
+    }
+
+    void addEntry(Field key, int hash, int pageNo, int slot) {
+        keys[numEntries] = key;
+        hashes[numEntries] = hash;
+        pageNos[numEntries] = pageNo;
+        slots[numEntries] = slot;
+        numEntries++;
+    }
+
+    /** Remove entry i by moving the last entry into its place. */
+    void removeEntry(int i) {
+        numEntries--;
+        keys[i] = keys[numEntries];
+        hashes[i] = hashes[numEntries];
+        pageNos[i] = pageNos[numEntries];
+        slots[i] = slots[numEntries];
+        keys[numEntries] = null;
+    }
+
+    /** @return the index of the entry for (key, pageNo, slot), or -1 */
+    int findEntry(Field key, int pageNo, int slot) {
+        for (int i = 0; i < numEntries; i++)
+            if (pageNos[i] == pageNo && slots[i] == slot && keys[i].equals(key))
+                return i;
+        return -1;
+    }
+}
@@ -0,0 +1,51 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A page of the extendible hash directory of a HashIndexFile.  Each entry
+ * is the page number of the primary bucket page for one directory slot.
+ */
+public class HashDirectoryPage extends HashIndexPage {
+
+    /** Number of directory slots stored on one directory page. */
+    public static final int NUM_ENTRIES = (BufferPool.PAGE_SIZE - 4) / 4;
+
+    int[] entries;
+
+    public HashDirectoryPage(HashIndexPageId pid, byte[] data) throws IOException {
+        super(pid);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        dis.readInt(); // tag
+        entries = new int[NUM_ENTRIES];
+        for (int i = 0; i < NUM_ENTRIES; i++)
+            entries[i] = dis.readInt();
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the page data of an empty directory page */
+    public static byte[] createEmptyPageData() {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        data[3] = DIRECTORY_PAGE;
+        return data;
+    }
+
+    int getTag() {
+        return DIRECTORY_PAGE;
+    }
+
+    void writeBody(DataOutputStream dos) throws IOException {
+        for (int i = 0; i < NUM_ENTRIES; i++)
+            dos.writeInt(entries[i]);
+    }
+
+    /** @return the bucket page number of the directory slot dirIndex */
+    public int getBucket(int dirIndex) {
+        return entries[dirIndex % NUM_ENTRIES];
+    }
+
+    void setBucket(int dirIndex, int pgNo) {
+        entries[dirIndex % NUM_ENTRIES] = pgNo;
+    }
+}
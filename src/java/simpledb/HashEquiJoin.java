@@ -3,17 +3,74 @@ package simpledb;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements an equality join by hashing.
+ * <p>
+ * It is a hybrid hash join: child1 is the build side and is loaded into an
+ * in-memory hash table.  If it does not fit in the memory budget (see
+ * {@link #setBuildMemory}), both children are split by a hash of the join
+ * field into {@link #NUM_PARTITIONS} partitions; partition 0 stays in memory
+ * and is joined while child2 is read, the others are written to
+ * {@link SpillFile}s and joined pair by pair afterwards, partitioning them
+ * again if they are still too big.  Every input tuple is thus read once and
+ * written and read back at most a few times, however big the inputs are.
+ * <p>
+ * A join of big inputs can run on several threads with {@link #partitioned}:
+ * both inputs are repartitioned by their join field, and each partition
+ * builds and probes its own hash table on its own worker.
+ * <p>
+ * Once the build input is read, a {@link JoinFilter} over its keys is
+ * pushed down to the scan of child2 when child2 is a {@link SeqScan},
+ * possibly under {@link Filter}s, so that probe tuples without a match are
+ * dropped by the scan.  Otherwise the filter keeps such tuples out of the
+ * spilled probe partitions.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchDbIterator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default number of bytes of build tuples kept in memory. */
+    public static final int DEFAULT_BUILD_MEMORY = 1024 * BufferPool.PAGE_SIZE;
+
+    /** Number of partitions an input is split into when it is spilled. */
+    public static final int NUM_PARTITIONS = 16;
+    private static final int PARTITION_BITS = 4;
+    /** Deepest level of repartitioning; partitions below it stay in memory. */
+    private static final int MAX_DEPTH = 4;
+
+    private static int buildMemory = DEFAULT_BUILD_MEMORY;
+
     private JoinPredicate pred;
     private DbIterator child1, child2;
     private TupleDesc comboTD;
-    transient private Tuple t1 = null;
+    private final int memory;
     transient private Tuple t2 = null;
 
+    /*
+     * When a child is a plain SeqScan whose join field has a hash index, the
+     * index already is the build side: the other child probes it directly
+     * and no in-memory map is built.
+     */
+    private HashIndexFile buildIndex = null;
+    private int indexedChild = 0;
+    private TransactionId indexTid = null;
+    transient private Tuple probeTuple = null;
+    transient private ArrayList<RecordId> matches = null;
+    transient private int matchCursor = 0;
+
+    /* state of nextBatch(): the probe batch being joined and its position */
+    transient private BatchDbIterator probeBatches = null;
+    transient private TupleBatch probeBatch = null;
+    transient private int probeIndex = 0;
+    transient private int probeRow = 0;
+    transient private ArrayList<Tuple> batchMatches = null;
+    transient private int batchMatchCursor = 0;
+    transient private boolean batchDone = false;
+    transient private TupleBatch outBatch = null;
+
+    /* the filter over the keys of child1, and the scan of child2 it was pushed to */
+    transient private JoinFilter joinFilter = null;
+    transient private SeqScan probeScan = null;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -26,10 +83,92 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, buildMemory);
+    }
+
+    /**
+     * Creates a join that keeps at most about buildBytes bytes of child1
+     * tuples in memory, spilling partitions to disk beyond that.
+     */
+    public HashEquiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int buildBytes) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.memory = buildBytes;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        findBuildIndex();
+    }
+
+    /**
+     * Sets the number of bytes of build tuples kept in memory by joins
+     * created from now on.
+     */
+    public static void setBuildMemory(int bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("build memory must be positive");
+        buildMemory = bytes;
+    }
+
+    /** @return the number of bytes of build tuples kept in memory */
+    public static int getBuildMemory() {
+        return buildMemory;
+    }
+
+    /**
+     * Splits a join into n joins of disjoint partitions of its inputs, to be
+     * run in parallel, e.g. under a {@link Gather}.  The parts of each input
+     * are read by their own workers and {@link Repartition}ed by join field,
+     * so the tuples of matching keys meet in the same partition.  The build
+     * memory budget is shared by the partitions.
+     *
+     * @param child1
+     *            the parts of the build input, all with the same TupleDesc
+     * @param child2
+     *            the parts of the probe input, all with the same TupleDesc
+     * @return the n joins, which together return the tuples of the join of
+     *   child1 and child2
+     */
+    public static HashEquiJoin[] partitioned(JoinPredicate p, DbIterator[] child1, DbIterator[] child2, int n) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("only equality joins can be partitioned");
+        Repartition[] build = Repartition.partition(child1, new int[] { p.getField1() }, n);
+        Repartition[] probe = Repartition.partition(child2, new int[] { p.getField2() }, n);
+        int memory = Math.max(BufferPool.PAGE_SIZE, buildMemory / n);
+        HashEquiJoin[] joins = new HashEquiJoin[n];
+        for (int i = 0; i < n; i++)
+            joins[i] = new HashEquiJoin(p, build[i], probe[i], memory);
+        return joins;
+    }
+
+    private void findBuildIndex() {
+        buildIndex = null;
+        indexedChild = 0;
+        if (pred.getOperator() != Predicate.Op.EQUALS)
+            return;
+        if (child1 instanceof SeqScan) {
+            SeqScan s = (SeqScan) child1;
+            buildIndex = Database.getCatalog().getHashIndex(s.getTableId(), pred.getField1());
+            indexedChild = 1;
+            indexTid = s.getTransactionId();
+        }
+        if (buildIndex == null && child2 instanceof SeqScan) {
+            SeqScan s = (SeqScan) child2;
+            buildIndex = Database.getCatalog().getHashIndex(s.getTableId(), pred.getField2());
+            indexedChild = 2;
+            indexTid = s.getTransactionId();
+        }
+        if (buildIndex == null)
+            indexedChild = 0;
+    }
+
+    /** @return true if this join probes an existing hash index instead of building a map */
+    public boolean usesIndex() {
+        return buildIndex != null;
+    }
+
+    /** @return 1 or 2, the child whose hash index is probed, or 0 if there is none */
+    public int indexedChild() {
+        return indexedChild;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -51,47 +190,271 @@ public class HashEquiJoin extends Operator {
     }
     
     HashMap<Object, ArrayList<Tuple>> map = new HashMap<Object, ArrayList<Tuple>>();
-    public final static int MAP_SIZE = 20000;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
+    /** A build and a probe partition that still have to be joined. */
+    private static class PartitionPair {
+        final SpillFile build;
+        final SpillFile probe;
+        final int depth;
+
+        PartitionPair(SpillFile build, SpillFile probe, int depth) {
+            this.build = build;
+            this.probe = probe;
+            this.depth = depth;
+        }
+    }
+
+    /* partitions of the current level, or null if the build side fit in memory */
+    transient private SpillFile[] buildParts = null;
+    transient private SpillFile[] probeParts = null;
+    transient private int depth = 0;
+    /* the probe input: child2, or the spilled partition being joined */
+    transient private SpillFile probeFile = null;
+    transient private LinkedList<PartitionPair> pending = new LinkedList<PartitionPair>();
+    /* true if any partition was spilled since the join was opened */
+    transient private boolean spilled = false;
+
+    /** @return true if the build side did not fit in memory */
+    public boolean spilled() {
+        return spilled;
+    }
+
+    /** @return the partition of key at the given level of partitioning */
+    private static int partition(Field key, int depth) {
+        return (HashIndexFile.hash(key) >>> (depth * PARTITION_BITS)) & (NUM_PARTITIONS - 1);
+    }
+
+    private static SpillFile partitionFile(SpillFile[] parts, int i, TupleDesc td) throws DbException {
+        if (parts[i] == null)
+            parts[i] = new SpillFile(td);
+        return parts[i];
+    }
+
+    private void addToMap(Tuple t) {
+        Field key = t.getField(pred.getField1());
+        ArrayList<Tuple> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<Tuple>();
+            map.put(key, list);
+        }
+        list.add(t);
+    }
+
+    /**
+     * @return the scan whose tuples it returns if it is a SeqScan under
+     *   Filters, or null
+     */
+    private static SeqScan scanOf(DbIterator it) {
+        while (it instanceof Filter)
+            it = ((Filter) it).getChildren()[0];
+        return it instanceof SeqScan ? (SeqScan) it : null;
+    }
+
+    /** Pushes down the filter over the keys of child1 to the scan of child2, if any. */
+    private void pushFilter(JoinFilter filter) {
+        joinFilter = filter;
+        probeScan = scanOf(child2);
+        if (probeScan != null)
+            probeScan.setJoinFilter(filter);
+    }
+
+    private void removeFilter() {
+        if (probeScan != null)
+            probeScan.setJoinFilter(null);
+        probeScan = null;
+        joinFilter = null;
+    }
+
+    /**
+     * Loads the build input, child1 if buildFile is null, into the hash
+     * table, partitioning it at the given depth if it does not fit.
+     */
+    private void build(SpillFile buildFile, int depth) throws DbException, TransactionAbortedException {
+        TupleDesc td = child1.getTupleDesc();
+        int maxTuples = Math.max(1, memory / td.getSize());
+        int inMemory = 0;
         map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            ArrayList<Tuple> list = map.get(t1.getField(pred.getField1()));
-            if (list == null) {
-                list = new ArrayList<Tuple>();
-                map.put(t1.getField(pred.getField1()), list);
+        buildParts = null;
+        probeParts = null;
+        this.depth = depth;
+        // the keys of all of child1 are only seen when it is read
+        JoinFilter filter = null;
+        if (buildFile == null && pred.getOperator() == Predicate.Op.EQUALS) {
+            int probeField = pred.getField2();
+            filter = new JoinFilter(probeField, child2.getTupleDesc().getFieldType(probeField));
+        }
+        while (buildFile == null ? child1.hasNext() : buildFile.hasNext()) {
+            Tuple t = buildFile == null ? child1.next() : buildFile.next();
+            if (filter != null)
+                filter.add(t, pred.getField1());
+            if (buildParts != null) {
+                int part = partition(t.getField(pred.getField1()), depth);
+                if (part != 0) {
+                    partitionFile(buildParts, part, td).add(t);
+                    continue;
+                }
             }
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            addToMap(t);
+            if (++inMemory > maxTuples && buildParts == null && depth < MAX_DEPTH)
+                inMemory = spillMap(td);
+        }
+        if (filter != null) {
+            filter.build();
+            pushFilter(filter);
+        }
+    }
+
+    /**
+     * Moves the tuples of all partitions but partition 0 from the hash table
+     * to spill files.
+     * @return the number of tuples left in memory
+     */
+    private int spillMap(TupleDesc td) throws DbException {
+        spilled = true;
+        buildParts = new SpillFile[NUM_PARTITIONS];
+        probeParts = new SpillFile[NUM_PARTITIONS];
+        int left = 0;
+        Iterator<Map.Entry<Object, ArrayList<Tuple>>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Object, ArrayList<Tuple>> e = it.next();
+            int part = partition((Field) e.getKey(), depth);
+            if (part == 0) {
+                left += e.getValue().size();
+                continue;
+            }
+            SpillFile file = partitionFile(buildParts, part, td);
+            for (Tuple t : e.getValue())
+                file.add(t);
+            it.remove();
+        }
+        return left;
+    }
+
+    /**
+     * @return the next probe tuple that may have matches in the hash table,
+     *   spilling the ones that belong to other partitions, or null once the
+     *   current probe input is done
+     */
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        while (probeFile == null ? child2.hasNext() : probeFile.hasNext()) {
+            Tuple t = probeFile == null ? child2.next() : probeFile.next();
+            if (buildParts == null)
+                return t;
+            if (probeFile == null && probeScan == null && joinFilter != null && !joinFilter.test(t))
+                continue;
+            int part = partition(t.getField(pred.getField2()), depth);
+            if (part == 0)
+                return t;
+            // a probe tuple with no build partition has no matches
+            if (buildParts[part] != null)
+                partitionFile(probeParts, part, child2.getTupleDesc()).add(t);
         }
-        return cnt > 0;
+        return null;
+    }
 
+    /**
+     * Queues the partition pairs of the finished level and loads the next
+     * one.
+     * @return false if there are no partitions left to join
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        if (probeFile != null) {
+            probeFile.delete();
+            probeFile = null;
+        }
+        if (buildParts != null) {
+            for (int i = 1; i < NUM_PARTITIONS; i++) {
+                if (buildParts[i] != null && probeParts[i] != null)
+                    pending.add(new PartitionPair(buildParts[i], probeParts[i], depth + 1));
+                else if (buildParts[i] != null)
+                    buildParts[i].delete();
+            }
+            buildParts = null;
+            probeParts = null;
+        }
+        if (pending.isEmpty())
+            return false;
+        PartitionPair pair = pending.removeFirst();
+        pair.build.rewind();
+        build(pair.build, pair.depth);
+        pair.build.delete();
+        probeFile = pair.probe;
+        probeFile.rewind();
+        return true;
     }
 
+    private void deletePartitions() {
+        if (buildParts != null) {
+            for (int i = 0; i < NUM_PARTITIONS; i++) {
+                if (buildParts[i] != null)
+                    buildParts[i].delete();
+                if (probeParts[i] != null)
+                    probeParts[i].delete();
+            }
+        }
+        buildParts = null;
+        probeParts = null;
+        if (probeFile != null)
+            probeFile.delete();
+        probeFile = null;
+        for (PartitionPair pair : pending) {
+            pair.build.delete();
+            pair.probe.delete();
+        }
+        pending.clear();
+    }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        super.open();
+        spilled = false;
+        if (buildIndex == null)
+            build(null, 0);
+        resetBatchState();
+    }
+
+    private void resetBatchState() {
+        probeBatches = BatchAdapter.of(child2);
+        probeBatch = null;
+        batchMatches = null;
+        batchDone = false;
     }
 
     public void close() {
         super.close();
         child2.close();
         child1.close();
-        this.t1=null;
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        deletePartitions();
+        this.probeTuple = null;
+        this.matches = null;
+        this.probeBatches = null;
+        this.probeBatch = null;
+        this.batchMatches = null;
+        removeFilter();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        child1.rewind();
-        child2.rewind();
+        listIt = null;
+        probeTuple = null;
+        matches = null;
+        if (buildIndex == null && !spilled) {
+            // the hash table still holds all of child1
+            child2.rewind();
+        } else {
+            removeFilter();
+            child1.rewind();
+            child2.rewind();
+            deletePartitions();
+            spilled = false;
+            if (buildIndex == null)
+                build(null, 0);
+        }
+        resetBatchState();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -115,49 +478,104 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     private Tuple processList() throws TransactionAbortedException, DbException {
-        t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
+        return mergeTuples(listIt.next(), t2);
+    }
 
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+    private Tuple mergeTuples(Tuple left, Tuple right) {
+        return Tuple.join(comboTD, left, right);
+    }
 
+    /** Probe the build index with each tuple of the other child. */
+    private Tuple fetchNextIndexed() throws TransactionAbortedException, DbException {
+        DbIterator probe = indexedChild == 1 ? child2 : child1;
+        int probeField = indexedChild == 1 ? pred.getField2() : pred.getField1();
+        while (true) {
+            while (matches != null && matchCursor < matches.size()) {
+                Tuple match = HashIndexScan.fetch(indexTid, matches.get(matchCursor++));
+                if (match == null)
+                    continue;
+                if (indexedChild == 1)
+                    return mergeTuples(match, probeTuple);
+                return mergeTuples(probeTuple, match);
+            }
+            if (!probe.hasNext())
+                return null;
+            probeTuple = probe.next();
+            matches = buildIndex.lookup(indexTid, probeTuple.getField(probeField));
+            matchCursor = 0;
+        }
     }
 
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (buildIndex != null) {
+            return fetchNextIndexed();
+        }
         if (listIt != null && listIt.hasNext()) {
             return processList();
         }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
+        while (true) {
+            // loop around the probe input
+            while ((t2 = nextProbe()) != null) {
+                // if match, create a combined tuple and fill it with the values
+                // from both tuples
+                ArrayList<Tuple> l = map.get(t2.getField(pred.getField2()));
+                if (l == null)
+                    continue;
+                listIt = l.iterator();
 
-            return processList();
+                return processList();
+            }
 
+            // the probe input is done: join the next pair of partitions
+            if (!nextPartition())
+                return null;
         }
+    }
+
+    /**
+     * Probes the in-memory map with whole batches of child2, writing the
+     * joined rows straight into the columns of the output batch.  Joins that
+     * probe an index or spilled their build side return batches of the
+     * tuples produced by fetchNext.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (probeBatches == null)
+            throw new IllegalStateException("Operator not yet open");
+        if (outBatch == null)
+            outBatch = new TupleBatch(comboTD);
+        outBatch.clear();
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+        if (buildIndex != null || spilled) {
+            Tuple t;
+            while (!outBatch.isFull() && (t = fetchNext()) != null)
+                outBatch.addTuple(t);
+            return outBatch.size() > 0 ? outBatch : null;
         }
 
-        return null;
+        int leftWidth = child1.getTupleDesc().numFields();
+        int probeField = pred.getField2();
+        while (!outBatch.isFull() && !batchDone) {
+            if (batchMatches != null && batchMatchCursor < batchMatches.size()) {
+                int row = outBatch.addRow();
+                outBatch.copyTuple(batchMatches.get(batchMatchCursor++), row, 0);
+                outBatch.copyRow(probeBatch, probeRow, row, leftWidth);
+                continue;
+            }
+            batchMatches = null;
+            if (probeBatch != null && probeIndex < probeBatch.size()) {
+                probeRow = probeBatch.row(probeIndex++);
+                batchMatches = map.get(probeBatch.getField(probeField, probeRow));
+                batchMatchCursor = 0;
+                continue;
+            }
+            probeBatch = probeBatches.nextBatch();
+            probeIndex = 0;
+            if (probeBatch == null)
+                batchDone = true;
+        }
+        return outBatch.size() > 0 ? outBatch : null;
     }
 
     @Override
@@ -169,6 +587,7 @@ public class HashEquiJoin extends Operator {
     public void setChildren(DbIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        findBuildIndex();
     }
     
 
@@ -0,0 +1,86 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Page 0 of every HashIndexFile.  The header page records the global depth
+ * of the extendible hash directory and the page numbers of the directory
+ * pages, in directory order.  Its layout is
+ * <p>
+ *     tag, globalDepth, numDirPages, dirPageNo[0..numDirPages)
+ * <p>
+ * all stored as ints.
+ */
+public class HashHeaderPage extends HashIndexPage {
+
+    /** Maximum number of directory pages a header page can reference. */
+    public static final int MAX_DIR_PAGES = (BufferPool.PAGE_SIZE - 12) / 4;
+
+    int globalDepth;
+    int numDirPages;
+    int[] dirPages;
+
+    public HashHeaderPage(HashIndexPageId pid, byte[] data) throws IOException {
+        super(pid);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        dis.readInt(); // tag
+        globalDepth = dis.readInt();
+        numDirPages = dis.readInt();
+        dirPages = new int[MAX_DIR_PAGES];
+        for (int i = 0; i < numDirPages; i++)
+            dirPages[i] = dis.readInt();
+        dis.close();
+        setBeforeImage();
+    }
+
+    /** @return the page data of a header page with the given directory */
+    public static byte[] createPageData(int globalDepth, int[] dirPageNos) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(HEADER_PAGE);
+            dos.writeInt(globalDepth);
+            dos.writeInt(dirPageNos.length);
+            for (int pgNo : dirPageNos)
+                dos.writeInt(pgNo);
+            dos.write(new byte[BufferPool.PAGE_SIZE - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    int getTag() {
+        return HEADER_PAGE;
+    }
+
+    void writeBody(DataOutputStream dos) throws IOException {
+        dos.writeInt(globalDepth);
+        dos.writeInt(numDirPages);
+        for (int i = 0; i < numDirPages; i++)
+            dos.writeInt(dirPages[i]);
+    }
+
+    /** @return the global depth of the directory */
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    /** @return the page number holding directory slot number dirIndex */
+    public int getDirPageFor(int dirIndex) {
+        return dirPages[dirIndex / HashDirectoryPage.NUM_ENTRIES];
+    }
+
+    /** @return the number of directory pages */
+    public int getNumDirPages() {
+        return numDirPages;
+    }
+
+    /** Append a directory page to the directory. */
+    void addDirPage(int pgNo) throws DbException {
+        if (numDirPages == MAX_DIR_PAGES)
+            throw new DbException("hash index directory is full");
+        dirPages[numDirPages++] = pgNo;
+    }
+}
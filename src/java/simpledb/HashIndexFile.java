@@ -0,0 +1,505 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is an on-disk extendible hash index over one field of a
+ * table.  It maps each key to the record ids of the tuples holding that key,
+ * giving O(1) expected page accesses for equality lookups.
+ * <p>
+ * Page 0 is a {@link HashHeaderPage} holding the global depth and the list
+ * of {@link HashDirectoryPage}s; the directory maps the low globalDepth bits
+ * of a key's hash to a {@link HashBucketPage}.  A full bucket is split in two
+ * (doubling the directory first if its local depth equals the global depth),
+ * so the directory grows one doubling at a time instead of being rehashed.
+ * Buckets whose entries all share one hash grow an overflow chain instead.
+ * Buckets are never merged when entries are deleted.
+ * <p>
+ * All pages are read and written through the BufferPool, so index pages are
+ * locked, cached and committed together with the heap pages they describe.
+ * The BufferPool keeps every registered index up to date on insertTuple and
+ * deleteTuple; see {@link Catalog#addHashIndex}.
+ *
+ * @see HashIndexScan
+ */
+public class HashIndexFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Largest global depth whose directory fits in the header page. */
+    public static final int MAX_GLOBAL_DEPTH;
+    static {
+        long maxSlots = (long) HashHeaderPage.MAX_DIR_PAGES * HashDirectoryPage.NUM_ENTRIES;
+        int depth = 0;
+        while ((1L << (depth + 1)) <= maxSlots)
+            depth++;
+        MAX_GLOBAL_DEPTH = depth;
+    }
+
+    private final File f;
+    private final int tableid;
+    private final int keyField;
+    private final Type keyType;
+    private final TupleDesc td;
+
+    /** Pages of an in-progress bulk build, or null when using the BufferPool. */
+    private transient Map<PageId, HashIndexPage> buildPages;
+    private transient int buildNumPages;
+
+    /**
+     * Constructs a hash index backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this index
+     * @param tableid the id of the indexed table
+     * @param keyField the index of the indexed field in the table's TupleDesc
+     */
+    public HashIndexFile(File f, int tableid, int keyField) {
+        this.f = f;
+        this.tableid = tableid;
+        this.keyField = keyField;
+        this.keyType = Database.getCatalog().getTupleDesc(tableid).getFieldType(keyField);
+        this.td = new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { "key", "pageno", "tupleno" });
+    }
+
+    /** @return the File backing this index on disk */
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    /** @return the id of the indexed table */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the index of the indexed field in the table's TupleDesc */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the type of the indexed field */
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /**
+     * Returns the TupleDesc of the entries of this index: the key followed by
+     * the page number and slot of the indexed tuple.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** Returns the number of pages in this index. */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Hash function used to place keys in buckets.  Field.hashCode() is the
+     * identity for IntFields, so its bits are mixed before the low bits are
+     * used to index the directory.
+     */
+    public static int hash(Field key) {
+        return mix(key.hashCode());
+    }
+
+    /** @return h with its bits mixed as by {@link #hash} */
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.pageNumber() < 0 || pid.pageNumber() >= numPages())
+            throw new IllegalArgumentException("page " + pid.pageNumber() + " does not exist in index " + f);
+        byte[] pageData = new byte[BufferPool.PAGE_SIZE];
+        try {
+            RandomAccessFile accessor = new RandomAccessFile(f, "r");
+            accessor.seek((long) pid.pageNumber() * BufferPool.PAGE_SIZE);
+            accessor.readFully(pageData);
+            accessor.close();
+            return HashIndexPage.create((HashIndexPageId) pid, pageData);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not read page " + pid.pageNumber() + " of index " + f);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        RandomAccessFile accessor = new RandomAccessFile(f, "rw");
+        accessor.seek((long) page.getId().pageNumber() * BufferPool.PAGE_SIZE);
+        accessor.write(page.getPageData(), 0, BufferPool.PAGE_SIZE);
+        accessor.close();
+    }
+
+    /**
+     * Adds an entry for t to the index.
+     *
+     * @param t a tuple of the indexed table; its record id must be set
+     * @return the index pages that were modified
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("cannot index a tuple that is not stored in a table");
+        return insertEntry(tid, t.getField(keyField), rid.getPageId().pageNumber(), rid.tupleno());
+    }
+
+    /**
+     * Removes the entry for t from the index.
+     *
+     * @param t a tuple of the indexed table; its record id must be set
+     * @return the bucket page the entry was removed from
+     * @throws DbException if the index holds no entry for t
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("cannot unindex a tuple that is not stored in a table");
+        Field key = t.getField(keyField);
+        int pageNo = rid.getPageId().pageNumber();
+        int slot = rid.tupleno();
+
+        HashBucketPage bucket = findBucket(tid, hash(key), Permissions.READ_WRITE);
+        while (true) {
+            int i = bucket.findEntry(key, pageNo, slot);
+            if (i >= 0) {
+                bucket.removeEntry(i);
+                return bucket;
+            }
+            if (bucket.next == HashBucketPage.NO_PAGE)
+                throw new DbException("tuple " + t + " is not in the index");
+            bucket = (HashBucketPage) getPage(tid, bucket.next, Permissions.READ_WRITE);
+        }
+    }
+
+    /**
+     * Returns the record ids of all tuples of the indexed table whose key
+     * field equals key.
+     */
+    public ArrayList<RecordId> lookup(TransactionId tid, Field key)
+            throws DbException, TransactionAbortedException {
+        ArrayList<RecordId> rids = new ArrayList<RecordId>();
+        int h = hash(key);
+        HashBucketPage bucket = findBucket(tid, h, Permissions.READ_ONLY);
+        while (true) {
+            for (int i = 0; i < bucket.numEntries; i++) {
+                if (bucket.hashes[i] == h && bucket.keys[i].equals(key))
+                    rids.add(new RecordId(new HeapPageId(tableid, bucket.pageNos[i]), bucket.slots[i]));
+            }
+            if (bucket.next == HashBucketPage.NO_PAGE)
+                return rids;
+            bucket = (HashBucketPage) getPage(tid, bucket.next, Permissions.READ_ONLY);
+        }
+    }
+
+    /** @return the current global depth of the directory */
+    public int getGlobalDepth(TransactionId tid) throws DbException, TransactionAbortedException {
+        return ((HashHeaderPage) getPage(tid, 0, Permissions.READ_ONLY)).getGlobalDepth();
+    }
+
+    /**
+     * Rebuilds the index from the current contents of the indexed table.
+     * The pages are assembled in memory and written straight to disk, so the
+     * build neither fills the BufferPool nor needs a transaction to commit.
+     */
+    public void build() throws DbException, IOException, TransactionAbortedException {
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        raf.setLength(0);
+        raf.close();
+
+        buildPages = new HashMap<PageId, HashIndexPage>();
+        buildNumPages = 0;
+        TransactionId tid = new TransactionId();
+        try {
+            allocatePage(tid, HashHeaderPage.createPageData(0, new int[] { 1 }));
+            HashDirectoryPage dir = (HashDirectoryPage) allocatePage(tid, HashDirectoryPage.createEmptyPageData());
+            HashBucketPage bucket = (HashBucketPage) allocatePage(tid, HashBucketPage.createEmptyPageData(keyType, 0));
+            dir.setBucket(0, bucket.getId().pageNumber());
+
+            DbFileIterator it = Database.getCatalog().getDbFile(tableid).iterator(tid);
+            it.open();
+            while (it.hasNext())
+                insertTuple(tid, it.next());
+            it.close();
+
+            for (HashIndexPage page : buildPages.values())
+                writePage(page);
+        } finally {
+            buildPages = null;
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    private ArrayList<Page> insertEntry(TransactionId tid, Field key, int pageNo, int slot)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        int h = hash(key);
+        HashHeaderPage header = (HashHeaderPage) getPage(tid, 0, Permissions.READ_WRITE);
+        while (true) {
+            int dirIndex = h & ((1 << header.globalDepth) - 1);
+            HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, header.getDirPageFor(dirIndex), Permissions.READ_WRITE);
+            HashBucketPage bucket = (HashBucketPage) getPage(tid, dir.getBucket(dirIndex), Permissions.READ_WRITE);
+
+            if (bucket.hasRoom()) {
+                bucket.addEntry(key, h, pageNo, slot);
+                addDirtied(dirtied, bucket);
+                return dirtied;
+            }
+            boolean canSplit = bucket.localDepth < header.globalDepth
+                    || header.globalDepth < MAX_GLOBAL_DEPTH;
+            if (!canSplit || bucket.allHashesEqual(h)) {
+                appendToChain(tid, bucket, key, h, pageNo, slot, dirtied);
+                return dirtied;
+            }
+            if (bucket.localDepth == header.globalDepth)
+                doubleDirectory(tid, header, dirtied);
+            splitBucket(tid, header, bucket, h, dirtied);
+        }
+    }
+
+    /**
+     * Doubles the directory: slot i + 2^globalDepth starts out pointing at
+     * the same bucket as slot i.
+     */
+    private void doubleDirectory(TransactionId tid, HashHeaderPage header, ArrayList<Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        int oldSize = 1 << header.globalDepth;
+        int newSize = oldSize * 2;
+        int neededDirPages = (newSize + HashDirectoryPage.NUM_ENTRIES - 1) / HashDirectoryPage.NUM_ENTRIES;
+        while (header.getNumDirPages() < neededDirPages) {
+            Page dir = allocatePage(tid, HashDirectoryPage.createEmptyPageData());
+            header.addDirPage(dir.getId().pageNumber());
+        }
+        for (int i = oldSize; i < newSize; i++) {
+            HashDirectoryPage from = (HashDirectoryPage) getPage(tid, header.getDirPageFor(i - oldSize), Permissions.READ_WRITE);
+            HashDirectoryPage to = (HashDirectoryPage) getPage(tid, header.getDirPageFor(i), Permissions.READ_WRITE);
+            to.setBucket(i, from.getBucket(i - oldSize));
+            addDirtied(dirtied, to);
+        }
+        header.globalDepth++;
+        addDirtied(dirtied, header);
+    }
+
+    /**
+     * Splits bucket on bit localDepth of the hash.  Entries with that bit set
+     * move to a new sibling bucket, those of the overflow chain included.
+     * h is the hash of a key that maps to bucket.
+     */
+    private void splitBucket(TransactionId tid, HashHeaderPage header, HashBucketPage bucket, int h,
+            ArrayList<Page> dirtied) throws DbException, IOException, TransactionAbortedException {
+        int depth = bucket.localDepth;
+        int bit = 1 << depth;
+        HashBucketPage sibling = (HashBucketPage) allocatePage(tid, HashBucketPage.createEmptyPageData(keyType, depth + 1));
+        bucket.localDepth = depth + 1;
+
+        int i = 0;
+        while (i < bucket.numEntries) {
+            if ((bucket.hashes[i] & bit) != 0) {
+                sibling.addEntry(bucket.keys[i], bucket.hashes[i], bucket.pageNos[i], bucket.slots[i]);
+                bucket.removeEntry(i);
+            } else {
+                i++;
+            }
+        }
+
+        if (bucket.next != HashBucketPage.NO_PAGE)
+            splitChain(tid, bucket, sibling, bit, dirtied);
+
+        int prefix = h & (bit - 1);
+        int siblingPgNo = sibling.getId().pageNumber();
+        for (int slot = prefix | bit; slot < (1 << header.globalDepth); slot += bit << 1) {
+            HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, header.getDirPageFor(slot), Permissions.READ_WRITE);
+            dir.setBucket(slot, siblingPgNo);
+            addDirtied(dirtied, dir);
+        }
+        addDirtied(dirtied, bucket);
+        addDirtied(dirtied, sibling);
+    }
+
+    /**
+     * Deals the entries of the overflow chain of bucket out to bucket and
+     * sibling by bit of their own hash: once deletes made room on the chain,
+     * it may hold keys of both.  The pages of the chain are reused for the
+     * overflow of either; those left over stay empty on the chain of bucket.
+     */
+    private void splitChain(TransactionId tid, HashBucketPage bucket, HashBucketPage sibling, int bit,
+            ArrayList<Page> dirtied) throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Field> keys = new ArrayList<Field>();
+        ArrayList<Integer> hashes = new ArrayList<Integer>();
+        ArrayList<Integer> pageNos = new ArrayList<Integer>();
+        ArrayList<Integer> slots = new ArrayList<Integer>();
+        LinkedList<HashBucketPage> free = new LinkedList<HashBucketPage>();
+        int pgNo = bucket.next;
+        while (pgNo != HashBucketPage.NO_PAGE) {
+            HashBucketPage overflow = (HashBucketPage) getPage(tid, pgNo, Permissions.READ_WRITE);
+            for (int i = 0; i < overflow.numEntries; i++) {
+                keys.add(overflow.keys[i]);
+                hashes.add(overflow.hashes[i]);
+                pageNos.add(overflow.pageNos[i]);
+                slots.add(overflow.slots[i]);
+            }
+            pgNo = overflow.next;
+            overflow.numEntries = 0;
+            overflow.next = HashBucketPage.NO_PAGE;
+            overflow.localDepth = bucket.localDepth;
+            free.add(overflow);
+            addDirtied(dirtied, overflow);
+        }
+        bucket.next = HashBucketPage.NO_PAGE;
+
+        // the last page of the chain of bucket, and of sibling
+        HashBucketPage[] tails = { bucket, sibling };
+        for (int i = 0; i < keys.size(); i++) {
+            int side = (hashes.get(i) & bit) != 0 ? 1 : 0;
+            HashBucketPage tail = tails[side];
+            if (!tail.hasRoom()) {
+                HashBucketPage overflow = free.isEmpty()
+                        ? (HashBucketPage) allocatePage(tid, HashBucketPage.createEmptyPageData(keyType, bucket.localDepth))
+                        : free.removeFirst();
+                tail.next = overflow.getId().pageNumber();
+                addDirtied(dirtied, overflow);
+                tails[side] = tail = overflow;
+            }
+            tail.addEntry(keys.get(i), hashes.get(i), pageNos.get(i), slots.get(i));
+        }
+        for (HashBucketPage overflow : free) {
+            tails[0].next = overflow.getId().pageNumber();
+            addDirtied(dirtied, tails[0]);
+            tails[0] = overflow;
+        }
+    }
+
+    private void appendToChain(TransactionId tid, HashBucketPage bucket, Field key, int h, int pageNo, int slot,
+            ArrayList<Page> dirtied) throws DbException, IOException, TransactionAbortedException {
+        HashBucketPage cur = bucket;
+        while (!cur.hasRoom() && cur.next != HashBucketPage.NO_PAGE)
+            cur = (HashBucketPage) getPage(tid, cur.next, Permissions.READ_WRITE);
+        if (!cur.hasRoom()) {
+            HashBucketPage overflow = (HashBucketPage) allocatePage(tid,
+                    HashBucketPage.createEmptyPageData(keyType, bucket.localDepth));
+            cur.next = overflow.getId().pageNumber();
+            addDirtied(dirtied, cur);
+            cur = overflow;
+        }
+        cur.addEntry(key, h, pageNo, slot);
+        addDirtied(dirtied, cur);
+    }
+
+    private HashBucketPage findBucket(TransactionId tid, int h, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        HashHeaderPage header = (HashHeaderPage) getPage(tid, 0, perm);
+        int dirIndex = h & ((1 << header.globalDepth) - 1);
+        HashDirectoryPage dir = (HashDirectoryPage) getPage(tid, header.getDirPageFor(dirIndex), perm);
+        return (HashBucketPage) getPage(tid, dir.getBucket(dirIndex), perm);
+    }
+
+    private static void addDirtied(ArrayList<Page> dirtied, Page p) {
+        for (Page q : dirtied)
+            if (q == p)
+                return;
+        dirtied.add(p);
+    }
+
+    private HashIndexPage getPage(TransactionId tid, int pgNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        HashIndexPageId pid = new HashIndexPageId(getId(), pgNo);
+        if (buildPages != null)
+            return buildPages.get(pid);
+        return (HashIndexPage) Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+    /**
+     * Appends a new page with the given contents to the index.  Like
+     * HeapFile.insertTuple, the new page is written to disk right away so
+     * that the file length accounts for it.
+     */
+    private HashIndexPage allocatePage(TransactionId tid, byte[] data)
+            throws DbException, IOException, TransactionAbortedException {
+        if (buildPages != null) {
+            HashIndexPage page = HashIndexPage.create(new HashIndexPageId(getId(), buildNumPages++), data);
+            buildPages.put(page.getId(), page);
+            return page;
+        }
+        HashIndexPage page = HashIndexPage.create(new HashIndexPageId(getId(), numPages()), data);
+        writePage(page);
+        return getPage(tid, page.getId().pageNumber(), Permissions.READ_WRITE);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashIndexFileIterator(tid);
+    }
+
+    /** Iterates over the entries of every bucket page, in page order. */
+    private class HashIndexFileIterator implements DbFileIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TransactionId tid;
+        private int curPage;
+        private Iterator<Tuple> curIterator;
+
+        HashIndexFileIterator(TransactionId tid) {
+            this.tid = tid;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            curPage = 0;
+            curIterator = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (curPage < 0)
+                return false;
+            while ((curIterator == null || !curIterator.hasNext()) && curPage < numPages() - 1) {
+                curPage++;
+                HashIndexPage page = getPage(tid, curPage, Permissions.READ_ONLY);
+                if (page instanceof HashBucketPage)
+                    curIterator = entries((HashBucketPage) page).iterator();
+            }
+            return curIterator != null && curIterator.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException("no more index entries");
+            return curIterator.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            curPage = -1;
+            curIterator = null;
+        }
+
+        private ArrayList<Tuple> entries(HashBucketPage page) {
+            ArrayList<Tuple> list = new ArrayList<Tuple>();
+            for (int i = 0; i < page.numEntries; i++) {
+                Tuple t = new Tuple(td);
+                t.setField(0, page.keys[i]);
+                t.setField(1, new IntField(page.pageNos[i]));
+                t.setField(2, new IntField(page.slots[i]));
+                list.add(t);
+            }
+            return list;
+        }
+    }
+}
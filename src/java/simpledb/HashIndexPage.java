@@ -0,0 +1,98 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * Common base class of the pages stored in a HashIndexFile.  Every page
+ * starts with an int tag that identifies its layout, so that
+ * {@link #create} can build the right kind of page from raw bytes.
+ *
+ * @see HashIndexFile
+ * @see HashHeaderPage
+ * @see HashDirectoryPage
+ * @see HashBucketPage
+ */
+public abstract class HashIndexPage implements Page {
+
+    static final int HEADER_PAGE = 1;
+    static final int DIRECTORY_PAGE = 2;
+    static final int BUCKET_PAGE = 3;
+
+    final HashIndexPageId pid;
+    TransactionId dirtier;
+    byte[] oldData;
+
+    HashIndexPage(HashIndexPageId pid) {
+        this.pid = pid;
+    }
+
+    /**
+     * Build the page stored in data, dispatching on its leading tag.
+     *
+     * @throws IOException if the tag is unknown or the data is malformed
+     */
+    public static HashIndexPage create(HashIndexPageId pid, byte[] data) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        int tag = dis.readInt();
+        dis.close();
+        switch (tag) {
+        case HEADER_PAGE:
+            return new HashHeaderPage(pid, data);
+        case DIRECTORY_PAGE:
+            return new HashDirectoryPage(pid, data);
+        case BUCKET_PAGE:
+            return new HashBucketPage(pid, data);
+        default:
+            throw new IOException("Unknown hash index page tag " + tag + " on " + pid);
+        }
+    }
+
+    public HashIndexPageId getId() {
+        return pid;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public Page getBeforeImage() {
+        try {
+            return create(pid, oldData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+
+    /** Serialize the page body (everything after the tag) to dos. */
+    abstract void writeBody(DataOutputStream dos) throws IOException;
+
+    /** @return the tag identifying this kind of page */
+    abstract int getTag();
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(getTag());
+            writeBody(dos);
+            int zerolen = BufferPool.PAGE_SIZE - dos.size();
+            dos.write(new byte[zerolen], 0, zerolen);
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+}
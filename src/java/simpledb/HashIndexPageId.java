@@ -0,0 +1,55 @@
+package simpledb;
+
+/** Unique identifier for the pages of a HashIndexFile. */
+public class HashIndexPageId implements PageId {
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific hash index.
+     *
+     * @param tableId The id of the index file that is being referenced
+     * @param pgNo The page number in that index file.
+     */
+    public HashIndexPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the id of the index file associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the page number in the index file associated with this PageId */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return 31 * tableId + pgNo;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof HashIndexPageId)) {
+            return false;
+        }
+        HashIndexPageId other = (HashIndexPageId) o;
+        return tableId == other.tableId && pgNo == other.pgNo;
+    }
+
+    public int[] serialize() {
+        int data[] = new int[2];
+
+        data[0] = getTableId();
+        data[1] = pageNumber();
+
+        return data;
+    }
+
+    public String toString() {
+        return "HashIndexPageId(" + tableId + ", " + pgNo + ")";
+    }
+}
@@ -0,0 +1,125 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashIndexScan is an access method that returns the tuples of a table whose
+ * indexed field equals a constant, using the table's {@link HashIndexFile}
+ * instead of reading every page.  Like SeqScan, the returned TupleDesc has
+ * field names prefixed with the table alias.
+ */
+public class HashIndexScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final int keyField;
+    private final Field key;
+
+    private ArrayList<RecordId> rids;
+    private int cursor;
+    private Tuple nextTuple;
+
+    /**
+     * Creates an index scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid The transaction this scan is running as a part of.
+     * @param tableid the table to scan.
+     * @param tableAlias the alias of this table, as for SeqScan.
+     * @param keyField the indexed field to look up; must have a hash index
+     * @param key the value the indexed field must equal
+     */
+    public HashIndexScan(TransactionId tid, int tableid, String tableAlias, int keyField, Field key) {
+        if (Database.getCatalog().getHashIndex(tableid, keyField) == null)
+            throw new IllegalArgumentException("field " + keyField + " of table " + tableid + " is not indexed");
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.keyField = keyField;
+        this.key = key;
+    }
+
+    /** @return the name of the table this operator scans */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the index of the indexed field this scan looks up */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the name of the indexed field this scan looks up */
+    public String getKeyFieldName() {
+        return Database.getCatalog().getTupleDesc(tableid).getFieldName(keyField);
+    }
+
+    /** @return the key this scan looks up */
+    public Field getKey() {
+        return key;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        rids = Database.getCatalog().getHashIndex(tableid, keyField).lookup(tid, key);
+        cursor = 0;
+        nextTuple = null;
+    }
+
+    /** @see SeqScan#getTupleDesc */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        Type[] types = new Type[td.numFields()];
+        String[] names = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = tableAlias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (rids == null)
+            return false;
+        while (nextTuple == null && cursor < rids.size()) {
+            nextTuple = fetch(tid, rids.get(cursor++));
+        }
+        return nextTuple != null;
+    }
+
+    public Tuple next() throws NoSuchElementException, DbException, TransactionAbortedException {
+        if (!hasNext())
+            throw new NoSuchElementException("no more tuples");
+        Tuple t = nextTuple;
+        nextTuple = null;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        cursor = 0;
+        nextTuple = null;
+    }
+
+    public void close() {
+        rids = null;
+        nextTuple = null;
+    }
+
+    /** @return the tuple stored at rid, or null if its slot is empty */
+    static Tuple fetch(TransactionId tid, RecordId rid) throws DbException, TransactionAbortedException {
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+        return page.getTuple(rid.tupleno());
+    }
+}
@@ -19,18 +19,58 @@ public class HeapFile implements DbFile {
 
     private File f;
     private TupleDesc td;
+    /* null unless the string fields of the table are stored as codes */
+    private StringDictionary dictionary;
+    /* the pages before it have no empty slot, as far as insertTuples knows */
+    private volatile int firstFreePage = 0;
+    /* per running transaction, the page after the last one it appended, which is not written yet */
+    private final HashMap<TransactionId, Integer> appendedPages = new HashMap<TransactionId, Integer>();
     //private int numPage;
     /**
-     * Constructs a heap file backed by the specified file.
+     * Constructs a heap file backed by the specified file.  The file is
+     * dictionary encoded if it has a dictionary file.
      * 
      * @param f
      *            the file that stores the on-disk backing store for this heap
      *            file.
+     * @see StringDictionary#fileOf
      */
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+        this(f, td, StringDictionary.fileOf(f).exists());
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, storing the
+     * STRING_TYPE fields of its tuples as codes of a {@link StringDictionary}
+     * if dictionaryEncoded is true.  An encoded file must be empty or have
+     * been written encoded.
+     *
+     * @throws IllegalArgumentException if the dictionary file can't be read
+     */
+    public HeapFile(File f, TupleDesc td, boolean dictionaryEncoded) {
         this.f = f;
         this.td = td;
+        if (dictionaryEncoded) {
+            try {
+                this.dictionary = new StringDictionary(StringDictionary.fileOf(f));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("can't read the dictionary of " + f, e);
+            }
+        }
+    }
+
+    /**
+     * @return the dictionary of the string fields of this file, or null if
+     *   it is not dictionary encoded
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /** @return the number of tuple slots on each page of this file */
+    public int getSlotsPerPage() {
+        return HeapPage.numSlots(HeapPage.tupleSize(td, dictionary));
     }
 
     /**
@@ -111,13 +151,49 @@ public class HeapFile implements DbFile {
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Writes pages of this file, each run of consecutive pages with a
+     * single write.
+     */
+    public void writePages(List<Page> pages) throws IOException {
+        ArrayList<Page> sorted = new ArrayList<Page>(pages);
+        Collections.sort(sorted, new Comparator<Page>() {
+            public int compare(Page a, Page b) {
+                return a.getId().pageNumber() - b.getId().pageNumber();
+            }
+        });
+        RandomAccessFile accessor = new RandomAccessFile(f, "rw");
+        try {
+            int i = 0;
+            while (i < sorted.size()) {
+                int first = sorted.get(i).getId().pageNumber();
+                int n = 0;
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                do {
+                    data.write(sorted.get(i++).getPageData());
+                    n++;
+                } while (i < sorted.size() && sorted.get(i).getId().pageNumber() == first + n);
+                accessor.seek((long) first * BufferPool.PAGE_SIZE);
+                accessor.write(data.toByteArray());
+            }
+        } finally {
+            accessor.close();
+        }
+    }
+
+    /**
+     * Returns the number of pages in this HeapFile, including the pages
+     * appended by running transactions.
      */
     public int numPages() {
         // some code goes here
         //System.out.println("File length :" + f.length());
 
-        return (int) Math.ceil(f.length() * 1.0 / BufferPool.PAGE_SIZE * 1.0);
+        int written = (int) Math.ceil(f.length() * 1.0 / BufferPool.PAGE_SIZE * 1.0);
+        synchronized (this) {
+            for (int end : appendedPages.values())
+                written = Math.max(written, end);
+            return written;
+        }
     }
 
     // see DbFile.java for javadocs
@@ -156,6 +232,68 @@ public class HeapFile implements DbFile {
         // not necessary for proj1
     }
 
+    /**
+     * Inserts tuples in one pass on behalf of transaction tid, for
+     * {@link BufferPool#insertTuples}: the empty slots of the existing pages
+     * are filled page by page, and the remaining tuples are packed into new
+     * pages at the end of the file.
+     * <p>
+     * The new pages are locked for tid and only written when the buffer
+     * pool flushes them, like the modified pages, when tid commits.
+     *
+     * @return the pages that were modified or added
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> pages = new ArrayList<Page>();
+        int next = 0;
+        for (int i = firstFreePage; i < numPages() && next < tuples.size(); i++) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(getId(), i), Permissions.READ_WRITE);
+            int free = page.getNumEmptySlots();
+            if (free == 0) {
+                if (i == firstFreePage)
+                    firstFreePage = i + 1;
+                continue;
+            }
+            for (; free > 0 && next < tuples.size(); free--)
+                page.insertTuple(tuples.get(next++));
+            pages.add(page);
+        }
+        if (next < tuples.size())
+            pages.addAll(appendPages(tid, tuples.subList(next, tuples.size())));
+        return pages;
+    }
+
+    /** Packs tuples into new pages after the last page of the file. */
+    private synchronized ArrayList<Page> appendPages(TransactionId tid, List<Tuple> tuples)
+            throws DbException, IOException {
+        ArrayList<Page> pages = new ArrayList<Page>();
+        int pageNo = numPages();
+        int next = 0;
+        while (next < tuples.size()) {
+            HeapPageId pid = new HeapPageId(getId(), pageNo++);
+            Database.getBufferPool().lockAppendedPage(tid, pid);
+            HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+            for (int free = page.getNumEmptySlots(); free > 0 && next < tuples.size(); free--)
+                page.insertTuple(tuples.get(next++));
+            pages.add(page);
+        }
+        appendedPages.put(tid, pageNo);
+        return pages;
+    }
+
+    /**
+     * Forgets the pages tid appended, which are written if it committed.
+     * If it aborted, insertTuples looks for empty slots from the first page
+     * again, since the slots tid filled are empty again.
+     */
+    synchronized void transactionComplete(TransactionId tid, boolean commit) {
+        appendedPages.remove(tid);
+        if (!commit)
+            firstFreePage = 0;
+    }
+
     // see DbFile.java for javadocs
     public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
@@ -164,6 +302,8 @@ public class HeapFile implements DbFile {
         PageId pid = rid.getPageId();
         Page p = Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
         ((HeapPage) p).deleteTuple(t);
+        if (pid.pageNumber() < firstFreePage)
+            firstFreePage = pid.pageNumber();
 
         return p;
         // not necessary for proj1
@@ -174,6 +314,14 @@ public class HeapFile implements DbFile {
         // some code goes here
         return new HeapFileIterator(this, tid);
     }
+
+    /**
+     * @return an iterator over the tuples on pages startPage (inclusive) to
+     *   endPage (exclusive) of this file
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage) {
+        return new HeapFileIterator(this, tid, startPage, endPage);
+    }
 }
 
 /*class HeapFileIterator implements DbFileIterator {
@@ -90,10 +90,28 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, false);
+  }
+
+   /** Convert the specified input text file into a binary page file, like
+    * {@link #convert(File, File, int, int, Type[], char)}; if
+    * dictionaryEncoded is true, string fields are written as codes of the
+    * {@link StringDictionary} of outFile, for a HeapFile opened on outFile.
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator,
+                 boolean dictionaryEncoded)
+      throws IOException {
 
+      // a dictionary left from an older outFile would mark it encoded
+      StringDictionary.fileOf(outFile).delete();
+      StringDictionary dictionary = null;
+      if (dictionaryEncoded) {
+          dictionary = new StringDictionary(StringDictionary.fileOf(outFile));
+      }
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
+          nrecbytes += dictionary != null && typeAr[i] == Type.STRING_TYPE ? 4 : typeAr[i].getLen();
       }
       int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
       
@@ -147,15 +165,19 @@ public class HeapFileEncoder {
             }
             else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
                 s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
+                if (dictionary != null) {
+                    pageStream.writeInt(dictionary.encode(s));
+                } else {
+                    int overflow = Type.STRING_LEN - s.length();
+                    if (overflow < 0) {
+                        String news = s.substring(0,Type.STRING_LEN);
+                        s  = news;
+                    }
+                    pageStream.writeInt(s.length());
+                    pageStream.writeBytes(s);
+                    while (overflow-- > 0)
+                        pageStream.write((byte)0);
                 }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
             }
             curpos = 0;
             if (c == '\n')
@@ -222,5 +244,7 @@ public class HeapFileEncoder {
     }
     br.close();
     os.close();
+    if (dictionary != null)
+        dictionary.sync();
   }
 }
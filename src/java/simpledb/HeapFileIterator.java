@@ -11,12 +11,28 @@ public class HeapFileIterator implements DbFileIterator {
     HeapFile heapFile;
     TransactionId tid;
     int curPageNo;
+    /* the pages read, or endPage = -1 to read up to the end of the file */
+    int startPage;
+    int endPage;
     HeapPage heapPage = null;
     Iterator<Tuple> iterator = null;
     public HeapFileIterator(HeapFile heapFile, TransactionId tid) {
+        this(heapFile, tid, 0, -1);
+    }
+
+    /** Creates an iterator over pages startPage (inclusive) to endPage (exclusive). */
+    public HeapFileIterator(HeapFile heapFile, TransactionId tid, int startPage, int endPage) {
         this.heapFile = heapFile;
         this.tid = tid;
-        this.curPageNo = 0;
+        this.startPage = startPage;
+        this.endPage = endPage;
+        this.curPageNo = startPage;
+    }
+
+    /** @return the number of the page after the last one read */
+    private int lastPage() {
+        int numPages = heapFile.numPages();
+        return endPage < 0 ? numPages : Math.min(endPage, numPages);
     }
 
     /**
@@ -26,6 +42,8 @@ public class HeapFileIterator implements DbFileIterator {
      */
     @Override
     public void open() throws DbException, TransactionAbortedException {
+        if (endPage >= 0 && curPageNo >= lastPage())
+            return;
         heapPage = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(heapFile.getId(), curPageNo), Permissions.READ_ONLY);
         iterator = heapPage.iterator();
     }
@@ -44,7 +62,7 @@ public class HeapFileIterator implements DbFileIterator {
         }
         else {
             curPageNo++;
-            if (curPageNo >= heapFile.numPages()) {
+            if (curPageNo >= lastPage()) {
                 return false;
             }
             open();
@@ -67,7 +85,7 @@ public class HeapFileIterator implements DbFileIterator {
         else {
             if (!iterator.hasNext()){
                 curPageNo++;
-                if (curPageNo >= heapFile.numPages()) {
+                if (curPageNo >= lastPage()) {
                     throw new NoSuchElementException();
                 }
                 open();
@@ -92,7 +110,7 @@ public class HeapFileIterator implements DbFileIterator {
      */
     @Override
     public void close() {
-        curPageNo = 0;
+        curPageNo = startPage;
         heapPage = null;
         iterator = null;
     }
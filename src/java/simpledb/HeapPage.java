@@ -15,6 +15,10 @@ public class HeapPage implements Page {
 
     HeapPageId pid;
     TupleDesc td;
+    /* the dictionary of the string fields of an encoded file, or null */
+    StringDictionary dictionary;
+    /* the number of bytes of a tuple on this page */
+    int tupleSize;
     byte header[];
     Tuple tuples[];
     int numSlots;
@@ -30,6 +34,8 @@ public class HeapPage implements Page {
      *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
      * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * In a dictionary encoded file, a STRING_TYPE field takes only the 4
+     * bytes of its code.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
@@ -41,6 +47,10 @@ public class HeapPage implements Page {
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        DbFile file = Database.getCatalog().getDbFile(id.getTableId());
+        if (file instanceof HeapFile)
+            this.dictionary = ((HeapFile) file).getDictionary();
+        this.tupleSize = tupleSize(td, dictionary);
         this.numSlots = getNumTuples();
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -62,6 +72,20 @@ public class HeapPage implements Page {
         setBeforeImage();
     }
 
+    /**
+     * @return the number of bytes of a tuple with schema td on a page of a
+     *   file with string dictionary, or of an unencoded file if null
+     */
+    static int tupleSize(TupleDesc td, StringDictionary dictionary) {
+        return dictionary == null ? td.getSize()
+                : td.getSize() - td.numStringFields() * Type.STRING_LEN;
+    }
+
+    /** @return the number of tuple slots on a page of tuples of tupleSize bytes */
+    static int numSlots(int tupleSize) {
+        return (int) Math.floor((BufferPool.PAGE_SIZE * 8.0) / (tupleSize * 8.0 + 1));
+    }
+
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
 
@@ -69,8 +93,7 @@ public class HeapPage implements Page {
     */
     private int getNumTuples() {        
         // some code goes here
-        int numberOfTuples = (int) Math.floor((BufferPool.PAGE_SIZE * 8.0) / (td.getSize() * 8.0 + 1));
-        return numberOfTuples;
+        return numSlots(tupleSize);
 
     }
 
@@ -122,7 +145,7 @@ public class HeapPage implements Page {
         // if associated bit is not set, read forward to the next tuple, and
         // return null.
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
+            for (int i=0; i<tupleSize; i++) {
                 try {
                     dis.readByte();
                 } catch (IOException e) {
@@ -138,12 +161,18 @@ public class HeapPage implements Page {
         t.setRecordId(rid);
         try {
             for (int j=0; j<td.numFields(); j++) {
+                if (dictionary != null && td.getFieldType(j) == Type.STRING_TYPE) {
+                    t.setString(j, dictionary.decode(dis.readInt()));
+                    continue;
+                }
                 Field f = td.getFieldType(j).parse(dis);
                 t.setField(j, f);
             }
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
+        } catch (IOException e) {
+            throw new NoSuchElementException("error reading string code");
         }
 
         return t;
@@ -159,6 +188,8 @@ public class HeapPage implements Page {
      *
      * @see #HeapPage
      * @return A byte array correspond to the bytes of this page.
+     * @throws RuntimeException if the codes of an encoded page cannot be
+     *   written to its dictionary file first
      */
     public byte[] getPageData() {
         int len = BufferPool.PAGE_SIZE;
@@ -180,7 +211,7 @@ public class HeapPage implements Page {
 
             // empty slot just set all the byte data to 0;
             if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
+                for (int j=0; j<tupleSize; j++) {
                     try {
                         dos.writeByte(0);
                     } catch (IOException e) {
@@ -192,8 +223,12 @@ public class HeapPage implements Page {
 
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
+                    if (dictionary != null && td.getFieldType(j) == Type.STRING_TYPE) {
+                        dos.writeInt(dictionary.encode(tuples[i].getString(j)));
+                        continue;
+                    }
+                    Field f = tuples[i].getField(j);
                     f.serialize(dos);
                 
                 } catch (IOException e) {
@@ -202,8 +237,18 @@ public class HeapPage implements Page {
             }
         }
 
+        // the codes on the page must reach the dictionary file before the page does
+        if (dictionary != null) {
+            try {
+                dictionary.sync();
+            } catch (IOException e) {
+                // writing the page anyway would leave codes the file cannot decode
+                throw new RuntimeException("cannot write the dictionary of " + pid, e);
+            }
+        }
+
         // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
+        int zerolen = BufferPool.PAGE_SIZE - (header.length + tupleSize * tuples.length);
         byte[] zeroes = new byte[zerolen];
         try {
             dos.write(zeroes, 0, zerolen);
@@ -274,6 +319,13 @@ public class HeapPage implements Page {
         if (!t.getTupleDesc().equals(td)) {
             throw new DbException("Try to insert a tuple into page with a different tuple desc.");
         }
+        if (dictionary != null) {
+            // hold the dictionary's instances, like the tuples read from disk
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.STRING_TYPE)
+                    t.setString(j, dictionary.intern(t.getString(j)));
+            }
+        }
         int i = this.getNextEmptySlot();
         tuples[i] = t;
         markSlotUsed(i, true);
@@ -367,6 +419,16 @@ public class HeapPage implements Page {
         header[array_offset] ^= mask;
     }
 
+    /**
+     * @return the tuple stored in slot i, or null if the slot is empty
+     */
+    public Tuple getTuple(int i) {
+        if (!isSlotUsed(i)) {
+            return null;
+        }
+        return tuples[i];
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
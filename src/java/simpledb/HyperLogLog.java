@@ -0,0 +1,90 @@
+package simpledb;
+
+/**
+ * HyperLogLog estimates the number of distinct values added to it, in a
+ * fixed amount of space and one pass over the values.
+ * <p>
+ * Each value is hashed to 64 bits; the first {@code precision} bits pick one
+ * of 2^precision registers, which keeps the longest run of leading zeros
+ * seen in the rest of the bits of the values it was picked for.  The
+ * harmonic mean of the registers gives the estimate, with a relative
+ * standard error of about 1.04 / sqrt(2^precision), and linear counting of
+ * the empty registers is used for small counts (see Flajolet et al.,
+ * "HyperLogLog: the analysis of a near-optimal cardinality estimation
+ * algorithm", and Heule et al., "HyperLogLog in Practice").
+ */
+public class HyperLogLog {
+
+    /** Default number of bits of the hash that pick a register: 4096 registers, 1.6% error. */
+    public static final int DEFAULT_PRECISION = 12;
+
+    private final int precision;
+    private final byte[] registers;
+
+    /** Creates an empty sketch with the default precision */
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates an empty sketch
+     * @param precision the number of bits of the hash that pick a register, from 4 to 16
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 16)
+            throw new IllegalArgumentException("precision must be between 4 and 16");
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /** Adds value v to the sketch */
+    public void addValue(int v) {
+        addHash(mix(v));
+    }
+
+    /** Adds value s to the sketch */
+    public void addValue(String s) {
+        // 64-bit FNV-1a over the characters
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        addHash(mix(h));
+    }
+
+    /** @return h with its bits well spread, from the finalizer of MurmurHash3 */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private void addHash(long h) {
+        int r = (int) (h >>> (64 - precision));
+        // the marker bit bounds the run when the rest of the bits are zeros
+        int rank = Long.numberOfLeadingZeros((h << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[r])
+            registers[r] = (byte) rank;
+    }
+
+    /** @return the estimated number of distinct values added to the sketch */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte b : registers) {
+            sum += 1.0 / (1L << b);
+            if (b == 0)
+                zeros++;
+        }
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double e = alpha * m * m / sum;
+        if (e <= 2.5 * m && zeros > 0)
+            e = m * Math.log((double) m / zeros);
+        return Math.round(e);
+    }
+}
@@ -1,14 +1,23 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * Inserts tuples read from the child operator into the tableid specified in the
  * constructor
+ * <p>
+ * The tuples are inserted {@link #BATCH_SIZE} at a time with
+ * {@link BufferPool#insertTuples}, which fills the pages of the table one
+ * after the other and appends new pages in whole.
  */
 public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Number of tuples passed to the buffer pool at once. */
+    public static final int BATCH_SIZE = 4096;
+
     private final TupleDesc tupleDesc;
     private final int tableId;
     private DbIterator child;
@@ -81,7 +90,7 @@ public class Insert extends Operator {
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException, IOException {
         // some code goes here
@@ -91,9 +100,14 @@ public class Insert extends Operator {
 
         fetched = true;
         int count = 0;
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
         while (child.hasNext()) {
-            Database.getBufferPool().insertTuple(tid, tableId, child.next());
-            count++;
+            batch.add(child.next());
+            if (batch.size() == BATCH_SIZE || !child.hasNext()) {
+                Database.getBufferPool().insertTuples(tid, tableId, batch);
+                count += batch.size();
+                batch.clear();
+            }
         }
 
         Tuple tuple = new Tuple(this.tupleDesc);
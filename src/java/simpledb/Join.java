@@ -4,11 +4,38 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a block nested-loops join: the outer child is read one block of
+ * tuples at a time, and the inner child is scanned once per block rather
+ * than once per outer tuple.  The size of a block is bounded by a memory
+ * budget, see {@link #setBlockMemory}.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Default number of bytes of outer tuples buffered per block. */
+    public static final int DEFAULT_BLOCK_MEMORY = 256 * BufferPool.PAGE_SIZE;
+
+    private static int blockMemory = DEFAULT_BLOCK_MEMORY;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private final int memory;
+    private transient TupleDesc comboTD;
+    /** p specialized for the schemas of the children, set by open(). */
+    private transient CompiledJoinPredicate compiled;
+
+    /** The current block of outer tuples. */
+    private final ArrayList<Tuple> block = new ArrayList<Tuple>();
+    /** The inner tuple being joined with the block, or null. */
+    private Tuple inner;
+    /** Index in block of the next outer tuple to test against inner. */
+    private int blockPos;
+    /** True if child2 has been read since it was opened or rewound. */
+    private boolean innerUsed;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -20,21 +47,42 @@ public class Join extends Operator {
      * @param child2
      *            Iterator for the right(inner) relation to join
      */
-    private JoinPredicate p;
-    private DbIterator child1;
-    private DbIterator child2;
-    private Tuple curTuple1;
-    private Tuple curTuple2;
-
-    private Queue<Tuple> curJoinedTuple;
-
-
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
-        // some code goes here
+        this(p, child1, child2, blockMemory);
+    }
+
+    /**
+     * Creates a join that buffers at most blockBytes bytes of outer tuples
+     * per block (and at least one tuple).
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2, int blockBytes) {
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
-        curJoinedTuple = new LinkedList<Tuple>();
+        this.memory = blockBytes;
+    }
+
+    /**
+     * Sets the number of bytes of outer tuples buffered per block by joins
+     * created from now on.
+     */
+    public static void setBlockMemory(int bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("block memory must be positive");
+        blockMemory = bytes;
+    }
+
+    /** @return the number of bytes of outer tuples buffered per block */
+    public static int getBlockMemory() {
+        return blockMemory;
+    }
+
+    /**
+     * @return the number of outer tuples of the given schema that fit in a
+     *   block of blockBytes bytes
+     */
+    public static int blockTuples(TupleDesc outer, int blockBytes) {
+        return Math.max(1, blockBytes / outer.getSize());
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -77,12 +125,17 @@ public class Join extends Operator {
         super.open();
         child1.open();
         child2.open();
+        compiled = CompiledJoinPredicate.compile(p, child1.getTupleDesc(), child2.getTupleDesc());
+        comboTD = getTupleDesc();
+        resetBlock();
     }
 
     public void close() {
         // some code goes here
         child2.close();
         child1.close();
+        block.clear();
+        inner = null;
         super.close();
     }
 
@@ -90,6 +143,14 @@ public class Join extends Operator {
         // some code goes here
         child1.rewind();
         child2.rewind();
+        resetBlock();
+    }
+
+    private void resetBlock() {
+        block.clear();
+        inner = null;
+        blockPos = 0;
+        innerUsed = false;
     }
 
     /**
@@ -112,69 +173,32 @@ public class Join extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        if (curJoinedTuple.size() > 0) {
-            return curJoinedTuple.poll();
-        }
-
-        while (child1.hasNext()) {
-            Tuple tuple1 = child1.next();
-            child2.rewind();    //for each tuple1, we need to go through the whole child2.
-            while (child2.hasNext()) {
-                Tuple tuple2 = child2.next();
-
-                if (p.filter(tuple1, tuple2)) {
-                    curJoinedTuple.offer(Tuple.merge(tuple1, tuple2));  //problem may occur when tuple2 is very large.
+        while (true) {
+            if (inner != null) {
+                while (blockPos < block.size()) {
+                    Tuple outer = block.get(blockPos++);
+                    if (compiled.test(outer, inner))
+                        return Tuple.join(comboTD, outer, inner);
                 }
+                inner = null;
             }
-
-            if (curJoinedTuple.size() > 0) {
-                return curJoinedTuple.poll();
+            if (!block.isEmpty() && child2.hasNext()) {
+                inner = child2.next();
+                blockPos = 0;
+                continue;
             }
+            // the inner is exhausted for this block; read the next one
+            block.clear();
+            int max = blockTuples(child1.getTupleDesc(), memory);
+            while (block.size() < max && child1.hasNext())
+                block.add(child1.next());
+            if (block.isEmpty())
+                return null;
+            if (innerUsed)
+                child2.rewind();
+            innerUsed = true;
         }
-        return null;
-
-//        Tuple[] curTuple = getNextPair();
-//
-//        while (curTuple != null && !p.filter(curTuple[0], curTuple[1])) {
-//            curTuple = getNextPair();
-//        }
-//
-//        if (curTuple == null) {
-//            return null;
-//        } else {
-//            return Tuple.merge(curTuple[0], curTuple[1]);
-//        }
-
-    }
-
-//    private Tuple[] getNextPair() throws DbException, TransactionAbortedException {
-//        if (child1.hasNext()) {
-//            curTuple1 = child1.next();
-//        } else {
-//            return null;
-//        }
-//
-//        if (child2.hasNext()) {
-//            curTuple2 = child2.next();
-//        } else {
-//            //child2 is go over
-//            if (child1.hasNext()) {
-//                curTuple1 = child1.next();
-//                child2.rewind();
-//                if (child2.hasNext()) {
-//                    curTuple2 = child2.next();
-//                } else {
-//                    return null;
-//                }
-//            } else {
-//                return null;
-//                //over
-//            }
-//        }
-//
-//
-//        return new Tuple[] { curTuple1, curTuple2 };
-//    }
+    }
 
     @Override
     public DbIterator[] getChildren() {
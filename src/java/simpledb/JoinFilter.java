@@ -0,0 +1,130 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * A filter on the join field of the probe input of a hash join, built at
+ * runtime from the keys of its build input: a Bloom filter over the keys
+ * and, for INT_TYPE keys, their range.
+ * <p>
+ * A probe tuple that fails the filter has no match, so a join pushes its
+ * filter down to the scan of its probe input (see
+ * {@link SeqScan#setJoinFilter}), which drops the tuple before it is copied
+ * into a batch or reaches the join.  A tuple that passes may still have no
+ * match: with {@link #BITS_PER_KEY} bits per key and {@link #NUM_HASHES}
+ * hashes, about 3% of the missing keys pass.  Beyond
+ * {@link #MAX_BITS} / BITS_PER_KEY keys, only the range is tested.
+ */
+public class JoinFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Bits of the Bloom filter per build key. */
+    public static final int BITS_PER_KEY = 8;
+    /** Bits of the Bloom filter set per key. */
+    public static final int NUM_HASHES = 3;
+    /** Most bits of a Bloom filter. */
+    public static final int MAX_BITS = 1 << 26;
+
+    private final int field;
+    private final boolean intKey;
+
+    /* the hashes of the keys added until the filter is built */
+    private int[] hashes = new int[256];
+    private int numKeys = 0;
+    /* true once there are too many keys for the Bloom filter */
+    private boolean full = false;
+    private int min = Integer.MAX_VALUE;
+    private int max = Integer.MIN_VALUE;
+
+    private long[] bits;
+    private int mask;
+
+    /**
+     * Creates an empty filter on field field, of type type, of the probe
+     * tuples.
+     */
+    public JoinFilter(int field, Type type) {
+        this.field = field;
+        this.intKey = type == Type.INT_TYPE;
+    }
+
+    /** @return the field of the probe tuples tested */
+    public int getField() {
+        return field;
+    }
+
+    /** Adds the key of field keyField of build tuple t. */
+    public void add(Tuple t, int keyField) {
+        int h;
+        if (intKey) {
+            int key = t.getInt(keyField);
+            if (key < min)
+                min = key;
+            if (key > max)
+                max = key;
+            h = key;
+        } else {
+            h = t.getString(keyField).hashCode();
+        }
+        if (full)
+            return;
+        if (numKeys == MAX_BITS / BITS_PER_KEY) {
+            full = true;
+            hashes = null;
+            return;
+        }
+        if (numKeys == hashes.length) {
+            int[] bigger = new int[hashes.length * 2];
+            System.arraycopy(hashes, 0, bigger, 0, numKeys);
+            hashes = bigger;
+        }
+        hashes[numKeys++] = HashIndexFile.mix(h);
+    }
+
+    /** Builds the Bloom filter over the keys added, which can be tested from then on. */
+    public void build() {
+        if (full)
+            return;
+        int size = 64;
+        while (size < MAX_BITS && size < (long) numKeys * BITS_PER_KEY)
+            size <<= 1;
+        bits = new long[size >>> 6];
+        mask = size - 1;
+        for (int i = 0; i < numKeys; i++) {
+            int h1 = hashes[i];
+            int h2 = second(h1);
+            for (int k = 0; k < NUM_HASHES; k++) {
+                int bit = (h1 + k * h2) & mask;
+                bits[bit >>> 6] |= 1L << bit;
+            }
+        }
+        hashes = null;
+    }
+
+    private static int second(int h1) {
+        return (h1 >>> 16 | h1 << 16) * 0x9e3779b9 | 1;
+    }
+
+    private boolean mightContain(int h) {
+        if (bits == null)
+            return true;
+        int h1 = HashIndexFile.mix(h);
+        int h2 = second(h1);
+        for (int k = 0; k < NUM_HASHES; k++) {
+            int bit = (h1 + k * h2) & mask;
+            if ((bits[bit >>> 6] & 1L << bit) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /** @return false if probe tuple t has no match among the build keys */
+    public boolean test(Tuple t) {
+        if (intKey) {
+            int key = t.getInt(field);
+            return key >= min && key <= max && mightContain(key);
+        }
+        return mightContain(t.getString(field).hashCode());
+    }
+}
@@ -63,14 +63,66 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p, plan1, plan2);
+        if (lj.mergeJoin) {
+            // sort the inputs that are not sorted on their join field already
+            if (!isSortedOn(plan1, plan1.getTupleDesc().getFieldName(t1id)))
+                plan1 = new OrderBy(t1id, true, plan1);
+            if (!isSortedOn(plan2, plan2.getTupleDesc().getFieldName(t2id)))
+                plan2 = new OrderBy(t2id, true, plan2);
+            j = new MergeJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS
+                && (isIndexedScan(plan1, t1id) || isIndexedScan(plan2, t2id))) {
+            // an existing hash index on a base table is the build side
+            j = new HashEquiJoin(p, plan1, plan2);
+        } else {
+            j = new Join(p, plan1, plan2);
+        }
 
         return j;
 
     }
 
     /**
-     * Estimate the join cardinality of two tables.
+     * @return true if plan is a scan of a base table with a hash index on
+     *   field
+     */
+    private static boolean isIndexedScan(DbIterator plan, int field) {
+        if (!(plan instanceof SeqScan))
+            return false;
+        return Database.getCatalog().getHashIndex(((SeqScan) plan).getTableId(), field) != null;
+    }
+
+    /**
+     * @return true if the tuples of plan come out in ascending order of the
+     *   field named field
+     */
+    static boolean isSortedOn(DbIterator plan, String field) {
+        if (plan instanceof OrderBy) {
+            OrderBy o = (OrderBy) plan;
+            return o.isASC() && o.getOrderFieldName().equals(field);
+        }
+        if (plan instanceof TopN) {
+            TopN t = (TopN) plan;
+            return t.isASC() && t.getOrderFieldName().equals(field);
+        }
+        if (plan instanceof MergeJoin)
+            return ((MergeJoin) plan).isSortedOn(field);
+        if (plan instanceof Filter || plan instanceof Limit)
+            return isSortedOn(((Operator) plan).getChildren()[0], field);
+        if (plan instanceof HashIndexScan) {
+            // all the tuples have the same key
+            HashIndexScan s = (HashIndexScan) plan;
+            return field.equals(s.getAlias() + "." + s.getKeyFieldName());
+        }
+        return false;
+    }
+
+    /**
+     * Estimate the join cardinality of two tables.  An equality join on a
+     * primary key matches each tuple of the other side at most once;
+     * otherwise each of its card1 * card2 pairs matches with probability
+     * 1 / the larger number of distinct values of the two join fields, when
+     * they are known from the {@link TableStats} of the tables.
      */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
                                                    String table1Alias, String table2Alias, String field1PureName,
@@ -85,8 +137,14 @@ public class JoinOptimizer {
             } else if (t2pkey && !t1pkey) {
                 card = card1;
             } else {
-
-                card = card1 > card2 ? card1 : card2;
+                // a side has no more distinct values than tuples left
+                int ndv = Math.max(
+                        distinctValues(table1Alias, field1PureName, card1, stats, tableAliasToId),
+                        distinctValues(table2Alias, field2PureName, card2, stats, tableAliasToId));
+                if (ndv > 0)
+                    card = (int) Math.min(Integer.MAX_VALUE, (double) card1 * card2 / ndv);
+                else
+                    card = card1 > card2 ? card1 : card2;
             }
 
 
@@ -98,6 +156,28 @@ public class JoinOptimizer {
         return card <= 0 ? 1 : card;
     }
 
+    /**
+     * @return the estimated number of distinct values of field of the table
+     *   aliased alias, among card of its tuples, or 0 if the table has no
+     *   statistics
+     */
+    private static int distinctValues(String alias, String field, int card,
+            Map<String, TableStats> stats, Map<String, Integer> tableAliasToId) {
+        Integer tableId = alias == null || tableAliasToId == null ? null : tableAliasToId.get(alias);
+        if (tableId == null)
+            return 0;
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            return 0;
+        int ndv;
+        try {
+            ndv = s.estimateDistinctValues(Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(field));
+        } catch (NoSuchElementException e) {
+            return 0;
+        }
+        return Math.min(ndv, card);
+    }
+
     /**
      * Estimate the cost of a join.
      * <p>
@@ -125,15 +205,52 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Project 3.
             return card1 + cost1 + cost2;
         } else {
-            // some code goes here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic nested-loops
-            // join.
-            double cost = cost1 + card1 * cost2 + card1 * card2;
+            // a block nested-loops join scans the inner once per block of
+            // outer tuples, and still tests every pair of tuples
+            double passes = Math.max(1.0, (double) card1 / outerBlockTuples(j));
+            double cost = cost1 + passes * cost2 + (double) card1 * card2;
             return cost;
         }
     }
 
+    /**
+     * Estimate the cost of evaluating a join with a {@link MergeJoin}: both
+     * inputs are scanned once and sorted unless they are already in order,
+     * and each output tuple is produced without testing the predicate.
+     *
+     * @param sorted1 true if the left-hand side is already sorted on its join field
+     * @param sorted2 true if the right-hand side is already sorted on its join field
+     * @param outCard Estimated cardinality of the join
+     * @see #estimateJoinCost
+     */
+    public double estimateMergeJoinCost(LogicalJoinNode j, int card1, int card2,
+                                        double cost1, double cost2, boolean sorted1, boolean sorted2, int outCard) {
+        double cost = cost1 + cost2 + card1 + card2 + outCard;
+        if (!sorted1)
+            cost += sortCost(card1);
+        if (!sorted2)
+            cost += sortCost(card2);
+        return cost;
+    }
+
+    /** @return the estimated cost of sorting card tuples in memory */
+    private static double sortCost(int card) {
+        if (card <= 1)
+            return 0;
+        return card * (Math.log(card) / Math.log(2));
+    }
+
+    /**
+     * @return the number of outer tuples Join buffers per block, sized from
+     *   the schema of j's left-hand table
+     */
+    private int outerBlockTuples(LogicalJoinNode j) {
+        Integer tableId = p == null ? null : p.getTableId(j.t1Alias);
+        if (tableId == null)
+            return Join.blockTuples(new TupleDesc(new Type[] { Type.INT_TYPE }), Join.getBlockMemory());
+        return Join.blockTuples(Database.getCatalog().getTupleDesc(tableId), Join.getBlockMemory());
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -191,9 +308,172 @@ public class JoinOptimizer {
 
     }
 
+    /** Most tables whose joins can be ordered exhaustively, each a bit of the masks of sets of tables. */
+    public static final int DP_TABLES_LIMIT = 20;
+    /** Default most tables whose joins {@link #orderJoins} orders exhaustively. */
+    public static final int DEFAULT_MAX_DP_TABLES = 16;
+    /** Default milliseconds {@link #orderJoins} improves the order of the joins of more tables for. */
+    public static final int DEFAULT_PLANNING_TIME = 100;
+    /**
+     * Most splits of connected sets of tables into two the exhaustive
+     * search enumerates; beyond, it joins the plans of sets with one more
+     * table only, into left-deep plans.
+     */
+    static final long MAX_BUSHY_SPLITS = 1L << 24;
+
+    private static int maxDpTables = DEFAULT_MAX_DP_TABLES;
+    private static int planningTime = DEFAULT_PLANNING_TIME;
+
+    /**
+     * Sets the most tables whose joins {@link #orderJoins} finds the best
+     * left-deep order of; the joins of more tables are ordered greedily and
+     * then improved at random.
+     *
+     * @throws IllegalArgumentException if tables is not positive or is more
+     *   than {@link #DP_TABLES_LIMIT}
+     */
+    public static void setMaxDpTables(int tables) {
+        if (tables <= 0 || tables > DP_TABLES_LIMIT)
+            throw new IllegalArgumentException("tables must be between 1 and " + DP_TABLES_LIMIT);
+        maxDpTables = tables;
+    }
+
+    /** @return the most tables whose joins are ordered exhaustively */
+    public static int getMaxDpTables() {
+        return maxDpTables;
+    }
+
+    /**
+     * Sets the milliseconds {@link #orderJoins} spends improving the greedy
+     * order of the joins of more than {@link #getMaxDpTables} tables.
+     */
+    public static void setPlanningTime(int millis) {
+        if (millis <= 0)
+            throw new IllegalArgumentException("planning time must be positive");
+        planningTime = millis;
+    }
+
+    /** @return the milliseconds spent improving the order of the joins of many tables */
+    public static int getPlanningTime() {
+        return planningTime;
+    }
+
+    /**
+     * The tables joined by the joins being ordered, numbered from 0, with
+     * the cost and cardinality of their scans.  The subquery joined by a
+     * {@link LogicalSubplanJoinNode} is a table of its own.
+     */
+    private class JoinGraph {
+        final int numTables;
+        /* the alias of each table, or null for a subquery */
+        final String[] aliases;
+        final double[] scanCosts;
+        final int[] cards;
+        /* the tables joined by each join */
+        final int[] left;
+        final int[] right;
+        /* the tables each table is joined with, as a mask, if there are at most DP_TABLES_LIMIT */
+        final int[] neighbours;
+
+        JoinGraph(Map<String, TableStats> stats, Map<String, Double> filterSelectivities)
+                throws ParsingException {
+            HashMap<String, Integer> index = new HashMap<String, Integer>();
+            ArrayList<String> names = new ArrayList<String>();
+            left = new int[joins.size()];
+            right = new int[joins.size()];
+            for (int i = 0; i < joins.size(); i++) {
+                LogicalJoinNode j = joins.get(i);
+                left[i] = tableIndex(j.t1Alias, index, names);
+                right[i] = j instanceof LogicalSubplanJoinNode ? tableIndex(null, index, names)
+                        : tableIndex(j.t2Alias, index, names);
+                if (left[i] == right[i])
+                    throw new ParsingException("Cannot join " + j.t1Alias + " with itself");
+            }
+            numTables = names.size();
+            aliases = names.toArray(new String[numTables]);
+            scanCosts = new double[numTables];
+            cards = new int[numTables];
+            for (int t = 0; t < numTables; t++) {
+                // a subquery is costed by its join
+                if (aliases[t] == null)
+                    continue;
+                TableStats s = stats.get(Database.getCatalog().getTableName(p.getTableId(aliases[t])));
+                scanCosts[t] = s.estimateScanCost();
+                cards[t] = s.estimateTableCardinality(filterSelectivities.get(aliases[t]));
+            }
+            if (numTables > DP_TABLES_LIMIT) {
+                neighbours = null;
+                return;
+            }
+            neighbours = new int[numTables];
+            for (int i = 0; i < joins.size(); i++) {
+                neighbours[left[i]] |= 1 << right[i];
+                neighbours[right[i]] |= 1 << left[i];
+            }
+        }
+
+        private int tableIndex(String alias, HashMap<String, Integer> index, ArrayList<String> names)
+                throws ParsingException {
+            if (alias != null) {
+                Integer t = index.get(alias);
+                if (t != null)
+                    return t;
+                if (p.getTableId(alias) == null)
+                    throw new ParsingException("Unknown table " + alias);
+                index.put(alias, names.size());
+            }
+            names.add(alias);
+            return names.size() - 1;
+        }
+
+        /** @return the tables joined with a table of set s, and not in s */
+        int neighbours(int s) {
+            int n = 0;
+            for (int rest = s; rest != 0; rest &= rest - 1)
+                n |= neighbours[Integer.numberOfTrailingZeros(rest)];
+            return n & ~s;
+        }
+
+        /** @return true if join i joins a table of set s1 with a table of set s2 */
+        boolean joins(int i, int s1, int s2) {
+            return ((s1 & 1 << left[i]) != 0 && (s2 & 1 << right[i]) != 0)
+                    || ((s2 & 1 << left[i]) != 0 && (s1 & 1 << right[i]) != 0);
+        }
+
+        /** @return true if join i joins table t with one of the tables joined */
+        boolean joins(int i, boolean[] joined, int t) {
+            return (left[i] == t && joined[right[i]]) || (right[i] == t && joined[left[i]]);
+        }
+
+        /** @return the set of the tables joined by j, one of the joins being ordered or a copy of it */
+        int tablesOf(LogicalJoinNode j) {
+            for (int i = 0; i < joins.size(); i++) {
+                LogicalJoinNode o = joins.get(i);
+                if (j instanceof LogicalSubplanJoinNode ? j.equals(o)
+                        : !(o instanceof LogicalSubplanJoinNode) && j.equals(o))
+                    return 1 << left[i] | 1 << right[i];
+            }
+            return 0;
+        }
+    }
+
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * project description for hints on how this should be implemented.
+     * <p>
+     * The best plan of every connected set of tables is found bottom up,
+     * from the best plans of the pairs of connected sets it splits into,
+     * which need not be single tables: plans may be bushy.  Sets of tables
+     * are bit masks, and the plans are memoized in arrays indexed by them
+     * (see {@link PlanCache}); only connected sets are visited.  When the
+     * sets have more than {@link #MAX_BUSHY_SPLITS} splits, only the
+     * splits off of a single table, into left-deep plans, are costed.
+     * <p>
+     * The joins of more than {@link #getMaxDpTables} tables are ordered by
+     * adding, from each table in turn, the table that is cheapest to join
+     * next.  The cheapest of these orders is then improved by moving tables
+     * at random for up to {@link #getPlanningTime} milliseconds, or until
+     * many moves in a row find no cheaper order.
      *
      * @param stats               Statistics for each table involved in the join, referenced by
      *                            base table names, not alias
@@ -202,63 +482,82 @@ public class JoinOptimizer {
      *                            name)
      * @param explain             Indicates whether your code should explain its query plan or
      *                            simply execute it
-     * @return A Vector<LogicalJoinNode> that stores joins in the left-deep
-     * order in which they should be executed.
+     * @return A Vector<LogicalJoinNode> that stores joins in the order in
+     * which they should be executed; each join joins the plans that join
+     * its two tables so far, see {@link LogicalPlan#physicalPlan}.
      * @throws ParsingException when stats or filter selectivities is missing a table in the
-     *                          join, or or when another internal error occurs
+     *                          join, when the joins do not connect all of their tables, or
+     *                          when another internal error occurs
      */
     public Vector<LogicalJoinNode> orderJoins(
             HashMap<String, TableStats> stats,
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
 
-        // See the project writeup for some hints as to how this function
-        // should work.
-
-//        1. j = set of join nodes
-//        2. for (i in 1...|j|):  // First find best plan for single join, then for two joins, etc.
-//        3.     for s in {all length i subsets of j} // Looking at a concrete subset of joins
-//        4.       bestPlan = {}  // We want to find the best plan for this concrete subset
-//        5.       for s' in {all length i-1 subsets of s}
-//        6.            subplan = optjoin(s')  // Look-up in the cache the best query plan for s but with one relation missing
-//        7.            plan = best way to join (s-s') to subplan // Now find the best plan to extend s' by one join to get s
-//        8.            if (cost(plan) < cost(bestPlan))
-//            9.               bestPlan = plan // Update the best plan for computing s
-//        10.      optjoin(s) = bestPlan
-//        11. return optjoin(j)
-
-        // some code goes here
-        PlanCache optPlanCache = new PlanCache();
-        Set<LogicalJoinNode> joinNodeSet = new HashSet<LogicalJoinNode>(joins);
-
         // corner case: no join
         if (joins.size() == 0) {
             Vector<LogicalJoinNode> optJoinOrder = new Vector<LogicalJoinNode>();
             return optJoinOrder;
         }
 
-        // dynamic programming, bottom up
-        for (int i = 1; i <= joinNodeSet.size(); i++) {
-            Set<Set<LogicalJoinNode>> subsets = enumerateSubsets(joins, i);
-            // find best join order for a given subset
-            for (Set<LogicalJoinNode> joinSet : subsets) {
-                CostCard bestPlanCostCard = new CostCard();
-                bestPlanCostCard.cost = Double.MAX_VALUE;
-                for (LogicalJoinNode joinToRemove : joinSet) {
-                    CostCard planCostCard = computeCostAndCardOfSubplan(stats, filterSelectivities, joinToRemove, joinSet, bestPlanCostCard.cost, optPlanCache);
-                    if (planCostCard != null && planCostCard.cost < bestPlanCostCard.cost) {
-                        bestPlanCostCard = planCostCard;
-                    }
+        JoinGraph g = new JoinGraph(stats, filterSelectivities);
+        // the final plan does not need an ORDER BY sort if it is sorted already
+        String interestingOrder = p == null ? null : p.getInterestingOrder();
+        if (g.numTables > maxDpTables)
+            return orderJoinsHeuristically(stats, g, interestingOrder, explain, filterSelectivities);
+
+        int all = (1 << g.numTables) - 1;
+        PlanCache optPlanCache = new PlanCache(g.numTables);
+        for (int t = 0; t < g.numTables; t++)
+            optPlanCache.addPlan(1 << t, g.scanCosts[t], g.cards[t], 0, 0, new LogicalJoinNode[0], false,
+                    Collections.<String>emptySet());
+
+        // a set is connected if it extends a smaller connected set by one of
+        // its neighbours
+        boolean[] connected = new boolean[all + 1];
+        long splits = 0;
+        for (int t = 0; t < g.numTables; t++)
+            connected[1 << t] = true;
+        for (int s = 1; s <= all; s++) {
+            if (!connected[s])
+                continue;
+            splits += 1L << Integer.bitCount(s);
+            for (int next = g.neighbours(s); next != 0; next &= next - 1)
+                connected[s | (next & -next)] = true;
+        }
+        boolean bushy = splits <= MAX_BUSHY_SPLITS;
+
+        // a set is bigger than the sets its plans join, so their best plans
+        // are known by the time it is reached
+        for (int s = 1; s <= all; s++) {
+            if (!connected[s] || (s & (s - 1)) == 0)
+                continue;
+            if (bushy) {
+                // each split once, with the lowest table of s in s1
+                int low = s & -s;
+                for (int s1 = (s - 1) & s; s1 != 0; s1 = (s1 - 1) & s) {
+                    if ((s1 & low) != 0 && connected[s1] && connected[s ^ s1])
+                        joinPlans(stats, g, s1, s ^ s1, interestingOrder, optPlanCache);
+                }
+            } else {
+                for (int rest = s; rest != 0; rest &= rest - 1) {
+                    int t = rest & -rest;
+                    if (connected[s ^ t])
+                        joinPlans(stats, g, s ^ t, t, interestingOrder, optPlanCache);
                 }
-                optPlanCache.addPlan(joinSet, bestPlanCostCard.cost, bestPlanCostCard.card, bestPlanCostCard.plan);
             }
         }
 
-        Vector<LogicalJoinNode> optJoinOrder = optPlanCache.getOrder(joinNodeSet);
+        Vector<LogicalJoinNode> optJoinOrder = optPlanCache.getOrder(all);
+        if (optJoinOrder == null)
+            throw new ParsingException("Query does not include join expressions joining all nodes!");
 
         // explain the join plan
         if (explain) {
-            printJoins(optJoinOrder, optPlanCache, stats, filterSelectivities);
+            double[] costs = new double[optJoinOrder.size()];
+            int[] cards = new int[optJoinOrder.size()];
+            explainPlan(optPlanCache, all, costs, cards, 0);
+            printJoins(optJoinOrder, costs, cards, stats, filterSelectivities);
         }
 
         return optJoinOrder;
@@ -266,124 +565,306 @@ public class JoinOptimizer {
     // ===================== Private Methods =================================
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
+     * Fills in, from position k, the cost and cardinality of the plan each
+     * join of the best plan for set s produces, in the order of
+     * {@link PlanCache#getOrder}: the plans it joins first, then its own joins.
      *
-     * @param stats               table stats for all of the tables, referenced by table names
-     *                            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities the selectivities of the filters over each of the tables
-     *                            (where tables are indentified by their alias or name if no
-     *                            alias is given)
-     * @param joinToRemove        the join to remove from joinSet
-     * @param joinSet             the set of joins being considered
-     * @param bestCostSoFar       the best way to join joinSet so far (minimum of previous
-     *                            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *                            from returned CostCard)
-     * @param pc                  the PlanCache for this join; should have subplans for all
-     *                            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     * optimal subplan
-     * @throws ParsingException when stats, filterSelectivities, or pc object is missing
-     *                          tables involved in join
+     * @return the position after the joins of s
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            HashMap<String, TableStats> stats,
-            HashMap<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        Vector<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = (Set<LogicalJoinNode>) ((HashSet<LogicalJoinNode>) joinSet)
-                .clone();
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new Vector<LogicalJoinNode>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias == null ? false : isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
+    private static int explainPlan(PlanCache pc, int s, double[] costs, int[] cards, int k) {
+        LogicalJoinNode[] step = pc.getJoins(s);
+        if (step.length == 0)
+            return k;
+        k = explainPlan(pc, pc.getLeft(s), costs, cards, k);
+        k = explainPlan(pc, pc.getRight(s), costs, cards, k);
+        for (int i = 0; i < step.length; i++, k++) {
+            costs[k] = pc.getCost(s);
+            cards[k] = pc.getCard(s);
+        }
+        return k;
+    }
 
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
+    /** A left-deep plan joining tables in order. */
+    private static class LeftDeepPlan {
+        final int[] order;
+        final double cost;
+        final Vector<LogicalJoinNode> joins;
+        /* the cost and cardinality of the plan after each of its joins */
+        final double[] costs;
+        final int[] cards;
+
+        LeftDeepPlan(int[] order, double cost, Vector<LogicalJoinNode> joins, double[] costs, int[] cards) {
+            this.order = order;
+            this.cost = cost;
+            this.joins = joins;
+            this.costs = costs;
+            this.cards = cards;
+        }
+    }
+
+    /**
+     * Orders the joins of the tables of g greedily, then improves the order
+     * at random until the planning time is up or many moves in a row find
+     * no cheaper order.  See {@link #orderJoins}.
+     */
+    private Vector<LogicalJoinNode> orderJoinsHeuristically(Map<String, TableStats> stats, JoinGraph g,
+            String interestingOrder, boolean explain, HashMap<String, Double> filterSelectivities)
+            throws ParsingException {
+        long deadline = System.currentTimeMillis() + planningTime;
+        int n = g.numTables;
+
+        LeftDeepPlan best = null;
+        for (int first = 0; first < n && (best == null || System.currentTimeMillis() < deadline); first++) {
+            LeftDeepPlan plan = greedyPlan(stats, g, first, interestingOrder);
+            if (plan != null && (best == null || plan.cost < best.cost))
+                best = plan;
+        }
+        if (best == null)
+            throw new ParsingException("Query does not include join expressions joining all nodes!");
+
+        // move a table to another place in the order, keeping cheaper orders
+        Random random = new Random(n);
+        int[] order = new int[n];
+        for (int fails = 0; fails < n * n && System.currentTimeMillis() < deadline; fails++) {
+            System.arraycopy(best.order, 0, order, 0, n);
+            int from = random.nextInt(n);
+            int to = random.nextInt(n);
+            int t = order[from];
+            if (from < to)
+                System.arraycopy(order, from + 1, order, from, to - from);
+            else
+                System.arraycopy(order, to, order, to + 1, from - to);
+            order[to] = t;
+            LeftDeepPlan plan = leftDeepPlan(stats, g, order, interestingOrder, best.cost);
+            if (plan != null) {
+                best = plan;
+                fails = -1;
             }
+        }
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias == null ? false : isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
+        if (explain)
+            printJoins(best.joins, best.costs, best.cards, stats, filterSelectivities);
+        return best.joins;
+    }
 
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
+    /**
+     * @return the plan that starts with table first and joins the table
+     *   that is cheapest to join next until all are joined, or null if
+     *   the joins do not connect all of the tables
+     */
+    private LeftDeepPlan greedyPlan(Map<String, TableStats> stats, JoinGraph g, int first,
+            String interestingOrder) throws ParsingException {
+        int n = g.numTables;
+        int[] order = new int[n];
+        boolean[] joined = new boolean[n];
+        order[0] = first;
+        joined[first] = true;
+        CostCard plan = baseCostCard(g, first);
+        for (int k = 1; k < n; k++) {
+            CostCard bestNext = null;
+            for (int t = 0; t < n; t++) {
+                if (joined[t])
+                    continue;
+                CostCard next = extendLeftDeep(stats, g, plan, joined, t, k == 1,
+                        k == n - 1 ? interestingOrder : null, null);
+                if (next != null && (bestNext == null || next.cost < bestNext.cost)) {
+                    bestNext = next;
+                    order[k] = t;
+                }
+            }
+            if (bestNext == null)
+                return null;
+            joined[order[k]] = true;
+            plan = bestNext;
+        }
+        return leftDeepPlan(stats, g, order, interestingOrder, Double.MAX_VALUE);
+    }
+
+    /**
+     * @return the plan that joins the tables of g in order, or null if it
+     *   costs at least maxCost or joins a table that is not joined with
+     *   one of the tables before it
+     */
+    private LeftDeepPlan leftDeepPlan(Map<String, TableStats> stats, JoinGraph g, int[] order,
+            String interestingOrder, double maxCost) throws ParsingException {
+        int n = g.numTables;
+        boolean[] joined = new boolean[n];
+        joined[order[0]] = true;
+        CostCard plan = baseCostCard(g, order[0]);
+        Vector<LogicalJoinNode> js = new Vector<LogicalJoinNode>();
+        double[] costs = new double[joins.size()];
+        int[] cards = new int[joins.size()];
+        for (int k = 1; k < n; k++) {
+            int first = js.size();
+            plan = extendLeftDeep(stats, g, plan, joined, order[k], k == 1,
+                    k == n - 1 ? interestingOrder : null, js);
+            if (plan == null || plan.cost >= maxCost)
                 return null;
+            for (int i = first; i < js.size(); i++) {
+                costs[i] = plan.cost;
+                cards[i] = plan.card;
             }
+            joined[order[k]] = true;
         }
+        return new LeftDeepPlan(order.clone(), plan.cost, js, costs, cards);
+    }
 
-        // case where prevbest is left
+    /** @return the plan of a scan of table t of g */
+    private static CostCard baseCostCard(JoinGraph g, int t) {
+        CostCard cc = new CostCard();
+        cc.cost = g.scanCosts[t];
+        cc.card = g.cards[t];
+        cc.sortedOn = Collections.emptySet();
+        return cc;
+    }
+
+    /**
+     * @return the cheapest plan joining table t to plan, which joins the
+     *   tables marked in joined, or null if t is not joined with one of
+     *   them; its join, followed by the other joins between t and them, is
+     *   added to js if js is not null
+     * @param base true if plan is the scan of a single table
+     * @param interestingOrder the field the output of the plan should be
+     *   sorted on, or null
+     */
+    private CostCard extendLeftDeep(Map<String, TableStats> stats, JoinGraph g, CostCard plan,
+            boolean[] joined, int t, boolean base, String interestingOrder, Vector<LogicalJoinNode> js)
+            throws ParsingException {
+        CostCard best = null;
+        int bestJoin = -1;
+        for (int i = 0; i < joins.size(); i++) {
+            if (!g.joins(i, joined, t))
+                continue;
+            double bestCost = best == null ? Double.MAX_VALUE : best.cost;
+            CostCard cc = g.right[i] == t
+                    ? computeCostAndCardOfSubplan(stats, i, plan, base, baseCostCard(g, t), true, bestCost)
+                    : computeCostAndCardOfSubplan(stats, i, baseCostCard(g, t), true, plan, base, bestCost);
+            if (cc != null && interestingOrder != null && !cc.sortedOn.contains(interestingOrder))
+                cc.cost += sortCost(cc.card);
+            if (cc != null && (best == null || cc.cost < best.cost)) {
+                best = cc;
+                bestJoin = i;
+            }
+        }
+        if (best == null)
+            return null;
+        best.pkey = plan.pkey || hasPkey(best.join);
+        if (js != null)
+            js.add(best.join);
+        for (int i = 0; i < joins.size(); i++) {
+            if (i != bestJoin && g.joins(i, joined, t)) {
+                best.pkey |= hasPkey(joins.get(i));
+                if (js != null)
+                    js.add(joins.get(i));
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Adds to pc the plan joining the best plans of sets s1 and s2, which
+     * are connected and joined with each other, if it is the best plan of
+     * their union found so far.  Of the joins between s1 and s2, the
+     * cheapest is the join of the plan, and the others follow it.
+     *
+     * @param interestingOrder the field the output of the plan of all of
+     *   the tables should be sorted on, or null
+     */
+    private void joinPlans(Map<String, TableStats> stats, JoinGraph g, int s1, int s2,
+            String interestingOrder, PlanCache pc) throws ParsingException {
+        int union = s1 | s2;
+        boolean complete = union == (1 << g.numTables) - 1;
+        double bestCost = pc.hasPlan(union) ? pc.getCost(union) : Double.MAX_VALUE;
+        CostCard plan1 = costCardOf(s1, pc);
+        CostCard plan2 = costCardOf(s2, pc);
+        // a single table is a base relation, whose key is the field of the join
+        boolean base1 = (s1 & (s1 - 1)) == 0;
+        boolean base2 = (s2 & (s2 - 1)) == 0;
+        CostCard best = null;
+        int bestJoin = -1;
+        int between = 0;
+        for (int i = 0; i < joins.size(); i++) {
+            if (!g.joins(i, s1, s2))
+                continue;
+            between++;
+            CostCard cc = (s1 & 1 << g.left[i]) != 0
+                    ? computeCostAndCardOfSubplan(stats, i, plan1, base1, plan2, base2, bestCost)
+                    : computeCostAndCardOfSubplan(stats, i, plan2, base2, plan1, base1, bestCost);
+            if (cc != null && complete && interestingOrder != null && !cc.sortedOn.contains(interestingOrder))
+                cc.cost += sortCost(cc.card);
+            if (cc != null && cc.cost < bestCost) {
+                best = cc;
+                bestJoin = i;
+                bestCost = cc.cost;
+            }
+        }
+        if (best == null)
+            return;
+
+        LogicalJoinNode[] step = new LogicalJoinNode[between];
+        step[0] = best.join;
+        boolean pkey = plan1.pkey || plan2.pkey || hasPkey(best.join);
+        int k = 1;
+        for (int i = 0; i < joins.size(); i++) {
+            if (i != bestJoin && g.joins(i, s1, s2)) {
+                step[k++] = joins.get(i);
+                pkey |= hasPkey(joins.get(i));
+            }
+        }
+        // the plan of the outer side of the join first
+        int outer = best.join.t1Alias.equals(joins.get(bestJoin).t1Alias) ? g.left[bestJoin] : g.right[bestJoin];
+        if ((s1 & 1 << outer) != 0)
+            pc.addPlan(union, best.cost, best.card, s1, s2, step, pkey, best.sortedOn);
+        else
+            pc.addPlan(union, best.cost, best.card, s2, s1, step, pkey, best.sortedOn);
+    }
+
+    /** @return the best plan of set s in pc */
+    private static CostCard costCardOf(int s, PlanCache pc) {
+        CostCard cc = new CostCard();
+        cc.cost = pc.getCost(s);
+        cc.card = pc.getCard(s);
+        cc.pkey = pc.hasPkey(s);
+        cc.sortedOn = pc.getSortOrder(s);
+        return cc;
+    }
+
+    /**
+     * This is a helper method that computes the cost and cardinality of
+     * joining plans plan1 and plan2 with join i.
+     *
+     * @param stats         table stats for all of the tables, referenced by table names
+     *                      rather than alias (see {@link #orderJoins})
+     * @param i             the index of the join to add
+     * @param plan1         the plan joining the first table of join i
+     * @param base1         true if plan1 is the scan of a single table
+     * @param plan2         the plan joining the second table of join i
+     * @param base2         true if plan2 is the scan of a single table
+     * @param bestCostSoFar the best way to join plan1 and plan2 so far (minimum of previous
+     *                      invocations of computeCostAndCardOfSubplan for this set,
+     *                      from returned CostCard)
+     * @return A {@link CostCard} objects desribing the cost, cardinality and
+     * join of the plan, or null if it costs more than bestCostSoFar
+     * @throws ParsingException when stats is missing tables involved in join
+     */
+    private CostCard computeCostAndCardOfSubplan(
+            Map<String, TableStats> stats, int i, CostCard plan1, boolean base1,
+            CostCard plan2, boolean base2, double bestCostSoFar) throws ParsingException {
+
+        LogicalJoinNode j = joins.get(i);
+        LogicalJoinNode joinToRemove = j;
+
+        double t1cost = plan1.cost;
+        int t1card = plan1.card;
+        boolean leftPkey = base1 ? isPkey(j.t1Alias, j.f1PureName) : plan1.pkey;
+        double t2cost = plan2.cost;
+        int t2card = plan2.card;
+        boolean rightPkey = base2 ? j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName) : plan2.pkey;
+
+        // case where plan1 is the outer
         double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        int mergeCard = estimateJoinCardinality(j, t1card, t2card, leftPkey,
+                rightPkey, stats);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
         double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
@@ -395,32 +876,36 @@ public class JoinOptimizer {
             rightPkey = leftPkey;
             leftPkey = tmp;
         }
+
+        // a merge join is cheap if a subplan is already sorted on its join field
+        Set<String> sortedOn = Collections.emptySet();
+        if (!(joinToRemove instanceof LogicalSubplanJoinNode) && MergeJoin.supports(joinToRemove.p)) {
+            LogicalJoinNode m = joinToRemove;
+            double mergeCost = estimateMergeJoinCost(m, t1card, t2card, t1cost, t2cost,
+                    plan1.sortedOn.contains(m.f1QuantifiedName), plan2.sortedOn.contains(m.f2QuantifiedName),
+                    mergeCard);
+            if (mergeCost < cost1) {
+                j = m.asMergeJoin();
+                cost1 = mergeCost;
+                sortedOn = new HashSet<String>();
+                sortedOn.add(m.f1QuantifiedName);
+                if (m.p == Predicate.Op.EQUALS)
+                    sortedOn.add(m.f2QuantifiedName);
+            }
+        }
         if (cost1 >= bestCostSoFar)
             return null;
 
         CostCard cc = new CostCard();
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
+        cc.card = j.mergeJoin ? mergeCard : estimateJoinCardinality(j, t1card, t2card, leftPkey,
                 rightPkey, stats);
         cc.cost = cost1;
-        cc.plan = (Vector<LogicalJoinNode>) prevBest.clone();
-        cc.plan.addElement(j); // prevbest is left -- add new join to end
+        cc.join = j;
+        cc.sortedOn = sortedOn;
         return cc;
     }
 
-    /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
-     */
-    private boolean doesJoin(Vector<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
-        }
-        return false;
-    }
-
     /**
      * Return true if field is a primary key of the specified table, false
      * otherwise
@@ -436,17 +921,11 @@ public class JoinOptimizer {
     }
 
     /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
+     * Return true if j joins on a primary key field
      */
-    private boolean hasPkey(Vector<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
+    private boolean hasPkey(LogicalJoinNode j) {
+        return isPkey(j.t1Alias, j.f1PureName)
+                || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName));
     }
 
     /**
@@ -455,14 +934,15 @@ public class JoinOptimizer {
      * call this when the analyze flag is true.
      *
      * @param js            the join plan to visualize
-     * @param pc            the PlanCache accumulated whild building the optimal plan
+     * @param costs         the cost of the plan each of the joins produces
+     * @param cards         the cardinality of the plan each of the joins produces
      * @param stats         table statistics for base tables
      * @param selectivities the selectivities of the filters over each of the tables
      *                      (where tables are indentified by their alias or name if no
      *                      alias is given)
      */
-    private void printJoins(Vector<LogicalJoinNode> js, PlanCache pc,
-                            HashMap<String, TableStats> stats,
+    private void printJoins(Vector<LogicalJoinNode> js, double[] costs, int[] cards,
+                            Map<String, TableStats> stats,
                             HashMap<String, Double> selectivities) {
 
         JFrame f = new JFrame("Join Plan for " + p.getQuery());
@@ -481,11 +961,12 @@ public class JoinOptimizer {
 
         // int k;
         DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<LogicalJoinNode>();
+        Vector<LogicalJoinNode> pathSoFar = new Vector<LogicalJoinNode>();
         boolean neither;
 
         System.out.println(js);
         for (LogicalJoinNode j : js) {
+            int k = pathSoFar.size();
             pathSoFar.add(j);
             System.out.println("PATH SO FAR = " + pathSoFar);
 
@@ -498,8 +979,8 @@ public class JoinOptimizer {
             neither = true;
 
             root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
+                    + costs[k] + ", card = "
+                    + cards[k] + ")");
             DefaultMutableTreeNode n = m.get(j.t1Alias);
             if (n == null) { // never seen this table before
                 n = new DefaultMutableTreeNode(j.t1Alias
@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Limit returns at most the first n tuples of its child.  Since operators
+ * pull tuples on demand, the child and everything below it stop doing work
+ * once n tuples have been returned: scans read no further pages and
+ * non-blocking joins produce no further matches.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final int limit;
+    private int count;
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            the largest number of tuples to return
+     * @param child
+     *            the child operator
+     */
+    public Limit(int limit, DbIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.limit = limit;
+        this.child = child;
+    }
+
+    /** @return the largest number of tuples returned */
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        count = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        count = 0;
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (count >= limit || !child.hasNext())
+            return null;
+        count++;
+        return child.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
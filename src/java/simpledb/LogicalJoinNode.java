@@ -23,6 +23,9 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** True if the join should be evaluated by a {@link MergeJoin} */
+    public boolean mergeJoin;
+
     public LogicalJoinNode() {
     }
 
@@ -63,6 +66,13 @@ public class LogicalJoinNode {
         return j2;
     }
     
+    /** Return a copy of this LogicalJoinNode that is evaluated by a merge join. */
+    public LogicalJoinNode asMergeJoin() {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1Alias,t2Alias,f1PureName,f2PureName,p);
+        j2.mergeJoin = true;
+        return j2;
+    }
+
     @Override public boolean equals(Object o) {
         LogicalJoinNode j2 =(LogicalJoinNode)o;
         return (j2.t1Alias.equals(t1Alias)  || j2.t1Alias.equals(t2Alias)) && (j2.t2Alias.equals(t1Alias)  || j2.t2Alias.equals(t2Alias));
@@ -2,6 +2,7 @@ package simpledb;
 import java.util.Map;
 import java.util.Vector;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.io.File;
 import java.util.ArrayList;
@@ -12,9 +13,9 @@ import java.util.NoSuchElementException;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, aggregates, and group by fields.
+ * All of the aggregates are computed in one pass, grouped by all of the
+ * group by fields.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -29,13 +30,19 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private Vector<String> aggOps;
+    private Vector<String> aggFields;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1;
     private String query;
+    /* true once the joins are in the order to run them */
+    private boolean joinOrderFixed = false;
+
+    /** Smallest number of pages of a table per partition of a parallel scan. */
+    private static final int MIN_PARTITION_PAGES = 16;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -47,6 +54,9 @@ public class LogicalPlan {
         tableMap = new HashMap<String,Integer>();
 
         selectList = new Vector<LogicalSelectListNode>();
+        groupByFields = new Vector<String>();
+        aggOps = new Vector<String>();
+        aggFields = new Vector<String>();
         this.query = "";
     }
 
@@ -81,6 +91,29 @@ public class LogicalPlan {
         return this.tableMap;
     }
 
+    /** @return the filters of this plan, in the order they were added */
+    Vector<LogicalFilterNode> getFilters() {
+        return filters;
+    }
+
+    /** @return true if this plan joins with the physical plan of a subquery */
+    boolean hasSubplans() {
+        for (LogicalJoinNode lj : joins) {
+            if (lj instanceof LogicalSubplanJoinNode)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Makes {@link #physicalPlan} keep the order and the implementations
+     * its last call chose for the joins, rather than reordering them, if
+     * fixed is true.
+     */
+    void setJoinOrderFixed(boolean fixed) {
+        joinOrderFixed = fixed;
+    }
+
     /** Add a new filter to the logical plan
      *   @param field The name of the over which the filter applies;
      *   this can be a fully qualified field (tablename.field or
@@ -186,23 +219,53 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  All of the aggregates of a query share its GROUP BY
+        fields.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
+        ArrayList<String> gfields = new ArrayList<String>();
+        if (gfield != null)
+            gfields.add(gfield);
+        addAggregate(op, afield, gfields);
+    }
+
+    /** Add an aggregate over the field to the query, grouped by the
+        specified fields.  Every aggregate of the query is computed in a
+        single pass, grouped by every field added by any call.
+        @param op the aggregation operator
+        @param afield the field to aggregate over, or * (for COUNT)
+        @param gfields the fields to group by
+     * @throws ParsingException 
+    */
+    public void addAggregate(String op, String afield, java.util.List<String> gfields) throws ParsingException {
         afield=disambiguateName(afield);
-        if (gfield!=null)
+        if (afield.equals("*"))
+            afield="null.*";
+        for (String gfield : gfields) {
             gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            if (!groupByFields.contains(gfield))
+                groupByFields.addElement(gfield);
+        }
+        if (aggIndex(op, afield) < 0) {
+            aggOps.addElement(op);
+            aggFields.addElement(afield);
+        }
         hasAgg = true;
     }
 
+    /** @return the index of the aggregate op(afield) among the aggregates, or -1 */
+    private int aggIndex(String op, String afield) {
+        for (int k = 0; k < aggOps.size(); k++) {
+            if (aggOps.elementAt(k).equalsIgnoreCase(op) && aggFields.elementAt(k).equals(afield))
+                return k;
+        }
+        return -1;
+    }
+
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
         a single ORDER BY field.
         @param field the field to order by
@@ -216,6 +279,32 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Limit the result to the first n tuples.
+        @param n the largest number of tuples to return
+     * @throws ParsingException if n is negative
+    */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("LIMIT must not be negative");
+        limit = n;
+    }
+
+    /** @return the largest number of tuples the query returns, or -1 if it has no LIMIT */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the quantified name of the field the joined tuples will be
+     *   sorted on in ascending order by an ORDER BY, or null if there is no
+     *   such sort or it is applied to aggregated tuples
+     */
+    public String getInterestingOrder() {
+        if (!hasOrderBy || !oByAsc || hasAgg)
+            return null;
+        return oByField;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -271,8 +360,67 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * Replace the scan of every table that has equality filters on
+     * bitmap-indexed fields (and no equality filter a hash index could
+     * answer) with a BitmapIndexScan that intersects the bitmaps of all of
+     * those filters.
+     * @return the filters answered by the new scans
+     */
+    private HashSet<LogicalFilterNode> bitmapIndexScans(TransactionId t) throws ParsingException {
+        HashMap<String, ArrayList<LogicalFilterNode>> candidates = new HashMap<String, ArrayList<LogicalFilterNode>>();
+        HashSet<String> hashIndexed = new HashSet<String>();
+        for (LogicalFilterNode lf : filters) {
+            if (lf.p != Predicate.Op.EQUALS || getTableId(lf.tableAlias) == null)
+                continue;
+            int tableId = getTableId(lf.tableAlias);
+            int field;
+            try {
+                field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(lf.fieldPureName);
+            } catch (NoSuchElementException e) {
+                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+            }
+            if (Database.getCatalog().getHashIndex(tableId, field) != null)
+                hashIndexed.add(lf.tableAlias);
+            if (Database.getCatalog().getBitmapIndex(tableId, field) == null)
+                continue;
+            ArrayList<LogicalFilterNode> list = candidates.get(lf.tableAlias);
+            if (list == null) {
+                list = new ArrayList<LogicalFilterNode>();
+                candidates.put(lf.tableAlias, list);
+            }
+            list.add(lf);
+        }
+
+        HashSet<LogicalFilterNode> used = new HashSet<LogicalFilterNode>();
+        for (Map.Entry<String, ArrayList<LogicalFilterNode>> e : candidates.entrySet()) {
+            if (hashIndexed.contains(e.getKey()))
+                continue;
+            int tableId = getTableId(e.getKey());
+            TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+            ArrayList<LogicalFilterNode> list = e.getValue();
+            int[] fields = new int[list.size()];
+            Field[][] keys = new Field[list.size()][];
+            for (int i = 0; i < list.size(); i++) {
+                LogicalFilterNode lf = list.get(i);
+                fields[i] = td.fieldNameToIndex(lf.fieldPureName);
+                Field f;
+                if (td.getFieldType(fields[i]) == Type.INT_TYPE)
+                    f = new IntField(new Integer(lf.c).intValue());
+                else
+                    f = new StringField(lf.c, Type.STRING_LEN);
+                keys[i] = new Field[] { f };
+            }
+            subplanMap.put(e.getKey(), new BitmapIndexScan(t, tableId, e.getKey(), fields, keys));
+            used.addAll(list);
+        }
+        return used;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
+     *   Each join joins the plans built so far for its two tables, so the joins of a bushy order join
+     *   the plans of several tables with each other.
      *  @param t The transaction that the returned DbIterator will run as a part of
      *  @param baseTableStats a HashMap providing a {@link TableStats}
      *    object for each table used in the LogicalPlan.  This should
@@ -306,6 +454,8 @@ public class LogicalPlan {
 
         }
 
+        HashSet<LogicalFilterNode> bitmapFilters = bitmapIndexScans(t);
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -334,8 +484,26 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            int tableId = this.getTableId(lf.tableAlias);
+            if (bitmapFilters.contains(lf)) {
+                // already answered by the BitmapIndexScan under subplan
+            } else if (lf.p == Predicate.Op.EQUALS && subplan instanceof SeqScan
+                    && Database.getCatalog().getHashIndex(tableId, p.getField()) != null) {
+                // equality on an indexed field of an unfiltered table: look the key up
+                subplanMap.put(lf.tableAlias, new HashIndexScan(t, tableId, lf.tableAlias, p.getField(), f));
+            } else if (subplan instanceof Filter) {
+                // one filter tests the whole conjunction on the table
+                Filter filter = (Filter) subplan;
+                Predicate[] predicates = new Predicate[filter.getPredicates().length + 1];
+                System.arraycopy(filter.getPredicates(), 0, predicates, 0, predicates.length - 1);
+                predicates[predicates.length - 1] = p;
+                subplanMap.put(lf.tableAlias, new Filter(predicates, filter.getChildren()[0]));
+            } else {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
+            if (joinOrderFixed)
+                continue;
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
             double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
@@ -346,7 +514,8 @@ public class LogicalPlan {
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        if (!joinOrderFixed)
+            joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
@@ -407,6 +576,9 @@ public class LogicalPlan {
         }
         
         DbIterator node =  (DbIterator)(subplanMap.entrySet().iterator().next().getValue());
+        DbIterator[] parts = null;
+        if (Exchange.getParallelism() > 1)
+            parts = partitions(node, Exchange.getParallelism());
 
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
@@ -414,28 +586,32 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int k = aggIndex(si.aggOp, si.fname);
+                if (k < 0)
+                    throw new ParsingException("Unknown aggregate " + si.aggOp + "(" + si.fname + ") in SELECT list");
+                outFields.add(groupByFields.size() + k);
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
-                try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
-                } catch (NoSuchElementException e) {
-                    throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
+                if (!si.fname.equals("null.*")) {
+                    try {
+                        td.fieldNameToIndex(si.fname);
+                    } catch (NoSuchElementException e) {
+                        throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
+                    }
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int c = groupByFields.indexOf(si.fname);
+                    if (c < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(c);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -461,24 +637,142 @@ public class LogicalPlan {
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
+            int[] gfields = new int[groupByFields.size()];
+            int[] afields = new int[aggOps.size()];
+            Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                for (int c = 0; c < gfields.length; c++)
+                    gfields[c] = td.fieldNameToIndex(groupByFields.elementAt(c));
+                for (int k = 0; k < afields.length; k++) {
+                    aops[k] = getAggOp(aggOps.elementAt(k));
+                    // COUNT(*) counts the rows, so any field will do
+                    if (aggFields.elementAt(k).equals("null.*")) {
+                        if (aops[k] != Aggregator.Op.COUNT)
+                            throw new ParsingException(aggOps.elementAt(k) + "(*) is not supported");
+                        afields[k] = 0;
+                    } else {
+                        afields[k] = td.fieldNameToIndex(aggFields.elementAt(k));
+                    }
+                }
+                aggNode = new Aggregate(node, afields, gfields, aops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
             node = aggNode;
+            if (parts != null) {
+                // aggregate each partition, and merge the partial groups
+                DbIterator[] partials = new DbIterator[parts.length];
+                for (int i = 0; i < parts.length; i++)
+                    partials[i] = aggNode.partial(parts[i]);
+                node = aggNode.combine(new Gather(partials));
+            }
+        } else if (parts != null) {
+            node = new Gather(parts);
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (hasOrderBy && !(oByAsc && JoinOptimizer.isSortedOn(node, oByField))) {
+            int field = node.getTupleDesc().fieldNameToIndex(oByField);
+            // with a LIMIT only the first tuples of the order are kept
+            if (limit >= 0)
+                node = new TopN(field, oByAsc, limit, node);
+            else
+                node = new OrderBy(field, oByAsc, node);
         }
 
-        return new Project(outFields, outTypes, node);
+        DbIterator result = new Project(outFields, outTypes, node);
+        if (limit >= 0)
+            result = new Limit(limit, result);
+        return result;
+    }
+
+    /**
+     * Splits plan into n plans over disjoint parts of its input that can run
+     * in parallel and together return the tuples of plan.  Scans of big
+     * enough heap files are split by page range, filters are applied to
+     * each part, and equality joins of two big inputs are
+     * {@link HashEquiJoin#partitioned}.  An equality join of a big and a
+     * small input hash joins each part of the big one with the whole of the
+     * other, sent through a {@link Broadcast}, or probes its hash index with
+     * each part of the other input.
+     *
+     * @return the n plans, or null if plan cannot be split
+     */
+    private DbIterator[] partitions(DbIterator plan, int n) {
+        if (plan instanceof SeqScan) {
+            SeqScan scan = (SeqScan) plan;
+            DbFile file = Database.getCatalog().getDbFile(scan.getTableId());
+            if (scan.isPartial() || !(file instanceof HeapFile)
+                    || ((HeapFile) file).numPages() < n * MIN_PARTITION_PAGES)
+                return null;
+            DbIterator[] parts = new DbIterator[n];
+            System.arraycopy(scan.split(n), 0, parts, 0, n);
+            return parts;
+        }
+        if (plan instanceof Filter) {
+            Filter filter = (Filter) plan;
+            DbIterator[] parts = partitions(filter.getChildren()[0], n);
+            if (parts == null)
+                return null;
+            for (int i = 0; i < n; i++)
+                parts[i] = new Filter(filter.getPredicates(), parts[i]);
+            return parts;
+        }
+        if (plan instanceof HashEquiJoin && ((HashEquiJoin) plan).usesIndex()) {
+            HashEquiJoin join = (HashEquiJoin) plan;
+            DbIterator[] children = join.getChildren();
+            int indexed = join.indexedChild() - 1;
+            DbIterator[] parts = partitions(children[1 - indexed], n);
+            if (parts == null)
+                return null;
+            SeqScan scan = (SeqScan) children[indexed];
+            DbIterator[] joins = new DbIterator[n];
+            for (int i = 0; i < n; i++) {
+                // each part probes the index through its own scan
+                DbIterator[] inputs = new DbIterator[2];
+                inputs[indexed] = new SeqScan(scan.getTransactionId(), scan.getTableId(), scan.getAlias());
+                inputs[1 - indexed] = parts[i];
+                joins[i] = new HashEquiJoin(join.getJoinPredicate(), inputs[0], inputs[1]);
+            }
+            return joins;
+        }
+        JoinPredicate p = null;
+        if (plan instanceof Join)
+            p = ((Join) plan).getJoinPredicate();
+        else if (plan instanceof MergeJoin)
+            p = ((MergeJoin) plan).getJoinPredicate();
+        else if (plan instanceof HashEquiJoin)
+            p = ((HashEquiJoin) plan).getJoinPredicate();
+        if (p != null && p.getOperator() == Predicate.Op.EQUALS) {
+            DbIterator[] children = ((Operator) plan).getChildren().clone();
+            if (plan instanceof MergeJoin) {
+                // the parts are hash joined, so the sorts of the merge join are not needed
+                for (int c = 0; c < 2; c++) {
+                    if (children[c] instanceof OrderBy)
+                        children[c] = ((OrderBy) children[c]).getChildren()[0];
+                }
+            }
+            DbIterator[] parts1 = partitions(children[0], n);
+            DbIterator[] parts2 = partitions(children[1], n);
+            if (parts1 == null && parts2 == null)
+                return null;
+            DbIterator[] joins = new DbIterator[n];
+            if (parts1 != null && parts2 != null) {
+                System.arraycopy(HashEquiJoin.partitioned(p, parts1, parts2, n), 0, joins, 0, n);
+            } else if (parts2 != null) {
+                // only one input is big: hash join its parts with the whole of the other
+                Broadcast[] build = Broadcast.broadcast(new DbIterator[] { children[0] }, n);
+                for (int i = 0; i < n; i++)
+                    joins[i] = new HashEquiJoin(p, build[i], parts2[i]);
+            } else {
+                Broadcast[] probe = Broadcast.broadcast(new DbIterator[] { children[1] }, n);
+                for (int i = 0; i < n; i++)
+                    joins[i] = new HashEquiJoin(p, parts1[i], probe[i]);
+            }
+            return joins;
+        }
+        return null;
     }
 
     public static void main(String argv[]) {
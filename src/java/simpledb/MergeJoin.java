@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * MergeJoin implements a sort-merge join of two children that are both
+ * sorted in ascending order on their join fields.
+ * <p>
+ * For an equality predicate the children are read in lockstep, and only the
+ * run of child2 tuples sharing the current key is buffered, so duplicate keys
+ * on both sides produce their full cross product.  For a range predicate
+ * (&lt;, &lt;=, &gt;, &gt;=) the matches of a child1 tuple are a prefix or a
+ * suffix of child2; child2 is buffered and the boundary of that prefix only
+ * moves forward as child1 advances, so no predicate is evaluated per pair.
+ *
+ * @see JoinOptimizer#instantiateJoin
+ */
+public class MergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate pred;
+    private DbIterator child1, child2;
+    private final TupleDesc comboTD;
+
+    /* the child1 tuple being joined */
+    transient private Tuple left;
+    /* equality: the run of child2 tuples equal to runKey, and the next child2 tuple */
+    transient private ArrayList<Tuple> run = new ArrayList<Tuple>();
+    transient private Field runKey;
+    transient private Tuple lookahead;
+    /* range: all of child2, and the first tuple not in the prefix for left */
+    transient private ArrayList<Tuple> right;
+    transient private int boundary;
+    /* position in run or right of the next match of left, and the end of the matches */
+    transient private int pos;
+    transient private int end;
+
+    /**
+     * Constructor.  Both children must be sorted in ascending order on the
+     * fields compared by p.
+     *
+     * @param p
+     *            The predicate to use to join the children; LIKE and
+     *            NOT_EQUALS are not supported
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public MergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("merge join does not support " + p.getOperator());
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** @return true if a merge join can evaluate predicates with operator op */
+    public static boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    /**
+     * @return true if the output is sorted on the field named fieldName: the
+     *   output follows child1, and for equality joins also child2
+     */
+    public boolean isSortedOn(String fieldName) {
+        return fieldName.equals(getJoinField1Name())
+                || (pred.getOperator() == Predicate.Op.EQUALS && fieldName.equals(getJoinField2Name()));
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        super.open();
+        reset();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        left = null;
+        run.clear();
+        lookahead = null;
+        right = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        // the buffered child2 of a range join is kept
+        if (right == null)
+            child2.rewind();
+        reset();
+    }
+
+    private void reset() {
+        left = null;
+        run.clear();
+        runKey = null;
+        lookahead = null;
+        boundary = 0;
+        pos = 0;
+        end = 0;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        ArrayList<Tuple> matches = pred.getOperator() == Predicate.Op.EQUALS ? run : right;
+        while (true) {
+            if (left != null && pos < end)
+                return Tuple.join(comboTD, left, matches.get(pos++));
+            if (!child1.hasNext())
+                return null;
+            left = child1.next();
+            if (pred.getOperator() == Predicate.Op.EQUALS) {
+                advanceRun(left.getField(pred.getField1()));
+                pos = 0;
+                end = run.size();
+            } else {
+                if (right == null)
+                    matches = right = loadRight();
+                advanceBoundary(left.getField(pred.getField1()));
+            }
+        }
+    }
+
+    /** Makes run hold the child2 tuples whose key equals key. */
+    private void advanceRun(Field key) throws DbException, TransactionAbortedException {
+        if (runKey != null && runKey.compare(Predicate.Op.EQUALS, key))
+            return;
+        run.clear();
+        runKey = key;
+        while (lookahead != null || child2.hasNext()) {
+            Tuple t = lookahead != null ? lookahead : child2.next();
+            lookahead = null;
+            Field f = t.getField(pred.getField2());
+            if (f.compare(Predicate.Op.LESS_THAN, key))
+                continue;
+            if (f.compare(Predicate.Op.EQUALS, key)) {
+                run.add(t);
+                continue;
+            }
+            lookahead = t;
+            break;
+        }
+    }
+
+    private ArrayList<Tuple> loadRight() throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        while (child2.hasNext())
+            tuples.add(child2.next());
+        return tuples;
+    }
+
+    /**
+     * Moves boundary past the child2 tuples that precede the matches of key
+     * (for &lt; and &lt;=) or that are matches of key (for &gt; and &gt;=),
+     * and sets pos and end to the matches.
+     */
+    private void advanceBoundary(Field key) {
+        Predicate.Op op = pred.getOperator();
+        // right[i] belongs to the prefix if key <op> right[i] is true for
+        // > and >=, and false for < and <=
+        Predicate.Op prefixOp;
+        if (op == Predicate.Op.GREATER_THAN || op == Predicate.Op.LESS_THAN_OR_EQ)
+            prefixOp = Predicate.Op.GREATER_THAN;
+        else
+            prefixOp = Predicate.Op.GREATER_THAN_OR_EQ;
+        while (boundary < right.size()
+                && key.compare(prefixOp, right.get(boundary).getField(pred.getField2())))
+            boundary++;
+        if (op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ) {
+            pos = 0;
+            end = boundary;
+        } else {
+            pos = boundary;
+            end = right.size();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+}
@@ -0,0 +1,323 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * Computes any number of aggregates over tuples grouped by any number of
+ * fields, in one pass over its input.
+ * <p>
+ * All aggregates share one {@link GroupTable}: a row is looked up once and
+ * its group number indexes the accumulators of every aggregate, which are
+ * kept in parallel primitive arrays.  Aggregates over STRING_TYPE fields
+ * only support COUNT.
+ * <p>
+ * Aggregation can be split in two phases, e.g. to aggregate the partitions
+ * of a table in parallel: {@link Phase#PARTIAL} aggregators each see part of
+ * the rows, and a {@link Phase#FINAL} aggregator combines their results.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** What an aggregator reads and returns. */
+    public enum Phase {
+        /** Reads rows and returns the aggregates. */
+        COMPLETE,
+        /**
+         * Reads rows and returns, after the group-by fields, the partial
+         * value of each aggregate (the sum for SUM and AVG, the count for
+         * COUNT) named after the aggregated field, then the number of rows
+         * of the group.
+         */
+        PARTIAL,
+        /**
+         * Reads the results of PARTIAL aggregators, with group-by fields
+         * 0..g-1, the partial values in fields g..g+a-1 and the row count in
+         * field g+a, and returns the aggregates.
+         */
+        FINAL
+    }
+
+    private final Phase phase;
+    private final int[] gbfields;
+    private final Type[] gbfieldtypes;
+    private final int[] afields;
+    private final Aggregator.Op[] ops;
+
+    /* null without grouping, when every row is in group 0 */
+    private final GroupTable groups;
+    /* rows per group, and values[k][g] is the sum, min or max of aggregate k over group g */
+    private int[] counts;
+    private long[][] values;
+
+    /* scratch space for the key codes of one row, and the columns of a batch */
+    private final int[] codes;
+    private final int[][] keyInts;
+    private final String[][] keyStrings;
+    private final int[][] columns;
+    private int[] weights;
+
+    private String[] names;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple,
+     *            empty if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group-by fields
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple
+     * @param afieldtypes
+     *            the types of the aggregate fields
+     * @param ops
+     *            the aggregation operator of each aggregate field
+     * @throws IllegalArgumentException
+     *            if an operator other than COUNT is applied to a
+     *            STRING_TYPE field
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields,
+            Type[] afieldtypes, Aggregator.Op[] ops) {
+        this(gbfields, gbfieldtypes, afields, afieldtypes, ops, Phase.COMPLETE);
+    }
+
+    /**
+     * Creates an aggregator for one phase of a split aggregation; see
+     * {@link Phase} for the layout of the rows read and returned by each
+     * phase.
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields,
+            Type[] afieldtypes, Aggregator.Op[] ops, Phase phase) {
+        if (afields.length != ops.length || afields.length != afieldtypes.length)
+            throw new IllegalArgumentException("need one operator per aggregate field");
+        for (int k = 0; k < ops.length; k++) {
+            if (afieldtypes[k] != Type.INT_TYPE && ops[k] != Op.COUNT)
+                throw new IllegalArgumentException("op must be COUNT");
+        }
+        this.gbfields = gbfields;
+        this.gbfieldtypes = gbfieldtypes;
+        this.afields = afields;
+        this.ops = ops;
+        this.phase = phase;
+
+        groups = gbfields.length == 0 ? null : new GroupTable(gbfieldtypes);
+        counts = new int[groups == null ? 1 : 64];
+        values = new long[ops.length][counts.length];
+
+        codes = new int[gbfields.length];
+        keyInts = new int[gbfields.length][];
+        keyStrings = new String[gbfields.length][];
+        columns = new int[afields.length][];
+    }
+
+    /** Takes the output column names from the schema of the input. */
+    private void name(TupleDesc td) {
+        names = new String[gbfields.length + afields.length + (phase == Phase.PARTIAL ? 1 : 0)];
+        for (int c = 0; c < gbfields.length; c++)
+            names[c] = td.getFieldName(gbfields[c]);
+        for (int k = 0; k < afields.length; k++) {
+            if (phase == Phase.PARTIAL)
+                names[gbfields.length + k] = td.getFieldName(afields[k]);
+            else
+                names[gbfields.length + k] = ops[k].toString() + "(" + td.getFieldName(afields[k]) + ")";
+        }
+        if (phase == Phase.PARTIAL)
+            names[names.length - 1] = "count";
+    }
+
+    /** @return the field of a FINAL input holding the row count of its group */
+    private int countField() {
+        return gbfields.length + afields.length;
+    }
+
+    public void mergeTupleIntoGroup(Tuple tup) {
+        mergeTupleIntoGroup(tup, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Merges tup into its group unless the group is new and there already
+     * are maxGroups groups.
+     *
+     * @return false if tup was not merged
+     */
+    public boolean mergeTupleIntoGroup(Tuple tup, int maxGroups) {
+        if (names == null)
+            name(tup.getTupleDesc());
+        int group;
+        if (groups == null)
+            group = 0;
+        else if (groups.numGroups() < maxGroups)
+            group = groups.groupOf(tup, gbfields);
+        else if ((group = groups.find(tup, gbfields)) < 0)
+            return false;
+        int seen = add(group, phase == Phase.FINAL ? ((IntField) tup.getField(countField())).getValue() : 1);
+        for (int k = 0; k < ops.length; k++) {
+            if (ops[k] != Op.COUNT)
+                accumulate(k, group, seen, ((IntField) tup.getField(afields[k])).getValue());
+        }
+        return true;
+    }
+
+    public void mergeBatch(TupleBatch batch) {
+        mergeBatch(batch, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Merges the live rows of batch into their groups, except rows whose
+     * group is new once there are maxGroups groups.
+     *
+     * @param rejected
+     *            receives the physical rows that were not merged; it must
+     *            have room for every row of batch unless maxGroups is
+     *            Integer.MAX_VALUE
+     * @return the number of rows that were not merged
+     */
+    public int mergeBatch(TupleBatch batch, int maxGroups, int[] rejected) {
+        if (names == null)
+            name(batch.getTupleDesc());
+        for (int k = 0; k < ops.length; k++)
+            columns[k] = ops[k] == Op.COUNT ? null : batch.getIntColumn(afields[k]);
+        for (int c = 0; c < gbfields.length; c++) {
+            keyInts[c] = batch.getIntColumn(gbfields[c]);
+            keyStrings[c] = batch.getStringColumn(gbfields[c]);
+        }
+        weights = phase == Phase.FINAL ? batch.getIntColumn(countField()) : null;
+        int n = batch.size();
+        int numRejected = 0;
+        for (int i = 0; i < n; i++) {
+            int row = batch.row(i);
+            int group = groupOf(row, groups == null || groups.numGroups() < maxGroups);
+            if (group < 0) {
+                rejected[numRejected++] = row;
+                continue;
+            }
+            int seen = add(group, weights == null ? 1 : weights[row]);
+            for (int k = 0; k < ops.length; k++) {
+                if (columns[k] != null)
+                    accumulate(k, group, seen, columns[k][row]);
+            }
+        }
+        return numRejected;
+    }
+
+    /**
+     * @return the group of physical row row of the batch being merged, or
+     *   -1 if it is new and add is false
+     */
+    private int groupOf(int row, boolean add) {
+        if (groups == null)
+            return 0;
+        if (gbfields.length == 1) {
+            if (keyInts[0] != null)
+                return add ? groups.groupOf(keyInts[0][row]) : groups.find(keyInts[0][row]);
+            return add ? groups.groupOf(keyStrings[0][row]) : groups.find(keyStrings[0][row]);
+        }
+        for (int c = 0; c < gbfields.length; c++) {
+            if (keyInts[c] != null) {
+                codes[c] = keyInts[c][row];
+            } else if (add) {
+                codes[c] = groups.code(c, keyStrings[c][row]);
+            } else if ((codes[c] = groups.findCode(c, keyStrings[c][row])) < 0) {
+                return -1;
+            }
+        }
+        return add ? groups.groupOf(codes) : groups.find(codes);
+    }
+
+    /**
+     * Counts weight more rows in group.
+     * @return the number of rows in group before these
+     */
+    private int add(int group, int weight) {
+        if (group == counts.length) {
+            int[] biggerCounts = new int[counts.length * 2];
+            System.arraycopy(counts, 0, biggerCounts, 0, group);
+            counts = biggerCounts;
+            for (int k = 0; k < values.length; k++) {
+                long[] bigger = new long[counts.length];
+                System.arraycopy(values[k], 0, bigger, 0, group);
+                values[k] = bigger;
+            }
+        }
+        int seen = counts[group];
+        counts[group] += weight;
+        return seen;
+    }
+
+    private void accumulate(int k, int group, int seen, int value) {
+        long[] v = values[k];
+        switch (ops[k]) {
+        case SUM:
+        case AVG:
+            v[group] += value;
+            break;
+        case MIN:
+            if (seen == 0 || value < v[group])
+                v[group] = value;
+            break;
+        case MAX:
+            if (seen == 0 || value > v[group])
+                v[group] = value;
+            break;
+        default:
+            break;
+        }
+    }
+
+    /** @return the number of groups with at least one merged row */
+    public int numGroups() {
+        if (groups != null)
+            return groups.numGroups();
+        return counts[0] > 0 ? 1 : 0;
+    }
+
+    private int result(int k, int group) {
+        switch (ops[k]) {
+        case COUNT:
+            return counts[group];
+        case AVG:
+            if (phase == Phase.PARTIAL)
+                return (int) values[k][group];
+            return (int) (values[k][group] / counts[group]);
+        default:
+            return (int) values[k][group];
+        }
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the group-by fields followed by
+     *   one INT_TYPE field per aggregate, in the order given to the
+     *   constructor, and for PARTIAL aggregators the row count
+     */
+    public DbIterator iterator() {
+        Type[] types = new Type[gbfields.length + afields.length + (phase == Phase.PARTIAL ? 1 : 0)];
+        for (int c = 0; c < gbfields.length; c++)
+            types[c] = gbfieldtypes[c];
+        for (int k = gbfields.length; k < types.length; k++)
+            types[k] = Type.INT_TYPE;
+        String[] outNames = names;
+        if (outNames == null) {
+            outNames = new String[types.length];
+            for (int i = 0; i < outNames.length; i++)
+                outNames[i] = "";
+        }
+        TupleDesc td = new TupleDesc(types, outNames);
+
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        int n = numGroups();
+        for (int g = 0; g < n; g++) {
+            Tuple tuple = new Tuple(td);
+            for (int c = 0; c < gbfields.length; c++)
+                tuple.setField(c, groups.key(g, c));
+            for (int k = 0; k < afields.length; k++)
+                tuple.setField(gbfields.length + k, new IntField(result(k, g)));
+            if (phase == Phase.PARTIAL)
+                tuple.setField(types.length - 1, new IntField(counts[g]));
+            tuples.add(tuple);
+        }
+        return new TupleIterator(td, tuples);
+    }
+}
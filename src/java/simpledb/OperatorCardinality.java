@@ -27,8 +27,13 @@ public class OperatorCardinality {
         } else if (o instanceof Join) {
             return updateJoinCardinality((Join) o, tableAliasToId, tableStats);
         } else if (o instanceof HashEquiJoin) {
-            return updateHashEquiJoinCardinality((HashEquiJoin) o,
-                    tableAliasToId, tableStats);
+            HashEquiJoin j = (HashEquiJoin) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(), j.getJoinField1Name(),
+                    j.getJoinField2Name(), tableAliasToId, tableStats);
+        } else if (o instanceof MergeJoin) {
+            MergeJoin j = (MergeJoin) o;
+            return updateJoinCardinality(j, j.getJoinPredicate(), j.getJoinField1Name(),
+                    j.getJoinField2Name(), tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
             return updateAggregateCardinality((Aggregate) o, tableAliasToId,
                     tableStats);
@@ -41,12 +46,14 @@ public class OperatorCardinality {
                     hasJoinPK = updateOperatorCardinality(
                             (Operator) children[0], tableAliasToId, tableStats);
                     childC = ((Operator) children[0]).getEstimatedCardinality();
-                } else if (children[0] instanceof SeqScan) {
-                    childC = tableStats.get(
-                            ((SeqScan) children[0]).getTableName())
-                            .estimateTableCardinality(1.0);
+                } else if (isScan(children[0])) {
+                    childC = scanCardinality(children[0], tableStats);
                 }
             }
+            if (o instanceof TopN)
+                childC = Math.min(childC, ((TopN) o).getLimit());
+            else if (o instanceof Limit)
+                childC = Math.min(childC, ((Limit) o).getLimit());
             o.setEstimatedCardinality(childC);
             return hasJoinPK;
         }
@@ -56,20 +63,25 @@ public class OperatorCardinality {
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
         DbIterator child = f.getChildren()[0];
-        Predicate pred = f.getPredicate();
-        String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
-                .split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
+        Integer tableId = null;
         double selectivity = 1.0;
-        if (tableId != null) {
-            selectivity = tableStats.get(
+        // the predicates of a filter are estimated as independent
+        for (Predicate pred : f.getPredicates()) {
+            String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
+                    .split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null)
+                break;
+            selectivity *= tableStats.get(
                     Database.getCatalog().getTableName(tableId))
                     .estimateSelectivity(
                             Database.getCatalog().getTupleDesc(tableId)
                                     .fieldNameToIndex(pureFieldName),
                             pred.getOp(), pred.getOperand());
+        }
+        if (tableId != null) {
             if (child instanceof Operator) {
                 Operator oChild = (Operator) child;
                 boolean hasJoinPK = updateOperatorCardinality(oChild,
@@ -77,10 +89,9 @@ public class OperatorCardinality {
                 f.setEstimatedCardinality((int) (oChild
                         .getEstimatedCardinality() * selectivity) + 1);
                 return hasJoinPK;
-            } else if (child instanceof SeqScan) {
-                f.setEstimatedCardinality((int) (tableStats.get(
-                        ((SeqScan) child).getTableName())
-                        .estimateTableCardinality(1.0) * selectivity) + 1);
+            } else if (isScan(child)) {
+                f.setEstimatedCardinality((int) (scanCardinality(child,
+                        tableStats) * selectivity) + 1);
                 return false;
             }
         }
@@ -120,9 +131,8 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child1)) {
+            child1Card = scanCardinality(child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -132,9 +142,8 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child2)) {
+            child2Card = scanCardinality(child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -144,7 +153,8 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
-    private static boolean updateHashEquiJoinCardinality(HashEquiJoin j,
+    private static boolean updateJoinCardinality(Operator j, JoinPredicate pred,
+            String joinField1Name, String joinField2Name,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
 
@@ -154,10 +164,10 @@ public class OperatorCardinality {
         int child1Card = 1;
         int child2Card = 1;
 
-        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String[] tmp1 = joinField1Name.split("[.]");
         String tableAlias1 = tmp1[0];
         String pureFieldName1 = tmp1[1];
-        String[] tmp2 = j.getJoinField2Name().split("[.]");
+        String[] tmp2 = joinField2Name.split("[.]");
         String tableAlias2 = tmp2[0];
         String pureFieldName2 = tmp2[1];
 
@@ -177,9 +187,8 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = (int) (tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child1)) {
+            child1Card = scanCardinality(child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -189,13 +198,12 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = (int) (tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0));
+        } else if (isScan(child2)) {
+            child2Card = scanCardinality(child2, tableStats);
         }
 
-        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
-                .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
+        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(pred
+                .getOperator(), tableAlias1, tableAlias2,
                 pureFieldName1, pureFieldName2, child1Card, child2Card,
                 child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
         return child1HasJoinPK || child2HasJoinPK;
@@ -219,29 +227,66 @@ public class OperatorCardinality {
             return hasJoinPK;
         }
 
-        if (child instanceof SeqScan) {
-            childCard = (int) (tableStats.get(((SeqScan) child).getTableName())
-                    .estimateTableCardinality(1.0));
+        if (isScan(child)) {
+            childCard = scanCardinality(child, tableStats);
         }
 
-        String[] tmp = a.groupFieldName().split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
-
-        double groupFieldAvgSelectivity = 1.0;
-        if (tableId != null) {
-            groupFieldAvgSelectivity = tableStats.get(
+        // the groups are at most the product of the distinct values of the
+        // group fields
+        double groups = 1.0;
+        for (String groupFieldName : a.groupFieldNames()) {
+            String[] tmp = groupFieldName.split("[.]");
+            String tableAlias = tmp[0];
+            String pureFieldName = tmp[1];
+            Integer tableId = tableAliasToId.get(tableAlias);
+            if (tableId == null) {
+                a.setEstimatedCardinality(childCard);
+                return hasJoinPK;
+            }
+            double groupFieldAvgSelectivity = tableStats.get(
                     Database.getCatalog().getTableName(tableId))
                     .avgSelectivity(
                             Database.getCatalog().getTupleDesc(tableId)
                                     .fieldNameToIndex(pureFieldName),
                             Predicate.Op.EQUALS);
-            a.setEstimatedCardinality((int) (Math.min(childCard,
-                    1.0 / groupFieldAvgSelectivity)));
-            return hasJoinPK;
+            groups *= 1.0 / groupFieldAvgSelectivity;
         }
-        a.setEstimatedCardinality(childCard);
+        a.setEstimatedCardinality((int) (Math.min(childCard, groups)));
         return hasJoinPK;
     }
+
+    /** @return true if it is one of the access methods over a base table */
+    private static boolean isScan(DbIterator it) {
+        return it instanceof SeqScan || it instanceof HashIndexScan
+                || it instanceof BitmapIndexScan;
+    }
+
+    /**
+     * @return the estimated number of tuples returned by an access method
+     */
+    private static int scanCardinality(DbIterator scan,
+            Map<String, TableStats> tableStats) {
+        if (scan instanceof HashIndexScan) {
+            HashIndexScan is = (HashIndexScan) scan;
+            TableStats stats = tableStats.get(is.getTableName());
+            return (int) stats.estimateTableCardinality(stats
+                    .estimateSelectivity(is.getKeyField(), Predicate.Op.EQUALS,
+                            is.getKey()));
+        }
+        if (scan instanceof BitmapIndexScan) {
+            BitmapIndexScan bs = (BitmapIndexScan) scan;
+            TableStats stats = tableStats.get(bs.getTableName());
+            double selectivity = 1.0;
+            for (int i = 0; i < bs.getKeyFields().length; i++) {
+                double fieldSelectivity = 0.0;
+                for (Field key : bs.getKeys()[i])
+                    fieldSelectivity += stats.estimateSelectivity(
+                            bs.getKeyFields()[i], Predicate.Op.EQUALS, key);
+                selectivity *= Math.min(1.0, fieldSelectivity);
+            }
+            return (int) stats.estimateTableCardinality(selectivity);
+        }
+        return (int) tableStats.get(((SeqScan) scan).getTableName())
+                .estimateTableCardinality(1.0);
+    }
 }
@@ -4,10 +4,27 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * It is an external merge sort: the child is read into memory up to a
+ * memory budget (see {@link #setSortMemory}); every time the budget is full
+ * the buffered tuples are sorted and written to a {@link SpillFile} as a
+ * sorted run.  If the child fits in memory no run is written.  Otherwise the
+ * runs are merged with a tournament tree, at most {@link #MAX_FAN_IN} at a
+ * time, in passes over all of the runs until few enough are left, and the
+ * final merge streams its output instead of materializing it.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default number of bytes of tuples sorted in memory. */
+    public static final int DEFAULT_SORT_MEMORY = 1024 * BufferPool.PAGE_SIZE;
+
+    /** Largest number of runs merged at once. */
+    public static final int MAX_FAN_IN = 64;
+
+    private static int sortMemory = DEFAULT_SORT_MEMORY;
+
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
@@ -15,6 +32,12 @@ public class OrderBy extends Operator {
     private String orderByFieldName;
     private Iterator<Tuple> it;
     private boolean asc;
+    private final int memory;
+    private final TupleComparator comparator;
+
+    /* the sorted runs, if the child did not fit in memory, and their merge */
+    private ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    private RunMerger merger;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,11 +50,36 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, sortMemory);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts at most about sortBytes bytes of
+     * tuples in memory at a time.
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int sortBytes) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.memory = sortBytes;
+        this.comparator = new TupleComparator(orderbyField, asc);
+    }
+
+    /**
+     * Sets the number of bytes of tuples sorted in memory by OrderBy nodes
+     * created from now on.
+     */
+    public static void setSortMemory(int bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("sort memory must be positive");
+        sortMemory = bytes;
+    }
+
+    /** @return the number of bytes of tuples sorted in memory */
+    public static int getSortMemory() {
+        return sortMemory;
     }
     
     public boolean isASC()
@@ -53,24 +101,90 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    /** @return the number of sorted runs written to disk by the last open() */
+    public int numRuns() {
+        return runs.size();
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        clear();
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
+        // load tuples up to the memory budget, and sort them
+        int maxTuples = Math.max(1, memory / td.getSize());
+        while (child.hasNext()) {
             childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+            if (childTups.size() >= maxTuples && child.hasNext())
+                writeRun();
+        }
+        if (runs.isEmpty()) {
+            Collections.sort(childTups, comparator);
+            it = childTups.iterator();
+        } else {
+            if (!childTups.isEmpty())
+                writeRun();
+            while (runs.size() > MAX_FAN_IN)
+                mergePass();
+            merger = new RunMerger(runs, comparator);
+        }
         super.open();
     }
 
+    /** Sorts the buffered tuples and writes them to a new run. */
+    private void writeRun() throws DbException {
+        Collections.sort(childTups, comparator);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : childTups)
+            run.add(t);
+        runs.add(run);
+        childTups.clear();
+    }
+
+    /**
+     * Merges each group of MAX_FAN_IN consecutive runs into one, so every
+     * tuple is read and written once per pass.  The merged runs stay in the
+     * order of their groups, which keeps ties stable.
+     */
+    private void mergePass() throws DbException {
+        ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+        for (int start = 0; start < runs.size(); start += MAX_FAN_IN) {
+            List<SpillFile> group = runs.subList(start, Math.min(start + MAX_FAN_IN, runs.size()));
+            if (group.size() == 1) {
+                merged.add(group.get(0));
+                continue;
+            }
+            RunMerger m = new RunMerger(new ArrayList<SpillFile>(group), comparator);
+            SpillFile run = new SpillFile(td);
+            Tuple t;
+            while ((t = m.next()) != null)
+                run.add(t);
+            for (SpillFile f : group)
+                f.delete();
+            merged.add(run);
+        }
+        runs = merged;
+    }
+
+    private void clear() {
+        childTups.clear();
+        for (SpillFile run : runs)
+            run.delete();
+        runs.clear();
+        merger = null;
+        it = null;
+    }
+
     public void close() {
         super.close();
-        it = null;
+        child.close();
+        clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (merger != null)
+            merger = new RunMerger(runs, comparator);
+        else
+            it = childTups.iterator();
     }
 
     /**
@@ -82,6 +196,8 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (merger != null)
+            return merger.next();
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -100,24 +216,76 @@ public class OrderBy extends Operator {
 
 }
 
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
+/**
+ * Merges sorted runs with a tournament tree of losers: tree[0] holds the run
+ * with the smallest head tuple and every other node the loser of the match
+ * played there, so replacing the winner's head only replays the matches on
+ * its path to the root, log2(k) comparisons for k runs.  Ties go to the
+ * lower run, which keeps the sort stable.
+ */
+class RunMerger {
+    private final List<SpillFile> runs;
+    private final TupleComparator comparator;
+    private final Tuple[] heads;
+    private final int[] tree;
+    private final int k;
 
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
+    RunMerger(List<SpillFile> runs, TupleComparator comparator) throws DbException {
+        this.runs = runs;
+        this.comparator = comparator;
+        this.k = runs.size();
+        heads = new Tuple[k];
+        tree = new int[Math.max(1, k)];
+        for (int i = 0; i < k; i++) {
+            SpillFile run = runs.get(i);
+            run.rewind();
+            heads[i] = run.hasNext() ? run.next() : null;
+        }
+        // leaf k stands for a head smaller than all others, so the first
+        // replay of each leaf fills the tree with real losers
+        Arrays.fill(tree, k);
+        for (int i = k - 1; i >= 0; i--)
+            replay(i);
     }
 
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+    /** @return true if run a's head comes after run b's head */
+    private boolean loses(int a, int b) {
+        if (a == k)
+            return false;
+        if (b == k)
+            return true;
+        // exhausted runs lose to everything
+        if (heads[a] == null)
+            return heads[b] != null || a > b;
+        if (heads[b] == null)
+            return false;
+        int c = comparator.compare(heads[a], heads[b]);
+        return c > 0 || (c == 0 && a > b);
+    }
+
+    private void replay(int leaf) {
+        int winner = leaf;
+        for (int node = (leaf + k) / 2; node > 0; node /= 2) {
+            if (loses(winner, tree[node])) {
+                int loser = winner;
+                winner = tree[node];
+                tree[node] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    /** @return the smallest remaining tuple of all runs, or null */
+    Tuple next() throws DbException {
+        if (k == 0)
+            return null;
+        int w = tree[0];
+        Tuple t = heads[w];
+        if (t == null)
+            return null;
+        SpillFile run = runs.get(w);
+        heads[w] = run.hasNext() ? run.next() : null;
+        replay(w);
+        return t;
     }
-    
 }
@@ -5,6 +5,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -183,22 +185,18 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
+                groupByFields.addElement(groupByField);
                 System.out.println("GROUP BY FIELD : " + groupByField);
             }
 
@@ -208,8 +206,8 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        Vector<String> aggFields = new Vector<String>();
+        Vector<String> aggFuns = new Vector<String>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -219,20 +217,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                aggFields.addElement(aggField);
+                aggFuns.addElement(aggFun);
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                        + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                        + si.getColumn()) || groupByFields.contains(si
                         .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -242,12 +238,13 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        // all of the aggregates are computed together, over the same groups
+        for (int i = 0; i < aggFuns.size(); i++) {
+            lp.addAggregate(aggFuns.elementAt(i), aggFields.elementAt(i), groupByFields);
         }
         // sort the data
 
@@ -277,10 +274,55 @@ public class Parser {
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        return handleQueryStatement(s, tId, -1);
+    }
+
+    /**
+     * Plans a query that returns at most limit tuples, or all of them if
+     * limit is -1.
+     */
+    public Query handleQueryStatement(ZQuery s, TransactionId tId, int limit)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
+        return handleQueryPlan(parseQueryLogicalPlan(tId, s), tId, limit);
+    }
+
+    /**
+     * Plans a query like {@link #handleQueryStatement(ZQuery, TransactionId,
+     * int)}, answering it from the {@link QueryCache} if it holds the result
+     * of sql, the text of the query including its LIMIT clause, and caching
+     * the result otherwise.
+     */
+    public Query handleQueryStatement(String sql, ZQuery s, TransactionId tId, int limit)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
+        LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        Set<Integer> tables = new HashSet<Integer>(lp.getTableAliasToIdMapping().values());
+        // a transaction sees its own changes, which are not in the cache
+        if (explain || Database.getBufferPool().hasWritten(tId, tables))
+            return handleQueryPlan(lp, tId, limit);
+        QueryCache cache = Database.getQueryCache();
+        String key = QueryCache.key(sql, tables);
+        DbIterator cached = cache.get(key);
+        if (cached != null) {
+            Query query = new Query(cached, tId);
+            query.setLogicalPlan(lp);
+            return query;
+        }
+        Query query = handleQueryPlan(lp, tId, limit);
+        if (query.getPhysicalPlan() != null)
+            query.setPhysicalPlan(cache.recorder(key, tables, query.getPhysicalPlan()));
+        return query;
+    }
+
+    private Query handleQueryPlan(LogicalPlan lp, TransactionId tId, int limit)
+            throws TransactionAbortedException, DbException, IOException,
+            simpledb.ParsingException, Zql.ParseException {
         // and run it
         Query query = new Query(tId);
 
-        LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0)
+            lp.addLimit(limit);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -465,14 +507,71 @@ public class Parser {
         }
     }
 
+    /** Matches a LIMIT clause at the end of a statement; Zql does not parse LIMIT. */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+limit\\s+(\\d+)\\s*$", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * @return the match of the LIMIT clause the first statement in sql ends
+     *   with, after its last quoted string, or null if it has none
+     */
+    private static Matcher findLimit(String sql) {
+        int end = sql.length();
+        int unquoted = 0;
+        char quote = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                    unquoted = i + 1;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ';') {
+                end = i;
+                break;
+            }
+        }
+        if (quote != 0)
+            return null;
+        Matcher m = LIMIT_CLAUSE.matcher(sql).region(unquoted, end);
+        return m.find() ? m : null;
+    }
+
+    /** @return n if the first statement in sql ends with LIMIT n, or -1 */
+    static int parseLimit(String sql) throws simpledb.ParsingException {
+        Matcher m = findLimit(sql);
+        if (m == null)
+            return -1;
+        try {
+            return Integer.parseInt(m.group(1));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("LIMIT " + m.group(1) + " is too large");
+        }
+    }
+
+    /** @return sql without the LIMIT clause of its first statement */
+    static String removeLimit(String sql) {
+        Matcher m = findLimit(sql);
+        if (m == null)
+            return sql;
+        // Zql needs the ';' that ends the statement
+        String rest = sql.substring(m.end());
+        return sql.substring(0, m.start()) + (rest.length() == 0 ? ";" : rest);
+    }
+
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        int limit = parseLimit(s);
+        ByteArrayInputStream bis = new ByteArrayInputStream(removeLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit >= 0)
+                    lp.addLimit(limit);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -505,8 +604,18 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            // read the statement text first, to take out a LIMIT clause
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                text.write(buf, 0, n);
+            String sql = text.toString("UTF-8");
+            int limit = parseLimit(sql);
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(removeLimit(sql).getBytes("UTF-8")));
             ZStatement s = p.readStatement();
+            if (limit >= 0 && !(s instanceof ZQuery))
+                throw new simpledb.ParsingException("LIMIT is only supported in queries");
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -526,8 +635,8 @@ public class Parser {
                         query = handleDeleteStatement((ZDelete) s,
                                 curtrans.getId());
                     else if (s instanceof ZQuery)
-                        query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
+                        query = handleQueryStatement(sql, (ZQuery) s,
+                                curtrans.getId(), limit);
                     else {
                         System.out
                                 .println("Can't parse "
@@ -1,50 +1,127 @@
 package simpledb;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Set;
 import java.util.Vector;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to join a given set of tables.  A set of tables is a bit mask of their
+ * indexes, from 0 to numTables - 1, and indexes the arrays the plans are
+ * kept in.  The plan of a set joins the plans of two smaller sets, which
+ * may both join several tables, with one of the joins between them,
+ * followed by the others. */
 public class PlanCache {
-    HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>> bestOrders= new HashMap<Set<LogicalJoinNode>,Vector<LogicalJoinNode>>();
-    HashMap<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<Set<LogicalJoinNode>,Double>();
-    HashMap<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<Set<LogicalJoinNode>,Integer>();
-    
-    /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
+    private final double[] bestCosts;
+    private final int[] bestCardinalities;
+    private final int[] leftSets;
+    private final int[] rightSets;
+    private final LogicalJoinNode[][] lastJoins;
+    private final boolean[] pkeys;
+    private final Object[] bestSortOrders;
+
+    /** Creates an empty cache of the plans joining sets of numTables tables */
+    PlanCache(int numTables) {
+        int size = 1 << numTables;
+        bestCosts = new double[size];
+        bestCardinalities = new int[size];
+        leftSets = new int[size];
+        rightSets = new int[size];
+        lastJoins = new LogicalJoinNode[size][];
+        pkeys = new boolean[size];
+        bestSortOrders = new Object[size];
+    }
+
+    /** Add a new cost, cardinality and ordering for a particular set of tables.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
-        specified join set
-        @param s the set of joins for which a new ordering (plan) is being added
+        specified set
+        @param s the set of tables for which a new plan is being added
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
+        @param left the set of tables joined by one of the plans s joins, or 0 if s is a single table
+        @param right the set of tables joined by the other plan, or 0 if s is a single table
+        @param joins the joins between the plans of left and right, in order
+        @param pkey true if one of the joins of the plan is on a primary key
+        @param sortedOn the quantified names of the fields the output of the plan is sorted on, ascending
     */
-    void addPlan(Set<LogicalJoinNode> s, double cost, int card, Vector<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
-    }
-    
-    /** Find the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+    void addPlan(int s, double cost, int card, int left, int right, LogicalJoinNode[] joins, boolean pkey,
+            Set<String> sortedOn) {
+        bestCosts[s] = cost;
+        bestCardinalities[s] = card;
+        leftSets[s] = left;
+        rightSets[s] = right;
+        lastJoins[s] = joins;
+        pkeys[s] = pkey;
+        bestSortOrders[s] = sortedOn;
+    }
+
+    /** @return true if a plan for the specified set of tables was added */
+    boolean hasPlan(int s) {
+        return lastJoins[s] != null;
+    }
+
+    /** Find the best join order in the cache for the specified set of tables
+        @param s the set of tables to look up the best order for
+        @return the best order for s in the cache, or null if there is none: the joins of the
+            plans it joins, followed by the joins between them
+    */
+    Vector<LogicalJoinNode> getOrder(int s) {
+        if (!hasPlan(s))
+            return null;
+        Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+        addOrder(s, order);
+        return order;
+    }
+
+    private void addOrder(int s, Vector<LogicalJoinNode> order) {
+        if (lastJoins[s].length == 0)
+            return;
+        addOrder(leftSets[s], order);
+        addOrder(rightSets[s], order);
+        Collections.addAll(order, lastJoins[s]);
+    }
+
+    /** @return the set of tables joined by one of the plans the best plan for s joins, or 0 if s is a single table */
+    int getLeft(int s) {
+        return leftSets[s];
+    }
+
+    /** @return the set of tables joined by the other plan, or 0 if s is a single table */
+    int getRight(int s) {
+        return rightSets[s];
+    }
+
+    /** @return the joins between the plans of getLeft(s) and getRight(s), in order */
+    LogicalJoinNode[] getJoins(int s) {
+        return lastJoins[s];
+    }
+
+    /** Find the cost of the best plan in the cache for the specified set of tables
+        @param s the set of tables to look up the best cost for
+        @return the cost of the best plan for s in the cache
     */
-    Vector<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    double getCost(int s) {
+        return bestCosts[s];
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cost for
-        @return the cost of the best order for s in the cache
+
+    /** Find the cardinality of the best plan in the cache for the specified set of tables
+        @param s the set of tables to look up the best cardinality for
+        @return the cardinality of the best plan for s in the cache
     */
-    double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    int getCard(int s) {
+        return bestCardinalities[s];
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cardinality for
-        @return the cardinality of the best order for s in the cache
+
+    /** @return true if one of the joins of the best plan for the specified set of tables is on a primary key */
+    boolean hasPkey(int s) {
+        return pkeys[s];
+    }
+
+    /** Find the fields the output of the best plan for the specified set of tables is sorted on
+        @param s the set of tables to look up the sort order for
+        @return the quantified names of the fields the output is sorted on, ascending
     */
-    int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    @SuppressWarnings("unchecked")
+    Set<String> getSortOrder(int s) {
+        Set<String> sortedOn = (Set<String>) bestSortOrders[s];
+        return sortedOn == null ? Collections.<String>emptySet() : sortedOn;
     }
 }
@@ -126,6 +126,22 @@ public class Predicate implements Serializable {
         return tupleFiled.compare(this.op, operand);
     }
 
+    /**
+     * Applies the predicate to the live rows of a batch.  Operators that
+     * filter many batches should compile the predicate once instead.
+     *
+     * @param batch
+     *            The batch to filter
+     * @param selected
+     *            receives the physical rows that pass, in order; must hold
+     *            at least batch.size() entries
+     * @return the number of rows that pass
+     * @see CompiledPredicate
+     */
+    public int filter(TupleBatch batch, int[] selected) {
+        return CompiledPredicate.compile(this, batch.getTupleDesc()).filter(batch, selected);
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string
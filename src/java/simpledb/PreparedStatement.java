@@ -0,0 +1,84 @@
+package simpledb;
+
+/**
+ * PreparedStatement is a query whose constants may be ? parameters, which
+ * is parsed and planned once and then run with different values of its
+ * parameters.  Create one with {@link StatementCache#prepare}, set the values
+ * of all of its parameters, numbered from 1 in the order they appear in
+ * the query, and {@link #execute} it.
+ * <p>
+ * The plan of the statement is kept by the {@link StatementCache}, and is
+ * shared by the statements prepared from the same text: the joins are
+ * ordered when the statement first runs, using the values its parameters
+ * had then, and kept until the statistics of its tables change (see
+ * {@link StatementCache}).  A PreparedStatement is not thread safe, but
+ * statements sharing a plan may run concurrently.
+ */
+public class PreparedStatement {
+
+    private final StatementCache cache;
+    private final String sql;
+    private final String[] values;
+
+    PreparedStatement(StatementCache cache, String sql, int numParameters) {
+        this.cache = cache;
+        this.sql = sql;
+        this.values = new String[numParameters];
+    }
+
+    /** @return the text of the statement */
+    public String getSql() {
+        return sql;
+    }
+
+    /** @return the number of parameters of the statement */
+    public int numParameters() {
+        return values.length;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 1 || i > values.length)
+            throw new IllegalArgumentException("no parameter " + i);
+    }
+
+    /** Sets the value of parameter i, compared with an INT_TYPE field. */
+    public void setInt(int i, int value) {
+        checkIndex(i);
+        values[i - 1] = Integer.toString(value);
+    }
+
+    /** Sets the value of parameter i, compared with a STRING_TYPE field. */
+    public void setString(int i, String value) {
+        checkIndex(i);
+        values[i - 1] = value;
+    }
+
+    /** Unsets the values of all of the parameters. */
+    public void clearParameters() {
+        for (int i = 0; i < values.length; i++)
+            values[i] = null;
+    }
+
+    /**
+     * @return the query running the statement as part of transaction tid,
+     *   with the values its parameters have now
+     * @throws ParsingException if a parameter has no value, or if the
+     *   statement no longer parses
+     */
+    public Query execute(TransactionId tid) throws ParsingException {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null)
+                throw new ParsingException("No value for parameter " + (i + 1));
+        }
+        // the plan may have been evicted, or dropped as its tables changed
+        StatementCache.Plan plan = cache.plan(sql);
+        Query query = new Query(tid);
+        try {
+            query.setPhysicalPlan(plan.physicalPlan(tid, values));
+        } catch (NumberFormatException e) {
+            throw new ParsingException(e);
+        }
+        query.setLogicalPlan(plan.lp);
+        return query;
+    }
+}
@@ -5,12 +5,15 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchDbIterator {
 
     private static final long serialVersionUID = 1L;
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    /* outFieldIds unboxed once, so projecting a tuple reads a plain array */
+    private int[] outFields;
+    private transient BatchDbIterator childBatches;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -39,6 +42,9 @@ public class Project extends Operator {
             fieldAr[i] = childtd.getFieldName(fieldList.get(i));
         }
         td = new TupleDesc(types, fieldAr);
+        outFields = new int[fieldList.size()];
+        for (int i = 0; i < outFields.length; i++)
+            outFields[i] = fieldList.get(i);
     }
 
     public TupleDesc getTupleDesc() {
@@ -49,11 +55,13 @@ public class Project extends Operator {
             TransactionAbortedException {
         child.open();
         super.open();
+        childBatches = BatchAdapter.of(child);
     }
 
     public void close() {
         super.close();
         child.close();
+        childBatches = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -72,14 +80,27 @@ public class Project extends Operator {
             Tuple t = child.next();
             Tuple newTuple = new Tuple(td);
             newTuple.setRecordId(t.getRecordId());
-            for (int i = 0; i < td.numFields(); i++) {
-                newTuple.setField(i, t.getField(outFieldIds.get(i)));
+            for (int i = 0; i < outFields.length; i++) {
+                newTuple.setField(i, t.getField(outFields[i]));
             }
             return newTuple;
         }
         return null;
     }
 
+    /**
+     * Projects each child batch by picking out its column arrays; no values
+     * are copied.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (childBatches == null)
+            throw new IllegalStateException("Operator not yet open");
+        TupleBatch batch = childBatches.nextBatch();
+        if (batch == null)
+            return null;
+        return batch.project(outFields, td);
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
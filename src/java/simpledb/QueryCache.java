@@ -0,0 +1,260 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * QueryCache keeps the results of recent queries, so that a query run again
+ * before any of its tables changes is answered without being planned or
+ * run.
+ * <p>
+ * A result is keyed by the normalized text of the query, LIMIT clause
+ * included, and the ids of the tables it reads, and is kept until a
+ * transaction that inserted into or deleted from one of these tables
+ * commits (see {@link BufferPool#transactionComplete}).  Results are
+ * evicted least recently used first once their total size exceeds the
+ * memory budget (see {@link #setCacheMemory}); a result bigger than the
+ * whole budget is not kept.
+ * <p>
+ * A transaction that has written to a table does not use the cache for
+ * queries over that table, since it must see its own changes.
+ */
+public class QueryCache {
+
+    /** Default number of bytes of cached tuples. */
+    public static final int DEFAULT_CACHE_MEMORY = 1024 * BufferPool.PAGE_SIZE;
+
+    private static int cacheMemory = DEFAULT_CACHE_MEMORY;
+
+    /** A cached result. */
+    private static class Entry {
+        final TupleDesc td;
+        final ArrayList<Tuple> tuples;
+        final Set<Integer> tables;
+        final long bytes;
+
+        Entry(TupleDesc td, ArrayList<Tuple> tuples, Set<Integer> tables) {
+            this.td = td;
+            this.tuples = tuples;
+            this.tables = tables;
+            this.bytes = (long) tuples.size() * td.getSize();
+        }
+    }
+
+    /* in least recently used first order */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long bytes = 0;
+    /* the number of times each table was invalidated */
+    private final HashMap<Integer, Long> versions = new HashMap<Integer, Long>();
+
+    /**
+     * Sets the number of bytes of tuples kept by the cache.  Takes effect
+     * on the next result cached.
+     */
+    public static void setCacheMemory(int bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("cache memory must be positive");
+        cacheMemory = bytes;
+    }
+
+    /** @return the number of bytes of tuples kept by the cache */
+    public static int getCacheMemory() {
+        return cacheMemory;
+    }
+
+    /**
+     * @return sql with its keywords and names lower cased and runs of white
+     *   space collapsed, outside of quoted strings, and without its final
+     *   semicolon
+     */
+    public static String normalize(String sql) {
+        StringBuilder sb = new StringBuilder(sql.length());
+        boolean quoted = false;
+        boolean space = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (!quoted && Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space && sb.length() > 0)
+                sb.append(' ');
+            space = false;
+            if (c == '\'')
+                quoted = !quoted;
+            sb.append(quoted ? c : Character.toLowerCase(c));
+        }
+        int end = sb.length();
+        while (end > 0 && (sb.charAt(end - 1) == ';' || sb.charAt(end - 1) == ' '))
+            end--;
+        sb.setLength(end);
+        return sb.toString();
+    }
+
+    /**
+     * @return the key of the result of query sql, including its LIMIT clause,
+     *   over the given tables
+     */
+    public static String key(String sql, Collection<Integer> tables) {
+        StringBuilder sb = new StringBuilder(normalize(sql));
+        for (Integer id : new TreeSet<Integer>(tables))
+            sb.append(" #").append(id);
+        return sb.toString();
+    }
+
+    /** @return an iterator over the cached result of key, or null if there is none */
+    public synchronized DbIterator get(String key) {
+        Entry e = entries.get(key);
+        return e == null ? null : new TupleIterator(e.td, e.tuples);
+    }
+
+    /** @return the number of results cached */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return a number that changes whenever one of the tables is
+     *   invalidated; a result computed between two calls that return the
+     *   same number is still valid
+     */
+    public synchronized long version(Collection<Integer> tables) {
+        long version = 0;
+        for (Integer id : tables) {
+            Long v = versions.get(id);
+            if (v != null)
+                version += v;
+        }
+        return version;
+    }
+
+    /**
+     * Caches the result of key over tables, unless one of the tables was
+     * invalidated since version was read.
+     */
+    public synchronized void put(String key, Set<Integer> tables, long version, TupleDesc td,
+            ArrayList<Tuple> tuples) {
+        if (version(tables) != version)
+            return;
+        Entry e = new Entry(td, tuples, tables);
+        if (e.bytes > cacheMemory)
+            return;
+        Entry old = entries.put(key, e);
+        if (old != null)
+            bytes -= old.bytes;
+        bytes += e.bytes;
+        Iterator<Entry> it = entries.values().iterator();
+        while (bytes > cacheMemory && it.hasNext()) {
+            bytes -= it.next().bytes;
+            it.remove();
+        }
+    }
+
+    /** Drops the results over any of the tables. */
+    public synchronized void invalidate(Collection<Integer> tables) {
+        if (tables.isEmpty())
+            return;
+        for (Integer id : tables) {
+            Long v = versions.get(id);
+            versions.put(id, v == null ? 1 : v + 1);
+        }
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (!Collections.disjoint(e.tables, tables)) {
+                bytes -= e.bytes;
+                it.remove();
+            }
+        }
+    }
+
+    /** Drops all results. */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * @return an operator returning the tuples of plan, which caches them
+     *   as the result of key over tables once plan is done, if they fit
+     */
+    public DbIterator recorder(String key, Set<Integer> tables, DbIterator plan) {
+        return new Recorder(this, key, tables, version(tables), plan);
+    }
+
+    /** Returns the tuples of its child, keeping a copy to cache once it is done. */
+    private static class Recorder extends Operator {
+        private static final long serialVersionUID = 1L;
+
+        private final transient QueryCache cache;
+        private final String key;
+        private final Set<Integer> tables;
+        private final long version;
+        private DbIterator child;
+        private transient ArrayList<Tuple> tuples;
+        private transient long recorded;
+
+        Recorder(QueryCache cache, String key, Set<Integer> tables, long version, DbIterator child) {
+            this.cache = cache;
+            this.key = key;
+            this.tables = tables;
+            this.version = version;
+            this.child = child;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            tuples = new ArrayList<Tuple>();
+            recorded = 0;
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+            tuples = null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+            tuples = new ArrayList<Tuple>();
+            recorded = 0;
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (!child.hasNext()) {
+                if (tuples != null)
+                    cache.put(key, tables, version, getTupleDesc(), tuples);
+                tuples = null;
+                return null;
+            }
+            Tuple t = child.next();
+            if (tuples != null) {
+                TupleDesc td = t.getTupleDesc();
+                recorded += td.getSize();
+                if (recorded > cacheMemory) {
+                    tuples = null;
+                } else {
+                    Tuple copy = new Tuple(td);
+                    for (int i = 0; i < td.numFields(); i++)
+                        copy.setField(i, t.getField(i));
+                    tuples.add(copy);
+                }
+            }
+            return t;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        @Override
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { child };
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+            child = children[0];
+        }
+    }
+}
@@ -9,12 +9,14 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String MERGE_JOIN = "⨝(merge)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String LIMIT = "limit";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(DbIterator root) {
@@ -26,7 +28,7 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         DbIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin || o instanceof MergeJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -65,17 +67,33 @@ public class QueryPlanVisualizer {
         int adjustDepth = currentDepth == 0 ? -1 : 0;
         SubTreeDescriptor thisNode = new SubTreeDescriptor(null, null);
 
-        if (queryPlan instanceof SeqScan) {
-            SeqScan s = (SeqScan) queryPlan;
-            String tableName = s.getTableName();
-            String alias = s.getAlias();
+        if (queryPlan instanceof SeqScan || queryPlan instanceof HashIndexScan
+                || queryPlan instanceof BitmapIndexScan) {
+            String tableName;
+            String alias;
+            String lookup = "";
+            if (queryPlan instanceof SeqScan) {
+                SeqScan s = (SeqScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+            } else if (queryPlan instanceof HashIndexScan) {
+                HashIndexScan s = (HashIndexScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                lookup = "," + s.getKeyFieldName() + "=" + s.getKey();
+            } else {
+                BitmapIndexScan s = (BitmapIndexScan) queryPlan;
+                tableName = s.getTableName();
+                alias = s.getAlias();
+                lookup = "," + s.getConditionString();
+            }
 //            TupleDesc td = s.getTupleDesc();
             if (!tableName.equals(alias))
                 alias = " " + alias;
             else
                 alias = "";
             thisNode.text = String
-                    .format("%1$s(%2$s)", SCAN, tableName + alias);
+                    .format("%1$s(%2$s)", SCAN, tableName + alias + lookup);
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -136,18 +154,25 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = left;
                 thisNode.rightChild = right;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof HashEquiJoin) {
-                HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
+            } else if (plan instanceof HashEquiJoin || plan instanceof MergeJoin) {
+                JoinPredicate jp;
+                String label;
+                if (plan instanceof HashEquiJoin) {
+                    jp = ((HashEquiJoin) plan).getJoinPredicate();
+                    label = HASH_JOIN;
+                } else {
+                    jp = ((MergeJoin) plan).getJoinPredicate();
+                    label = MERGE_JOIN;
+                }
+                TupleDesc td = plan.getTupleDesc();
                 String field1 = td.getFieldName(jp.getField1());
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", label, field1
+                        + jp.getOperator() + field2,plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
+                if (label.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = label.length() / 2;
                 SubTreeDescriptor left = this.buildTree(queryPlanDepth,
                         currentDepth + 3 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
@@ -156,7 +181,7 @@ public class QueryPlanVisualizer {
                         currentStartPosition + left.width + SPACE.length(), 0);
                 thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
+                        - label.length() / 2;
                 thisNode.width = Math.max(
                         left.width + right.width + SPACE.length(),
                         thisNode.textStartPosition + thisNode.text.length()
@@ -171,15 +196,28 @@ public class QueryPlanVisualizer {
                 String alignTxt;
                 TupleDesc td = a.getTupleDesc();
                 int gfield = a.groupField();
+                StringBuilder aggs = new StringBuilder();
+                for (int k = 0; k < a.aggregateOps().length; k++) {
+                    if (k > 0)
+                        aggs.append(", ");
+                    aggs.append(a.aggregateOps()[k]).append('(')
+                            .append(a.getChildren()[0].getTupleDesc().getFieldName(a.aggregateFields()[k]))
+                            .append(')');
+                }
 
                 if (gfield == Aggregator.NO_GROUPING) {
-                    thisNode.text = String.format("%1$s(%2$s),card:%3$d",
-                            a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
+                    thisNode.text = String.format("%1$s,card:%2$d",
+                            aggs, a.getEstimatedCardinality());
                     alignTxt = td.getFieldName(00);
                 } else {
-                    thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
-                            a.aggregateFieldName(),a.getEstimatedCardinality());
+                    StringBuilder groups = new StringBuilder();
+                    for (String name : a.groupFieldNames()) {
+                        if (groups.length() > 0)
+                            groups.append(", ");
+                        groups.append(name);
+                    }
+                    thisNode.text = String.format("%1$s(%2$s), %3$s,card:%4$d",
+                            GROUPBY, groups, aggs, a.getEstimatedCardinality());
                     alignTxt = GROUPBY;
                 }
                 if (alignTxt.length() / 2 > parentUpperBarStartShift)
@@ -198,11 +236,15 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof Filter) {
                 Filter f = (Filter) plan;
-                Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+                StringBuilder conditions = new StringBuilder();
+                for (Predicate p : f.getPredicates()) {
+                    if (conditions.length() > 0)
+                        conditions.append(" and ");
+                    conditions.append(children[0].getTupleDesc().getFieldName(p.getField())
+                            + p.getOp() + p.getOperand());
+                }
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT,
+                        conditions, f.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -217,22 +259,36 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof OrderBy) {
-                OrderBy o = (OrderBy) plan;
-                thisNode.text = String.format(
-                        "%1$s(%2$s),card:%3$d",
-                        ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+            } else if (plan instanceof OrderBy || plan instanceof TopN || plan instanceof Limit) {
+                String label = ORDERBY;
+                if (plan instanceof OrderBy) {
+                    OrderBy o = (OrderBy) plan;
+                    thisNode.text = String.format(
+                            "%1$s(%2$s),card:%3$d",
+                            ORDERBY,
+                            children[0].getTupleDesc().getFieldName(
+                                    o.getOrderByField()),o.getEstimatedCardinality());
+                } else if (plan instanceof TopN) {
+                    TopN o = (TopN) plan;
+                    thisNode.text = String.format(
+                            "%1$s(%2$s),top %3$d,card:%4$d",
+                            ORDERBY, o.getOrderFieldName(), o.getLimit(),
+                            o.getEstimatedCardinality());
+                } else {
+                    Limit l = (Limit) plan;
+                    label = LIMIT;
+                    thisNode.text = String.format("%1$s(%2$d),card:%3$d", LIMIT,
+                            l.getLimit(), l.getEstimatedCardinality());
+                }
                 int upBarShift = parentUpperBarStartShift;
-                if (ORDERBY.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = ORDERBY.length() / 2;
+                if (label.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = label.length() / 2;
                 SubTreeDescriptor child = this.buildTree(queryPlanDepth,
                         currentDepth + 2 + adjustDepth, children[0],
                         currentStartPosition, upBarShift);
                 thisNode.upBarPosition = child.upBarPosition;
                 thisNode.textStartPosition = thisNode.upBarPosition
-                        - ORDERBY.length() / 2;
+                        - label.length() / 2;
                 thisNode.width = Math.max(child.width,
                         thisNode.textStartPosition + thisNode.text.length()
                                 - currentStartPosition);
@@ -261,15 +317,9 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
-            else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
-                String name="Exchange";
-                int card=0;
-                try {
-                    name = (String) plan.getClass().getMethod("getName").invoke(plan);
-                    card = (Integer) plan.getClass().getMethod("getEstimatedCardinality").invoke(plan);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                } 
+            else if (plan instanceof Exchange) {
+                String name = ((Exchange) plan).getName();
+                int card = ((Exchange) plan).getEstimatedCardinality();
 
                 thisNode.text = String.format("%1$s,card:%2$d", name,card);
                 int upBarShift = parentUpperBarStartShift;
@@ -0,0 +1,115 @@
+package simpledb;
+
+/**
+ * Repartition splits the union of its inputs into n outputs by a hash of
+ * some of their fields, so tuples with equal values in those fields always
+ * go to the same output.  Each input is read on its own worker thread.
+ * <p>
+ * The outputs are separate operators sharing the producers; they must be
+ * read concurrently (e.g. from the inputs of a {@link Gather}), since a
+ * producer blocks when the queue of any open output is full.  The producers
+ * start when the first output is opened and are stopped once every output
+ * is closed; an output cannot be rewound.
+ */
+public class Repartition extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Shuffle shuffle;
+    private final int output;
+    private final int[] fields;
+
+    transient private Channel channel;
+
+    private Repartition(Shuffle shuffle, int output, int[] fields) {
+        this.shuffle = shuffle;
+        this.output = output;
+        this.fields = fields;
+    }
+
+    /**
+     * @param inputs
+     *            the inputs, which must all have the same TupleDesc
+     * @param fields
+     *            the fields whose values choose the output of a tuple
+     * @param n
+     *            the number of outputs
+     * @return the n outputs
+     */
+    public static Repartition[] partition(DbIterator[] inputs, final int[] fields, final int n) {
+        Shuffle shuffle = new Shuffle(inputs, n) {
+            private static final long serialVersionUID = 1L;
+
+            int route(Tuple t) {
+                return output(t, fields, n);
+            }
+        };
+        Repartition[] outputs = new Repartition[n];
+        for (int i = 0; i < n; i++)
+            outputs[i] = new Repartition(shuffle, i, fields);
+        return outputs;
+    }
+
+    /**
+     * @return the output of n that t goes to when partitioned on fields.
+     *   The hash is mixed again so that the tuples of an output are not
+     *   all in the same partition of a spilling hash join or aggregate,
+     *   which partition on the low and high bits of the same hash.
+     */
+    public static int output(Tuple t, int[] fields, int n) {
+        int h = 0;
+        for (int f : fields)
+            h = h * 31 + HashIndexFile.hash(t.getField(f));
+        h *= 0x9e3779b9;
+        h ^= h >>> 15;
+        return (int) (((h & 0xffffffffL) * n) >>> 32);
+    }
+
+    /** @return the fields whose values choose the output of a tuple */
+    public int[] getFields() {
+        return fields;
+    }
+
+    public String getName() {
+        StringBuilder names = new StringBuilder();
+        for (int f : fields) {
+            if (names.length() > 0)
+                names.append(",");
+            names.append(getTupleDesc().getFieldName(f));
+        }
+        return "repartition(" + names + ") " + output + "/" + shuffle.numOutputs;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return shuffle.inputs[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        channel = shuffle.open(output);
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        shuffle.close(output);
+        channel = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        throw new DbException("the output of a repartition cannot be rewound");
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return channel.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return shuffle.inputs;
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        shuffle.inputs = children;
+    }
+}
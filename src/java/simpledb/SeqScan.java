@@ -7,7 +7,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements BatchDbIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -15,6 +15,14 @@ public class SeqScan implements DbIterator {
     private int tableid;
     private String tableAlias;
     private DbFileIterator dbFileIterator;
+    /* the pages scanned, or endPage = -1 for the whole table */
+    private int startPage = 0;
+    private int endPage = -1;
+    private transient TupleBatch batch;
+    /* pushed down by the hash join probing this scan, or null */
+    private transient JoinFilter joinFilter;
+    /* the next tuple that passed joinFilter, read ahead by hasNext */
+    private transient Tuple passed;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -39,6 +47,47 @@ public class SeqScan implements DbIterator {
         this.dbFileIterator = Database.getCatalog().getDbFile(tableid).iterator(tid);
     }
 
+    /**
+     * Creates a sequential scan over pages startPage (inclusive) to endPage
+     * (exclusive) of the specified heap file table.
+     *
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int startPage, int endPage) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        if (!(file instanceof HeapFile))
+            throw new IllegalArgumentException("only heap files can be scanned by page range");
+        this.startPage = startPage;
+        this.endPage = endPage;
+        this.dbFileIterator = ((HeapFile) file).iterator(tid, startPage, endPage);
+    }
+
+    /** @return true if this scan reads only a range of the pages of its table */
+    public boolean isPartial() {
+        return endPage >= 0;
+    }
+
+    /**
+     * Splits this scan of a whole heap file into n scans of consecutive page
+     * ranges of about the same size, which together read every tuple once.
+     *
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public SeqScan[] split(int n) {
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        if (!(file instanceof HeapFile))
+            throw new IllegalArgumentException("only heap files can be scanned by page range");
+        int numPages = ((HeapFile) file).numPages();
+        SeqScan[] parts = new SeqScan[n];
+        for (int i = 0; i < n; i++)
+            parts[i] = new SeqScan(tid, tableid, tableAlias,
+                    (int) ((long) numPages * i / n), (int) ((long) numPages * (i + 1) / n));
+        return parts;
+    }
+
     /**
      * @return
      *       return the table name of the table the operator scans. This should
@@ -57,6 +106,39 @@ public class SeqScan implements DbIterator {
         return this.tableAlias;
     }
 
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * @return the dictionary whose instances the string fields of the
+     *   scanned tuples hold, or null if the table is not dictionary encoded
+     */
+    public StringDictionary getDictionary() {
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        return file instanceof HeapFile ? ((HeapFile) file).getDictionary() : null;
+    }
+
+    /**
+     * Makes this scan skip the tuples that fail filter, or no tuple if
+     * filter is null.  Set by a hash join probing this scan once it has
+     * read its build input.
+     */
+    public void setJoinFilter(JoinFilter filter) {
+        this.joinFilter = filter;
+    }
+
+    /** @return the join filter the tuples of this scan pass, or null */
+    public JoinFilter getJoinFilter() {
+        return joinFilter;
+    }
+
+    /** @return the transaction this scan runs as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -73,6 +155,7 @@ public class SeqScan implements DbIterator {
         // some code goes here
         this.tableid = tableid;
         this.tableAlias = tableAlias;
+        this.batch = null;
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -109,23 +192,54 @@ public class SeqScan implements DbIterator {
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return dbFileIterator.hasNext();
+        if (joinFilter == null && passed == null)
+            return dbFileIterator.hasNext();
+        while (passed == null && dbFileIterator.hasNext()) {
+            Tuple t = dbFileIterator.next();
+            if (joinFilter == null || joinFilter.test(t))
+                passed = t;
+        }
+        return passed != null;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        return dbFileIterator.next();
+        if (joinFilter == null && passed == null)
+            return dbFileIterator.next();
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = passed;
+        passed = null;
+        return t;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc());
+        batch.clear();
+        if (passed != null) {
+            batch.addTuple(passed);
+            passed = null;
+        }
+        while (!batch.isFull() && dbFileIterator.hasNext()) {
+            Tuple t = dbFileIterator.next();
+            if (joinFilter == null || joinFilter.test(t))
+                batch.addTuple(t);
+        }
+        return batch.size() > 0 ? batch : null;
     }
 
     public void close() {
         // some code goes here
         dbFileIterator.close();
+        passed = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
         dbFileIterator.rewind();
+        passed = null;
     }
 }
@@ -0,0 +1,75 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.concurrent.Future;
+
+/**
+ * The producers shared by the outputs of a {@link Repartition} or a
+ * {@link Broadcast}: one per input, each sending a tuple to the output
+ * chosen by {@link #route}.
+ */
+abstract class Shuffle implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    DbIterator[] inputs;
+    final int numOutputs;
+
+    transient private Exchange.Channel[] channels;
+    transient private Exchange.Producer[] producers;
+    transient private Future<?>[] tasks;
+    transient private boolean[] open;
+    transient private int closed;
+
+    Shuffle(DbIterator[] inputs, int numOutputs) {
+        if (inputs.length == 0)
+            throw new IllegalArgumentException("an exchange needs at least one input");
+        this.inputs = inputs;
+        this.numOutputs = numOutputs;
+    }
+
+    /** @return the output t is sent to, or -1 to send it to every output */
+    abstract int route(Tuple t);
+
+    /** Starts the producers if they are not running and returns the channel of output. */
+    synchronized Exchange.Channel open(int output) {
+        if (channels == null) {
+            channels = new Exchange.Channel[numOutputs];
+            for (int i = 0; i < numOutputs; i++)
+                channels[i] = new Exchange.Channel(inputs.length);
+            open = new boolean[numOutputs];
+            closed = 0;
+            producers = new Exchange.Producer[inputs.length];
+            tasks = new Future<?>[inputs.length];
+            for (int i = 0; i < inputs.length; i++) {
+                producers[i] = new Exchange.Producer(inputs[i], channels) {
+                    int route(Tuple t) {
+                        return Shuffle.this.route(t);
+                    }
+                };
+                tasks[i] = Exchange.submit(producers[i]);
+            }
+        }
+        open[output] = true;
+        return channels[output];
+    }
+
+    /**
+     * Drops the tuples still to be sent to output, and stops the producers
+     * once every output is closed.
+     */
+    synchronized void close(int output) {
+        if (channels == null || !open[output])
+            return;
+        open[output] = false;
+        channels[output].close();
+        if (++closed < numOutputs)
+            return;
+        for (Exchange.Producer p : producers)
+            p.stop();
+        Exchange.await(tasks);
+        channels = null;
+        producers = null;
+        tasks = null;
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples that operators write when their
+ * input does not fit in memory.  Tuples are appended with {@link #add}, and
+ * then read back in the same order after {@link #rewind}; record ids are not
+ * kept.  The file is deleted by {@link #delete}, or when the JVM exits.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private int size;
+    private int read;
+
+    /** Creates an empty spill file for tuples with schema td. */
+    public SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("simpledb", ".spill");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples in the file */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of bytes the tuples of the file take in memory */
+    public long bytes() {
+        return (long) size * td.getSize();
+    }
+
+    /** Appends t to the file; must not be called once it has been read. */
+    public void add(Tuple t) throws DbException {
+        if (out == null)
+            throw new IllegalStateException("spill file is already being read");
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.getField(i).serialize(out);
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /** Finishes writing, if needed, and starts reading at the first tuple. */
+    public void rewind() throws DbException {
+        try {
+            if (out != null) {
+                out.close();
+                out = null;
+            }
+            if (in != null)
+                in.close();
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        } catch (IOException e) {
+            throw new DbException("could not read spill file: " + e.getMessage());
+        }
+        read = 0;
+    }
+
+    public boolean hasNext() {
+        return in != null && read < size;
+    }
+
+    public Tuple next() throws DbException {
+        if (!hasNext())
+            throw new NoSuchElementException("no more tuples in spill file");
+        Tuple t = new Tuple(td);
+        try {
+            for (int i = 0; i < td.numFields(); i++)
+                t.setField(i, td.getFieldType(i).parse(in));
+        } catch (ParseException e) {
+            throw new DbException("could not read spill file: " + e.getMessage());
+        }
+        read++;
+        return t;
+    }
+
+    /** Closes and removes the file. */
+    public void delete() {
+        try {
+            if (out != null)
+                out.close();
+            if (in != null)
+                in.close();
+        } catch (IOException e) {
+            // the file is removed anyway
+        }
+        out = null;
+        in = null;
+        file.delete();
+    }
+}
@@ -0,0 +1,195 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * StatementCache keeps the plans of recently prepared statements (see
+ * {@link PreparedStatement}), so that a statement run again is neither
+ * parsed nor has its joins ordered again.
+ * <p>
+ * A plan is keyed by the normalized text of its statement (see
+ * {@link QueryCache#normalize}), and holds its logical plan, with a filter
+ * per parameter, and once it has run, the order and the implementations
+ * chosen for its joins.  The joins are ordered again when the statistics of
+ * one of the tables of the plan have changed significantly: when the
+ * number of tuples they count differs from the number the joins were
+ * ordered with by more than {@link #REPLAN_CHANGE} of it.  At most
+ * {@link #setCacheSize} plans are kept, evicting the least recently used
+ * first.
+ */
+public class StatementCache {
+
+    /** Default number of plans kept. */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    /** Change in the number of tuples of a table, relative to it, that makes a plan ordered again. */
+    public static final double REPLAN_CHANGE = 0.2;
+
+    /**
+     * Placeholder the parameters of a statement are parsed as, followed by
+     * their number; it is made longer until it is not in the text of the
+     * statement.
+     */
+    static final String PARAMETER = "?param";
+
+    private static int cacheSize = DEFAULT_CACHE_SIZE;
+
+    /** The plan of a statement. */
+    static class Plan {
+        final LogicalPlan lp;
+        /* the filter comparing with each parameter */
+        final LogicalFilterNode[] parameters;
+        /* the statistics and numbers of tuples the joins were ordered with, by table name */
+        private HashMap<String, TableStats> stats;
+        private HashMap<String, Integer> tuples;
+
+        Plan(LogicalPlan lp, LogicalFilterNode[] parameters) {
+            this.lp = lp;
+            this.parameters = parameters;
+        }
+
+        /**
+         * @return a physical plan of the statement running as part of
+         *   transaction tid, comparing with values, the values of its
+         *   parameters
+         */
+        synchronized DbIterator physicalPlan(TransactionId tid, String[] values) throws ParsingException {
+            for (int i = 0; i < parameters.length; i++)
+                parameters[i].c = values[i];
+            Map<String, TableStats> current = TableStats.getStatsMap();
+            boolean replan = !isCurrent();
+            lp.setJoinOrderFixed(!replan);
+            DbIterator plan = lp.physicalPlan(tid, current, false);
+            if (replan) {
+                stats = new HashMap<String, TableStats>();
+                tuples = new HashMap<String, Integer>();
+                for (Integer id : lp.getTableAliasToIdMapping().values()) {
+                    String name = Database.getCatalog().getTableName(id);
+                    TableStats s = current.get(name);
+                    stats.put(name, s);
+                    tuples.put(name, s.totalTuples());
+                }
+            }
+            return plan;
+        }
+
+        /**
+         * @return true if the joins have been ordered, with statistics
+         *   that have not changed significantly since
+         */
+        synchronized boolean isCurrent() {
+            if (stats == null)
+                return false;
+            Map<String, TableStats> current = TableStats.getStatsMap();
+            for (Map.Entry<String, TableStats> e : stats.entrySet()) {
+                TableStats s = current.get(e.getKey());
+                if (s == e.getValue())
+                    continue;
+                if (s == null)
+                    return false;
+                int old = tuples.get(e.getKey());
+                if (Math.abs(s.totalTuples() - old) > REPLAN_CHANGE * Math.max(old, 1))
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /* in least recently used first order */
+    private final LinkedHashMap<String, Plan> plans = new LinkedHashMap<String, Plan>(16, 0.75f, true);
+
+    /**
+     * Sets the number of plans kept by the cache.  Takes effect on the next
+     * plan cached.
+     */
+    public static void setCacheSize(int plans) {
+        if (plans <= 0)
+            throw new IllegalArgumentException("cache size must be positive");
+        cacheSize = plans;
+    }
+
+    /** @return the number of plans kept by the cache */
+    public static int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Prepares sql, a query whose constants may be ? parameters, to run
+     * with different values of its parameters.
+     *
+     * @throws ParsingException if sql is not a valid query, if it has
+     *   subqueries, or if a parameter is not a constant a field is compared
+     *   with in the WHERE clause
+     */
+    public PreparedStatement prepare(String sql) throws ParsingException {
+        return new PreparedStatement(this, sql, plan(sql).parameters.length);
+    }
+
+    /** @return the number of plans cached */
+    public synchronized int size() {
+        return plans.size();
+    }
+
+    /** Drops all plans. */
+    public synchronized void clear() {
+        plans.clear();
+    }
+
+    /** @return the plan of sql, parsing it if it is not cached */
+    Plan plan(String sql) throws ParsingException {
+        String key = QueryCache.normalize(sql);
+        synchronized (this) {
+            Plan plan = plans.get(key);
+            if (plan != null)
+                return plan;
+        }
+        Plan plan = parse(sql);
+        synchronized (this) {
+            plans.put(key, plan);
+            Iterator<Plan> it = plans.values().iterator();
+            while (plans.size() > cacheSize && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        return plan;
+    }
+
+    private static Plan parse(String sql) throws ParsingException {
+        // parse each parameter as a string constant, numbered from 1, with
+        // a placeholder no string constant of sql starts with
+        String placeholder = PARAMETER;
+        while (sql.indexOf(placeholder) >= 0)
+            placeholder += "$";
+        StringBuilder sb = new StringBuilder(sql.length());
+        boolean quoted = false;
+        int n = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'')
+                quoted = !quoted;
+            if (c == '?' && !quoted)
+                sb.append('\'').append(placeholder).append(++n).append('\'');
+            else
+                sb.append(c);
+        }
+
+        LogicalPlan lp = new Parser().generateLogicalPlan(new TransactionId(), sb.toString());
+        if (lp.hasSubplans())
+            throw new ParsingException("Statements with subqueries cannot be prepared");
+        LogicalFilterNode[] parameters = new LogicalFilterNode[n];
+        for (LogicalFilterNode lf : lp.getFilters()) {
+            if (lf.c.startsWith(placeholder)) {
+                int i = Integer.parseInt(lf.c.substring(placeholder.length())) - 1;
+                if (i >= 0 && i < n)
+                    parameters[i] = lf;
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (parameters[i] == null)
+                throw new ParsingException("Parameter " + (i + 1)
+                        + " is not a constant compared with a field in the WHERE clause");
+        }
+        return new Plan(lp, parameters);
+    }
+}
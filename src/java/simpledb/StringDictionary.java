@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.NoSuchElementException;
+
+/**
+ * A dictionary mapping the distinct strings of a table to small integer
+ * codes, assigned in order of first appearance.
+ * <p>
+ * A dictionary-encoded {@link HeapFile} stores the code of each STRING_TYPE
+ * field on its pages, 4 bytes instead of {@link Type#STRING_LEN} + 4.  The
+ * strings are kept in a side file next to the data file, which only grows:
+ * codes are never reused, so pages and log records written with a code
+ * always decode to the same string.
+ * <p>
+ * Tuples read from an encoded table hold the dictionary's own String
+ * instance for each code, so in memory the reference stands for the code:
+ * two fields of the table are equal exactly when they hold the same
+ * instance, and hashing them reuses the hash cached in that instance
+ * instead of rereading the characters.
+ * <p>
+ * Codes are decoded without locking, so that parallel scans of a table do
+ * not contend on its dictionary.
+ */
+public class StringDictionary {
+
+    /** The suffix added to the name of a data file to name its dictionary. */
+    public static final String SUFFIX = ".dict";
+
+    private final File file;
+    private final HashMap<String, Integer> codes = new HashMap<String, Integer>();
+
+    /*
+     * strings[0..size-1] are the strings of codes 0..size-1; a new string is
+     * stored before size is published, so that readers reading size first
+     * see it in strings
+     */
+    private volatile String[] strings = new String[64];
+    private volatile int size;
+    /* codes synced..size-1 are not in the file yet */
+    private int synced;
+
+    /**
+     * Opens the dictionary stored in file, creating an empty one if file
+     * does not exist yet.
+     */
+    public StringDictionary(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                while (in.available() > 0)
+                    add(in.readUTF());
+            } finally {
+                in.close();
+            }
+        } else {
+            file.createNewFile();
+        }
+        synced = size;
+    }
+
+    /** @return the dictionary file of the data file f */
+    public static File fileOf(File f) {
+        return new File(f.getPath() + SUFFIX);
+    }
+
+    /** @return the file this dictionary is stored in */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the number of codes assigned */
+    public int size() {
+        return size;
+    }
+
+    private int add(String s) {
+        int code = size;
+        String[] current = strings;
+        if (code == current.length) {
+            String[] bigger = new String[current.length * 2];
+            System.arraycopy(current, 0, bigger, 0, code);
+            current = bigger;
+        }
+        current[code] = s;
+        strings = current;
+        codes.put(s, code);
+        size = code + 1;
+        return code;
+    }
+
+    /**
+     * @return the code of s, truncated to {@link Type#STRING_LEN} like a
+     *   StringField, assigning it a new code if it has none yet
+     */
+    public synchronized int encode(String s) {
+        if (s.length() > Type.STRING_LEN)
+            s = s.substring(0, Type.STRING_LEN);
+        Integer code = codes.get(s);
+        return code != null ? code : add(s);
+    }
+
+    /** @return the code of s, or -1 if s has none */
+    public synchronized int find(String s) {
+        Integer code = codes.get(s);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @return the string of code
+     * @throws NoSuchElementException if no string has that code
+     */
+    public String decode(int code) {
+        int n = size;
+        String[] current = strings;
+        if (code < 0 || code >= n)
+            throw new NoSuchElementException("no string has code " + code);
+        return current[code];
+    }
+
+    /**
+     * @return the dictionary's instance of s, the one tuples read from the
+     *   table hold, assigning s a code if it has none yet
+     */
+    public String intern(String s) {
+        return decode(encode(s));
+    }
+
+    /**
+     * Appends the strings of the codes assigned since the last sync to the
+     * dictionary file.  Must be called before a page or log record holding
+     * these codes is written.
+     */
+    public synchronized void sync() throws IOException {
+        if (synced == size)
+            return;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        try {
+            for (; synced < size; synced++)
+                out.writeUTF(strings[synced]);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -1,61 +1,46 @@
 package simpledb;
 
-/** A class to represent a fixed-width histogram over a single String-based field.
+/** A class to represent an equi-depth histogram, with its most common values,
+ * over a single String-based field.  See {@link EquiDepthHistogram}.
  */
-public class StringHistogram {
-    IntHistogram hist;
+public class StringHistogram extends EquiDepthHistogram<String> {
+
+    /** Number of characters after the common prefix of the bounds of a bucket that place a string in it */
+    private static final int POSITION_CHARS = 3;
 
     /** Create a new StringHistogram with a specified number of buckets.
-        <p>
-        Our implementation is written in terms of an IntHistogram by converting
-        each String to an integer.
         @param buckets the number of buckets */
     public StringHistogram(int buckets) {
-        hist = new IntHistogram(buckets, minVal(), maxVal());
+        super(buckets);
     }
 
-    /** Convert a string to an integer, with the property that 
-        if the return value(s1) < return value(s2), then s1 < s2
-    */
-    private int stringToInt(String s) {
-        int i ;
-        int v = 0;
-        for (i = 3; i >= 0;i--) {
-            if (s.length() > 3-i) {
-                int ci = (int)s.charAt(3-i);
-                v += (ci) << (i * 8);
-            } 
-        }
-        
-        // XXX: hack to avoid getting wrong results for
-        // strings which don't output in the range min to max
-        if (!(s.equals("") || s.equals("zzzz"))) {
-	        if (v < minVal()) {
-	        	v = minVal();
-	        } 
-	        
-	        if (v > maxVal()) {
-	        	v = maxVal();
-	        }
+    /** @return the characters of s from the i-th on as a fraction, the first being the most significant */
+    private static double fraction(String s, int i) {
+        double v = 0;
+        double unit = 1.0;
+        for (int k = i; k < i + POSITION_CHARS; k++) {
+            unit /= Character.MAX_VALUE + 1;
+            if (k < s.length())
+                v += s.charAt(k) * unit;
         }
-        
         return v;
     }
 
-    /** @return the maximum value indexed by the histogram */
-    int maxVal() {
-        return stringToInt("zzzz");
-    }
-
-    /** @return the minimum value indexed by the histogram */
-    int minVal() {
-        return stringToInt("");
+    protected double position(String lo, String hi, String v) {
+        // the bounds agree up to p, and so does v, which is between them
+        int p = 0;
+        while (p < lo.length() && p < hi.length() && lo.charAt(p) == hi.charAt(p))
+            p++;
+        double l = fraction(lo, p);
+        double h = fraction(hi, p);
+        if (h <= l)
+            return 0.5;
+        return Math.max(0.0, Math.min(1.0, (fraction(v, p) - l) / (h - l)));
     }
 
     /** Add a new value to thte histogram */
     public void addValue(String s) {
-        int val = stringToInt(s);
-        hist.addValue(val);
+        add(s);
     }
 
     /** Estimate the selectivity (as a double between 0 and 1) of the specified predicate over the specified string 
@@ -63,20 +48,6 @@ public class StringHistogram {
         @param s The string to apply op to 
     */
     public double estimateSelectivity(Predicate.Op op, String s) {
-        int val = stringToInt(s);
-        return hist.estimateSelectivity(op, val);
-    }
-    
-    /**
-     * @return
-     *     the average selectivity of this histogram.
-     *     
-     *     This is not an indispensable method to implement the basic
-     *     join optimization. It may be needed if you want to
-     *     implement a more efficient optimization
-     * */
-    public double avgSelectivity()
-    {
-        return hist.avgSelectivity();
+        return estimate(op, s);
     }
-}
\ No newline at end of file
+}
@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
@@ -7,7 +8,10 @@ import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
- * query. 
+ * query.  Each field has an equi-depth histogram with its most common values
+ * (see {@link EquiDepthHistogram}), which predicates are estimated from, and
+ * a {@link HyperLogLog} sketch of its number of distinct values, which
+ * equality joins are estimated from.
  * 
  * This class is not needed in implementing proj1 and proj2.
  */
@@ -62,7 +66,7 @@ public class TableStats {
     public void test() {
         for (String name : histMap.keySet()) {
             System.out.println("Hist of " + name);
-            ((IntHistogram)histMap.get(name)).test();
+            System.out.println(histMap.get(name));
         }
     }
 
@@ -84,7 +88,8 @@ public class TableStats {
 
     private HashMap<String, Integer> minMap;
     private HashMap<String, Integer> maxMap;
-    private HashMap<String, Object> histMap;
+    private HashMap<String, EquiDepthHistogram<?>> histMap;
+    private HashMap<String, HyperLogLog> ndvMap;
 
 
     /**
@@ -116,84 +121,69 @@ public class TableStats {
 
         this.minMap = new HashMap<String, Integer>();
         this.maxMap = new HashMap<String, Integer>();
-        this.histMap = new HashMap<String, Object>();
+        this.histMap = new HashMap<String, EquiDepthHistogram<?>>();
+        this.ndvMap = new HashMap<String, HyperLogLog>();
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            String fieldName = tupleDesc.getFieldName(i);
+            if (tupleDesc.getFieldType(i).equals(Type.INT_TYPE))
+                histMap.put(fieldName, new IntHistogram(NUM_HIST_BINS));
+            else
+                histMap.put(fieldName, new StringHistogram(NUM_HIST_BINS));
+            ndvMap.put(fieldName, new HyperLogLog());
+        }
 
-        DbFileIterator it = file.iterator(new Transaction().getId());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
 
         try {
             it.open();
 
+            // equi-depth histograms follow the values, so one scan is enough
             while (it.hasNext()) {
                 Tuple tuple = it.next();
 
+                this.ntups ++;
+
                 for (int i = 0; i < tupleDesc.numFields(); i++) {
 
                     String fieldName = tupleDesc.getFieldName(i);
                     Type fieldType = tupleDesc.getFieldType(i);
 
                     if (fieldType.equals(Type.INT_TYPE)) {
-                        int value = ((IntField) tuple.getField(i)).getValue();
+                        int value = ((IntField)tuple.getField(i)).getValue();
 
-                        if (!minMap.containsKey(fieldName)) {
+                        Integer min = minMap.get(fieldName);
+                        if (min == null || min > value)
                             minMap.put(fieldName, value);
-                        } else {
-                            int min = minMap.get(fieldName);
-                            if (min > value) {
-                                minMap.put(fieldName, value);
-                            }
-                        }
-
-                        if (!maxMap.containsKey(fieldName)) {
+                        Integer max = maxMap.get(fieldName);
+                        if (max == null || max < value)
                             maxMap.put(fieldName, value);
-                        } else {
-                            int max = maxMap.get(fieldName);
-                            if (max < value) {
-                                maxMap.put(fieldName, value);
-                            }
-                        }
-                    }
-                }
-            }
-
-            for (String fieldName : minMap.keySet()) {
-                histMap.put(fieldName, new IntHistogram(NUM_HIST_BINS, minMap.get(fieldName), maxMap.get(fieldName)));
-            }
-
-            it.rewind();
-
-            while (it.hasNext()) {
-                Tuple tuple = it.next();
-
-                this.ntups ++;
-
-                for (int i = 0; i < tupleDesc.numFields(); i++) {
 
-                    String fieldName = tupleDesc.getFieldName(i);
-                    Type fieldType = tupleDesc.getFieldType(i);
-
-                    if (fieldType.equals(Type.INT_TYPE)) {
-                        int value = ((IntField)tuple.getField(i)).getValue();
                         ((IntHistogram) histMap.get(fieldName)).addValue(value);
+                        ndvMap.get(fieldName).addValue(value);
                     } else {
                         String value = ((StringField)tuple.getField(i)).getValue();
-
-                        if (histMap.containsKey(fieldName)) {
-                            ((StringHistogram)histMap.get(fieldName)).addValue(value);
-                        } else {
-                            StringHistogram stringHistogram = new StringHistogram(NUM_HIST_BINS);
-                            stringHistogram.addValue(value);
-                            histMap.put(fieldName, stringHistogram);
-                        }
+                        ((StringHistogram) histMap.get(fieldName)).addValue(value);
+                        ndvMap.get(fieldName).addValue(value);
                     }
                 }
-
-
             }
 
+            for (int i = 0; i < tupleDesc.numFields(); i++)
+                histMap.get(tupleDesc.getFieldName(i)).setDistinctValues(estimateDistinctValues(i));
+
         } catch (DbException e) {
             e.printStackTrace();
         } catch (TransactionAbortedException e) {
             e.printStackTrace();
+        } finally {
+            // release the locks of the scan, which would block writers
+            it.close();
+            try {
+                Database.getBufferPool().transactionComplete(tid);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 
@@ -240,9 +230,35 @@ public class TableStats {
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
         // some code goes here
+        int ndv = estimateDistinctValues(field);
+        if (ndv == 0)
+            return 1.0;
+        if (op == Predicate.Op.EQUALS)
+            return 1.0 / ndv;
+        if (op == Predicate.Op.NOT_EQUALS)
+            return 1.0 - 1.0 / ndv;
         return 1.0;
     }
 
+    /**
+     * Estimate the number of distinct values of a field of the table, from
+     * the HyperLogLog sketch of the field filled during the scan.
+     *
+     * @param field
+     *            The index of the field
+     * @return The estimated number of distinct values, between 1 and the
+     *         number of tuples, or 0 if the table is empty
+     */
+    public int estimateDistinctValues(int field) {
+        if (ntups == 0)
+            return 0;
+        String fieldName = tupleDesc.getFieldName(field);
+        long ndv = ndvMap.get(fieldName).estimate();
+        if (minMap.containsKey(fieldName))
+            ndv = Math.min(ndv, (long) maxMap.get(fieldName) - minMap.get(fieldName) + 1);
+        return (int) Math.max(1, Math.min(ndv, ntups));
+    }
+
     /**
      * Estimate the selectivity of predicate <tt>field op constant</tt> on the
      * table.
@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements an ORDER BY followed by a LIMIT: it
+ * returns the first n tuples of its child in the given order.  Only n tuples
+ * are kept while the child is read, in a heap whose root is the worst of
+ * them, so each child tuple costs O(log n) and memory does not grow with the
+ * input.  Tuples with equal keys keep their input order, as with
+ * {@link OrderBy}.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private DbIterator child;
+    private final TupleDesc td;
+    private final int orderByField;
+    private final boolean asc;
+    private final int limit;
+    private ArrayList<Tuple> top = new ArrayList<Tuple>();
+    private Iterator<Tuple> it;
+
+    /** A kept tuple and its position in the input, which breaks ties. */
+    private static class Ranked {
+        final Tuple tuple;
+        final long seq;
+
+        Ranked(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Creates a new TopN node.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, DbIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.asc = asc;
+        this.limit = limit;
+    }
+
+    public boolean isASC() {
+        return asc;
+    }
+
+    public int getOrderByField() {
+        return orderByField;
+    }
+
+    public String getOrderFieldName() {
+        return td.getFieldName(orderByField);
+    }
+
+    /** @return the number of tuples returned */
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        final TupleComparator order = new TupleComparator(orderByField, asc);
+        // the root of the heap is the kept tuple that would come last
+        PriorityQueue<Ranked> heap = new PriorityQueue<Ranked>(Math.min(limit, 1024) + 1,
+                new Comparator<Ranked>() {
+                    public int compare(Ranked a, Ranked b) {
+                        int c = order.compare(b.tuple, a.tuple);
+                        if (c != 0)
+                            return c;
+                        return a.seq < b.seq ? 1 : (a.seq > b.seq ? -1 : 0);
+                    }
+                });
+        long seq = 0;
+        while (limit > 0 && child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < limit) {
+                heap.add(new Ranked(t, seq++));
+            } else if (order.compare(t, heap.peek().tuple) < 0) {
+                heap.poll();
+                heap.add(new Ranked(t, seq++));
+            }
+        }
+        top.clear();
+        while (!heap.isEmpty())
+            top.add(heap.poll().tuple);
+        Collections.reverse(top);
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        top.clear();
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = top.iterator();
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it != null && it.hasNext())
+            return it.next();
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
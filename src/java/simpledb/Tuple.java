@@ -9,18 +9,28 @@ import java.util.Iterator;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The fields are stored flat rather than as Field objects: the values of the
+ * INT_TYPE fields share one int array, which also holds a bitmap of the
+ * fields that are set, and the STRING_TYPE fields one String array, at the
+ * slots given by the TupleDesc.  getField wraps a value in a new Field; hot
+ * paths read it with {@link #getInt} and {@link #getString} instead.
+ * <p>
+ * A tuple made by {@link #join} is a view of the fields of two tuples and
+ * copies nothing, unless one of its fields is set later.
  */
 public class Tuple implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
-
-    /**
-     * Some member variables.
-     *
-     */
     private TupleDesc schema;
-    private ArrayList<Field> fields;
+    /* the INT_TYPE values, then one bit per field that is set */
+    private int[] values;
+    /* the STRING_TYPE values, null if there are none */
+    private String[] strings;
+    /* for a joined view: the tuples whose fields it shows, values is null */
+    private Tuple left, right;
+    private int leftFields;
     private RecordId rid;
 
 
@@ -34,10 +44,19 @@ public class Tuple implements Serializable {
     public Tuple(TupleDesc td) {
         // some code goes here
         schema = td;
-        fields = new ArrayList<Field>();
-        for (int i = 0; i < td.numFields(); i++) {
-            fields.add(null);
-        }
+        allocate();
+    }
+
+    private Tuple(TupleDesc td, Tuple left, Tuple right) {
+        schema = td;
+        this.left = left;
+        this.right = right;
+        leftFields = left.getTupleDesc().numFields();
+    }
+
+    private void allocate() {
+        values = new int[schema.numIntFields() + ((schema.numFields() + 31) >>> 5)];
+        strings = schema.numStringFields() == 0 ? null : new String[schema.numStringFields()];
     }
 
     /**
@@ -68,6 +87,42 @@ public class Tuple implements Serializable {
         this.rid = rid;
     }
 
+    private void checkIndex(int i) {
+        if (i < 0 || i >= schema.numFields()) {
+            throw new IllegalArgumentException("Field index out of bounds");
+        }
+    }
+
+    private boolean isSet(int i) {
+        return (values[schema.numIntFields() + (i >>> 5)] & (1 << i)) != 0;
+    }
+
+    private void markSet(int i, boolean set) {
+        int word = schema.numIntFields() + (i >>> 5);
+        if (set)
+            values[word] |= 1 << i;
+        else
+            values[word] &= ~(1 << i);
+    }
+
+    /** Copies the fields of a joined view into flat storage of its own. */
+    private void materialize() {
+        Tuple l = left, r = right;
+        left = null;
+        right = null;
+        allocate();
+        for (int i = 0; i < schema.numFields(); i++) {
+            Tuple from = i < leftFields ? l : r;
+            int j = i < leftFields ? i : i - leftFields;
+            if (from.getField(j) == null)
+                continue;
+            if (schema.getFieldType(i) == Type.INT_TYPE)
+                setInt(i, from.getInt(j));
+            else
+                setString(i, from.getString(j));
+        }
+    }
+
     /**
      * Change the value of the ith field of this tuple.
      * 
@@ -78,12 +133,34 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
-        //System.out.println(fields.size());
-        if (i < 0 || i >= fields.size()) {
-            throw new IllegalArgumentException("Field index out of bounds");
+        checkIndex(i);
+        if (f == null) {
+            if (values == null)
+                materialize();
+            markSet(i, false);
+            if (schema.getFieldType(i) == Type.STRING_TYPE)
+                strings[schema.slot(i)] = null;
+        } else if (schema.getFieldType(i) == Type.INT_TYPE) {
+            setInt(i, ((IntField) f).getValue());
+        } else {
+            setString(i, ((StringField) f).getValue());
         }
-        fields.set(i, f);
+    }
 
+    /** Sets the INT_TYPE field i to value. */
+    public void setInt(int i, int value) {
+        if (values == null)
+            materialize();
+        values[schema.slot(i)] = value;
+        markSet(i, true);
+    }
+
+    /** Sets the STRING_TYPE field i to value. */
+    public void setString(int i, String value) {
+        if (values == null)
+            materialize();
+        strings[schema.slot(i)] = value;
+        markSet(i, true);
     }
 
     /**
@@ -94,12 +171,28 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        if (i < 0 || i >= fields.size()) {
-            throw new IllegalArgumentException("Field index out of bounds");
-        }
+        checkIndex(i);
+        if (values == null)
+            return i < leftFields ? left.getField(i) : right.getField(i - leftFields);
+        if (!isSet(i))
+            return null;
+        if (schema.getFieldType(i) == Type.INT_TYPE)
+            return new IntField(values[schema.slot(i)]);
+        return new StringField(strings[schema.slot(i)], Type.STRING_LEN);
+    }
 
-        return fields.get(i);
+    /** @return the value of the INT_TYPE field i, without wrapping it in a Field */
+    public int getInt(int i) {
+        if (values == null)
+            return i < leftFields ? left.getInt(i) : right.getInt(i - leftFields);
+        return values[schema.slot(i)];
+    }
 
+    /** @return the value of the STRING_TYPE field i, without wrapping it in a Field */
+    public String getString(int i) {
+        if (values == null)
+            return i < leftFields ? left.getString(i) : right.getString(i - leftFields);
+        return strings[schema.slot(i)];
     }
 
     /**
@@ -113,12 +206,13 @@ public class Tuple implements Serializable {
     public String toString() {
         // some code goes here
         StringBuilder description = new StringBuilder();
-        int size = fields.size();
+        int size = schema.numFields();
         for (int i = 0; i < size; i++) {
-            if (fields.get(i) == null) {
+            Field f = getField(i);
+            if (f == null) {
                 description.append("null\t");
             } else {
-                description.append(fields.get(i).toString() + "\t");
+                description.append(f.toString() + "\t");
             }
         }
         return description.toString();
@@ -132,6 +226,9 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
+        ArrayList<Field> fields = new ArrayList<Field>();
+        for (int i = 0; i < schema.numFields(); i++)
+            fields.add(getField(i));
         return fields.iterator();
     }
 
@@ -139,19 +236,16 @@ public class Tuple implements Serializable {
     //A merge util method for join two tuples
 
     public static Tuple merge(Tuple t1, Tuple t2) {
-        TupleDesc mDesc = TupleDesc.merge(t1.getTupleDesc(), t2.getTupleDesc());
-        Tuple mTuple = new Tuple(mDesc);
-
-
-        for (int i = 0; i < t1.getTupleDesc().numFields(); i++) {
-            mTuple.setField(i, t1.getField(i));
-        }
+        return join(TupleDesc.merge(t1.getTupleDesc(), t2.getTupleDesc()), t1, t2);
+    }
 
-        for (int j = 0; j < t2.getTupleDesc().numFields(); j++) {
-            int index = j + t1.getTupleDesc().numFields();
-            mTuple.setField(index, t2.getField(j));
-        }
-        return mTuple;
+    /**
+     * @return a view of the fields of t1 followed by the fields of t2, with
+     *   schema td, which must be the merge of their schemas.  No field is
+     *   copied, so t1 and t2 must not change while the view is in use.
+     */
+    public static Tuple join(TupleDesc td, Tuple t1, Tuple t2) {
+        return new Tuple(td, t1, t2);
     }
 
 }
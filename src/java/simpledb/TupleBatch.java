@@ -0,0 +1,203 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * TupleBatch holds up to {@link #DEFAULT_SIZE} rows in columnar form: one
+ * int[] per INT_TYPE column and one String[] per STRING_TYPE column.  A
+ * selection vector lists the rows that are still live, so a filter can drop
+ * rows without copying the others; when there is no selection vector every
+ * row is live.
+ * <p>
+ * Batches are passed between {@link BatchDbIterator}s and are only valid
+ * until the next call to nextBatch() on the iterator that produced them.
+ */
+public class TupleBatch implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of rows in a full batch. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] intColumns;
+    private final String[][] stringColumns;
+    private RecordId[] recordIds;
+    private int numRows;
+    private int[] selection;
+    private int numSelected;
+
+    /** Creates an empty batch of DEFAULT_SIZE rows with the given schema. */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_SIZE);
+    }
+
+    /** Creates an empty batch of capacity rows with the given schema. */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.intColumns = new int[td.numFields()][];
+        this.stringColumns = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                intColumns[i] = new int[capacity];
+            else
+                stringColumns[i] = new String[capacity];
+        }
+    }
+
+    private TupleBatch(TupleDesc td, int capacity, int[][] intColumns, String[][] stringColumns) {
+        this.td = td;
+        this.capacity = capacity;
+        this.intColumns = intColumns;
+        this.stringColumns = stringColumns;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of live rows */
+    public int size() {
+        return selection == null ? numRows : numSelected;
+    }
+
+    /** @return the number of physical rows, live or not */
+    public int numRows() {
+        return numRows;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return numRows == capacity;
+    }
+
+    /** @return the physical row of the i-th live row */
+    public int row(int i) {
+        return selection == null ? i : selection[i];
+    }
+
+    /** Removes all rows. */
+    public void clear() {
+        numRows = 0;
+        selection = null;
+        numSelected = 0;
+        recordIds = null;
+    }
+
+    /**
+     * Restricts the live rows to the first n physical rows listed in sel,
+     * which must be in increasing order.
+     */
+    public void setSelection(int[] sel, int n) {
+        this.selection = sel;
+        this.numSelected = n;
+    }
+
+    /** @return the raw values of an INT_TYPE column, indexed by physical row */
+    public int[] getIntColumn(int col) {
+        return intColumns[col];
+    }
+
+    /** @return the raw values of a STRING_TYPE column, indexed by physical row */
+    public String[] getStringColumn(int col) {
+        return stringColumns[col];
+    }
+
+    /** @return the value of column col in physical row row */
+    public Field getField(int col, int row) {
+        if (intColumns[col] != null)
+            return new IntField(intColumns[col][row]);
+        return new StringField(stringColumns[col][row], Type.STRING_LEN);
+    }
+
+    /** Sets column col of physical row row to f. */
+    public void setField(int col, int row, Field f) {
+        if (intColumns[col] != null)
+            intColumns[col][row] = ((IntField) f).getValue();
+        else
+            stringColumns[col][row] = ((StringField) f).getValue();
+    }
+
+    /**
+     * Appends an empty physical row, which is live unless a selection
+     * vector is set.
+     * @return the index of the new row
+     */
+    public int addRow() {
+        if (numRows == capacity)
+            throw new IllegalStateException("batch is full");
+        return numRows++;
+    }
+
+    /** Appends the fields and record id of t as a new row. */
+    public void addTuple(Tuple t) {
+        int row = addRow();
+        copyTuple(t, row, 0);
+        if (t.getRecordId() != null) {
+            if (recordIds == null)
+                recordIds = new RecordId[capacity];
+            recordIds[row] = t.getRecordId();
+        }
+    }
+
+    /**
+     * Copies all columns of physical row srcRow of src into columns
+     * offset.. of physical row row of this batch.
+     */
+    public void copyRow(TupleBatch src, int srcRow, int row, int offset) {
+        for (int i = 0; i < src.intColumns.length; i++) {
+            if (src.intColumns[i] != null)
+                intColumns[offset + i][row] = src.intColumns[i][srcRow];
+            else
+                stringColumns[offset + i][row] = src.stringColumns[i][srcRow];
+        }
+    }
+
+    /**
+     * Copies the fields of t into columns offset.. of physical row row of
+     * this batch.
+     */
+    public void copyTuple(Tuple t, int row, int offset) {
+        for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+            if (intColumns[offset + i] != null)
+                intColumns[offset + i][row] = t.getInt(i);
+            else
+                stringColumns[offset + i][row] = t.getString(i);
+        }
+    }
+
+    /** @return physical row row as a Tuple */
+    public Tuple getTuple(int row) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < intColumns.length; i++) {
+            if (intColumns[i] != null)
+                t.setInt(i, intColumns[i][row]);
+            else
+                t.setString(i, stringColumns[i][row]);
+        }
+        if (recordIds != null)
+            t.setRecordId(recordIds[row]);
+        return t;
+    }
+
+    /**
+     * @return a batch with the given columns of this batch, sharing its
+     *   column arrays and selection vector instead of copying them
+     */
+    public TupleBatch project(int[] cols, TupleDesc newTd) {
+        int[][] ints = new int[cols.length][];
+        String[][] strings = new String[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            ints[i] = intColumns[cols[i]];
+            strings[i] = stringColumns[cols[i]];
+        }
+        TupleBatch b = new TupleBatch(newTd, capacity, ints, strings);
+        b.recordIds = recordIds;
+        b.numRows = numRows;
+        b.selection = selection;
+        b.numSelected = numSelected;
+        return b;
+    }
+}
@@ -17,6 +17,14 @@ public class TupleDesc implements Serializable {
      */
     private ArrayList<TDItem> fList;
 
+    /*
+     * The layout of the flat tuples of this schema: field i is slot
+     * slots[i] of the int values or of the strings of the tuple.
+     */
+    private int[] slots;
+    private int numInts;
+    private int numStrings;
+
     /**
      *  Get the TDItemlist of the TupleDesc
      */
@@ -93,6 +101,7 @@ public class TupleDesc implements Serializable {
                 fList.add(new TDItem(typeAr[i], new String("field " + i)));
             }
         }
+        layout();
     }
 
     /**
@@ -101,6 +110,7 @@ public class TupleDesc implements Serializable {
      */
     private TupleDesc(ArrayList<TDItem> fList) {
         this.fList = fList;
+        layout();
     }
 
     /**
@@ -123,6 +133,38 @@ public class TupleDesc implements Serializable {
         for (int i = 0; i < typeAr.length; i++) {
             fList.add(new TDItem(typeAr[i], new String("field " + i)));
         }
+        layout();
+    }
+
+    /** Numbers the INT_TYPE fields and the STRING_TYPE fields separately. */
+    private void layout() {
+        slots = new int[fList.size()];
+        numInts = 0;
+        numStrings = 0;
+        for (int i = 0; i < slots.length; i++) {
+            if (fList.get(i).fieldType == Type.INT_TYPE)
+                slots[i] = numInts++;
+            else
+                slots[i] = numStrings++;
+        }
+    }
+
+    /**
+     * @return the position of field i among the fields of its type, where
+     *   {@link Tuple} keeps its value
+     */
+    int slot(int i) {
+        return slots[i];
+    }
+
+    /** @return the number of INT_TYPE fields */
+    int numIntFields() {
+        return numInts;
+    }
+
+    /** @return the number of STRING_TYPE fields */
+    int numStringFields() {
+        return numStrings;
     }
 
     /**
@@ -3,12 +3,18 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class AggregateTest extends SimpleDbTestBase {
 
@@ -176,6 +182,127 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.getNext() computing several aggregates in one
+   * pass, grouped by two fields
+   */
+  @Test public void multipleAggregates() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(3,
+        new int[] { 1, 1, 2,
+                    1, 2, 4,
+                    1, 1, 6,
+                    3, 1, 2,
+                    3, 1, 4,
+                    1, 2, 7 });
+    Aggregate op = new Aggregate(scan, new int[] { 2, 2, 2, 0 }, new int[] { 0, 1 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM,
+            Aggregator.Op.MAX, Aggregator.Op.MIN });
+    assertEquals(6, op.getTupleDesc().numFields());
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(6,
+        new int[] { 1, 1, 2, 8, 6, 1,
+                    1, 2, 2, 11, 7, 1,
+                    3, 1, 2, 6, 4, 3 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+
+    // reopening starts from empty groups
+    op.open();
+    expected.rewind();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Several aggregates and GROUP BY fields are parsed into one Aggregate
+   */
+  @Test public void parseMultipleAggregates() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 500, 4, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    Database.getCatalog().addTable(table, "t");
+    TableStats.setTableStats("t", new TableStats(table.getId(), 1));
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put("t", TableStats.getTableStats("t"));
+
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+        "SELECT t.c1, t.c0, COUNT(*), SUM(t.c2), MAX(t.c2) FROM t GROUP BY t.c0, t.c1;");
+    DbIterator plan = lp.physicalPlan(tid, stats, false);
+    Aggregate agg = (Aggregate) ((Operator) plan).getChildren()[0];
+    assertEquals(2, agg.groupFields().length);
+    assertEquals(3, agg.aggregateOps().length);
+
+    HashMap<String, int[]> expected = new HashMap<String, int[]>();
+    SeqScan scan = new SeqScan(tid, table.getId(), "t");
+    scan.open();
+    while (scan.hasNext()) {
+      Tuple t = scan.next();
+      int c2 = ((IntField) t.getField(2)).getValue();
+      String key = t.getField(1) + "," + t.getField(0);
+      int[] acc = expected.get(key);
+      if (acc == null)
+        expected.put(key, acc = new int[] { 0, 0, Integer.MIN_VALUE });
+      acc[0]++;
+      acc[1] += c2;
+      acc[2] = Math.max(acc[2], c2);
+    }
+    scan.close();
+
+    plan.open();
+    int groups = 0;
+    while (plan.hasNext()) {
+      Tuple t = plan.next();
+      int[] acc = expected.get(t.getField(0) + "," + t.getField(1));
+      assertNotNull(acc);
+      for (int k = 0; k < 3; k++)
+        assertEquals(acc[k], ((IntField) t.getField(2 + k)).getValue());
+      groups++;
+    }
+    plan.close();
+    assertEquals(expected.size(), groups);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static ArrayList<String> sortedRows(DbIterator it) throws Exception {
+    ArrayList<String> rows = new ArrayList<String>();
+    while (it.hasNext())
+      rows.add(it.next().toString());
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * Grouping by a near-unique field with a small memory budget spills
+   * partitions, repartitions them, and gives the same groups as grouping in
+   * memory
+   */
+  @Test public void spilledAggregate() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, 4000, null,
+        new ArrayList<ArrayList<Integer>>());
+    TransactionId tid = new TransactionId();
+    int[] afields = { 1, 1, 1 };
+    int[] gfields = { 0 };
+    Aggregator.Op[] aops = { Aggregator.Op.COUNT, Aggregator.Op.SUM, Aggregator.Op.MIN };
+
+    Aggregate inMemory = new Aggregate(new SeqScan(tid, table.getId(), "t"), afields, gfields, aops);
+    inMemory.open();
+    assertTrue(!inMemory.spilled());
+    ArrayList<String> expected = sortedRows(inMemory);
+    inMemory.close();
+    assertTrue(expected.size() > 2000);
+
+    int groupSize = inMemory.getTupleDesc().getSize();
+    // 10 groups per level leaves partitions with too many groups at depth 1
+    Aggregate op = new Aggregate(new SeqScan(tid, table.getId(), "t"), afields, gfields, aops, 10 * groupSize);
+    op.open();
+    assertTrue(op.spilled());
+    assertEquals(expected, sortedRows(op));
+    op.rewind();
+    assertEquals(expected, sortedRows(op));
+    op.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,173 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BitmapIndexTest extends SimpleDbTestBase {
+
+    private static void assertSameBits(BitSet expected, CompressedBitmap actual) {
+        assertEquals(expected.cardinality(), actual.cardinality());
+        int[] positions = actual.toArray();
+        int i = 0;
+        for (int pos = expected.nextSetBit(0); pos >= 0; pos = expected.nextSetBit(pos + 1))
+            assertEquals(pos, positions[i++]);
+    }
+
+    private static CompressedBitmap randomBitmap(Random r, BitSet bits, int size, double density) {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        // set and clear in random order, so fills get split
+        for (int n = 0; n < size; n++) {
+            int pos = r.nextInt(size);
+            boolean value = r.nextDouble() < density;
+            bits.set(pos, value);
+            bitmap.set(pos, value);
+        }
+        // a long run of ones
+        for (int pos = size; pos < size + 500; pos++) {
+            bits.set(pos);
+            bitmap.set(pos, true);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Unit test for CompressedBitmap set/get/and/or against java.util.BitSet
+     */
+    @Test public void compressedBitmap() {
+        Random r = new Random(42);
+        for (int round = 0; round < 20; round++) {
+            BitSet bitsA = new BitSet();
+            BitSet bitsB = new BitSet();
+            CompressedBitmap a = randomBitmap(r, bitsA, 2000 + r.nextInt(3000), 0.5);
+            CompressedBitmap b = randomBitmap(r, bitsB, 2000 + r.nextInt(3000), 0.2);
+            assertSameBits(bitsA, a);
+            for (int pos = 0; pos < 6000; pos += 7)
+                assertEquals(bitsA.get(pos), a.get(pos));
+
+            BitSet and = (BitSet) bitsA.clone();
+            and.and(bitsB);
+            assertSameBits(and, a.and(b));
+            BitSet or = (BitSet) bitsA.clone();
+            or.or(bitsB);
+            assertSameBits(or, a.or(b));
+            assertSameBits(or, b.or(a));
+        }
+
+        // runs compress
+        CompressedBitmap sparse = new CompressedBitmap();
+        sparse.set(1000000, true);
+        assertEquals(2, sparse.sizeInWords());
+        assertTrue(sparse.get(1000000));
+        assertFalse(sparse.get(999999));
+    }
+
+    /**
+     * BitmapIndexScan returns the same tuples as filtering a SeqScan, and
+     * index changes of an aborted transaction are undone
+     */
+    @Test public void bitmapIndexScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 3000, 5, null, tuples);
+        Database.getCatalog().addBitmapIndex(table.getId(), 0);
+        Database.getCatalog().addBitmapIndex(table.getId(), 1);
+
+        TransactionId tid = new TransactionId();
+        BitmapIndexScan scan = new BitmapIndexScan(tid, table.getId(), "t", new int[] { 0, 1 },
+                new Field[][] { { new IntField(1), new IntField(3) }, { new IntField(2) } });
+        int expected = 0;
+        for (ArrayList<Integer> row : tuples)
+            if ((row.get(0) == 1 || row.get(0) == 3) && row.get(1) == 2)
+                expected++;
+
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.EQUALS, new IntField(2)),
+                new Filter(new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(3)),
+                        new Filter(new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(2)),
+                                new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(0)),
+                                        new SeqScan(tid, table.getId(), "t")))));
+        scan.open();
+        filter.open();
+        TestUtil.matchAllTuples(filter, scan);
+        int count = 0;
+        scan.rewind();
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        assertEquals(expected, count);
+        scan.close();
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        // inserts show up in the index, and are undone by an abort
+        BitmapIndex index = Database.getCatalog().getBitmapIndex(table.getId(), 0);
+        int before = index.lookup(new IntField(99)).cardinality();
+        assertEquals(0, before);
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, table.getId(),
+                Utility.getHeapTuple(new int[] { 99, 2, 0 }));
+        assertEquals(1, index.lookup(new IntField(99)).cardinality());
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(0, index.lookup(new IntField(99)).cardinality());
+    }
+
+    /**
+     * On a dictionary encoded table, whose pages hold more tuples, bit
+     * positions map back to the slots of the tuples, and a scan of the
+     * index returns the tuples with the key
+     */
+    @Test public void encodedTable() throws Exception {
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        File text = File.createTempFile("bitmap", ".txt");
+        text.deleteOnExit();
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < 1000; i++)
+            w.write(i + ",s" + (i % 3) + "\n");
+        w.close();
+        File data = File.createTempFile("bitmap", ".dat");
+        data.deleteOnExit();
+        StringDictionary.fileOf(data).deleteOnExit();
+        HeapFileEncoder.convert(text, data, BufferPool.PAGE_SIZE, 2, types, ',', true);
+        HeapFile table = new HeapFile(data, new TupleDesc(types, new String[] { "id", "name" }));
+        Database.getCatalog().addTable(table, "encoded");
+        BitmapIndex index = Database.getCatalog().addBitmapIndex(table.getId(), 1);
+
+        TransactionId tid = new TransactionId();
+        SeqScan all = new SeqScan(tid, table.getId(), "t");
+        all.open();
+        while (all.hasNext()) {
+            RecordId rid = all.next().getRecordId();
+            assertEquals(rid, index.recordId(index.position(rid)));
+        }
+        all.close();
+
+        Field key = new StringField("s1", Type.STRING_LEN);
+        BitmapIndexScan scan = new BitmapIndexScan(tid, table.getId(), "t", new int[] { 1 },
+                new Field[][] { { key } });
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.EQUALS, key),
+                new SeqScan(tid, table.getId(), "t"));
+        scan.open();
+        filter.open();
+        TestUtil.matchAllTuples(filter, scan);
+        scan.close();
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapIndexTest.class);
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompiledPredicateTest extends SimpleDbTestBase {
+
+    private static final String[] WORDS = { "apple", "banana", "cherry", "date" };
+
+    private static TupleDesc schema() {
+        return new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+                new String[] { "a", "b", "c" });
+    }
+
+    private static ArrayList<Tuple> randomTuples(int n) {
+        Random r = new Random(3);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++) {
+            Tuple t = new Tuple(schema());
+            t.setField(0, new IntField(r.nextInt(20)));
+            t.setField(1, new StringField(WORDS[r.nextInt(WORDS.length)], Type.STRING_LEN));
+            t.setField(2, new IntField(r.nextInt(20)));
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    /** Checks that p compiled selects the same tuples and batch rows as p interpreted. */
+    private static void checkSame(Predicate[] p, ArrayList<Tuple> tuples) {
+        CompiledPredicate compiled = CompiledPredicate.compile(p, schema());
+        TupleBatch batch = new TupleBatch(schema());
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < tuples.size(); i++) {
+            Tuple t = tuples.get(i);
+            batch.addTuple(t);
+            boolean pass = true;
+            for (Predicate term : p)
+                pass &= term.filter(t);
+            assertEquals(pass, compiled.test(t));
+            if (pass)
+                expected.add(i);
+        }
+        int[] selected = new int[batch.size()];
+        int n = compiled.filter(batch, selected);
+        assertEquals(expected.size(), n);
+        for (int i = 0; i < n; i++)
+            assertEquals((int) expected.get(i), selected[i]);
+    }
+
+    /**
+     * Compiled predicates select the same tuples and batch rows as
+     * Predicate.filter, for every operator on int and string fields
+     */
+    @Test public void sameAsInterpreted() throws Exception {
+        ArrayList<Tuple> tuples = randomTuples(500);
+        for (Predicate.Op op : Predicate.Op.values()) {
+            checkSame(new Predicate[] { new Predicate(0, op, new IntField(10)) }, tuples);
+            checkSame(new Predicate[] { new Predicate(1, op, new StringField("banana", Type.STRING_LEN)) }, tuples);
+            checkSame(new Predicate[] { new Predicate(0, op, new IntField(7)),
+                    new Predicate(1, Predicate.Op.NOT_EQUALS, new StringField("date", Type.STRING_LEN)),
+                    new Predicate(2, Predicate.Op.LESS_THAN, new IntField(12)) }, tuples);
+        }
+    }
+
+    /**
+     * Compiled join predicates agree with JoinPredicate.filter
+     */
+    @Test public void joinSameAsInterpreted() throws Exception {
+        ArrayList<Tuple> tuples = randomTuples(60);
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int[] fields : new int[][] { { 0, 2 }, { 1, 1 } }) {
+                JoinPredicate p = new JoinPredicate(fields[0], op, fields[1]);
+                CompiledJoinPredicate compiled = CompiledJoinPredicate.compile(p, schema(), schema());
+                for (Tuple t1 : tuples)
+                    for (Tuple t2 : tuples)
+                        assertEquals(p.filter(t1, t2), compiled.test(t1, t2));
+            }
+        }
+    }
+
+    /**
+     * The filters of a table are planned as one Filter over the conjunction
+     */
+    @Test public void plannedConjunction() throws Exception {
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1000, 100, null, rows, "c");
+        Database.getCatalog().addTable(table, "t");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("t", new TableStats(table.getId(), 1));
+
+        TransactionId tid = new TransactionId();
+        DbIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM t WHERE t.c0 > 20 AND t.c1 <= 60 AND t.c0 <> 50;").physicalPlan(tid, stats, false);
+        Filter filter = (Filter) ((Operator) plan).getChildren()[0];
+        assertEquals(3, filter.getPredicates().length);
+        assertTrue(filter.getChildren()[0] instanceof SeqScan);
+
+        int expected = 0;
+        for (ArrayList<Integer> row : rows)
+            if (row.get(0) > 20 && row.get(1) <= 60 && row.get(0) != 50)
+                expected++;
+        int n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            int c0 = ((IntField) t.getField(0)).getValue();
+            assertTrue(c0 > 20 && c0 != 50 && ((IntField) t.getField(1)).getValue() <= 60);
+            n++;
+        }
+        plan.close();
+        assertEquals(expected, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompiledPredicateTest.class);
+    }
+}
@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+    private static ArrayList<String> drain(DbIterator it) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        it.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private static DbIterator plan(TransactionId tid, String query, HashMap<String, TableStats> stats)
+            throws Exception {
+        return new Parser().generateLogicalPlan(tid, query).physicalPlan(tid, stats, false);
+    }
+
+    /** @return true if plan or any of its descendants is an instance of c */
+    private static boolean contains(DbIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (plan instanceof Operator) {
+            for (DbIterator child : ((Operator) plan).getChildren())
+                if (contains(child, c))
+                    return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gather returns the tuples of all the page ranges of a split scan, and
+     * can be rewound
+     */
+    @Test public void gatherSplitScan() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 5000, null, null);
+        TransactionId tid = new TransactionId();
+        ArrayList<String> expected = drain(new SeqScan(tid, table.getId(), "t"));
+
+        SeqScan[] parts = new SeqScan(tid, table.getId(), "t").split(4);
+        assertTrue(parts[0].isPartial());
+        Gather gather = new Gather(parts);
+        assertEquals(expected, drain(gather));
+
+        gather.open();
+        while (gather.hasNext())
+            gather.next();
+        gather.rewind();
+        int n = 0;
+        while (gather.hasNext()) {
+            gather.next();
+            n++;
+        }
+        gather.close();
+        assertEquals(5000, n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Repartition sends all the tuples with the same key to the same output,
+     * and Broadcast sends every tuple to every output
+     */
+    @Test public void repartitionAndBroadcast() throws Exception {
+        int[] data = new int[2 * 3000];
+        for (int i = 0; i < 3000; i++) {
+            data[2 * i] = i % 50;
+            data[2 * i + 1] = i;
+        }
+        DbIterator[] inputs = new DbIterator[] {
+                TestUtil.createTupleList(2, data), TestUtil.createTupleList(2, data) };
+
+        // counting each output's keys: a key sent to two outputs would be counted twice
+        Repartition[] outputs = Repartition.partition(inputs, new int[] { 0 }, 4);
+        DbIterator[] counts = new DbIterator[outputs.length];
+        for (int i = 0; i < outputs.length; i++)
+            counts[i] = new Aggregate(outputs[i], 1, 0, Aggregator.Op.COUNT);
+        ArrayList<String> groups = drain(new Gather(counts));
+        assertEquals(50, groups.size());
+        for (String group : groups)
+            assertTrue(group.trim().endsWith("120"));
+
+        Broadcast[] copies = Broadcast.broadcast(new DbIterator[] { TestUtil.createTupleList(2, data) }, 3);
+        assertEquals(3 * 3000, drain(new Gather(copies)).size());
+    }
+
+    /**
+     * With a parallelism above 1, filters, aggregates and joins over big
+     * tables are planned over partitions of the scans and return the same
+     * tuples as serial plans
+     */
+    @Test public void parallelPlans() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 40000, 1000, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, 200, 1000, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        HeapFile other = SystemTestUtil.createRandomHeapFile(3, 25000, 100000, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        assertTrue(big.numPages() >= 64 && other.numPages() >= 64);
+        Database.getCatalog().addTable(big, "t");
+        Database.getCatalog().addTable(small, "s");
+        Database.getCatalog().addTable(other, "u");
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("t", new TableStats(big.getId(), 1));
+        stats.put("s", new TableStats(small.getId(), 1));
+        stats.put("u", new TableStats(other.getId(), 1));
+
+        String[] queries = new String[] {
+                "SELECT * FROM t WHERE t.c1 < 300;",
+                "SELECT t.c0, COUNT(*), SUM(t.c1), AVG(t.c1), MIN(t.c1), MAX(t.c1) FROM t WHERE t.c1 > 100 GROUP BY t.c0;",
+                "SELECT COUNT(t.c0), AVG(t.c1) FROM t;",
+                "SELECT * FROM t, s WHERE t.c0 = s.c0;",
+                "SELECT s.c1, COUNT(*) FROM s, t WHERE s.c0 = t.c0 GROUP BY s.c1;",
+                "SELECT * FROM t, u WHERE t.c0 = u.c0;" };
+        TransactionId tid = new TransactionId();
+        try {
+            for (String query : queries) {
+                Exchange.setParallelism(1);
+                DbIterator serial = plan(tid, query, stats);
+                assertFalse(contains(serial, Gather.class));
+                Exchange.setParallelism(4);
+                DbIterator parallel = plan(tid, query, stats);
+                assertTrue(query, contains(parallel, Gather.class));
+                // a join of two big tables repartitions both instead of broadcasting one
+                assertEquals(query, query.contains(" u "), contains(parallel, Repartition.class));
+                assertEquals(query, drain(serial), drain(parallel));
+            }
+        } finally {
+            Exchange.setParallelism(Exchange.DEFAULT_PARALLELISM);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
@@ -0,0 +1,54 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupTableTest extends SimpleDbTestBase {
+
+    /**
+     * Int keys are numbered in first-seen order and keep their numbers as the
+     * table grows
+     */
+    @Test public void intKeys() throws Exception {
+        GroupTable groups = new GroupTable(Type.INT_TYPE);
+        HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        Random r = new Random(3);
+        for (int i = 0; i < 20000; i++) {
+            int key = r.nextInt(5000) - 2500;
+            Integer g = expected.get(key);
+            if (g == null)
+                expected.put(key, g = expected.size());
+            assertEquals((int) g, groups.groupOf(key));
+        }
+        assertEquals(expected.size(), groups.numGroups());
+        for (Integer key : expected.keySet())
+            assertEquals(new IntField(key), groups.key(expected.get(key)));
+        assertEquals(0, groups.groupOf(groups.key(0)));
+    }
+
+    /**
+     * String keys get dictionary codes in first-seen order
+     */
+    @Test public void stringKeys() throws Exception {
+        GroupTable groups = new GroupTable(Type.STRING_TYPE);
+        assertEquals(0, groups.groupOf("b"));
+        assertEquals(1, groups.groupOf("a"));
+        assertEquals(0, groups.groupOf(new StringField("b", Type.STRING_LEN)));
+        assertEquals(2, groups.numGroups());
+        assertEquals(new StringField("a", Type.STRING_LEN), groups.key(1));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupTableTest.class);
+    }
+}
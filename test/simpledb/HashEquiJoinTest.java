@@ -0,0 +1,155 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    private static HashMap<ArrayList<Integer>, Integer> countTuples(DbIterator it) throws Exception {
+        HashMap<ArrayList<Integer>, Integer> counts = new HashMap<ArrayList<Integer>, Integer>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+                row.add(((IntField) t.getField(i)).getValue());
+            Integer n = counts.get(row);
+            counts.put(row, n == null ? 1 : n + 1);
+        }
+        return counts;
+    }
+
+    /**
+     * A build side bigger than the memory budget is partitioned to disk, and
+     * the join still returns the same tuples as a nested loops join, also
+     * after a rewind
+     */
+    @Test public void spilledJoin() throws Exception {
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, new ArrayList<ArrayList<Integer>>());
+        HeapFile right = SystemTestUtil.createRandomHeapFile(3, 2000, 1000, null, new ArrayList<ArrayList<Integer>>());
+        TransactionId tid = new TransactionId();
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+
+        Join nested = new Join(pred, new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"));
+        nested.open();
+        HashMap<ArrayList<Integer>, Integer> expected = countTuples(nested);
+        nested.close();
+
+        // room for 100 of the 3000 build tuples
+        int memory = 100 * left.getTupleDesc().getSize();
+        HashEquiJoin hash = new HashEquiJoin(pred, new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r"), memory);
+        hash.open();
+        assertTrue(hash.spilled());
+        assertEquals(expected, countTuples(hash));
+        hash.rewind();
+        assertEquals(expected, countTuples(hash));
+        hash.close();
+
+        // a build side that fits is not spilled
+        hash = new HashEquiJoin(pred, new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r"));
+        hash.open();
+        assertFalse(hash.spilled());
+        assertEquals(expected, countTuples(hash));
+        hash.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The join filter over the build keys is pushed down to the probe scan
+     * under a Filter, drops most probe tuples without a match and none with
+     * one, and is removed when the join is closed
+     */
+    @Test public void joinFilter() throws Exception {
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 20, 1000, null, new ArrayList<ArrayList<Integer>>());
+        HeapFile right = SystemTestUtil.createRandomHeapFile(3, 5000, 100000, null, new ArrayList<ArrayList<Integer>>());
+        TransactionId tid = new TransactionId();
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+
+        Join nested = new Join(pred, new SeqScan(tid, left.getId(), "l"), new SeqScan(tid, right.getId(), "r"));
+        nested.open();
+        HashMap<ArrayList<Integer>, Integer> expected = countTuples(nested);
+        nested.close();
+
+        SeqScan probe = new SeqScan(tid, right.getId(), "r");
+        Filter filter = new Filter(new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)), probe);
+        HashEquiJoin hash = new HashEquiJoin(pred, new SeqScan(tid, left.getId(), "l"), filter);
+        hash.open();
+        JoinFilter joinFilter = probe.getJoinFilter();
+        assertNotNull(joinFilter);
+        assertEquals(expected, countTuples(hash));
+        hash.rewind();
+        int n = 0;
+        TupleBatch batch;
+        while ((batch = hash.nextBatch()) != null)
+            n += batch.size();
+        int matches = 0;
+        for (int count : expected.values())
+            matches += count;
+        assertEquals(matches, n);
+        hash.close();
+        assertNull(probe.getJoinFilter());
+
+        SeqScan scan = new SeqScan(tid, right.getId(), "r");
+        scan.setJoinFilter(joinFilter);
+        scan.open();
+        int passed = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            passed++;
+        }
+        scan.close();
+        assertTrue(passed >= matches && passed < 500);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A join partitioned across workers returns the same tuples as a serial
+     * one, also when the partitions spill
+     */
+    @Test public void partitionedJoin() throws Exception {
+        HeapFile left = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, new ArrayList<ArrayList<Integer>>());
+        HeapFile right = SystemTestUtil.createRandomHeapFile(3, 2000, 1000, null, new ArrayList<ArrayList<Integer>>());
+        TransactionId tid = new TransactionId();
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+
+        HashEquiJoin serial = new HashEquiJoin(pred, new SeqScan(tid, left.getId(), "l"),
+                new SeqScan(tid, right.getId(), "r"));
+        serial.open();
+        HashMap<ArrayList<Integer>, Integer> expected = countTuples(serial);
+        serial.close();
+
+        int buildMemory = HashEquiJoin.getBuildMemory();
+        try {
+            for (int memory : new int[] { buildMemory, 400 * left.getTupleDesc().getSize() }) {
+                HashEquiJoin.setBuildMemory(memory);
+                HashEquiJoin[] joins = HashEquiJoin.partitioned(pred,
+                        new SeqScan(tid, left.getId(), "l").split(2),
+                        new SeqScan(tid, right.getId(), "r").split(3), 4);
+                assertEquals(4, joins.length);
+                Gather gather = new Gather(joins);
+                gather.open();
+                assertEquals(expected, countTuples(gather));
+                gather.close();
+            }
+        } finally {
+            HashEquiJoin.setBuildMemory(buildMemory);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
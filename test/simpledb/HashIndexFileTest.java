@@ -0,0 +1,193 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+    private static final int MAX_VALUE = 400;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile table;
+    private HashIndexFile index;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, tuples);
+        File indexFile = File.createTempFile("index", ".hidx");
+        indexFile.deleteOnExit();
+        indexFile.delete();
+        index = new HashIndexFile(indexFile, table.getId(), 0);
+        Database.getCatalog().addHashIndex(index);
+    }
+
+    private int countKey(ArrayList<ArrayList<Integer>> rows, int key) {
+        int count = 0;
+        for (ArrayList<Integer> row : rows)
+            if (row.get(0) == key)
+                count++;
+        return count;
+    }
+
+    /**
+     * Unit test for HashIndexFile.lookup() on a freshly built index
+     */
+    @Test public void lookup() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int key = 0; key < MAX_VALUE; key++) {
+            ArrayList<RecordId> rids = index.lookup(tid, new IntField(key));
+            assertEquals(countKey(tuples, key), rids.size());
+            for (RecordId rid : rids)
+                assertEquals(new IntField(key), HashIndexScan.fetch(tid, rid).getField(0));
+        }
+        assertEquals(0, index.lookup(tid, new IntField(-1)).size());
+        assertTrue(index.getGlobalDepth(tid) > 0);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Inserts through the BufferPool split buckets and double the directory,
+     * and deletes remove entries, within the transaction and after commit.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        int depth = index.getGlobalDepth(tid);
+
+        // commit in batches so the dirty pages of one transaction fit in
+        // the BufferPool
+        for (int i = 0; i < 3000; i++) {
+            if (i % 250 == 0) {
+                Database.getBufferPool().transactionComplete(tid);
+                tid = new TransactionId();
+            }
+            // the last 1000 tuples share a key and end up on an overflow chain
+            int key = i < 2000 ? MAX_VALUE + i : -5;
+            Database.getBufferPool().insertTuple(tid, table.getId(),
+                    Utility.getHeapTuple(new int[] { key, i }));
+        }
+        assertEquals(1000, index.lookup(tid, new IntField(-5)).size());
+        assertEquals(1, index.lookup(tid, new IntField(MAX_VALUE + 1234)).size());
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertTrue(index.getGlobalDepth(tid) > depth);
+        ArrayList<RecordId> rids = index.lookup(tid, new IntField(MAX_VALUE + 1234));
+        assertEquals(1, rids.size());
+        Database.getBufferPool().deleteTuple(tid, HashIndexScan.fetch(tid, rids.get(0)));
+        assertEquals(0, index.lookup(tid, new IntField(MAX_VALUE + 1234)).size());
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(0, index.lookup(tid, new IntField(MAX_VALUE + 1234)).size());
+        assertEquals(1000, index.lookup(tid, new IntField(-5)).size());
+        for (int key = 0; key < MAX_VALUE; key += 37)
+            assertEquals(countKey(tuples, key), index.lookup(tid, new IntField(key)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Deletes make room for another key on an overflow chain, and a split
+     * sends each entry of the chain to the bucket of its own hash.
+     */
+    @Test public void splitMixedChain() throws Exception {
+        HeapFile empty = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        File indexFile = File.createTempFile("index", ".hidx");
+        indexFile.deleteOnExit();
+        indexFile.delete();
+        HashIndexFile emptyIndex = new HashIndexFile(indexFile, empty.getId(), 0);
+        Database.getCatalog().addHashIndex(emptyIndex);
+        BufferPool bp = Database.getBufferPool();
+        int capacity = HashBucketPage.getCapacity(Type.INT_TYPE);
+
+        // a and b end up in different buckets after the first split
+        int a = 0;
+        int b = 1;
+        while (((HashIndexFile.hash(new IntField(a)) ^ HashIndexFile.hash(new IntField(b))) & 1) == 0)
+            b++;
+
+        // a fills the only bucket and starts its overflow chain; then the
+        // bucket only holds b, and the overflow page both a and b
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> as = new ArrayList<Tuple>();
+        for (int i = 0; i <= capacity; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { a, i });
+            bp.insertTuple(tid, empty.getId(), t);
+            as.add(t);
+        }
+        for (int i = 0; i < capacity; i++)
+            bp.deleteTuple(tid, as.get(i));
+        for (int i = 0; i <= capacity; i++)
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(new int[] { b, i }));
+        assertEquals(0, emptyIndex.getGlobalDepth(tid));
+
+        // another a does not fit in the bucket of b's, which splits
+        bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(new int[] { a, -1 }));
+        assertEquals(1, emptyIndex.getGlobalDepth(tid));
+        assertEquals(2, emptyIndex.lookup(tid, new IntField(a)).size());
+        assertEquals(capacity + 1, emptyIndex.lookup(tid, new IntField(b)).size());
+        bp.transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(2, emptyIndex.lookup(tid, new IntField(a)).size());
+        assertEquals(capacity + 1, emptyIndex.lookup(tid, new IntField(b)).size());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * HashIndexScan returns the same tuples as a filtered SeqScan
+     */
+    @Test public void indexScan() throws Exception {
+        TransactionId tid = new TransactionId();
+        int key = tuples.get(17).get(0);
+        HashIndexScan scan = new HashIndexScan(tid, table.getId(), "t", 0, new IntField(key));
+        Filter filter = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(key)),
+                new SeqScan(tid, table.getId(), "t"));
+        assertEquals(filter.getTupleDesc(), scan.getTupleDesc());
+        scan.open();
+        filter.open();
+        TestUtil.matchAllTuples(filter, scan);
+        scan.close();
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * HashEquiJoin probes the index when its child is an indexed SeqScan
+     */
+    @Test public void indexJoin() throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<ArrayList<Integer>> otherTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile other = SystemTestUtil.createRandomHeapFile(2, 50, MAX_VALUE, null, otherTuples);
+
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        HashEquiJoin indexed = new HashEquiJoin(p, new SeqScan(tid, other.getId(), "o"),
+                new SeqScan(tid, table.getId(), "t"));
+        assertTrue(indexed.usesIndex());
+        Join plain = new Join(p, new SeqScan(tid, other.getId(), "o"),
+                new SeqScan(tid, table.getId(), "t"));
+        indexed.open();
+        plain.open();
+        TestUtil.matchAllTuples(plain, indexed);
+        indexed.close();
+        plain.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
@@ -0,0 +1,44 @@
+package simpledb;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+public class HyperLogLogTest {
+
+	/**
+	 * Small counts are nearly exact, and adding a value again changes nothing
+	 */
+	@Test public void smallCountTest() {
+		HyperLogLog h = new HyperLogLog();
+		Assert.assertEquals(0, h.estimate());
+		for (int i = 0; i < 3; i++) {
+			for (int c = 0; c < 50; c++)
+				h.addValue(c);
+		}
+		Assert.assertEquals(50, h.estimate(), 2);
+	}
+
+	/**
+	 * Large counts of ints and strings are within a few standard errors, in constant space
+	 */
+	@Test public void largeCountTest() {
+		HyperLogLog ints = new HyperLogLog();
+		HyperLogLog strings = new HyperLogLog();
+		for (int c = 0; c < 1000000; c++) {
+			ints.addValue(c * 7919);
+			strings.addValue("value" + (c % 200000));
+		}
+		Assert.assertEquals(1000000, ints.estimate(), 50000);
+		Assert.assertEquals(200000, strings.estimate(), 10000);
+	}
+
+	/**
+	 * Fewer registers give a coarser estimate
+	 */
+	@Test public void precisionTest() {
+		HyperLogLog h = new HyperLogLog(6);
+		for (int c = 0; c < 10000; c++)
+			h.addValue(c);
+		Assert.assertEquals(10000, h.estimate(), 4000);
+	}
+}
@@ -179,4 +179,25 @@ public class IntHistogramTest {
         Assert.assertTrue(h.estimateSelectivity(Op.NOT_EQUALS, 3) < 0.001);
 		Assert.assertTrue(h.estimateSelectivity(Op.NOT_EQUALS, 8) > 0.01);
 	}
+
+	/**
+	 * Make sure that a skewed field is estimated well: its most common value exactly, and
+	 * the values around it from the narrow buckets where they are dense.
+	 */
+	@Test public void skewTest() {
+		IntHistogram h = new IntHistogram(100, 1900, 2020);
+		
+		// Half of the values are one year, and the rest spread over the range
+		for (int c = 0; c < 12000; c++) {
+			h.addValue(1990);
+			h.addValue(1900 + c % 120);
+		}
+		
+		Assert.assertEquals(0.5 + 1.0 / 240, h.estimateSelectivity(Op.EQUALS, 1990), 0.001);
+		Assert.assertEquals(1.0 / 240, h.estimateSelectivity(Op.EQUALS, 1991), 0.001);
+		Assert.assertEquals(90.0 / 240, h.estimateSelectivity(Op.LESS_THAN, 1990), 0.01);
+		Assert.assertEquals(29.0 / 240, h.estimateSelectivity(Op.GREATER_THAN, 1990), 0.01);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, 2021), 0.001);
+		Assert.assertEquals(1.0, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, 2019), 0.001);
+	}
 }
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Vector;
 
 import org.junit.Assert;
@@ -406,6 +407,191 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
 		Assert.assertEquals(result.get(result.size()-1).t2Alias, "bigTable");
 	}
 	
+	/**
+	 * Create tables t0 to t(tables - 1) joined in a chain, with a join across every four of them,
+	 * where bigTable has 100000 tuples repeating a hundred, and the others a few hundred distinct ones
+	 * @return the joins, shuffled, with stats and filterSelectivities filled in for the tables
+	 */
+	private Vector<LogicalJoinNode> chainOfJoins(int tables, int bigTable, HashMap<String, TableStats> stats,
+			HashMap<String, Double> filterSelectivities, StringBuilder sql) throws IOException, DbException, TransactionAbortedException {
+		final int IO_COST = 103;
+		Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+		ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+		SystemTestUtil.createRandomHeapFile(2, 100, Integer.MAX_VALUE, null, tuples, "c");
+		sql.append("SELECT * FROM ");
+		for (int i = 0; i < tables; i++) {
+			ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+			int size = i == bigTable ? 100000 : 100 * (i % 5 + 1);
+			for (int k = 0; k < size; k++) {
+				ArrayList<Integer> row = tuples.get(k % 100);
+				if (i != bigTable) {
+					row = new ArrayList<Integer>();
+					row.add(k);
+					row.add(k);
+				}
+				rows.add(row);
+			}
+			HeapFile table = createDuplicateHeapFile(rows, 2, "c");
+			Database.getCatalog().addTable(table, "t" + i);
+			stats.put("t" + i, new TableStats(table.getId(), IO_COST));
+			filterSelectivities.put("t" + i, 1.0);
+			sql.append(i == 0 ? "" : ", ").append("t" + i);
+		}
+		sql.append(" WHERE t0.c0 = t1.c0");
+		for (int i = 1; i < tables; i++) {
+			nodes.add(new LogicalJoinNode("t" + (i - 1), "t" + i, "c" + (i % 2), "c" + (i % 2), Predicate.Op.EQUALS));
+			if (i > 1)
+				sql.append(" AND t" + (i - 1) + ".c" + (i % 2) + " = t" + i + ".c" + (i % 2));
+		}
+		for (int i = 3; i < tables; i += 4) {
+			nodes.add(new LogicalJoinNode("t" + (i - 3), "t" + i, "c0", "c1", Predicate.Op.EQUALS));
+			sql.append(" AND t" + (i - 3) + ".c0 = t" + i + ".c1");
+		}
+		sql.append(";");
+		Collections.shuffle(nodes);
+		return nodes;
+	}
+
+	/**
+	 * Check that result orders all of the joins of the tables into a left-deep plan, in which
+	 * every join but the first joins a table already joined
+	 */
+	private static void assertLeftDeep(Vector<LogicalJoinNode> nodes, int tables, Vector<LogicalJoinNode> result) {
+		Assert.assertEquals(nodes.size(), result.size());
+		HashSet<String> joined = new HashSet<String>();
+		joined.add(result.get(0).t1Alias);
+		joined.add(result.get(0).t2Alias);
+		for (int i = 1; i < result.size(); i++) {
+			LogicalJoinNode n = result.get(i);
+			Assert.assertTrue(joined.contains(n.t1Alias) || joined.contains(n.t2Alias));
+			joined.add(n.t1Alias);
+			joined.add(n.t2Alias);
+		}
+		Assert.assertEquals(tables, joined.size());
+	}
+
+	/**
+	 * Check that result orders all of the joins of the tables into a plan, possibly bushy, in which
+	 * every join joins the plans of its two tables so far
+	 */
+	private static void assertJoinsAll(Vector<LogicalJoinNode> nodes, int tables, Vector<LogicalJoinNode> result) {
+		Assert.assertEquals(nodes.size(), result.size());
+		HashMap<String, HashSet<String>> plans = new HashMap<String, HashSet<String>>();
+		for (LogicalJoinNode n : result) {
+			HashSet<String> plan1 = plans.get(n.t1Alias);
+			HashSet<String> plan2 = plans.get(n.t2Alias);
+			if (plan1 == null)
+				plan1 = new HashSet<String>(Collections.singleton(n.t1Alias));
+			if (plan2 != null && plan2 != plan1)
+				plan1.addAll(plan2);
+			plan1.add(n.t2Alias);
+			for (String t : plan1)
+				plans.put(t, plan1);
+		}
+		Assert.assertEquals(tables, plans.get(result.get(0).t1Alias).size());
+	}
+
+	/**
+	 * Order the joins of sixteen tables exhaustively, in a reasonable amount of time
+	 */
+	@Test(timeout=5000) public void manyTablesOrderJoinsTest() throws IOException, DbException, TransactionAbortedException, ParsingException {
+		HashMap<String, TableStats> stats = new HashMap<String,TableStats>();
+		HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+		StringBuilder sql = new StringBuilder();
+		Vector<LogicalJoinNode> nodes = chainOfJoins(16, -1, stats, filterSelectivities, sql);
+
+		Parser p = new Parser();
+		JoinOptimizer j = new JoinOptimizer(p.generateLogicalPlan(new TransactionId(), sql.toString()), nodes);
+		assertJoinsAll(nodes, 16, j.orderJoins(stats, filterSelectivities, false));
+	}
+
+	/**
+	 * Join the results of two inequality joins with each other, rather than joining a table to
+	 * the result of the unselective join between them and then an inequality join, and run the plan
+	 */
+	@Test public void bushyOrderJoinsTest() throws Exception {
+		final int IO_COST = 103;
+		final int ROWS = 60;
+		HashMap<String, TableStats> stats = new HashMap<String,TableStats>();
+		HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+		// distinct keys, which b and c match each other on by parity
+		String[] names = { "a", "b", "c", "d" };
+		ArrayList<ArrayList<ArrayList<Integer>>> contents = new ArrayList<ArrayList<ArrayList<Integer>>>();
+		for (String name : names) {
+			ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+			for (int i = 0; i < ROWS; i++) {
+				ArrayList<Integer> row = new ArrayList<Integer>();
+				row.add(i);
+				row.add(i % 2);
+				rows.add(row);
+			}
+			HeapFile table = createDuplicateHeapFile(rows, 2, "c");
+			Database.getCatalog().addTable(table, name);
+			stats.put(name, new TableStats(table.getId(), IO_COST));
+			filterSelectivities.put(name, 1.0);
+			contents.add(rows);
+		}
+		String sql = "SELECT * FROM a, b, c, d WHERE a.c0 < b.c0 AND b.c1 = c.c1 AND c.c0 < d.c0;";
+		TransactionId tid = new TransactionId();
+		LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+		Vector<LogicalJoinNode> nodes = new Vector<LogicalJoinNode>();
+		nodes.add(new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.LESS_THAN));
+		nodes.add(new LogicalJoinNode("b", "c", "c1", "c1", Predicate.Op.EQUALS));
+		nodes.add(new LogicalJoinNode("c", "d", "c0", "c0", Predicate.Op.LESS_THAN));
+
+		Vector<LogicalJoinNode> result = new JoinOptimizer(lp, nodes).orderJoins(stats, filterSelectivities, false);
+		assertJoinsAll(nodes, 4, result);
+		Assert.assertEquals(nodes.get(1), result.get(2));
+
+		// each matching b and c joins with the a below b and the d above c
+		int expected = 0;
+		for (ArrayList<Integer> b : contents.get(1)) {
+			for (ArrayList<Integer> c : contents.get(2)) {
+				if (!b.get(1).equals(c.get(1)))
+					continue;
+				int as = 0, ds = 0;
+				for (ArrayList<Integer> a : contents.get(0))
+					if (a.get(0) < b.get(0))
+						as++;
+				for (ArrayList<Integer> d : contents.get(3))
+					if (c.get(0) < d.get(0))
+						ds++;
+				expected += as * ds;
+			}
+		}
+		DbIterator plan = lp.physicalPlan(tid, stats, false);
+		int count = 0;
+		plan.open();
+		while (plan.hasNext()) {
+			plan.next();
+			count++;
+		}
+		plan.close();
+		Database.getBufferPool().transactionComplete(tid);
+		Assert.assertEquals(expected, count);
+	}
+
+	/**
+	 * Order the joins of more tables than are ordered exhaustively within the planning time,
+	 * still joining the big table last
+	 */
+	@Test public void heuristicOrderJoinsTest() throws IOException, DbException, TransactionAbortedException, ParsingException {
+		final int TABLES = 24;
+		HashMap<String, TableStats> stats = new HashMap<String,TableStats>();
+		HashMap<String, Double> filterSelectivities = new HashMap<String, Double>();
+		StringBuilder sql = new StringBuilder();
+		Vector<LogicalJoinNode> nodes = chainOfJoins(TABLES, TABLES - 1, stats, filterSelectivities, sql);
+
+		Parser p = new Parser();
+		JoinOptimizer j = new JoinOptimizer(p.generateLogicalPlan(new TransactionId(), sql.toString()), nodes);
+		long start = System.currentTimeMillis();
+		Vector<LogicalJoinNode> result = j.orderJoins(stats, filterSelectivities, false);
+		Assert.assertTrue(System.currentTimeMillis() - start < JoinOptimizer.getPlanningTime() + 1000);
+		assertLeftDeep(nodes, TABLES, result);
+		LogicalJoinNode last = result.get(result.size() - 1);
+		Assert.assertTrue(last.t1Alias.equals("t" + (TABLES - 1)) || last.t2Alias.equals("t" + (TABLES - 1)));
+	}
+
 	/**
 	 * Test a join ordering with an inequality, to make sure the inequality gets put
 	 * as the innermost join
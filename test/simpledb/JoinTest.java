@@ -105,6 +105,30 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() with blocks smaller than the outer
+   * relation, so the inner is scanned once per block
+   */
+  @Test public void smallBlocks() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    int tupleSize = Utility.getTupleDesc(width1).getSize();
+    for (int blockTuples = 1; blockTuples <= 3; blockTuples++) {
+      Join op = new Join(pred, scan1, scan2, blockTuples * tupleSize);
+      op.open();
+      gtJoin.open();
+      TestUtil.matchAllTuples(gtJoin, op);
+      op.rewind();
+      int count = 0;
+      while (op.hasNext()) {
+        op.next();
+        count++;
+      }
+      assertEquals(11, count);
+      op.close();
+      gtJoin.close();
+    }
+  }
+
   /**
    * JUnit suite target
    */
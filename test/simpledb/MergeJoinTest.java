@@ -0,0 +1,111 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class MergeJoinTest extends SimpleDbTestBase {
+
+  DbIterator scan1;
+  DbIterator scan2;
+
+  /**
+   * Initialize each unit test; both lists are sorted on their first field
+   * and have duplicate keys
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(2,
+        new int[] { 1, 10,
+                    2, 11,
+                    2, 12,
+                    4, 13,
+                    6, 14,
+                    6, 15 });
+    this.scan2 = TestUtil.createTupleList(2,
+        new int[] { 0, 20,
+                    2, 21,
+                    2, 22,
+                    2, 23,
+                    3, 24,
+                    6, 25,
+                    7, 26 });
+  }
+
+  private static ArrayList<String> rows(DbIterator it) throws Exception {
+    ArrayList<String> rows = new ArrayList<String>();
+    it.open();
+    while (it.hasNext())
+      rows.add(it.next().toString());
+    it.close();
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * MergeJoin returns the same tuples as a nested loops join for every
+   * supported operator
+   */
+  @Test public void sameAsNestedLoops() throws Exception {
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+        Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ };
+    for (Predicate.Op op : ops) {
+      JoinPredicate pred = new JoinPredicate(0, op, 0);
+      ArrayList<String> expected = rows(new Join(pred, scan1, scan2));
+      assertFalse(expected.isEmpty());
+      assertEquals(op.toString(), expected, rows(new MergeJoin(pred, scan1, scan2)));
+    }
+    // 2 x 3 matches for key 2, 2 x 1 for key 6
+    assertEquals(8, rows(new MergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), scan1, scan2)).size());
+  }
+
+  /**
+   * Unit test for MergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN }) {
+      MergeJoin op1 = new MergeJoin(new JoinPredicate(0, op, 0), scan1, scan2);
+      op1.open();
+      ArrayList<String> first = new ArrayList<String>();
+      while (op1.hasNext())
+        first.add(op1.next().toString());
+      assertTrue(TestUtil.checkExhausted(op1));
+      op1.rewind();
+      ArrayList<String> second = new ArrayList<String>();
+      while (op1.hasNext())
+        second.add(op1.next().toString());
+      assertEquals(first, second);
+      op1.close();
+    }
+  }
+
+  /**
+   * The output of an equality merge join is sorted on both join fields
+   */
+  @Test public void sortedOutput() throws Exception {
+    DbIterator left = new TupleIterator(Utility.getTupleDesc(2, "l"), new ArrayList<Tuple>());
+    DbIterator right = new TupleIterator(Utility.getTupleDesc(2, "r"), new ArrayList<Tuple>());
+    MergeJoin op = new MergeJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), left, right);
+    assertTrue(JoinOptimizer.isSortedOn(op, "l0"));
+    assertTrue(JoinOptimizer.isSortedOn(new Filter(new Predicate(1, Predicate.Op.GREATER_THAN,
+        new IntField(0)), op), "r0"));
+    assertFalse(JoinOptimizer.isSortedOn(op, "l1"));
+    MergeJoin range = new MergeJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0), left, right);
+    assertTrue(JoinOptimizer.isSortedOn(range, "l0"));
+    assertFalse(JoinOptimizer.isSortedOn(range, "r0"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(MergeJoinTest.class);
+  }
+}
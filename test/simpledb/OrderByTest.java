@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    private static ArrayList<Integer> drain(DbIterator it, int field) throws Exception {
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        while (it.hasNext())
+            values.add(((IntField) it.next().getField(field)).getValue());
+        return values;
+    }
+
+    /**
+     * Sorting with a memory budget much smaller than the input spills runs
+     * and merges them, including intermediate merges when there are more
+     * runs than MAX_FAN_IN, and gives the same order as sorting in memory
+     */
+    @Test public void externalSort() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 3000, 1000, null, tuples);
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (ArrayList<Integer> row : tuples)
+            expected.add(row.get(1));
+        Collections.sort(expected);
+
+        TransactionId tid = new TransactionId();
+        int tupleSize = table.getTupleDesc().getSize();
+        for (int runTuples : new int[] { 10000, 100, 7 }) {
+            OrderBy sort = new OrderBy(1, true, new SeqScan(tid, table.getId(), "t"), runTuples * tupleSize);
+            sort.open();
+            if (runTuples >= 3000)
+                assertEquals(0, sort.numRuns());
+            else
+                assertTrue(sort.numRuns() > 1 && sort.numRuns() <= OrderBy.MAX_FAN_IN);
+            assertEquals(expected, drain(sort, 1));
+            sort.rewind();
+            assertEquals(expected, drain(sort, 1));
+            sort.close();
+            // a second open does not see the tuples of the first
+            sort.open();
+            assertEquals(expected, drain(sort, 1));
+            sort.close();
+        }
+
+        Collections.reverse(expected);
+        OrderBy desc = new OrderBy(1, false, new SeqScan(tid, table.getId(), "t"), 50 * tupleSize);
+        desc.open();
+        assertTrue(desc.numRuns() > 1);
+        assertEquals(expected, drain(desc, 1));
+        desc.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The external sort is stable: tuples with equal keys keep their input
+     * order across runs
+     */
+    @Test public void stable() throws Exception {
+        int[] data = new int[2 * 1000];
+        for (int i = 0; i < 1000; i++) {
+            data[2 * i] = i % 3;
+            data[2 * i + 1] = i;
+        }
+        DbIterator input = TestUtil.createTupleList(2, data);
+        // 9 tuples per run gives more runs than MAX_FAN_IN
+        OrderBy sort = new OrderBy(0, true, input, 9 * input.getTupleDesc().getSize());
+        sort.open();
+        assertTrue(sort.numRuns() > 1);
+        int lastKey = -1, lastSeq = -1;
+        while (sort.hasNext()) {
+            Tuple t = sort.next();
+            int key = ((IntField) t.getField(0)).getValue();
+            int seq = ((IntField) t.getField(1)).getValue();
+            assertTrue(key >= lastKey);
+            if (key == lastKey)
+                assertTrue(seq > lastSeq);
+            lastKey = key;
+            lastSeq = seq;
+        }
+        sort.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
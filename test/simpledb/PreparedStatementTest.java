@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PreparedStatementTest extends SimpleDbTestBase {
+
+    private static final String SQL =
+            "SELECT * FROM a, b WHERE a.c0 = b.c0 AND a.c1 < ? AND b.c1 = ?;";
+
+    private HeapFile a;
+
+    @Before public void createTables() throws Exception {
+        a = SystemTestUtil.createRandomHeapFile(2, 1000, 50, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 200, 50, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(a, "a");
+        Database.getCatalog().addTable(b, "b");
+        TableStats.setTableStats("a", new TableStats(a.getId(), 1));
+        TableStats.setTableStats("b", new TableStats(b.getId(), 1));
+    }
+
+    private static ArrayList<String> run(DbIterator plan) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        plan.open();
+        while (plan.hasNext())
+            rows.add(plan.next().toString());
+        plan.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    /** @return the rows of sql with its constants in the text */
+    private static ArrayList<String> expected(int c1, int c2, TransactionId tid) throws Exception {
+        String sql = "SELECT * FROM a, b WHERE a.c0 = b.c0 AND a.c1 < " + c1 + " AND b.c1 = " + c2 + ";";
+        return run(new Parser().generateLogicalPlan(tid, sql).physicalPlan(tid, TableStats.getStatsMap(), false));
+    }
+
+    /**
+     * A statement runs with the values bound to its parameters, and is
+     * planned once for all of the statements prepared from the same text
+     */
+    @Test public void parameters() throws Exception {
+        StatementCache cache = Database.getStatementCache();
+        PreparedStatement ps = cache.prepare(SQL);
+        assertEquals(2, ps.numParameters());
+        assertEquals(1, cache.size());
+        PreparedStatement other = cache.prepare(SQL.toLowerCase().replace(" ", "  "));
+        assertEquals(1, cache.size());
+
+        TransactionId tid = new TransactionId();
+        for (int v = 10; v < 40; v += 10) {
+            ps.setInt(1, v);
+            ps.setInt(2, v / 2);
+            Query query = ps.execute(tid);
+            query.start();
+            ArrayList<String> rows = new ArrayList<String>();
+            while (query.hasNext())
+                rows.add(query.next().toString());
+            query.close();
+            Collections.sort(rows);
+            assertEquals(expected(v, v / 2, tid), rows);
+            assertTrue(cache.plan(SQL).isCurrent());
+        }
+        other.setInt(1, 45);
+        other.setInt(2, 3);
+        assertEquals(expected(45, 3, tid), run(other.execute(tid).getPhysicalPlan()));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The joins are ordered again once the statistics of a table count
+     * significantly more or fewer tuples
+     */
+    @Test public void replanOnStatsChange() throws Exception {
+        PreparedStatement ps = Database.getStatementCache().prepare(SQL);
+        ps.setInt(1, 25);
+        ps.setInt(2, 7);
+        TransactionId tid = new TransactionId();
+        run(ps.execute(tid).getPhysicalPlan());
+        StatementCache.Plan plan = Database.getStatementCache().plan(SQL);
+        assertTrue(plan.isCurrent());
+
+        // the same data, counted again
+        TableStats.setTableStats("a", new TableStats(a.getId(), 1));
+        assertTrue(plan.isCurrent());
+
+        for (int i = 0; i < 500; i++)
+            Database.getBufferPool().insertTuple(tid, a.getId(), Utility.getHeapTuple(new int[] { i, i }));
+        Database.getBufferPool().transactionComplete(tid);
+        TableStats.setTableStats("a", new TableStats(a.getId(), 1));
+        assertFalse(plan.isCurrent());
+
+        tid = new TransactionId();
+        assertEquals(expected(25, 7, tid), run(ps.execute(tid).getPhysicalPlan()));
+        assertTrue(plan.isCurrent());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A string constant that looks like the placeholder of a parameter is not one */
+    @Test public void quotedPlaceholder() throws Exception {
+        StatementCache.Plan plan = Database.getStatementCache().plan(
+                "SELECT * FROM a WHERE a.c1 < ? AND a.c0 = '" + StatementCache.PARAMETER + "1';");
+        assertEquals(1, plan.parameters.length);
+        assertEquals("a.c1", plan.parameters[0].fieldQuantifiedName);
+    }
+
+    /** A statement does not run until all of its parameters have values */
+    @Test(expected = ParsingException.class) public void unboundParameter() throws Exception {
+        PreparedStatement ps = Database.getStatementCache().prepare(SQL);
+        ps.setInt(1, 25);
+        ps.execute(new TransactionId());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PreparedStatementTest.class);
+    }
+}
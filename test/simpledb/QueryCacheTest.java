@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import Zql.ZQuery;
+import Zql.ZqlParser;
+
+public class QueryCacheTest extends SimpleDbTestBase {
+
+    /** Plans sql like Parser.processNextStatement, and runs it. */
+    private static ArrayList<String> run(Query query) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        query.start();
+        while (query.hasNext())
+            rows.add(query.next().toString());
+        query.close();
+        Collections.sort(rows);
+        return rows;
+    }
+
+    private static Query plan(String sql, TransactionId tid) throws Exception {
+        ZQuery s = (ZQuery) new ZqlParser(new ByteArrayInputStream(Parser.removeLimit(sql).getBytes())).readStatement();
+        return new Parser().handleQueryStatement(sql, s, tid, Parser.parseLimit(sql));
+    }
+
+    /**
+     * Query text is normalized outside of string constants, and the LIMIT
+     * clause and the tables are part of the key
+     */
+    @Test public void keys() throws Exception {
+        assertEquals("select * from t where t.name = 'A  b'",
+                QueryCache.normalize("SELECT  *\n FROM t WHERE t.name = 'A  b' ;"));
+        assertEquals(QueryCache.key("SELECT * FROM t;", Collections.singleton(1)),
+                QueryCache.key("select *  from t", Collections.singleton(1)));
+        assertFalse(QueryCache.key("SELECT * FROM t LIMIT 5;", Collections.singleton(1)).equals(
+                QueryCache.key("SELECT * FROM t LIMIT 6;", Collections.singleton(1))));
+        assertFalse(QueryCache.key("SELECT * FROM t;", Collections.singleton(1)).equals(
+                QueryCache.key("SELECT * FROM t;", Collections.singleton(2))));
+    }
+
+    /**
+     * A query run again is answered from the cache until a transaction
+     * inserting into its table commits; the writing transaction sees its
+     * own changes
+     */
+    @Test public void invalidatedByCommittedWrites() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 500, 100, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(table, "t");
+        TableStats.setTableStats("t", new TableStats(table.getId(), 1));
+        QueryCache cache = Database.getQueryCache();
+
+        TransactionId tid = new TransactionId();
+        ArrayList<String> expected = run(plan("SELECT * FROM t WHERE t.c0 < 50;", tid));
+        assertEquals(1, cache.size());
+        Query cached = plan("select *   FROM t where t.c0 < 50 ;", tid);
+        assertTrue(cached.getPhysicalPlan() instanceof TupleIterator);
+        assertEquals(expected, run(cached));
+        // a LIMIT makes another query
+        assertEquals(3, run(plan("SELECT * FROM t WHERE t.c0 < 50 LIMIT 3;", tid)).size());
+        assertEquals(2, cache.size());
+        Database.getBufferPool().transactionComplete(tid);
+
+        TransactionId writer = new TransactionId();
+        Database.getBufferPool().insertTuple(writer, table.getId(), Utility.getHeapTuple(new int[] { 1, 1 }));
+        Query own = plan("SELECT * FROM t WHERE t.c0 < 50;", writer);
+        assertFalse(own.getPhysicalPlan() instanceof TupleIterator);
+        assertEquals(expected.size() + 1, run(own).size());
+        assertEquals(2, cache.size());
+        Database.getBufferPool().transactionComplete(writer);
+        assertEquals(0, cache.size());
+
+        tid = new TransactionId();
+        Query fresh = plan("SELECT * FROM t WHERE t.c0 < 50;", tid);
+        assertFalse(fresh.getPhysicalPlan() instanceof TupleIterator);
+        assertEquals(expected.size() + 1, run(fresh).size());
+        assertEquals(1, cache.size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The least recently used results are evicted beyond the memory budget
+     */
+    @Test public void eviction() throws Exception {
+        QueryCache cache = new QueryCache();
+        TupleDesc td = Utility.getTupleDesc(1);
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 10; i++)
+            tuples.add(Utility.getHeapTuple(i));
+        int memory = QueryCache.getCacheMemory();
+        try {
+            QueryCache.setCacheMemory(25 * td.getSize());
+            cache.put("a", Collections.singleton(1), cache.version(Collections.singleton(1)), td, tuples);
+            cache.put("b", Collections.singleton(2), cache.version(Collections.singleton(2)), td, tuples);
+            assertNotNull(cache.get("a"));
+            cache.put("c", Collections.singleton(3), cache.version(Collections.singleton(3)), td, tuples);
+            assertNotNull(cache.get("a"));
+            assertNull(cache.get("b"));
+            assertNotNull(cache.get("c"));
+
+            // a result computed across an invalidation is not kept
+            long version = cache.version(Collections.singleton(4));
+            cache.invalidate(Collections.singleton(4));
+            cache.put("d", Collections.singleton(4), version, td, tuples);
+            assertNull(cache.get("d"));
+        } finally {
+            QueryCache.setCacheMemory(memory);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryCacheTest.class);
+    }
+}
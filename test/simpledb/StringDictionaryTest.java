@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class StringDictionaryTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+    private static final TupleDesc TD = new TupleDesc(TYPES, new String[] { "id", "name" });
+
+    private static File tempFile(String suffix) throws Exception {
+        File f = File.createTempFile("dict", suffix);
+        f.deleteOnExit();
+        StringDictionary.fileOf(f).deleteOnExit();
+        return f;
+    }
+
+    /** Converts rows id,name_(id % 7) to a heap file, encoded or not. */
+    private static HeapFile convert(int rows, boolean dictionaryEncoded) throws Exception {
+        File text = tempFile(".txt");
+        FileWriter w = new FileWriter(text);
+        for (int i = 0; i < rows; i++)
+            w.write(i + ",name_" + (i % 7) + "\n");
+        w.close();
+        File data = tempFile(".dat");
+        HeapFileEncoder.convert(text, data, BufferPool.PAGE_SIZE, 2, TYPES, ',', dictionaryEncoded);
+        return new HeapFile(data, TD);
+    }
+
+    private static ArrayList<Tuple> scan(DbIterator it) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * An encoded table takes fewer pages than the same rows unencoded, reads
+     * back the same strings, and equal strings are the same instance
+     */
+    @Test public void encodedTable() throws Exception {
+        HeapFile plain = convert(2000, false);
+        HeapFile encoded = convert(2000, true);
+        assertNull(plain.getDictionary());
+        assertEquals(7, encoded.getDictionary().size());
+        assertTrue(encoded.numPages() * 10 < plain.numPages());
+        Database.getCatalog().addTable(plain, "plain");
+        Database.getCatalog().addTable(encoded, "encoded");
+
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> expected = scan(new SeqScan(tid, plain.getId(), "p"));
+        ArrayList<Tuple> actual = scan(new SeqScan(tid, encoded.getId(), "e"));
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < actual.size(); i++) {
+            assertEquals(expected.get(i).getInt(0), actual.get(i).getInt(0));
+            assertEquals(expected.get(i).getString(1), actual.get(i).getString(1));
+            assertSame(actual.get(i % 7).getString(1), actual.get(i).getString(1));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Filters on an encoded string field select the same tuples as on the
+     * unencoded field, including for strings without a code
+     */
+    @Test public void filterOnCodes() throws Exception {
+        HeapFile plain = convert(500, false);
+        HeapFile encoded = convert(500, true);
+        Database.getCatalog().addTable(plain, "plain");
+        Database.getCatalog().addTable(encoded, "encoded");
+
+        TransactionId tid = new TransactionId();
+        for (String name : new String[] { "name_3", "name_9" }) {
+            Predicate p = new Predicate(1, Predicate.Op.EQUALS, new StringField(name, Type.STRING_LEN));
+            int expected = scan(new Filter(p, new SeqScan(tid, plain.getId(), "p"))).size();
+            assertEquals(name, expected, scan(new Filter(p, new SeqScan(tid, encoded.getId(), "e"))).size());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A filter on a string without a code yet matches the string once it is
+     * inserted, after a rewind
+     */
+    @Test public void filterOnInsertedString() throws Exception {
+        HeapFile encoded = convert(100, true);
+        Database.getCatalog().addTable(encoded, "encoded");
+
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(1, Predicate.Op.EQUALS, new StringField("late", Type.STRING_LEN));
+        Filter filter = new Filter(p, new SeqScan(tid, encoded.getId(), "e"));
+        filter.open();
+        assertFalse(filter.hasNext());
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(100));
+        t.setField(1, new StringField("late", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, encoded.getId(), t);
+        filter.rewind();
+        assertTrue(filter.hasNext());
+        assertEquals(100, filter.next().getInt(0));
+        assertFalse(filter.hasNext());
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Strings inserted into an encoded table get codes that are written to
+     * its dictionary file with the pages, and read back after a restart
+     */
+    @Test public void insertedStrings() throws Exception {
+        File data = tempFile(".dat");
+        HeapFile encoded = new HeapFile(data, TD, true);
+        Database.getCatalog().addTable(encoded, "encoded");
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("s" + (i % 40), Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, encoded.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(40, new StringDictionary(StringDictionary.fileOf(data)).size());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        HeapFile reopened = new HeapFile(data, TD);
+        assertNotNull(reopened.getDictionary());
+        Database.getCatalog().addTable(reopened, "encoded");
+        tid = new TransactionId();
+        ArrayList<Tuple> tuples = scan(new SeqScan(tid, reopened.getId(), "e"));
+        assertEquals(300, tuples.size());
+        for (Tuple t : tuples)
+            assertEquals("s" + (t.getInt(0) % 40), t.getString(1));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StringDictionaryTest.class);
+    }
+}
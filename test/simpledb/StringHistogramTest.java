@@ -0,0 +1,43 @@
+package simpledb;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import simpledb.Predicate.Op;
+
+public class StringHistogramTest {
+
+	/**
+	 * Make sure that the most common strings are estimated exactly, and others not at all
+	 * when every value was seen.
+	 */
+	@Test public void opEqualsTest() {
+		StringHistogram h = new StringHistogram(10);
+		for (int c = 0; c < 100; c++) {
+			h.addValue(c % 2 == 0 ? "boston" : "city" + c);
+		}
+		
+		Assert.assertEquals(0.5, h.estimateSelectivity(Op.EQUALS, "boston"), 0.001);
+		Assert.assertEquals(0.01, h.estimateSelectivity(Op.EQUALS, "city7"), 0.001);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, "zurich"), 0.001);
+		Assert.assertEquals(0.5, h.estimateSelectivity(Op.NOT_EQUALS, "boston"), 0.001);
+	}
+
+	/**
+	 * Make sure that ranges of strings, which share long prefixes, are estimated between the
+	 * bounds of the buckets.
+	 */
+	@Test public void opRangeTest() {
+		StringHistogram h = new StringHistogram(10);
+		for (char c = 'a'; c <= 'z'; c++) {
+			for (int i = 0; i < 10; i++)
+				h.addValue("prefix" + c + i);
+		}
+		
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.LESS_THAN, "prefix"), 0.001);
+		Assert.assertEquals(0.5, h.estimateSelectivity(Op.LESS_THAN, "prefixn"), 0.05);
+		Assert.assertEquals(0.5, h.estimateSelectivity(Op.GREATER_THAN_OR_EQ, "prefixn"), 0.05);
+		Assert.assertEquals(1.0, h.estimateSelectivity(Op.LESS_THAN_OR_EQ, "prefixz9"), 0.001);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.GREATER_THAN, "prefixz9"), 0.001);
+	}
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -100,6 +101,20 @@ public class TableStatsTest extends SimpleDbTestBase {
 		Assert.assertEquals(0, s.estimateTableCardinality(0.0));
 	}
 	
+	/**
+	 * Verify the distinct-value estimates, and the average selectivity of equality derived from them
+	 */
+	@Test public void estimateDistinctValuesTest() {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		for (int col = 0; col < 10; col++) {
+			HashSet<Integer> values = new HashSet<Integer>();
+			for (ArrayList<Integer> tuple : tuples)
+				values.add(tuple.get(col));
+			Assert.assertEquals(values.size(), s.estimateDistinctValues(col), 1);
+			Assert.assertEquals(1.0 / s.estimateDistinctValues(col), s.avgSelectivity(col, Predicate.Op.EQUALS), 0.0001);
+		}
+	}
+
 	/**
 	 * Verify that selectivity estimates do something reasonable.
 	 * Don't bother splitting this into N different functions for
@@ -123,12 +138,19 @@ public class TableStatsTest extends SimpleDbTestBase {
 		for (int col = 0; col < 10; col++) {
 			//System.out.println(col);
 
+			// the histogram knows how common a value is, rather than assuming 1/32 of the tuples
+			int matches = 0;
+			for (ArrayList<Integer> tuple : tuples)
+				if (tuple.get(col) == maxCellVal/2)
+					matches++;
+			double frequency = (double) matches / tuples.size();
+
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.EQUALS, aboveMax), 0.001);			
-			Assert.assertEquals(1.0/32.0, s.estimateSelectivity(col, Predicate.Op.EQUALS, halfMaxMin), 0.015);
+			Assert.assertEquals(frequency, s.estimateSelectivity(col, Predicate.Op.EQUALS, halfMaxMin), 0.015);
 			Assert.assertEquals(0, s.estimateSelectivity(col, Predicate.Op.EQUALS, belowMin), 0.001);
 
 			Assert.assertEquals(1.0, s.estimateSelectivity(col, Predicate.Op.NOT_EQUALS, aboveMax), 0.001);
-			Assert.assertEquals(31.0/32.0, s.estimateSelectivity(col, Predicate.Op.NOT_EQUALS, halfMaxMin), 0.015);
+			Assert.assertEquals(1.0 - frequency, s.estimateSelectivity(col, Predicate.Op.NOT_EQUALS, halfMaxMin), 0.015);
 			Assert.assertEquals(1.0, s.estimateSelectivity(col, Predicate.Op.NOT_EQUALS, belowMin), 0.015);
 
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.GREATER_THAN, aboveMax), 0.001);
@@ -0,0 +1,128 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TopNTest extends SimpleDbTestBase {
+
+    private static ArrayList<String> drain(DbIterator it) throws Exception {
+        ArrayList<String> rows = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next().toString());
+        it.close();
+        return rows;
+    }
+
+    /**
+     * TopN returns the first n tuples of a full sort, ties in input order
+     */
+    @Test public void sameAsOrderBy() throws Exception {
+        Random r = new Random(7);
+        int[] data = new int[2 * 500];
+        for (int i = 0; i < 500; i++) {
+            data[2 * i] = r.nextInt(40);
+            data[2 * i + 1] = i;
+        }
+        DbIterator input = TestUtil.createTupleList(2, data);
+        for (boolean asc : new boolean[] { true, false }) {
+            ArrayList<String> sorted = drain(new OrderBy(0, asc, input));
+            for (int n : new int[] { 0, 1, 17, 500, 600 }) {
+                ArrayList<String> expected = new ArrayList<String>(sorted.subList(0, Math.min(n, sorted.size())));
+                assertEquals(expected, drain(new TopN(0, asc, n, input)));
+            }
+        }
+    }
+
+    /**
+     * Limit stops pulling tuples from its child once it has returned n
+     */
+    @Test public void earlyTermination() throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; i++)
+            tuples.add(Utility.getHeapTuple(i));
+        final int[] pulled = new int[1];
+        DbIterator input = new TupleIterator(Utility.getTupleDesc(1), tuples) {
+            private static final long serialVersionUID = 1L;
+
+            public Tuple next() {
+                pulled[0]++;
+                return super.next();
+            }
+        };
+        Limit limit = new Limit(10, new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(100)), input));
+        assertEquals(10, drain(limit).size());
+        assertEquals(111, pulled[0]);
+    }
+
+    /**
+     * LIMIT is parsed, and an ORDER BY with a LIMIT is planned as a TopN
+     */
+    @Test public void parseLimit() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 300, 1000, null, tuples, "c");
+        Database.getCatalog().addTable(table, "t");
+        TableStats.setTableStats("t", new TableStats(table.getId(), 1));
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        stats.put("t", TableStats.getTableStats("t"));
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM t ORDER BY t.c1 LIMIT 5;");
+        assertEquals(5, lp.getLimit());
+        DbIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(plan instanceof Limit);
+        assertTrue(((Operator) plan).getChildren()[0].getClass() == Project.class);
+        assertTrue(((Operator) ((Operator) plan).getChildren()[0]).getChildren()[0] instanceof TopN);
+
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (ArrayList<Integer> row : tuples)
+            expected.add(row.get(1));
+        java.util.Collections.sort(expected);
+        plan.open();
+        for (int i = 0; i < 5; i++)
+            assertEquals((int) expected.get(i), ((IntField) plan.next().getField(1)).getValue());
+        assertFalse(plan.hasNext());
+        plan.close();
+
+        lp = new Parser().generateLogicalPlan(tid, "SELECT * FROM t limit 7");
+        assertEquals(7, lp.getLimit());
+        assertEquals(7, drain(lp.physicalPlan(tid, stats, false)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Only a LIMIT ending the first statement, outside of quoted strings,
+     * is a LIMIT clause
+     */
+    @Test public void limitClause() throws Exception {
+        assertEquals(3, Parser.parseLimit("SELECT * FROM t WHERE t.s = 'a;' LIMIT 3;"));
+        assertEquals("SELECT * FROM t WHERE t.s = 'a;';", Parser.removeLimit("SELECT * FROM t WHERE t.s = 'a;' LIMIT 3;"));
+        assertEquals(-1, Parser.parseLimit("SELECT * FROM t WHERE t.s = 'x limit 4'"));
+        assertEquals(-1, Parser.parseLimit("SELECT * FROM t WHERE t.s = 'x limit 4;'"));
+        assertEquals(-1, Parser.parseLimit("SELECT * FROM t;\nSELECT * FROM u LIMIT 5;"));
+        assertEquals("SELECT * FROM t;\nSELECT * FROM u LIMIT 5;",
+                Parser.removeLimit("SELECT * FROM t;\nSELECT * FROM u LIMIT 5;"));
+        try {
+            Parser.parseLimit("SELECT * FROM t LIMIT 99999999999;");
+            fail("expected a ParsingException");
+        } catch (ParsingException e) {
+            // a LIMIT past the largest int is an error
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}
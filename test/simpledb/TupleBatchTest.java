@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+    private HeapFile table1;
+    private HeapFile table2;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        table1 = SystemTestUtil.createRandomHeapFile(3, 2500, 50, null, new ArrayList<ArrayList<Integer>>());
+        table2 = SystemTestUtil.createRandomHeapFile(2, 60, 50, null, new ArrayList<ArrayList<Integer>>());
+        tid = new TransactionId();
+    }
+
+    /** Drain it through nextBatch() into a TupleIterator. */
+    private static TupleIterator drainBatches(BatchDbIterator it) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        it.open();
+        TupleBatch batch;
+        while ((batch = it.nextBatch()) != null) {
+            assertTrue(batch.size() > 0);
+            assertTrue(batch.size() <= TupleBatch.DEFAULT_SIZE);
+            for (int i = 0; i < batch.size(); i++)
+                tuples.add(batch.getTuple(batch.row(i)));
+        }
+        it.close();
+        TupleIterator result = new TupleIterator(it.getTupleDesc(), tuples);
+        result.open();
+        return result;
+    }
+
+    private static int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.rewind();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.rewind();
+        return n;
+    }
+
+    /** The batches of actual hold the same tuples as expected. */
+    private static void assertSameTuples(DbIterator expected, BatchDbIterator actual) throws Exception {
+        TupleIterator batched = drainBatches(actual);
+        expected.open();
+        assertEquals(count(expected), count(batched));
+        TestUtil.matchAllTuples(expected, batched);
+        expected.close();
+    }
+
+    @Test public void seqScan() throws Exception {
+        assertSameTuples(new SeqScan(tid, table1.getId(), "t"), new SeqScan(tid, table1.getId(), "t"));
+    }
+
+    @Test public void filterProject() throws Exception {
+        ArrayList<Integer> fields = new ArrayList<Integer>();
+        fields.add(2);
+        fields.add(0);
+        Type[] types = new Type[] { Type.INT_TYPE, Type.INT_TYPE };
+        Predicate p1 = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(20));
+        Predicate p2 = new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(7));
+
+        DbIterator expected = new Project(fields, types,
+                new Filter(p2, new Filter(p1, new SeqScan(tid, table1.getId(), "t"))));
+        Project actual = new Project(fields, types,
+                new Filter(p2, new Filter(p1, new SeqScan(tid, table1.getId(), "t"))));
+        assertSameTuples(expected, actual);
+    }
+
+    @Test public void hashEquiJoin() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        Join expected = new Join(p, new SeqScan(tid, table2.getId(), "a"), new SeqScan(tid, table1.getId(), "b"));
+        HashEquiJoin actual = new HashEquiJoin(p, new SeqScan(tid, table2.getId(), "a"),
+                new SeqScan(tid, table1.getId(), "b"));
+        assertSameTuples(expected, actual);
+    }
+
+    @Test public void aggregate() throws Exception {
+        Aggregate expected = new Aggregate(new SeqScan(tid, table1.getId(), "t"), 1, 0, Aggregator.Op.SUM);
+        Aggregate actual = new Aggregate(new SeqScan(tid, table1.getId(), "t"), 1, 0, Aggregator.Op.SUM);
+        assertSameTuples(expected, actual);
+    }
+
+    @Test public void adapter() throws Exception {
+        TupleIterator source = TestUtil.createTupleList(2, new int[] { 1, 2, 3, 4, 5, 6 });
+        BatchDbIterator adapted = BatchAdapter.of(TestUtil.createTupleList(2, new int[] { 1, 2, 3, 4, 5, 6 }));
+        assertTrue(adapted instanceof BatchAdapter);
+        assertSameTuples(source, adapted);
+
+        SeqScan scan = new SeqScan(tid, table1.getId(), "t");
+        assertSame(scan, BatchAdapter.of(scan));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
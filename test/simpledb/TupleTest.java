@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -29,6 +30,56 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Int and string fields of a flat tuple are read back through getField
+     * and the primitive accessors, and unset fields are null
+     */
+    @Test public void flatFields() {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        Tuple tup = new Tuple(td);
+        assertNull(tup.getField(0));
+        assertNull(tup.getField(1));
+
+        tup.setField(0, new StringField("a", Type.STRING_LEN));
+        tup.setField(1, new IntField(5));
+        tup.setString(2, "b");
+        tup.setInt(3, -7);
+        assertEquals(new StringField("a", Type.STRING_LEN), tup.getField(0));
+        assertEquals(new IntField(5), tup.getField(1));
+        assertEquals("b", tup.getString(2));
+        assertEquals(-7, tup.getInt(3));
+        assertEquals(new IntField(-7), tup.getField(3));
+
+        tup.setField(1, null);
+        assertNull(tup.getField(1));
+        assertEquals("a\tnull\tb\t-7\t", tup.toString());
+    }
+
+    /**
+     * A joined tuple shows the fields of both tuples without copying them,
+     * until one of its own fields is set
+     */
+    @Test public void joinedView() {
+        Tuple left = Utility.getHeapTuple(new int[] { 1, 2 });
+        Tuple right = Utility.getHeapTuple(new int[] { 3, 4, 5 });
+        TupleDesc td = TupleDesc.merge(left.getTupleDesc(), right.getTupleDesc());
+        Tuple joined = Tuple.join(td, left, right);
+        assertEquals(td, joined.getTupleDesc());
+        for (int i = 0; i < 5; i++)
+            assertEquals(new IntField(i + 1), joined.getField(i));
+
+        // a view sees later changes of its inputs
+        right.setField(0, new IntField(30));
+        assertEquals(30, joined.getInt(2));
+
+        // setting a field of the view copies it, leaving the inputs alone
+        joined.setField(4, new IntField(50));
+        assertEquals(new IntField(50), joined.getField(4));
+        assertEquals(new IntField(5), right.getField(2));
+        left.setField(0, new IntField(10));
+        assertEquals(new IntField(1), joined.getField(0));
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
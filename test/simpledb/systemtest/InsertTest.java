@@ -68,6 +68,51 @@ public class InsertTest extends SimpleDbTestBase {
         validateInsert(1, 1, 1);
     }
 
+    /** Many rows fill the pages of the table, then are appended in new pages */
+    @Test public void testManyRows()
+            throws IOException, DbException, TransactionAbortedException {
+        validateInsert(2, 3 * Insert.BATCH_SIZE + 17, 10);
+    }
+
+    /** The pages appended by an insert reach the file only when it commits */
+    @Test public void testAbortedAppend()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> sourceTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile source = SystemTestUtil.createRandomHeapFile(2, 5000, null, sourceTuples);
+        ArrayList<ArrayList<Integer>> destinationTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile destination = SystemTestUtil.createRandomHeapFile(2, 10, null, destinationTuples);
+
+        long length = destination.getFile().length();
+        int pages = destination.numPages();
+        TransactionId tid = new TransactionId();
+        Insert insOp = new Insert(tid, new SeqScan(tid, source.getId(), ""), destination.getId());
+        insOp.open();
+        assertEquals(5000, ((IntField) insOp.next().getField(0)).getValue());
+        insOp.close();
+        int appended = destination.numPages();
+        assertTrue(appended > pages);
+        assertEquals(length, destination.getFile().length());
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(length, destination.getFile().length());
+        assertEquals(pages, destination.numPages());
+
+        SystemTestUtil.matchTuples(destination, destinationTuples);
+        // the same insert, committed, takes the same pages
+        validateInsertInto(source, destination, 5000);
+        assertEquals(appended, destination.numPages());
+        assertEquals((long) appended * BufferPool.PAGE_SIZE, destination.getFile().length());
+    }
+
+    private void validateInsertInto(HeapFile source, HeapFile destination, int rows)
+            throws IOException, DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        Insert insOp = new Insert(tid, new SeqScan(tid, source.getId(), ""), destination.getId());
+        insOp.open();
+        assertEquals(rows, ((IntField) insOp.next().getField(0)).getValue());
+        insOp.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(InsertTest.class);